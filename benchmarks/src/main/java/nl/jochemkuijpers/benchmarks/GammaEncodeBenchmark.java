@@ -0,0 +1,53 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.math.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gamma encoding and dithering of a tile worth of linear colors. One operation is one pixel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GammaEncodeBenchmark {
+    private static final int SIZE = 64;
+
+    private final Color[] colors = new Color[SIZE * SIZE];
+    private final int[] pixels = new int[SIZE * SIZE];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < colors.length; i++) {
+            // mostly in range, with some over-exposed values that have to be clamped
+            colors[i] = new Color(random.nextFloat() * 1.2f, random.nextFloat() * 1.2f, random.nextFloat() * 1.2f);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE * SIZE)
+    public int[] gammaEncode() {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                pixels[y * SIZE + x] = Color.gammaEncode(colors[y * SIZE + x], x, y);
+            }
+        }
+        return pixels;
+    }
+}
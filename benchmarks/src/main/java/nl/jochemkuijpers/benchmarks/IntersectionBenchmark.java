@@ -0,0 +1,88 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.math.Intersections;
+import nl.jochemkuijpers.math.Vector3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ray-shape intersection kernels, for rays that mostly hit or mostly miss the shape. One operation is one ray.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+    private static final int RAYS = 1024;
+
+    /** Whether the rays are aimed at the shape or around it */
+    @Param({ "hit", "miss" })
+    public String target;
+
+    private final Vector3 origin = new Vector3(0, 0, -10);
+    private final Vector3[] headings = new Vector3[RAYS];
+
+    private final Vector3 boxMin = new Vector3(-1, -1, -1);
+    private final Vector3 boxMax = new Vector3(1, 1, 1);
+    private final Vector3 sphereCenter = new Vector3(0, 0, 0);
+    private final Vector3 planePosition = new Vector3(0, -1, 0);
+    private final Vector3 planeNormal = new Vector3(0, 1, 0);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        // the shapes are about 0.1 wide as seen from the origin, misses go up to 0.5 sideways and upwards
+        float spread = "hit".equals(target) ? 0.08f : 0.5f;
+        for (int i = 0; i < RAYS; i++) {
+            float x = (random.nextFloat() * 2 - 1) * spread;
+            float y = "hit".equals(target) ? (random.nextFloat() * 2 - 1) * spread : random.nextFloat() * spread + 0.1f;
+            headings[i] = new Vector3(x, y, 1);
+            Vector3.normalize(headings[i], headings[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public float box() {
+        float sum = 0;
+        for (Vector3 heading : headings) {
+            sum += Intersections.box(origin, heading, boxMin, boxMax, 0, Float.POSITIVE_INFINITY);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public float sphere() {
+        float sum = 0;
+        for (Vector3 heading : headings) {
+            sum += Intersections.sphere(origin, heading, sphereCenter, 1f, 0, Float.POSITIVE_INFINITY);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public float plane() {
+        float sum = 0;
+        for (Vector3 heading : headings) {
+            sum += Intersections.plane(origin, heading, planePosition, planeNormal, 0, Float.POSITIVE_INFINITY);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,104 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+import nl.jochemkuijpers.workerpool.WorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tile throughput of the {@link WorkStealingPool} and of the {@link WorkerPool} it replaces, with its single
+ * locked queue that wakes every waiting thread on each submit. The tiles of a 1920×1080 frame are rendered with the
+ * cheap patched pass (quality 0), where the scheduling overhead matters the most. The WorkerPool gets the jobs one by
+ * one, as the application used to submit them, the WorkStealingPool as one batch. One operation is one frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({ "workerpool", "workstealing" })
+    public String pool;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    private WorkerPool lockedPool;
+    private WorkStealingPool stealingPool;
+    private Scene world;
+    private List<RenderTile> tiles;
+    private final FrameEpoch.Token epoch = new FrameEpoch().current();
+
+    @Setup
+    public void setUp() {
+        world = Scenes.create("stacked");
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        tiles = camera.getRenderTiles(new MemoryFrameBuffer(1920, 1080));
+
+        switch (pool) {
+            case "workerpool":
+                lockedPool = new WorkerPool(threads);
+                break;
+            case "workstealing":
+                stealingPool = new WorkStealingPool(threads);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown pool " + pool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (lockedPool != null) {
+            lockedPool.shutdownNow();
+        }
+        if (stealingPool != null) {
+            stealingPool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void frame() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(tiles.size());
+        List<Runnable> jobs = new ArrayList<>(tiles.size());
+        for (RenderTile tile : tiles) {
+            jobs.add(() -> {
+                tile.render(TraceContext.forCurrentThread(), world, 0, epoch);
+                done.countDown();
+            });
+        }
+
+        if (lockedPool != null) {
+            for (Runnable job : jobs) {
+                lockedPool.submit(job);
+            }
+        } else {
+            stealingPool.submitAll(jobs);
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,82 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.ComplexMaterial;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shading of a single hit on the floor in the middle of a scene by {@link ComplexMaterial}, including the shadow,
+ * reflection and refraction rays it casts into the scene. One operation is one shaded hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadingBenchmark {
+    @Param({ "stacked", "maze", "material" })
+    public String scene;
+
+    @Param({ "diffuse", "mirror", "glass" })
+    public String material;
+
+    private Scene world;
+    private ComplexMaterial shader;
+    private final TraceContext context = new TraceContext();
+    private final Ray ray = new Ray(0);
+    private final Vector3 hitPosition = new Vector3(1, 0, 1);
+    private final Vector3 position = new Vector3();
+    private final Vector3 normal = new Vector3(0, 1, 0);
+    private final Color color = new Color();
+
+    @Setup
+    public void setUp() {
+        world = Scenes.create(scene);
+
+        Vector3 sun = new Vector3(-1, 3, -2);
+        Vector3.normalize(sun, sun);
+        switch (material) {
+            case "diffuse":
+                shader = new ComplexMaterial(false, 1f, 1f, Color.GRAY, sun);
+                break;
+            case "mirror":
+                shader = new ComplexMaterial(false, 0.2f, 1f, Color.GRAY, sun);
+                break;
+            default:
+                shader = new ComplexMaterial(true, 0.1f, 1.5f, Color.AQUA, sun);
+                break;
+        }
+
+        // look down on the hit from the usual camera position
+        ray.getOrigin().set(-7, 4, -15);
+        Vector3.sub(hitPosition, ray.getOrigin(), ray.getHeading());
+        Vector3.normalize(ray.getHeading(), ray.getHeading());
+    }
+
+    @Benchmark
+    public Color queryColor() {
+        // the material moves the position off the surface, so restore it every time
+        position.set(hitPosition);
+        color.set(0, 0, 0);
+        shader.queryColor(context, ray, world, position, normal, color);
+        return color;
+    }
+}
@@ -0,0 +1,71 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the center tile of a 1280×720 frame from the initial camera position of the application, on a single
+ * thread. One operation is one pass over the tile, started from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileBenchmark {
+    @Param({ "stacked", "maze", "material" })
+    public String scene;
+
+    /** The resolution factor of the pass, see {@link RenderTile#render} */
+    @Param({ "0", "1", "4" })
+    public int quality;
+
+    @Param({ "adaptive", "uniform" })
+    public String sampling;
+
+    private Scene world;
+    private RenderTile tile;
+    private AdaptiveSampling samplingPolicy;
+    private final TraceContext context = new TraceContext();
+    private final FrameEpoch.Token epoch = new FrameEpoch().current();
+
+    @Setup
+    public void setUp() {
+        world = Scenes.create(scene);
+        samplingPolicy = "uniform".equals(sampling) ? AdaptiveSampling.UNIFORM : AdaptiveSampling.DEFAULT;
+
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        new CameraController(camera, 25, new Vector3(0, -2, 0)).setInitialCamera();
+        // tiles are sorted by their distance to the center of the frame
+        tile = camera.getRenderTiles(new MemoryFrameBuffer(1280, 720)).get(0);
+    }
+
+    @Benchmark
+    public RenderTile render() {
+        tile.clearSamples();
+        tile.render(context, world, quality, samplingPolicy, epoch);
+        return tile;
+    }
+}
@@ -0,0 +1,145 @@
+package nl.jochemkuijpers.benchmarks;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.acceleration.ShapeHierarchy;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import nl.jochemkuijpers.raytrace.shapes.with_material.BoxSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Sphere;
+import nl.jochemkuijpers.raytrace.shapes.with_material.SphereSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.TriangleMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The traversal of a bounding volume hierarchy, by each of the shapes that have one: a hierarchy of sphere shapes, a
+ * sphere set, a box set and a triangle mesh. Each holds as many primitives, scattered through a cube that the rays
+ * cross. One operation is one ray.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBenchmark {
+    private static final int RAYS = 4096;
+
+    @Param({ "hierarchy", "spheres", "boxes", "mesh" })
+    public String shape;
+
+    @Param({ "20000" })
+    public int primitives;
+
+    private Shape traversed;
+    private final Ray[] rays = new Ray[RAYS];
+    private final TraceContext context = new TraceContext();
+    private final Hit hit = new Hit();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        Material[] table = { new SimpleMaterial(Color.WHITE) };
+        int[] materials = new int[primitives];
+
+        float[] spheres = new float[4 * primitives];
+        float[] boxes = new float[6 * primitives];
+        float[] vertices = new float[9 * primitives];
+        int[] indices = new int[3 * primitives];
+        List<Shape> members = new ArrayList<>(primitives);
+        for (int i = 0; i < primitives; i++) {
+            float x = random.nextFloat() * 100, y = random.nextFloat() * 100, z = random.nextFloat() * 100;
+            float size = 0.2f + random.nextFloat();
+            spheres[4 * i] = x;
+            spheres[4 * i + 1] = y;
+            spheres[4 * i + 2] = z;
+            spheres[4 * i + 3] = size;
+            members.add(new Sphere(new Vector3(x, y, z), size, table[0]));
+            boxes[6 * i] = x;
+            boxes[6 * i + 1] = y;
+            boxes[6 * i + 2] = z;
+            boxes[6 * i + 3] = x + size;
+            boxes[6 * i + 4] = y + size;
+            boxes[6 * i + 5] = z + size;
+            for (int corner = 0; corner < 3; corner++) {
+                vertices[9 * i + 3 * corner] = x + random.nextFloat() * 2 * size;
+                vertices[9 * i + 3 * corner + 1] = y + random.nextFloat() * 2 * size;
+                vertices[9 * i + 3 * corner + 2] = z + random.nextFloat() * 2 * size;
+                indices[3 * i + corner] = 3 * i + corner;
+            }
+        }
+
+        switch (shape) {
+            case "hierarchy":
+                traversed = new ShapeHierarchy(members, new ArrayList<>());
+                break;
+            case "spheres":
+                traversed = new SphereSet(spheres, materials, table);
+                break;
+            case "boxes":
+                traversed = new BoxSet(boxes, materials, table);
+                break;
+            case "mesh":
+                traversed = new TriangleMesh(vertices, indices, table[0]);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+
+        // rays from just outside the cube through a random point inside it
+        for (int i = 0; i < RAYS; i++) {
+            Vector3 origin = new Vector3(-10 + random.nextFloat() * 120, -10 + random.nextFloat() * 120, -10);
+            Vector3 heading = new Vector3(random.nextFloat() * 100 - origin.x, random.nextFloat() * 100 - origin.y,
+                    random.nextFloat() * 100 - origin.z);
+            Vector3.normalize(heading, heading);
+            rays[i] = new Ray(0, origin, heading);
+        }
+    }
+
+    /** The closest hit, as for camera and secondary rays */
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public int intersect() {
+        int found = 0;
+        for (Ray ray : rays) {
+            hit.reset();
+            if (traversed.intersect(context, ray, hit)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /** Any hit within a distance, as for shadow rays */
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public int occludes() {
+        int found = 0;
+        for (Ray ray : rays) {
+            if (traversed.occludes(context, ray, 100f)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -1,47 +1,112 @@
 package nl.jochemkuijpers.app;
 
-import nl.jochemkuijpers.app.scenes.MaterialTestScene;
-import nl.jochemkuijpers.app.scenes.MazeScene;
-import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.app.distributed.RenderCoordinator;
+import nl.jochemkuijpers.app.monitoring.Monitoring;
+import nl.jochemkuijpers.app.scenes.FileScene;
+import nl.jochemkuijpers.app.scenes.SceneFile;
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.app.scenes.SimpleScene;
 import nl.jochemkuijpers.app.window.InputCapturer;
 import nl.jochemkuijpers.app.window.ApplicationEvent;
 import nl.jochemkuijpers.app.window.Window;
 import nl.jochemkuijpers.math.Vector3;
 import nl.jochemkuijpers.raytrace.Camera;
-import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.CostMetric;
 import nl.jochemkuijpers.raytrace.renderer.FrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.FrameHistory;
+import nl.jochemkuijpers.raytrace.renderer.GBuffer;
+import nl.jochemkuijpers.raytrace.renderer.PassPipeline;
 import nl.jochemkuijpers.raytrace.renderer.RenderTile;
-import nl.jochemkuijpers.workerpool.WorkerPool;
+import nl.jochemkuijpers.raytrace.renderer.Surface;
+import nl.jochemkuijpers.raytrace.renderer.TileCost;
+import nl.jochemkuijpers.workerpool.JobScheduler;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
 
 import java.awt.event.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 
 public class Application {
+    /**
+     * The previous frame is only reprojected if this fraction of the pixels can be reused, below that tracing the rest
+     * takes longer than the low resolution first pass
+     */
+    private static final float MIN_REPROJECTED_COVERAGE = 0.5f;
+
+    /** Whether to keep a G-buffer of the camera ray hits, so that moving the sun skips all camera ray intersections */
+    private static final boolean USE_G_BUFFER = Boolean.getBoolean("raytracer.gBuffer");
+
+    /**
+     * The render workers to render on instead of the local worker pool, as <code>host:port,host:port,...</code>, see
+     * {@link RenderCoordinator}
+     */
+    private static final String WORKERS = System.getProperty("raytracer.workers");
+
+    /** The resolution of the shadow maps of the sun, 0 to trace all shadow rays, see {@link SimpleScene} */
+    private static final int SHADOW_MAP_RESOLUTION = Integer.getInteger("raytracer.shadowMap", 0);
+
+    /** Whether to trace the samples of the passes in batches, breadth-first, see {@link RenderTile#setWavefront} */
+    private static final boolean WAVEFRONT = Boolean.getBoolean("raytracer.wavefront");
+
+    /** A scene file to show after the built-in scenes, see {@link SceneFile} */
+    private static final String SCENE_FILE = System.getProperty("raytracer.scene");
+
+    /** How far the sun moves around the vertical axis per key press */
+    private static final float SUN_STEP = (float) Math.toRadians(15);
+
     private Window window;
     private FrameBuffer frameBuffer;
     private List<RenderTile> renderTiles;
+    /** The history of the current frame, reprojected into the next one when only the camera changes */
+    private FrameHistory history;
+    /** The G-buffer of the current view, kept while only the shading changes; null if there is none */
+    private GBuffer gBuffer;
+    private final FrameEpoch frameEpoch;
 
-    private final WorkerPool workerPool;
+    private final JobScheduler workerPool;
+    private final PassPipeline pipeline;
+    /** Renders on the render workers instead of the pipeline, null if there are none */
+    private RenderCoordinator coordinator;
     private final Deque<ApplicationEvent> applicationEvents;
+    private Monitoring monitoring;
 
     private Camera camera;
     private CameraController cameraController;
-    private Scene[] scenes;
+    private SimpleScene[] scenes;
+    /** The names the render workers know the scenes by, see {@link nl.jochemkuijpers.app.scenes.Scenes} */
+    private String[] sceneNames;
     private int sceneIndex = 0;
 
-    private int qualityIndex = 0;
-    private int[] qualities = { 0, 1, 4 };
+    private final int[] qualities = { 0, 1, 2, 4 };
+    /** When not null, a heatmap of this cost is rendered instead of the quality passes */
+    private CostMetric heatmap = null;
+
+    // the loop sleeps on the event queue until any of these is set, or an event is queued; guarded by that queue
     private boolean needsResize = false;
+    /** A new frame buffer starts out dirty, so its listener is not called until it has been repainted once */
+    private boolean needsRepaint = true;
+
+    /** Repaints are no more frequent than the display can show them */
+    private volatile long repaintIntervalNanos;
+    private long lastRepaint;
 
     private boolean running;
 
     public Application() {
         applicationEvents = new LinkedList<>();
+        frameEpoch = new FrameEpoch();
 
         // assumption is that hyper threading is enabled; floating point instructions don't benefit from that
         // and since we're constrained by floating point computation, SMT will slow things down, so we only use
         // half of the logical processors available.
-        workerPool = new WorkerPool(Runtime.getRuntime().availableProcessors() / 2);
+        workerPool = new WorkStealingPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        pipeline = new PassPipeline(workerPool, qualities, AdaptiveSampling.DEFAULT);
     }
 
     public static void main(String[] args) {
@@ -60,17 +125,50 @@ public class Application {
         final int height = 720;
         window = new Window(width, height);
         frameBuffer = window.getFrameBuffer();
+        monitoring = Monitoring.start(workerPool);
 
         camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
         cameraController = new CameraController(camera, 25, new Vector3(0, -2, 0));
         cameraController.setInitialCamera();
 
         sceneIndex = 0;
-        scenes = new Scene[] {
-                new StackedShapeScene(),
-                new MazeScene(),
-                new MaterialTestScene()
-        };
+        sceneNames = Scenes.getNames().toArray(new String[0]);
+        scenes = new SimpleScene[sceneNames.length];
+        for (int i = 0; i < scenes.length; i++) {
+            scenes[i] = Scenes.create(sceneNames[i]);
+        }
+        if (SCENE_FILE != null) {
+            try {
+                FileScene scene = FileScene.load(new File(SCENE_FILE));
+                scene.printLoadTime(System.out, SCENE_FILE);
+                scenes = Arrays.copyOf(scenes, scenes.length + 1);
+                scenes[scenes.length - 1] = scene;
+                sceneNames = Arrays.copyOf(sceneNames, sceneNames.length + 1);
+                sceneNames[sceneNames.length - 1] = SCENE_FILE;
+            } catch (IOException e) {
+                System.err.println("Could not load " + SCENE_FILE + ": " + e.getMessage());
+            }
+        }
+        for (SimpleScene scene : scenes) {
+            scene.setShadowMapResolution(SHADOW_MAP_RESOLUTION);
+        }
+
+        if (WORKERS != null) {
+            try {
+                coordinator = new RenderCoordinator(RenderCoordinator.parseAddresses(WORKERS), qualities,
+                        AdaptiveSampling.DEFAULT);
+                coordinator.setShadowMapResolution(SHADOW_MAP_RESOLUTION);
+                coordinator.setWavefront(WAVEFRONT);
+                coordinator.setLostListener(() -> {
+                    synchronized (applicationEvents) {
+                        applicationEvents.add(new ApplicationEvent(ApplicationEvent.Type.WORKERS_LOST));
+                        applicationEvents.notifyAll();
+                    }
+                });
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not reach the render workers, rendering locally: " + e.getMessage());
+            }
+        }
 
         InputCapturer inputCapturer = new InputCapturer(applicationEvents);
         window.addKeyListener(inputCapturer);
@@ -79,41 +177,103 @@ public class Application {
             public void componentResized(ComponentEvent e) {
                 if (e.getComponent().getWidth() != frameBuffer.getFrameWidth() ||
                         e.getComponent().getHeight() != frameBuffer.getFrameHeight()) {
-                    needsResize = true;
+                    synchronized (applicationEvents) {
+                        needsResize = true;
+                        applicationEvents.notifyAll();
+                    }
                 }
             }
             @Override
-            public void componentMoved(ComponentEvent e) { }
+            public void componentMoved(ComponentEvent e) {
+                // the window may have moved to a display with another refresh rate
+                repaintIntervalNanos = 1_000_000_000L / window.getRefreshRate();
+            }
             @Override
             public void componentShown(ComponentEvent e) { }
             @Override
             public void componentHidden(ComponentEvent e) { }
         });
+
+        // render jobs wake the loop when they change a clean frame buffer
+        window.setChangeListener(() -> {
+            synchronized (applicationEvents) {
+                needsRepaint = true;
+                applicationEvents.notifyAll();
+            }
+        });
+        repaintIntervalNanos = 1_000_000_000L / window.getRefreshRate();
+        lastRepaint = System.nanoTime() - repaintIntervalNanos;
     }
 
     private void loop() {
         running = true;
 
+        // the first frame starts right away, after that the loop only wakes up for events
+        ensureRenderJobs(false);
+
         boolean mustReset;
         while (running) {
             try {
-                Thread.sleep(10);
+                awaitWork();
             } catch (InterruptedException ignored) {
                 break;
             }
 
-            window.repaint();
-
+            // input is handled as soon as it arrives, the frame buffer is repainted once per display refresh
             mustReset = handleEvents();
             ensureRenderJobs(mustReset);
+            repaintIfDue();
+        }
+    }
+
+    /**
+     * Sleeps until there is an event to handle, or until the frame buffer has changed and the next display refresh
+     * is due. An idle viewer does not wake up at all.
+     */
+    private void awaitWork() throws InterruptedException {
+        synchronized (applicationEvents) {
+            while (applicationEvents.isEmpty() && !needsResize) {
+                if (!needsRepaint) {
+                    applicationEvents.wait();
+                    continue;
+                }
+                long remaining = lastRepaint + repaintIntervalNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                applicationEvents.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+    }
+
+    private void repaintIfDue() {
+        long now = System.nanoTime();
+        synchronized (applicationEvents) {
+            if (!needsRepaint || now - lastRepaint < repaintIntervalNanos) {
+                return;
+            }
+            // cleared before the changed region is taken, so a change after that sets it again
+            needsRepaint = false;
         }
+        lastRepaint = now;
+        window.repaintChanged();
     }
 
     private boolean handleEvents() {
         boolean mustReset = false;
-        if (needsResize) {
+        boolean resize;
+        synchronized (applicationEvents) {
+            resize = needsResize;
             needsResize = false;
+        }
+        if (resize) {
+            // cancel the current frame first, so no tile of the old size writes to the resized frame buffer
+            frameEpoch.advance();
             window.resizeFrameBuffer();
+            gBuffer = null;
+            synchronized (applicationEvents) {
+                needsRepaint = true;
+            }
             mustReset = true;
         }
 
@@ -142,16 +302,40 @@ public class Application {
                         break;
                     case PREV_SCENE:
                         sceneIndex = (sceneIndex + scenes.length - 1) % scenes.length;
+                        history = null;
+                        gBuffer = null;
                         mustReset = true;
                         break;
                     case NEXT_SCENE:
                         sceneIndex = (sceneIndex + scenes.length + 1) % scenes.length;
+                        history = null;
+                        gBuffer = null;
+                        mustReset = true;
+                        break;
+                    case NEXT_HEATMAP:
+                        nextHeatmap();
+                        mustReset = true;
+                        break;
+                    case EXPORT_TILE_COSTS:
+                        exportTileCosts(new File("tile-costs.csv"));
+                        break;
+                    case MOVE_SUN:
+                        // the camera rays still hit the same things, only their colors are out of date. Cancel
+                        // the frame first, so none of its jobs writes a color shaded with a partly rotated sun
+                        frameEpoch.advance();
+                        scenes[sceneIndex].rotateSun(SUN_STEP);
+                        history = null;
+                        mustReset = true;
+                        break;
+                    case WORKERS_LOST:
+                        // the frame that was being rendered on the workers is started again locally
                         mustReset = true;
                         break;
                 }
 
                 if (camx != 0 || camy != 0) {
                     cameraController.move(camx, camy);
+                    gBuffer = null;
                     mustReset = true;
                 }
             }
@@ -161,30 +345,105 @@ public class Application {
 
     private void ensureRenderJobs(boolean reset) {
         if (reset || renderTiles == null) {
+            // running jobs of the previous frame stop by themselves once they see they belong to an old epoch
+            FrameEpoch.Token epoch = frameEpoch.advance();
             workerPool.clearPendingJobs();
-            workerPool.interruptCurrentJobs();
-            qualityIndex = 0;
-            renderTiles = camera.getRenderTiles(frameBuffer);
+            if (coordinator != null && coordinator.getWorkerCount() == 0) {
+                System.err.println("All render workers were lost, rendering locally");
+                coordinator.close();
+                coordinator = null;
+            }
+            Surface surface = frameBuffer.getSurface();
+            if (USE_G_BUFFER && coordinator == null && gBuffer == null) {
+                gBuffer = new GBuffer(surface.getWidth(), surface.getHeight());
+            }
+            renderTiles = camera.getRenderTiles(frameBuffer, gBuffer);
+            for (RenderTile tile : renderTiles) {
+                tile.setWavefront(WAVEFRONT);
+            }
+            if (heatmap != null) {
+                history = null;
+                pipeline.startHeatmap(renderTiles, scenes[sceneIndex], heatmap, epoch);
+            } else if (coordinator != null) {
+                // the workers keep no history, every frame starts with the low resolution first pass
+                history = null;
+                coordinator.start(renderTiles, sceneNames[sceneIndex], scenes[sceneIndex].getSunVector(), epoch);
+            } else {
+                history = nextHistory(epoch);
+                pipeline.start(renderTiles, scenes[sceneIndex], history, epoch);
+            }
         }
+    }
 
-        // don't add new work before the workerpool is done, otherwise they might finish out of order
-        if (workerPool.hasWork() || qualityIndex >= qualities.length ) {
-            return;
+    /**
+     * The old frame is done writing to its history once the epoch has advanced.
+     *
+     * @return the history of the previous frame reprojected into the current view, which is shown right away, or an
+     * empty history if there is no previous frame of the same scene and size, or too little of it can be reused
+     */
+    private FrameHistory nextHistory(FrameEpoch.Token epoch) {
+        Surface surface = frameBuffer.getSurface();
+        if (history != null && history.getWidth() == surface.getWidth()
+                && history.getHeight() == surface.getHeight()) {
+            FrameHistory reprojected = history.reproject(camera);
+            if (reprojected.getCoverage() >= MIN_REPROJECTED_COVERAGE && epoch.beginWrite()) {
+                try {
+                    reprojected.writeTo(surface);
+                } finally {
+                    epoch.endWrite();
+                }
+                return reprojected;
+            }
+        }
+        return new FrameHistory(camera, surface.getWidth(), surface.getHeight());
+    }
+
+    /** Switches from the normal render to a heatmap of every cost metric in turn, and back */
+    private void nextHeatmap() {
+        CostMetric[] metrics = CostMetric.values();
+        int next = heatmap == null ? 0 : heatmap.ordinal() + 1;
+        heatmap = next < metrics.length ? metrics[next] : null;
+
+        if (heatmap == null) {
+            System.out.println("Heatmap off");
+        } else if (heatmap == CostMetric.INTERSECTIONS && !TraceCounters.COUNT_INTERSECTIONS) {
+            System.out.println("Heatmap: intersections, these are only counted with "
+                    + "-Draytracer.countIntersections=true");
+        } else {
+            System.out.println("Heatmap: " + heatmap.name().toLowerCase(Locale.ROOT));
         }
+    }
 
+    /** Writes the cost of every tile of the current heatmap */
+    private void exportTileCosts(File file) {
+        List<TileCost> costs = new ArrayList<>();
         for (RenderTile tile : renderTiles) {
-            final int quality = qualities[qualityIndex];
-            final Scene scene = scenes[sceneIndex];
-            workerPool.submit(() -> {
-                tile.render(scene, quality);
-            });
+            if (tile.getCost() != null) {
+                costs.add(tile.getCost());
+            }
+        }
+        if (costs.isEmpty()) {
+            System.out.println("No tile costs to export, render a heatmap first");
+            return;
+        }
+
+        try (Writer out = new FileWriter(file)) {
+            TileCost.writeCsv(costs, out);
+            System.out.println("Wrote the costs of " + costs.size() + " tiles to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Could not write " + file + ": " + e.getMessage());
         }
-        qualityIndex++;
     }
 
     private void exit() {
         window.dispose();
         workerPool.shutdownNow();
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        if (monitoring != null) {
+            monitoring.stop();
+        }
     }
 
 }
@@ -0,0 +1,130 @@
+package nl.jochemkuijpers.app.distributed;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The messages between a {@link RenderCoordinator} and its {@link RenderWorker}s, written with {@link DataOutput}.
+ *
+ * Right after connecting, the worker sends {@link #MAGIC} and its number of render threads. After that, every message
+ * starts with its type:
+ *
+ * - {@link #FRAME}: the frame number, the scene name, the direction towards the sun, the sampling policy, the
+ *   resolution factor of every pass, the resolution of the shadow map of the sun (0 for none) and whether to trace
+ *   wavefront. The worker cancels everything of earlier frames.
+ * - {@link #TILE}: the frame number, the tile number, the first pass to render, the tile size and the view of the tile,
+ *   see {@link nl.jochemkuijpers.raytrace.renderer.RenderTile#writeView(DataOutput)}. The worker renders that pass and
+ *   all later ones.
+ * - {@link #RESULT}, from the worker: the frame number, the tile number, the pass and the pixels of the tile, see
+ *   {@link #compress(int[])}.
+ */
+final class Protocol {
+    /** "RTW2", the protocol and its version */
+    static final int MAGIC = 0x52545732;
+
+    static final int FRAME = 1;
+    static final int TILE = 2;
+    static final int RESULT = 3;
+
+    /** The largest compressed pass a worker may send, far more than the pixels of any tile deflate to */
+    static final int MAX_RESULT_SIZE = 64 << 20;
+
+    private Protocol() { }
+
+    static void writeSampling(DataOutput out, AdaptiveSampling sampling) throws IOException {
+        out.writeFloat(sampling.getContrastThreshold());
+        out.writeFloat(sampling.getErrorThreshold());
+        out.writeInt(sampling.getMinSamples());
+    }
+
+    static AdaptiveSampling readSampling(DataInput in) throws IOException {
+        return new AdaptiveSampling(in.readFloat(), in.readFloat(), in.readInt());
+    }
+
+    static void writeVector(DataOutput out, Vector3 vector) throws IOException {
+        out.writeFloat(vector.x);
+        out.writeFloat(vector.y);
+        out.writeFloat(vector.z);
+    }
+
+    static Vector3 readVector(DataInput in) throws IOException {
+        return new Vector3(in.readFloat(), in.readFloat(), in.readFloat());
+    }
+
+    static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static int[] readInts(DataInput in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Packs opaque ARGB pixels into 3 bytes each and deflates them. Early passes consist of large patches of a single
+     * color, which deflate to almost nothing.
+     */
+    static byte[] compress(int[] pixels) {
+        byte[] rgb = new byte[3 * pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            rgb[3 * i] = (byte) (pixels[i] >> 16);
+            rgb[3 * i + 1] = (byte) (pixels[i] >> 8);
+            rgb[3 * i + 2] = (byte) pixels[i];
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(rgb);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rgb.length / 4);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Unpacks the pixels packed by {@link #compress(int[])} */
+    static int[] decompress(byte[] data, int count) throws IOException {
+        byte[] rgb = new byte[3 * count];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < rgb.length && !inflater.finished()) {
+                int read = inflater.inflate(rgb, length, rgb.length - length);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != rgb.length) {
+                throw new IOException("Expected " + count + " pixels, got " + length / 3);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt pixel data", e);
+        } finally {
+            inflater.end();
+        }
+
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = 0xFF000000 | (rgb[3 * i] & 0xFF) << 16 | (rgb[3 * i + 1] & 0xFF) << 8 | (rgb[3 * i + 2] & 0xFF);
+        }
+        return pixels;
+    }
+}
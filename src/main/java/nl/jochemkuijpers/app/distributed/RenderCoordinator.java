@@ -0,0 +1,425 @@
+package nl.jochemkuijpers.app.distributed;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Renders frames on {@link RenderWorker}s in other processes, instead of on the local worker pool. The tiles of a frame
+ * are dealt out over the workers in proportion to their number of threads. A worker renders all passes of the tiles it
+ * gets, and the coordinator writes the pixels of every pass to the tile's place in the frame.
+ *
+ * Starting a new frame cancels the previous one on all workers, and results of earlier frames are dropped. When a
+ * worker is lost, the passes it had not finished yet are given to the other workers.
+ *
+ * Messages to a worker are queued while holding the lock of the coordinator, in the order of the frame state they
+ * describe, and written to the socket after the lock is released. A slow worker then does not hold up the threads that
+ * read the results of the others.
+ */
+public class RenderCoordinator implements Closeable {
+    private final int[] qualities;
+    private final AdaptiveSampling sampling;
+
+    // the workers, the render settings and the current frame, guarded by this
+    private final List<Connection> connections = new ArrayList<>();
+    private int shadowMapResolution;
+    private boolean wavefront;
+    private int frame = 0;
+    private String sceneName;
+    private final Vector3 sunVector = new Vector3();
+    private FrameEpoch.Token epoch;
+    private List<RenderTile> tiles;
+    /** Per tile, the number of passes that have been written */
+    private int[] passesDone;
+    /** Per tile, the worker that renders it */
+    private Connection[] owners;
+    private int tilesLeft;
+    /** Called once the last worker is lost, may be null */
+    private Runnable lostListener;
+
+    /**
+     * Connects to all workers.
+     *
+     * @param qualities the resolution factor of every pass, see {@link RenderTile#render}
+     * @param sampling decides which pixels get the samples of the super-sampling passes
+     * @throws IOException if a worker could not be reached
+     */
+    public RenderCoordinator(List<InetSocketAddress> workers, int[] qualities, AdaptiveSampling sampling)
+            throws IOException {
+        this.qualities = qualities.clone();
+        this.sampling = sampling;
+
+        try {
+            for (InetSocketAddress address : workers) {
+                Connection connection = new Connection(address);
+                synchronized (this) {
+                    connections.add(connection);
+                }
+                connection.reader.start();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a list of workers as <code>host:port,host:port,...</code>.
+     *
+     * @throws IllegalArgumentException if a worker has no valid port
+     */
+    public static List<InetSocketAddress> parseAddresses(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : list.split(",")) {
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected a worker as HOST:PORT: " + worker);
+            }
+            addresses.add(new InetSocketAddress(worker.substring(0, colon).trim(),
+                    Integer.parseInt(worker.substring(colon + 1).trim())));
+        }
+        return addresses;
+    }
+
+    /**
+     * Sets a listener that is called when the last worker has been lost. It is called from the thread that noticed,
+     * without holding any lock of the coordinator.
+     */
+    public synchronized void setLostListener(Runnable listener) {
+        lostListener = listener;
+    }
+
+    /** @return the number of workers that are still connected */
+    public synchronized int getWorkerCount() {
+        return connections.size();
+    }
+
+    /**
+     * Makes the workers look up the shadows of the sun in a shadow map, from the next frame on. Every worker builds the
+     * map of its own scene, see {@link nl.jochemkuijpers.app.scenes.SimpleScene#setShadowMapResolution(int)}.
+     *
+     * @param resolution the number of texels along each side of the map, or 0 to trace every shadow ray
+     */
+    public synchronized void setShadowMapResolution(int resolution) {
+        shadowMapResolution = resolution;
+    }
+
+    /** Makes the workers trace their samples in batches, breadth-first, from the next frame on */
+    public synchronized void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    /**
+     * Starts rendering a new frame on the workers, which cancels the previous one. The workers must have a scene of
+     * this name, see {@link nl.jochemkuijpers.app.scenes.Scenes}. Its sun is pointed in the given direction first, so
+     * a sun that was moved locally shades the tiles of the workers the same.
+     *
+     * @param sunVector the (unit length) direction towards the sun of the scene
+     * @param epoch the frame epoch of the tiles, their pixels are only written while it is current
+     */
+    public void start(List<RenderTile> tiles, String sceneName, Vector3 sunVector, FrameEpoch.Token epoch) {
+        List<Connection> sending;
+        synchronized (this) {
+            frame++;
+            this.sceneName = sceneName;
+            this.sunVector.set(sunVector);
+            this.epoch = epoch;
+            this.tiles = new ArrayList<>(tiles);
+            passesDone = new int[tiles.size()];
+            owners = new Connection[tiles.size()];
+            tilesLeft = tiles.size();
+
+            for (Connection connection : connections) {
+                connection.assigned = 0;
+                connection.queueFrame();
+            }
+
+            List<Integer> all = new ArrayList<>(tiles.size());
+            for (int tileId = 0; tileId < tiles.size(); tileId++) {
+                all.add(tileId);
+            }
+            assign(all);
+            sending = new ArrayList<>(connections);
+            notifyAll();
+        }
+        send(sending);
+    }
+
+    /**
+     * Waits until all passes of all tiles of the current frame have been written.
+     *
+     * @param timeoutMillis the maximum time to wait, 0 to wait for as long as it takes
+     * @return whether the frame is done, false if the time ran out
+     * @throws IOException if all workers were lost before the frame was done
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized boolean awaitFrame(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (tilesLeft > 0) {
+            if (connections.isEmpty()) {
+                throw new IOException("All render workers were lost");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeoutMillis == 0) {
+                wait();
+            } else if (remaining > 0) {
+                wait(remaining);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Disconnects from all workers, which cancels what they were rendering */
+    @Override
+    public void close() {
+        List<Connection> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(connections);
+            connections.clear();
+            notifyAll();
+        }
+        for (Connection connection : closing) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Gives each tile to the worker with the fewest tiles per thread, and queues the unfinished passes for it. Must be
+     * called while holding the lock.
+     */
+    private void assign(List<Integer> tileIds) {
+        for (int tileId : tileIds) {
+            Connection owner = null;
+            for (Connection connection : connections) {
+                if (owner == null || connection.assigned * owner.threads < owner.assigned * connection.threads) {
+                    owner = connection;
+                }
+            }
+            if (owner == null) {
+                return;
+            }
+
+            owners[tileId] = owner;
+            owner.assigned++;
+            owner.queueTile(tileId);
+        }
+    }
+
+    /**
+     * Writes the queued messages of the workers. Must be called without holding the lock. A worker that cannot be
+     * written to is lost, which hands its tiles on to the next workers.
+     */
+    private void send(List<Connection> sending) {
+        for (Connection connection : sending) {
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                lost(connection, e);
+            }
+        }
+    }
+
+    /** Forgets a worker that went away, and gives its unfinished tiles to the others */
+    private void lost(Connection connection, IOException cause) {
+        List<Connection> sending;
+        Runnable listener = null;
+        synchronized (this) {
+            if (!connections.remove(connection)) {
+                return;
+            }
+            connection.close();
+            System.err.println("Lost render worker " + connection.address + ": " + cause);
+
+            if (tiles != null) {
+                List<Integer> orphans = new ArrayList<>();
+                for (int tileId = 0; tileId < owners.length; tileId++) {
+                    if (owners[tileId] == connection && passesDone[tileId] < qualities.length) {
+                        orphans.add(tileId);
+                    }
+                }
+                assign(orphans);
+            }
+            if (connections.isEmpty()) {
+                listener = lostListener;
+            }
+            sending = new ArrayList<>(connections);
+            notifyAll();
+        }
+        send(sending);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Writes the pixels of a pass to the frame, unless the pass belongs to an earlier frame.
+     *
+     * @throws IOException if the worker sent a result that no frame asked for
+     */
+    private void receive(Connection connection, int resultFrame, int tileId, int pass, byte[] data)
+            throws IOException {
+        RenderTile tile;
+        FrameEpoch.Token resultEpoch;
+        synchronized (this) {
+            if (resultFrame != frame) {
+                return;
+            }
+            if (tiles == null) {
+                throw new IOException("Result for frame " + resultFrame + " before any frame was started");
+            }
+            if (tileId < 0 || tileId >= owners.length || pass < 0 || pass >= qualities.length) {
+                throw new IOException("Result for pass " + pass + " of tile " + tileId + ", which does not exist");
+            }
+            if (owners[tileId] != connection) {
+                return;
+            }
+            tile = tiles.get(tileId);
+            resultEpoch = epoch;
+        }
+
+        int[] pixels = Protocol.decompress(data, tile.getTargetWidth() * tile.getTargetHeight());
+        tile.publishRemote(pixels, resultEpoch);
+
+        synchronized (this) {
+            if (resultFrame == frame && pass >= passesDone[tileId]) {
+                passesDone[tileId] = pass + 1;
+                if (passesDone[tileId] == qualities.length) {
+                    tilesLeft--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** The connection to a single worker, with a thread that reads its results */
+    private final class Connection {
+        private final InetSocketAddress address;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final int threads;
+        private final Thread reader;
+        /** The number of tiles of the current frame given to this worker, guarded by the coordinator */
+        private int assigned;
+        /** Messages that are not written yet, added while holding the lock of the coordinator */
+        private final Queue<byte[]> outbox = new ConcurrentLinkedQueue<>();
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            socket = new Socket(address.getHostString(), address.getPort());
+            try {
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != Protocol.MAGIC) {
+                    throw new IOException(address + " is not a render worker");
+                }
+                threads = Math.max(1, in.readInt());
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+
+            reader = new Thread(this::read, "render-coordinator-" + address);
+            reader.setDaemon(true);
+        }
+
+        private void queueFrame() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream message = new DataOutputStream(bytes);
+            try {
+                message.writeByte(Protocol.FRAME);
+                message.writeInt(frame);
+                message.writeUTF(sceneName);
+                Protocol.writeVector(message, sunVector);
+                Protocol.writeSampling(message, sampling);
+                Protocol.writeInts(message, qualities);
+                message.writeInt(shadowMapResolution);
+                message.writeBoolean(wavefront);
+            } catch (IOException e) {
+                // writing to memory does not fail
+                throw new UncheckedIOException(e);
+            }
+            outbox.add(bytes.toByteArray());
+        }
+
+        private void queueTile(int tileId) {
+            RenderTile tile = tiles.get(tileId);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream message = new DataOutputStream(bytes);
+            try {
+                message.writeByte(Protocol.TILE);
+                message.writeInt(frame);
+                message.writeInt(tileId);
+                message.writeInt(passesDone[tileId]);
+                message.writeInt(tile.getTargetWidth());
+                message.writeInt(tile.getTargetHeight());
+                tile.writeView(message);
+            } catch (IOException e) {
+                // writing to memory does not fail
+                throw new UncheckedIOException(e);
+            }
+            outbox.add(bytes.toByteArray());
+        }
+
+        /** Writes the queued messages in order; messages are only taken from the queue while holding the stream */
+        private void flush() throws IOException {
+            synchronized (out) {
+                byte[] message;
+                while ((message = outbox.poll()) != null) {
+                    out.write(message);
+                }
+                out.flush();
+            }
+        }
+
+        private void read() {
+            try {
+                while (true) {
+                    int type = in.readByte();
+                    if (type != Protocol.RESULT) {
+                        throw new IOException("Unknown message type " + type);
+                    }
+                    int resultFrame = in.readInt();
+                    int tileId = in.readInt();
+                    int pass = in.readInt();
+                    int length = in.readInt();
+                    if (length < 0 || length > Protocol.MAX_RESULT_SIZE) {
+                        throw new IOException("Result of " + length + " bytes");
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    receive(this, resultFrame, tileId, pass, data);
+                }
+            } catch (IOException e) {
+                lost(this, e);
+            } catch (RuntimeException e) {
+                // a worker that breaks the protocol in a way that is not checked above is lost all the same
+                lost(this, new IOException("Invalid result", e));
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
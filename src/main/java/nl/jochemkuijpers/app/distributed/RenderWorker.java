@@ -0,0 +1,293 @@
+package nl.jochemkuijpers.app.distributed;
+
+import nl.jochemkuijpers.app.scenes.FileScene;
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.app.scenes.SimpleScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.PassPipeline;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders tiles for a {@link RenderCoordinator} on another machine, or in another process. The worker loads the
+ * built-in scenes by name and renders the passes of every tile it receives one after the other, like the
+ * {@link PassPipeline} does, sending back the pixels of every pass. Every frame brings the direction of the sun and the
+ * render settings, which are applied to the loaded scene before its tiles are rendered.
+ *
+ * A worker serves one coordinator at a time. When the coordinator goes away, everything it sent is cancelled and the
+ * worker waits for the next one.
+ */
+public class RenderWorker {
+    private final ServerSocket server;
+    private final int threads;
+    private final WorkStealingPool pool;
+    /** The scenes loaded so far, by name; only used by the serving thread */
+    private final Map<String, SimpleScene> scenes = new HashMap<>();
+
+    /** The connection to the coordinator being served, or null */
+    private volatile Socket current;
+
+    /**
+     * @param port the port to listen on, 0 to pick a free one
+     * @param threads the number of render threads
+     */
+    public RenderWorker(int port, int threads) throws IOException {
+        this.server = new ServerSocket(port);
+        this.threads = threads;
+        this.pool = new WorkStealingPool(threads);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves coordinators one after the other, until the worker is closed.
+     *
+     * @throws IOException if accepting connections failed
+     */
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+
+            current = socket;
+            try {
+                new Session(socket).run();
+            } catch (IOException e) {
+                System.err.println("Lost coordinator " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            } finally {
+                current = null;
+                close(socket);
+            }
+        }
+    }
+
+    /** Stops serving, and stops the render threads */
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException ignored) {}
+        Socket socket = current;
+        if (socket != null) {
+            close(socket);
+        }
+        pool.shutdownNow();
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /** The frame a tile belongs to, everything needed to render its passes */
+    private static final class Frame {
+        private final int number;
+        private final Scene scene;
+        private final int[] qualities;
+        private final AdaptiveSampling sampling;
+        private final boolean wavefront;
+        private final FrameEpoch.Token epoch;
+
+        private Frame(int number, Scene scene, int[] qualities, AdaptiveSampling sampling, boolean wavefront,
+                      FrameEpoch.Token epoch) {
+            this.number = number;
+            this.scene = scene;
+            this.qualities = qualities;
+            this.sampling = sampling;
+            this.wavefront = wavefront;
+            this.epoch = epoch;
+        }
+    }
+
+    /** The connection to a single coordinator */
+    private final class Session {
+        private final Socket socket;
+        private final DataInputStream in;
+        /** Results are sent by the render threads, which synchronize on this stream */
+        private final DataOutputStream out;
+        private final FrameEpoch frameEpoch = new FrameEpoch();
+        private Frame frame;
+
+        private Session(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void run() throws IOException {
+            synchronized (out) {
+                out.writeInt(Protocol.MAGIC);
+                out.writeInt(threads);
+                out.flush();
+            }
+
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0) {
+                        return;
+                    }
+                    switch (type) {
+                        case Protocol.FRAME:
+                            readFrame();
+                            break;
+                        case Protocol.TILE:
+                            readTile();
+                            break;
+                        default:
+                            throw new IOException("Unknown message type " + type);
+                    }
+                }
+            } finally {
+                // nothing is rendered for a coordinator that went away
+                frameEpoch.advance();
+                pool.clearPendingJobs();
+            }
+        }
+
+        private void readFrame() throws IOException {
+            int number = in.readInt();
+            String sceneName = in.readUTF();
+            Vector3 sunVector = Protocol.readVector(in);
+            AdaptiveSampling sampling = Protocol.readSampling(in);
+            int[] qualities = Protocol.readInts(in);
+            int shadowMapResolution = in.readInt();
+            boolean wavefront = in.readBoolean();
+            if (shadowMapResolution < 0) {
+                throw new IOException("Shadow map of " + shadowMapResolution + " texels");
+            }
+
+            // the tiles of earlier frames stop by themselves once they see they belong to an old epoch
+            FrameEpoch.Token epoch = frameEpoch.advance();
+            pool.clearPendingJobs();
+
+            SimpleScene scene = scenes.get(sceneName);
+            if (scene == null) {
+                try {
+                    scene = Scenes.create(sceneName);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (scene instanceof FileScene) {
+                    ((FileScene) scene).printLoadTime(System.out, sceneName);
+                }
+                scenes.put(sceneName, scene);
+            }
+            // the epoch advanced above, so a job that sees the sun move while it runs is no longer sent
+            scene.setSunVector(sunVector);
+            scene.setShadowMapResolution(shadowMapResolution);
+            frame = new Frame(number, scene, qualities, sampling, wavefront, epoch);
+        }
+
+        private void readTile() throws IOException {
+            int number = in.readInt();
+            int tileId = in.readInt();
+            int firstPass = in.readInt();
+            MemoryFrameBuffer pixels = new MemoryFrameBuffer(in.readInt(), in.readInt());
+            RenderTile tile = RenderTile.readView(in, pixels);
+
+            if (frame == null || frame.number != number) {
+                throw new IOException("Tile of frame " + number + " arrived outside of its frame");
+            }
+            tile.setWavefront(frame.wavefront);
+            submitPass(frame, tileId, tile, pixels, firstPass);
+        }
+
+        private void submitPass(Frame frame, int tileId, RenderTile tile, MemoryFrameBuffer pixels, int pass) {
+            pool.submit(() -> {
+                TraceContext context = TraceContext.forCurrentThread();
+                long start = System.nanoTime();
+                boolean completed = tile.render(context, frame.scene, frame.qualities[pass], frame.sampling,
+                        frame.epoch);
+                context.getCounters().countTile(pass, completed, System.nanoTime() - start);
+                if (completed && sendResult(frame, tileId, pass, pixels.getPixels())
+                        && pass + 1 < frame.qualities.length && frame.epoch.isCurrent()) {
+                    submitPass(frame, tileId, tile, pixels, pass + 1);
+                }
+            }, pass);
+        }
+
+        /** @return whether the result was sent, false if the coordinator went away */
+        private boolean sendResult(Frame frame, int tileId, int pass, int[] pixels) {
+            byte[] data = Protocol.compress(pixels);
+            try {
+                synchronized (out) {
+                    out.writeByte(Protocol.RESULT);
+                    out.writeInt(frame.number);
+                    out.writeInt(tileId);
+                    out.writeInt(pass);
+                    out.writeInt(data.length);
+                    out.write(data);
+                    out.flush();
+                }
+                return true;
+            } catch (IOException e) {
+                // the serving thread notices the broken connection as well, and ends the session
+                close(socket);
+                return false;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        int port = 7400;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: RenderWorker [--port P (default 7400, 0 picks a free port)] [--threads N]");
+            System.exit(2);
+            return;
+        }
+
+        RenderWorker worker = new RenderWorker(port, threads);
+        System.out.println("Render worker listening on port " + worker.getPort() + ", " + threads + " threads");
+        System.out.flush();
+        worker.serve();
+    }
+}
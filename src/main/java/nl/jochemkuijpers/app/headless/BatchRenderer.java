@@ -0,0 +1,398 @@
+package nl.jochemkuijpers.app.headless;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.distributed.RenderCoordinator;
+import nl.jochemkuijpers.app.monitoring.Monitoring;
+import nl.jochemkuijpers.app.scenes.FileScene;
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.app.scenes.SimpleScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+import nl.jochemkuijpers.raytrace.acceleration.ShadowMap;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.CostMetric;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import nl.jochemkuijpers.raytrace.renderer.TileCost;
+import nl.jochemkuijpers.workerpool.JobScheduler;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Renders a single frame without a display, for render nodes and throughput measurements.
+ *
+ * Unlike the interactive application, the passes are rendered one after the other, with a barrier in between, so
+ * that every pass can be timed on its own.
+ */
+public class BatchRenderer {
+    private final Scene scene;
+    private final Camera camera;
+    private final MemoryFrameBuffer frameBuffer;
+    private final int[] qualities;
+    private final AdaptiveSampling sampling;
+    private final JobScheduler scheduler;
+    private boolean wavefront;
+
+    /**
+     * @param qualities the resolution factor of every pass, see {@link RenderTile#render}
+     * @param sampling decides which pixels get the samples of the super-sampling passes
+     * @param scheduler the scheduler to run the render jobs on, it must not run any other jobs during a render
+     */
+    public BatchRenderer(Scene scene, Camera camera, MemoryFrameBuffer frameBuffer, int[] qualities,
+                         AdaptiveSampling sampling, JobScheduler scheduler) {
+        this.scene = scene;
+        this.camera = camera;
+        this.frameBuffer = frameBuffer;
+        this.qualities = qualities.clone();
+        this.sampling = sampling;
+        this.scheduler = scheduler;
+    }
+
+    /** Makes the passes trace their samples in batches, breadth-first, see {@link RenderTile#setWavefront(boolean)} */
+    public void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    /**
+     * Renders all passes into the frame buffer.
+     *
+     * @return the timings and ray counts of the passes
+     * @throws InterruptedException if the thread was interrupted while waiting on a pass
+     */
+    public RenderReport render() throws InterruptedException {
+        RenderReport report = new RenderReport();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        for (RenderTile tile : tiles) {
+            tile.setWavefront(wavefront);
+        }
+
+        for (int i = 0; i < qualities.length; i++) {
+            int pass = i;
+            int quality = qualities[i];
+            TraceCounters before = TraceCounters.total();
+            long start = System.nanoTime();
+
+            CountDownLatch done = new CountDownLatch(tiles.size());
+            List<Runnable> jobs = new ArrayList<>(tiles.size());
+            for (RenderTile tile : tiles) {
+                jobs.add(() -> {
+                    try {
+                        TraceContext context = TraceContext.forCurrentThread();
+                        long tileStart = System.nanoTime();
+                        boolean completed = tile.render(context, scene, quality, sampling, epoch);
+                        context.getCounters().countTile(pass, completed, System.nanoTime() - tileStart);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            scheduler.submitAll(jobs);
+            done.await();
+
+            long nanos = System.nanoTime() - start;
+            TraceCounters after = TraceCounters.total();
+            report.addPass(new RenderReport.Pass(quality, nanos, closestHitRays(after) - closestHitRays(before),
+                    after.getShadowRays() - before.getShadowRays()));
+        }
+        return report;
+    }
+
+    /** @return the number of rays that looked for the closest hit: camera, reflection and refraction rays */
+    private static long closestHitRays(TraceCounters counters) {
+        return counters.getPrimaryRays() + counters.getReflectionRays() + counters.getRefractionRays();
+    }
+
+    /**
+     * Renders a heatmap of the cost of every pixel into the frame buffer, instead of the passes.
+     *
+     * @return the cost of every tile
+     * @throws InterruptedException if the thread was interrupted while waiting on the tiles
+     */
+    public List<TileCost> renderHeatmap(CostMetric metric) throws InterruptedException {
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+
+        CountDownLatch done = new CountDownLatch(tiles.size());
+        List<Runnable> jobs = new ArrayList<>(tiles.size());
+        for (RenderTile tile : tiles) {
+            jobs.add(() -> {
+                try {
+                    tile.renderHeatmap(TraceContext.forCurrentThread(), scene, metric, epoch);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        scheduler.submitAll(jobs);
+        done.await();
+
+        List<TileCost> costs = new ArrayList<>(tiles.size());
+        for (RenderTile tile : tiles) {
+            costs.add(tile.getCost());
+        }
+        return costs;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        Map<String, String> options;
+        String sceneName;
+        SimpleScene scene;
+        int shadowMapResolution;
+        Camera camera;
+        MemoryFrameBuffer frameBuffer;
+        int[] qualities;
+        AdaptiveSampling sampling;
+        boolean wavefront;
+        int threads;
+        CostMetric heatmap;
+        List<InetSocketAddress> workers;
+        try {
+            options = parseOptions(args);
+            if (options.containsKey("help")) {
+                printUsage();
+                return;
+            }
+
+            sceneName = options.getOrDefault("scene", "stacked");
+            scene = Scenes.create(sceneName);
+            if (scene instanceof FileScene) {
+                ((FileScene) scene).printLoadTime(System.out, sceneName);
+            }
+            shadowMapResolution = Integer.parseInt(options.getOrDefault("shadow-map", "0"));
+            if (shadowMapResolution < 0) {
+                throw new IllegalArgumentException("--shadow-map cannot be negative");
+            }
+
+            frameBuffer = new MemoryFrameBuffer(Integer.parseInt(options.getOrDefault("width", "1280")),
+                    Integer.parseInt(options.getOrDefault("height", "720")));
+            qualities = parseInts(options.getOrDefault("quality", "0,1,2,4"));
+            sampling = "uniform".equals(options.get("sampling")) ? AdaptiveSampling.UNIFORM : AdaptiveSampling.DEFAULT;
+            String trace = options.getOrDefault("trace", "recursive");
+            if (!trace.equals("recursive") && !trace.equals("wavefront")) {
+                throw new IllegalArgumentException("Unknown way to trace: " + trace);
+            }
+            wavefront = trace.equals("wavefront");
+            heatmap = options.containsKey("heatmap")
+                    ? CostMetric.valueOf(options.get("heatmap").toUpperCase(Locale.ROOT)) : null;
+            if (options.containsKey("tile-costs") && heatmap == null) {
+                throw new IllegalArgumentException("--tile-costs needs a --heatmap");
+            }
+            workers = options.containsKey("workers") ? RenderCoordinator.parseAddresses(options.get("workers")) : null;
+            if (workers != null && heatmap != null) {
+                throw new IllegalArgumentException("--heatmap can only be rendered locally, not on --workers");
+            }
+            threads = Integer.parseInt(options.getOrDefault("threads",
+                    Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+
+            camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT,
+                    Float.parseFloat(options.getOrDefault("fov", "90")));
+            Vector3 lookAt = parseVector(options.getOrDefault("look-at", "0,-2,0"));
+            if (options.containsKey("camera")) {
+                camera.getPosition().set(parseVector(options.get("camera")));
+                Vector3.sub(lookAt, camera.getPosition(), camera.getGaze());
+                camera.computeViewVectors();
+            } else {
+                new CameraController(camera, 25, lookAt).setInitialCamera();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not load the scene: " + e.getCause().getMessage());
+            System.exit(1);
+            return;
+        }
+
+        if (workers != null) {
+            renderOnWorkers(workers, sceneName, scene, camera, frameBuffer, qualities, sampling, shadowMapResolution,
+                    wavefront);
+            writeImage(options, frameBuffer);
+            return;
+        }
+
+        if (shadowMapResolution > 0) {
+            long start = System.nanoTime();
+            scene.setShadowMapResolution(shadowMapResolution);
+            // the map is built in the background; wait for it, so that every pass is measured with it
+            ShadowMap map = scene.awaitShadowMap();
+            if (map != null) {
+                System.out.printf("shadow map: %d texels square, built in %.1f ms%n",
+                        map.getResolution(), (System.nanoTime() - start) / 1e6);
+            }
+        }
+
+        WorkStealingPool scheduler = new WorkStealingPool(threads);
+        Monitoring monitoring = Monitoring.start(scheduler);
+        BatchRenderer renderer = new BatchRenderer(scene, camera, frameBuffer, qualities, sampling, scheduler);
+        renderer.setWavefront(wavefront);
+        RenderReport report = null;
+        List<TileCost> costs = null;
+        try {
+            if (heatmap != null) {
+                costs = renderer.renderHeatmap(heatmap);
+            } else {
+                report = renderer.render();
+            }
+        } finally {
+            scheduler.shutdownNow();
+            if (monitoring != null) {
+                monitoring.stop();
+            }
+        }
+
+        System.out.printf("scene: %s, %dx%d, %d threads%n",
+                sceneName, frameBuffer.getFrameWidth(), frameBuffer.getFrameHeight(), threads);
+        if (report != null) {
+            report.print(System.out);
+        } else {
+            long nanos = 0;
+            for (TileCost cost : costs) {
+                nanos += cost.getNanos();
+            }
+            System.out.printf("heatmap of %s: %d tiles, %.1f ms of tracing%n",
+                    heatmap.name().toLowerCase(Locale.ROOT), costs.size(), nanos / 1e6);
+        }
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            printIntersections(System.out);
+        }
+
+        if (options.containsKey("tile-costs")) {
+            File output = new File(options.get("tile-costs"));
+            try (Writer out = new FileWriter(output)) {
+                TileCost.writeCsv(costs, out);
+            } catch (IOException e) {
+                System.err.println("Could not write " + output + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        writeImage(options, frameBuffer);
+    }
+
+    /**
+     * Renders all passes on render workers in other processes, and reports the wall time of the whole frame. The
+     * workers build their shadow maps while they render, so unlike a local render, the first passes may trace every
+     * shadow ray.
+     */
+    private static void renderOnWorkers(List<InetSocketAddress> workers, String sceneName, SimpleScene scene,
+                                        Camera camera, MemoryFrameBuffer frameBuffer, int[] qualities,
+                                        AdaptiveSampling sampling, int shadowMapResolution, boolean wavefront)
+            throws InterruptedException {
+        try (RenderCoordinator coordinator = new RenderCoordinator(workers, qualities, sampling)) {
+            coordinator.setShadowMapResolution(shadowMapResolution);
+            coordinator.setWavefront(wavefront);
+            long start = System.nanoTime();
+            coordinator.start(camera.getRenderTiles(frameBuffer), sceneName, scene.getSunVector(),
+                    new FrameEpoch().current());
+            coordinator.awaitFrame(0);
+            System.out.printf("scene: %s, %dx%d, %d of %d workers: %.1f ms%n",
+                    sceneName, frameBuffer.getFrameWidth(), frameBuffer.getFrameHeight(),
+                    coordinator.getWorkerCount(), workers.size(), (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            System.err.println("Could not render on the workers: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void writeImage(Map<String, String> options, MemoryFrameBuffer frameBuffer) {
+        if (options.containsKey("output")) {
+            File output = new File(options.get("output"));
+            try {
+                ImageOutput.write(frameBuffer, output);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not write " + output + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Prints how many intersection tests were done per type of shape, and how many of those missed */
+    private static void printIntersections(PrintStream out) {
+        TraceCounters total = TraceCounters.total();
+        List<String> types = TraceCounters.getShapeTypes();
+        for (int type = 0; type < types.size(); type++) {
+            long tests = total.getIntersectionTests(type);
+            long misses = tests - total.getIntersectionHits(type);
+            out.printf("%s: %d intersection tests, %.1f%% missed%n",
+                    types.get(type), tests, tests == 0 ? 0 : 100.0 * misses / tests);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: BatchRenderer [options]");
+        System.err.println("  --scene " + String.join("|", Scenes.getNames()) + "|FILE   (default stacked)");
+        System.err.println("                             a FILE ends in .scene (text), .bscene (binary) or .obj");
+        System.err.println("  --width W --height H       resolution (default 1280 720)");
+        System.err.println("  --quality Q,Q,...          resolution factor of every pass (default 0,1,2,4)");
+        System.err.println("  --sampling adaptive|uniform  (default adaptive)");
+        System.err.println("  --trace recursive|wavefront  trace rays one by one or in batches (default recursive)");
+        System.err.println("  --camera X,Y,Z             camera position (default the position of the application)");
+        System.err.println("  --look-at X,Y,Z            point the camera looks at (default 0,-2,0)");
+        System.err.println("  --fov DEGREES              vertical field of view (default 90)");
+        System.err.println("  --shadow-map RESOLUTION    look up the shadows of the sun in a map of this size");
+        System.err.println("  --threads N                number of worker threads");
+        System.err.println("  --workers HOST:PORT,...    render on RenderWorker processes instead");
+        System.err.println("  --output FILE              write the image as .png or .ppm");
+        System.err.println("  --heatmap time|intersections|rays  render the cost of every pixel instead");
+        System.err.println("  --tile-costs FILE          write the cost of every tile of the heatmap as CSV");
+    }
+
+    /** Parses <code>--name value</code> pairs, and <code>--help</code> which has no value */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("help")) {
+                options.put(name, "");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+        return options;
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static Vector3 parseVector(String vector) {
+        String[] parts = vector.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected a vector as X,Y,Z: " + vector);
+        }
+        return new Vector3(Float.parseFloat(parts[0].trim()), Float.parseFloat(parts[1].trim()),
+                Float.parseFloat(parts[2].trim()));
+    }
+}
@@ -0,0 +1,61 @@
+package nl.jochemkuijpers.app.headless;
+
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes the contents of a frame buffer to an image file. The format follows from the file extension: PNG for
+ * <code>.png</code> and binary PPM for <code>.ppm</code>.
+ */
+public class ImageOutput {
+
+    private ImageOutput() { }
+
+    public static void write(MemoryFrameBuffer frameBuffer, File file) throws IOException {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".png")) {
+            writePng(frameBuffer, file);
+        } else if (name.endsWith(".ppm")) {
+            writePpm(frameBuffer, file);
+        } else {
+            throw new IllegalArgumentException("Unknown image format, use a .png or .ppm file: " + file);
+        }
+    }
+
+    private static void writePng(MemoryFrameBuffer frameBuffer, File file) throws IOException {
+        int width = frameBuffer.getFrameWidth();
+        int height = frameBuffer.getFrameHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, frameBuffer.getPixels(), 0, width);
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available.");
+        }
+    }
+
+    private static void writePpm(MemoryFrameBuffer frameBuffer, File file) throws IOException {
+        int width = frameBuffer.getFrameWidth();
+        int height = frameBuffer.getFrameHeight();
+        int[] pixels = frameBuffer.getPixels();
+
+        byte[] data = new byte[3 * pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            data[3 * i] = (byte) (pixels[i] >> 16);
+            data[3 * i + 1] = (byte) (pixels[i] >> 8);
+            data[3 * i + 2] = (byte) pixels[i];
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data);
+        }
+    }
+}
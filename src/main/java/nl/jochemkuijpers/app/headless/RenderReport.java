@@ -0,0 +1,95 @@
+package nl.jochemkuijpers.app.headless;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timings and ray counts of a headless render, per pass and in total.
+ */
+public class RenderReport {
+    public static class Pass {
+        private final int quality;
+        private final long nanos;
+        private final long rays;
+        private final long shadowRays;
+
+        Pass(int quality, long nanos, long rays, long shadowRays) {
+            this.quality = quality;
+            this.nanos = nanos;
+            this.rays = rays;
+            this.shadowRays = shadowRays;
+        }
+
+        /** @return the resolution factor of the pass */
+        public int getQuality() {
+            return quality;
+        }
+
+        /** @return the wall time of the pass in nanoseconds */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /** @return the number of closest-hit rays cast in the pass */
+        public long getRays() {
+            return rays;
+        }
+
+        /** @return the number of shadow rays cast in the pass */
+        public long getShadowRays() {
+            return shadowRays;
+        }
+    }
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    void addPass(Pass pass) {
+        passes.add(pass);
+    }
+
+    public List<Pass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    /** @return the wall time of all passes together in nanoseconds */
+    public long getNanos() {
+        long nanos = 0;
+        for (Pass pass : passes) {
+            nanos += pass.nanos;
+        }
+        return nanos;
+    }
+
+    public long getRays() {
+        long rays = 0;
+        for (Pass pass : passes) {
+            rays += pass.rays;
+        }
+        return rays;
+    }
+
+    public long getShadowRays() {
+        long shadowRays = 0;
+        for (Pass pass : passes) {
+            shadowRays += pass.shadowRays;
+        }
+        return shadowRays;
+    }
+
+    public void print(PrintStream out) {
+        for (int i = 0; i < passes.size(); i++) {
+            Pass pass = passes.get(i);
+            out.printf("pass %d (quality %d): %.1f ms, %d rays, %d shadow rays, %.3f Mrays/s%n", i, pass.quality,
+                    pass.nanos / 1e6, pass.rays, pass.shadowRays, raysPerSecond(pass.rays, pass.nanos) / 1e6);
+        }
+        out.printf("total: %.1f ms, %d rays, %d shadow rays, %.3f Mrays/s (%.3f Mrays/s including shadow rays)%n",
+                getNanos() / 1e6, getRays(), getShadowRays(), raysPerSecond(getRays(), getNanos()) / 1e6,
+                raysPerSecond(getRays() + getShadowRays(), getNanos()) / 1e6);
+    }
+
+    private static double raysPerSecond(long rays, long nanos) {
+        return nanos == 0 ? 0 : rays / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,79 @@
+package nl.jochemkuijpers.app.monitoring;
+
+import nl.jochemkuijpers.workerpool.JobScheduler;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the renderer and worker pool counters as MBeans on the platform MBean server, where JConsole, VisualVM or
+ * a JMX exporter can read them, under {@value #DOMAIN}:type=Renderer and {@value #DOMAIN}:type=WorkerPool.
+ *
+ * A daemon thread samples the counters every second, to compute their rates over the last ten seconds.
+ */
+public final class Monitoring {
+    public static final String DOMAIN = "nl.jochemkuijpers.raytracer";
+
+    private static final int RATE_SAMPLES = 11;
+
+    private final MBeanServer server;
+    private final ObjectName rendererName;
+    private final ObjectName poolName;
+    private final ScheduledExecutorService sampler;
+
+    private Monitoring(JobScheduler pool) throws JMException {
+        server = ManagementFactory.getPlatformMBeanServer();
+        rendererName = new ObjectName(DOMAIN + ":type=Renderer");
+        poolName = new ObjectName(DOMAIN + ":type=WorkerPool");
+
+        RendererMetrics renderer = new RendererMetrics(RATE_SAMPLES);
+        WorkerPoolMetrics workers = new WorkerPoolMetrics(pool.getStatistics(), RATE_SAMPLES);
+        register(renderer, rendererName);
+        register(workers, poolName);
+
+        sampler = Executors.newSingleThreadScheduledExecutor(job -> {
+            Thread thread = new Thread(job, "monitoring-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            renderer.sample();
+            workers.sample();
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publishes the counters of the trace path and of the given pool, replacing the MBeans of an earlier call.
+     *
+     * @return the running monitoring, or null if the MBeans could not be registered
+     */
+    public static Monitoring start(JobScheduler pool) {
+        try {
+            return new Monitoring(pool);
+        } catch (JMException e) {
+            System.err.println("Could not register the monitoring MBeans: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Stops sampling and unregisters the MBeans */
+    public void stop() {
+        sampler.shutdownNow();
+        try {
+            server.unregisterMBean(rendererName);
+            server.unregisterMBean(poolName);
+        } catch (JMException ignored) {}
+    }
+
+    private void register(Object bean, ObjectName name) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(bean, name);
+    }
+}
@@ -0,0 +1,37 @@
+package nl.jochemkuijpers.app.monitoring;
+
+/**
+ * Keeps the last few samples of a number of ever increasing counters, to compute their rates over a sliding window.
+ */
+final class RateWindow {
+    private final long[] times;
+    private final long[][] values;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param samples the number of samples in the window, the rate is computed between the oldest and the newest
+     * @param counters the number of counters in every sample
+     */
+    RateWindow(int samples, int counters) {
+        times = new long[samples];
+        values = new long[samples][counters];
+    }
+
+    synchronized void sample(long nanos, long... counters) {
+        times[next] = nanos;
+        System.arraycopy(counters, 0, values[next], 0, counters.length);
+        next = (next + 1) % times.length;
+        size = Math.min(size + 1, times.length);
+    }
+
+    /** @return the increase of the counter per second over the window, 0 until there are two samples */
+    synchronized double getRate(int counter) {
+        if (size < 2) {
+            return 0;
+        }
+        int newest = (next + times.length - 1) % times.length;
+        int oldest = (next + times.length - size) % times.length;
+        return (values[newest][counter] - values[oldest][counter]) / ((times[newest] - times[oldest]) / 1e9);
+    }
+}
@@ -0,0 +1,182 @@
+package nl.jochemkuijpers.app.monitoring;
+
+import nl.jochemkuijpers.raytrace.TraceCounters;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the sum of the {@link TraceCounters} of all threads.
+ */
+class RendererMetrics implements RendererMetricsMXBean {
+    private static final String NODE_TYPE = "BoundingVolume";
+
+    private static final int PRIMARY_RAYS = 0;
+    private static final int ALL_RAYS = 1;
+    private static final int TILES_COMPLETED = 2;
+
+    private final RateWindow rates;
+
+    RendererMetrics(int samples) {
+        rates = new RateWindow(samples, 3);
+    }
+
+    void sample() {
+        TraceCounters total = TraceCounters.total();
+        long allRays = total.getPrimaryRays() + total.getShadowRays() + total.getReflectionRays()
+                + total.getRefractionRays();
+        rates.sample(System.nanoTime(), total.getPrimaryRays(), allRays, sum(getTilesCompleted(total)));
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        return TraceCounters.total().getPrimaryRays();
+    }
+
+    @Override
+    public long getShadowRays() {
+        return TraceCounters.total().getShadowRays();
+    }
+
+    @Override
+    public long getReflectionRays() {
+        return TraceCounters.total().getReflectionRays();
+    }
+
+    @Override
+    public long getRefractionRays() {
+        return TraceCounters.total().getRefractionRays();
+    }
+
+    @Override
+    public long getDepthTerminations() {
+        return TraceCounters.total().getDepthTerminations();
+    }
+
+    @Override
+    public double getPrimaryRaysPerSecond() {
+        return rates.getRate(PRIMARY_RAYS);
+    }
+
+    @Override
+    public double getRaysPerSecond() {
+        return rates.getRate(ALL_RAYS);
+    }
+
+    @Override
+    public Map<String, Long> getIntersectionTests() {
+        TraceCounters total = TraceCounters.total();
+        List<String> types = TraceCounters.getShapeTypes();
+        Map<String, Long> tests = new LinkedHashMap<>();
+        for (int type = 0; type < types.size(); type++) {
+            tests.put(types.get(type), total.getIntersectionTests(type));
+        }
+        return tests;
+    }
+
+    @Override
+    public Map<String, Long> getIntersectionMisses() {
+        TraceCounters total = TraceCounters.total();
+        List<String> types = TraceCounters.getShapeTypes();
+        Map<String, Long> misses = new LinkedHashMap<>();
+        for (int type = 0; type < types.size(); type++) {
+            misses.put(types.get(type), total.getIntersectionTests(type) - total.getIntersectionHits(type));
+        }
+        return misses;
+    }
+
+    @Override
+    public double getShapeMissRatio() {
+        TraceCounters total = TraceCounters.total();
+        List<String> types = TraceCounters.getShapeTypes();
+        long tests = 0;
+        long hits = 0;
+        for (int type = 0; type < types.size(); type++) {
+            if (!types.get(type).equals(NODE_TYPE)) {
+                tests += total.getIntersectionTests(type);
+                hits += total.getIntersectionHits(type);
+            }
+        }
+        return tests == 0 ? 0 : (tests - hits) / (double) tests;
+    }
+
+    @Override
+    public long[] getTilesCompleted() {
+        return getTilesCompleted(TraceCounters.total());
+    }
+
+    @Override
+    public long[] getTilesCancelled() {
+        TraceCounters total = TraceCounters.total();
+        long[] tiles = new long[TraceCounters.MAX_PASSES];
+        for (int pass = 0; pass < tiles.length; pass++) {
+            tiles[pass] = total.getTilesCancelled(pass);
+        }
+        return tiles;
+    }
+
+    @Override
+    public double getTilesCompletedPerSecond() {
+        return rates.getRate(TILES_COMPLETED);
+    }
+
+    @Override
+    public long[][] getTileLatencyHistogram() {
+        TraceCounters total = TraceCounters.total();
+        long[][] histogram = new long[TraceCounters.MAX_PASSES][TraceCounters.LATENCY_BUCKETS];
+        for (int pass = 0; pass < histogram.length; pass++) {
+            for (int bucket = 0; bucket < TraceCounters.LATENCY_BUCKETS; bucket++) {
+                histogram[pass][bucket] = total.getTileLatencies(pass, bucket);
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public double[] getTileLatencyMedianMillis() {
+        return getTileLatencyPercentile(0.5);
+    }
+
+    @Override
+    public double[] getTileLatencyP99Millis() {
+        return getTileLatencyPercentile(0.99);
+    }
+
+    /** @return per pass, the upper bound of the latency bucket that holds the percentile, 0 if there are no tiles */
+    private double[] getTileLatencyPercentile(double percentile) {
+        long[][] histogram = getTileLatencyHistogram();
+        double[] latencies = new double[histogram.length];
+        for (int pass = 0; pass < histogram.length; pass++) {
+            long count = sum(histogram[pass]);
+            if (count == 0) {
+                continue;
+            }
+            long seen = 0;
+            for (int bucket = 0; bucket < histogram[pass].length; bucket++) {
+                seen += histogram[pass][bucket];
+                if (seen >= percentile * count) {
+                    latencies[pass] = (1L << bucket) / 1000.0;
+                    break;
+                }
+            }
+        }
+        return latencies;
+    }
+
+    private static long[] getTilesCompleted(TraceCounters total) {
+        long[] tiles = new long[TraceCounters.MAX_PASSES];
+        for (int pass = 0; pass < tiles.length; pass++) {
+            tiles[pass] = total.getTilesCompleted(pass);
+        }
+        return tiles;
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,51 @@
+package nl.jochemkuijpers.app.monitoring;
+
+import java.util.Map;
+
+/**
+ * What the trace path of all render threads has done since the start of the process. Rates are averaged over the
+ * last ten seconds.
+ */
+public interface RendererMetricsMXBean {
+    long getPrimaryRays();
+
+    long getShadowRays();
+
+    long getReflectionRays();
+
+    long getRefractionRays();
+
+    /** @return the number of reflection or refraction rays that were not cast because of the maximum ray depth */
+    long getDepthTerminations();
+
+    double getPrimaryRaysPerSecond();
+
+    /** @return the number of rays of all kinds, shadow rays included, cast per second */
+    double getRaysPerSecond();
+
+    /** @return per type of shape, the number of ray intersection tests, bounding volume nodes included */
+    Map<String, Long> getIntersectionTests();
+
+    /** @return per type of shape, the number of ray intersection tests that found no intersection */
+    Map<String, Long> getIntersectionMisses();
+
+    /** @return the fraction of the intersection tests against shapes, not bounding volumes, that missed */
+    double getShapeMissRatio();
+
+    /** @return per pass, the number of tiles rendered in full */
+    long[] getTilesCompleted();
+
+    /** @return per pass, the number of tiles that were cancelled halfway because the frame changed */
+    long[] getTilesCancelled();
+
+    double getTilesCompletedPerSecond();
+
+    /** @return per pass, the number of tiles that took [2^(b-1), 2^b) microseconds for every bucket b */
+    long[][] getTileLatencyHistogram();
+
+    /** @return per pass, the median tile latency in milliseconds, rounded up to a power of two microseconds */
+    double[] getTileLatencyMedianMillis();
+
+    /** @return per pass, the 99th percentile tile latency in milliseconds, rounded up to a power of two microseconds */
+    double[] getTileLatencyP99Millis();
+}
@@ -0,0 +1,59 @@
+package nl.jochemkuijpers.app.monitoring;
+
+import nl.jochemkuijpers.workerpool.WorkerStatistics;
+
+/**
+ * Exposes the {@link WorkerStatistics} of a worker pool.
+ */
+class WorkerPoolMetrics implements WorkerPoolMetricsMXBean {
+    private static final int JOBS = 0;
+    private static final int BUSY_NANOS = 1;
+
+    private final WorkerStatistics statistics;
+    private final RateWindow rates;
+
+    WorkerPoolMetrics(WorkerStatistics statistics, int samples) {
+        this.statistics = statistics;
+        this.rates = new RateWindow(samples, 2);
+    }
+
+    void sample() {
+        rates.sample(System.nanoTime(), statistics.getJobCount(), statistics.getBusyNanos());
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return statistics.getWorkerCount();
+    }
+
+    @Override
+    public long getJobCount() {
+        return statistics.getJobCount();
+    }
+
+    @Override
+    public long getBusyNanos() {
+        return statistics.getBusyNanos();
+    }
+
+    @Override
+    public long getStealCount() {
+        return statistics.getStealCount();
+    }
+
+    @Override
+    public long getParkCount() {
+        return statistics.getParkCount();
+    }
+
+    @Override
+    public double getJobsPerSecond() {
+        return rates.getRate(JOBS);
+    }
+
+    @Override
+    public double getUtilization() {
+        // busy nanoseconds per second, per worker
+        return rates.getRate(BUSY_NANOS) / 1e9 / statistics.getWorkerCount();
+    }
+}
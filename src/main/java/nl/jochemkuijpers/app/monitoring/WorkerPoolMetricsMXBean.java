@@ -0,0 +1,22 @@
+package nl.jochemkuijpers.app.monitoring;
+
+/**
+ * What the workers of the render pool have done since the pool was started. Rates are averaged over the last ten
+ * seconds.
+ */
+public interface WorkerPoolMetricsMXBean {
+    int getWorkerCount();
+
+    long getJobCount();
+
+    long getBusyNanos();
+
+    long getStealCount();
+
+    long getParkCount();
+
+    double getJobsPerSecond();
+
+    /** @return the fraction of the time the workers spent executing jobs, between 0 and 1 */
+    double getUtilization();
+}
@@ -0,0 +1,72 @@
+package nl.jochemkuijpers.app.scenes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A scene loaded from a scene file, see {@link SceneFile}. Like the built-in scenes, it has a floor and a sky.
+ */
+public class FileScene extends SimpleScene {
+    private final SceneDescription description;
+    private final long decodeNanos;
+    private final long buildNanos;
+
+    /**
+     * Creates the scene from a description that was read earlier. How long reading it took is not known, see
+     * {@link #getDecodeNanos()}.
+     */
+    public FileScene(SceneDescription description) {
+        this(description, -1, System.nanoTime());
+    }
+
+    /**
+     * @param decodeNanos how long reading the description took, -1 if that is not known
+     * @param decoded when reading the description was done, building the scene starts right away
+     */
+    private FileScene(SceneDescription description, long decodeNanos, long decoded) {
+        super(description);
+        this.description = description;
+        this.decodeNanos = decodeNanos;
+        this.buildNanos = System.nanoTime() - decoded;
+    }
+
+    /**
+     * Reads a scene file and builds the scene, and measures how long both take.
+     *
+     * @throws IOException if the file could not be read, or is not a valid scene
+     */
+    public static FileScene load(File file) throws IOException {
+        long start = System.nanoTime();
+        SceneDescription description = SceneFile.read(file);
+        long decoded = System.nanoTime();
+        return new FileScene(description, decoded - start, decoded);
+    }
+
+    @Override
+    protected void createScene() {
+        // the objects come from the description instead
+    }
+
+    public SceneDescription getDescription() {
+        return description;
+    }
+
+    /** @return how long reading the file took, in nanoseconds, or -1 if the scene was built from a description */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /** @return how long creating the shapes and their hierarchy took, in nanoseconds */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /** Prints the size of the scene and how long it took to load */
+    public void printLoadTime(PrintStream out, String name) {
+        String read = decodeNanos < 0 ? "n/a" : String.format("%.1f ms", decodeNanos / 1e6);
+        out.printf("%s: %d primitives, %d instances, %d materials, read in %s, built in %.1f ms%n", name,
+                description.getPrimitiveCount(), description.getInstanceCount(), description.getMaterialCount(),
+                read, buildNanos / 1e6);
+    }
+}
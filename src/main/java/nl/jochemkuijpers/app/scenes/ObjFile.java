@@ -0,0 +1,115 @@
+package nl.jochemkuijpers.app.scenes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Imports the geometry of a Wavefront OBJ file as a triangle mesh. Only the vertex positions (<code>v</code>) and the
+ * faces (<code>f</code>) are read, faces with more than three vertices are split into a fan of triangles. Texture
+ * coordinates, normals, groups and materials are ignored.
+ */
+public final class ObjFile {
+
+    private ObjFile() { }
+
+    /**
+     * Adds the faces of an OBJ file to the builder, as a single mesh.
+     *
+     * @param material the index of the material of the mesh
+     * @throws IOException if the file is not a valid OBJ file, the message has the line number
+     */
+    public static void read(Reader reader, int material, SceneDescription.Builder builder) throws IOException {
+        BufferedReader in = new BufferedReader(reader, 1 << 16);
+        builder.beginMesh(material);
+
+        int vertexCount = 0;
+        int[] face = new int[16];
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            try {
+                if (line.startsWith("v ")) {
+                    Tokenizer tokens = new Tokenizer(line, 2);
+                    builder.addVertex(tokens.nextFloat(), tokens.nextFloat(), tokens.nextFloat());
+                    vertexCount++;
+                } else if (line.startsWith("f ")) {
+                    Tokenizer tokens = new Tokenizer(line, 2);
+                    int corners = 0;
+                    while (tokens.hasNext()) {
+                        if (corners == face.length) {
+                            face = Arrays.copyOf(face, 2 * corners);
+                        }
+                        int index = tokens.nextIndex();
+                        // indices count from 1, negative indices count back from the last vertex
+                        face[corners++] = index < 0 ? vertexCount + index : index - 1;
+                    }
+                    if (corners < 3) {
+                        throw new IllegalArgumentException("a face needs at least 3 vertices");
+                    }
+                    for (int i = 2; i < corners; i++) {
+                        builder.addTriangle(face[0], face[i - 1], face[i]);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (vertexCount == 0) {
+            throw new IOException("The OBJ file has no vertices");
+        }
+    }
+
+    /** Splits a line on whitespace, face indices are read without creating a string for every corner */
+    private static final class Tokenizer {
+        private final String line;
+        private int position;
+
+        private Tokenizer(String line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+
+        private boolean hasNext() {
+            while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            return position < line.length() && line.charAt(position) != '#';
+        }
+
+        private float nextFloat() {
+            if (!hasNext()) {
+                throw new IllegalArgumentException("expected a number");
+            }
+            int start = position;
+            while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            return Float.parseFloat(line.substring(start, position));
+        }
+
+        /** @return the vertex index of a face corner, ignoring the texture coordinate and normal after a slash */
+        private int nextIndex() {
+            int sign = 1;
+            if (line.charAt(position) == '-') {
+                sign = -1;
+                position++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (position < line.length() && Character.isDigit(line.charAt(position))) {
+                value = 10 * value + line.charAt(position++) - '0';
+                digits++;
+            }
+            if (digits == 0 || value == 0) {
+                throw new IllegalArgumentException("expected a vertex index");
+            }
+            while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            return sign * value;
+        }
+    }
+}
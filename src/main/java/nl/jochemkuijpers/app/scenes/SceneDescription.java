@@ -0,0 +1,524 @@
+package nl.jochemkuijpers.app.scenes;
+
+import nl.jochemkuijpers.math.AffineTransform;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.materials.ComplexMaterial;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.Instance;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import nl.jochemkuijpers.raytrace.shapes.with_material.BoxSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Plane;
+import nl.jochemkuijpers.raytrace.shapes.with_material.SphereSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.TriangleMesh;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The contents of a scene file: the direction towards the sun, a table of materials, and the primitives and triangle
+ * meshes that refer to a material by its index. Everything is kept in flat arrays, the way it is stored in the binary
+ * format, see {@link SceneFile}. The vertices and triangles of all meshes are concatenated, every mesh ends where the
+ * next one starts.
+ *
+ * Instances place copies of a mesh elsewhere, by a transform and optionally with another material, without copying
+ * its triangles. A mesh with instances is only drawn through its instances.
+ */
+public final class SceneDescription {
+    /** The kinds of material */
+    public static final int SIMPLE = 0;
+    public static final int OPAQUE = 1;
+    public static final int TRANSPARENT = 2;
+    /** The material of an instance that keeps the material of its mesh */
+    public static final int MESH_MATERIAL = -1;
+
+    /** The values of every material: absorption, refractive index and the red, green and blue of its color */
+    static final int MATERIAL_STRIDE = 5;
+    /** Center and radius */
+    static final int SPHERE_STRIDE = 4;
+    /** Minimum and maximum corner */
+    static final int BOX_STRIDE = 6;
+    /** A point on the plane and its normal */
+    static final int PLANE_STRIDE = 6;
+    /** The three rows of the transform of an instance, see {@link AffineTransform} */
+    static final int INSTANCE_STRIDE = 12;
+    /** The number of neighbouring spheres and boxes that are put in sets together */
+    private static final int PRIMITIVES_PER_SET = 256;
+
+    final float[] sun;
+    final int[] materialKinds;
+    final float[] materials;
+    final float[] spheres;
+    final int[] sphereMaterials;
+    final float[] boxes;
+    final int[] boxMaterials;
+    final float[] planes;
+    final int[] planeMaterials;
+    /** Per mesh, the end of its coordinates in {@link #meshVertices} */
+    final int[] meshVertexEnds;
+    /** Per mesh, the end of its indices in {@link #meshIndices} */
+    final int[] meshIndexEnds;
+    final int[] meshMaterials;
+    /** x, y and z of every vertex of every mesh */
+    final float[] meshVertices;
+    /** Three vertex indices per triangle, relative to the first vertex of the mesh */
+    final int[] meshIndices;
+    final int[] instanceMeshes;
+    /** The material of every instance, or {@link #MESH_MATERIAL} */
+    final int[] instanceMaterials;
+    final float[] instances;
+
+    /**
+     * @throws IllegalArgumentException if a primitive refers to a material that does not exist, the meshes do not
+     * add up to the vertices and triangles, or an instance refers to a mesh that does not exist or cannot be inverted
+     */
+    SceneDescription(float[] sun, int[] materialKinds, float[] materials, float[] spheres, int[] sphereMaterials,
+                     float[] boxes, int[] boxMaterials, float[] planes, int[] planeMaterials,
+                     int[] meshVertexEnds, int[] meshIndexEnds, int[] meshMaterials, float[] meshVertices,
+                     int[] meshIndices, int[] instanceMeshes, int[] instanceMaterials, float[] instances) {
+        this.sun = sun;
+        this.materialKinds = materialKinds;
+        this.materials = materials;
+        this.spheres = spheres;
+        this.sphereMaterials = sphereMaterials;
+        this.boxes = boxes;
+        this.boxMaterials = boxMaterials;
+        this.planes = planes;
+        this.planeMaterials = planeMaterials;
+        this.meshVertexEnds = meshVertexEnds;
+        this.meshIndexEnds = meshIndexEnds;
+        this.meshMaterials = meshMaterials;
+        this.meshVertices = meshVertices;
+        this.meshIndices = meshIndices;
+        this.instanceMeshes = instanceMeshes;
+        this.instanceMaterials = instanceMaterials;
+        this.instances = instances;
+
+        for (int kind : materialKinds) {
+            if (kind < SIMPLE || kind > TRANSPARENT) {
+                throw new IllegalArgumentException("Unknown kind of material: " + kind);
+            }
+        }
+        checkMaterials("sphere", sphereMaterials);
+        checkMaterials("box", boxMaterials);
+        checkMaterials("plane", planeMaterials);
+        checkMaterials("mesh", meshMaterials);
+        checkEnds(meshVertexEnds, meshMaterials.length, meshVertices.length);
+        checkEnds(meshIndexEnds, meshMaterials.length, meshIndices.length);
+        for (int i = 0; i < instanceMeshes.length; i++) {
+            if (instanceMeshes[i] < 0 || instanceMeshes[i] >= meshMaterials.length) {
+                throw new IllegalArgumentException("The instance at index " + i + " refers to mesh " + instanceMeshes[i]
+                        + ", but there are " + meshMaterials.length + " meshes");
+            }
+            if (instanceMaterials[i] != MESH_MATERIAL
+                    && (instanceMaterials[i] < 0 || instanceMaterials[i] >= materialKinds.length)) {
+                throw new IllegalArgumentException("The instance at index " + i + " refers to material "
+                        + instanceMaterials[i] + ", but there are " + materialKinds.length + " materials");
+            }
+            try {
+                getTransform(i).inverse();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("The transform of the instance at index " + i
+                        + " cannot be inverted");
+            }
+        }
+    }
+
+    AffineTransform getTransform(int instance) {
+        return new AffineTransform(
+                Arrays.copyOfRange(instances, INSTANCE_STRIDE * instance, INSTANCE_STRIDE * (instance + 1)));
+    }
+
+    private static void checkEnds(int[] ends, int count, int length) {
+        if (ends.length != count || (count > 0 && ends[count - 1] != length) || (count == 0 && length != 0)) {
+            throw new IllegalArgumentException("The meshes do not add up to their vertices and triangles");
+        }
+        int start = 0;
+        for (int end : ends) {
+            if (end <= start || (end - start) % 3 != 0) {
+                throw new IllegalArgumentException("Every mesh needs vertices and triangles, of 3 values each");
+            }
+            start = end;
+        }
+    }
+
+    private void checkMaterials(String primitive, int[] primitiveMaterials) {
+        for (int i = 0; i < primitiveMaterials.length; i++) {
+            if (primitiveMaterials[i] < 0 || primitiveMaterials[i] >= materialKinds.length) {
+                throw new IllegalArgumentException("The " + primitive + " at index " + i + " refers to material "
+                        + primitiveMaterials[i] + ", but there are " + materialKinds.length + " materials");
+            }
+        }
+    }
+
+    public int getMaterialCount() {
+        return materialKinds.length;
+    }
+
+    /** @return the number of spheres, boxes, planes and triangles together */
+    public int getPrimitiveCount() {
+        return sphereMaterials.length + boxMaterials.length + planeMaterials.length + meshIndices.length / 3;
+    }
+
+    public int getMeshCount() {
+        return meshMaterials.length;
+    }
+
+    public int getInstanceCount() {
+        return instanceMeshes.length;
+    }
+
+    /** @return the direction towards the sun, not necessarily of unit length */
+    public Vector3 getSun() {
+        return new Vector3(sun[0], sun[1], sun[2]);
+    }
+
+    /**
+     * Creates the materials and the shapes of the primitives. Primitives that refer to the same material share it.
+     *
+     * @param sunVector the direction towards the sun that the materials follow
+     * @param outShapes receives the shapes: the sets of spheres and boxes, then the planes, then the meshes without
+     * instances, then the instances
+     * @throws IllegalArgumentException if a triangle refers to a vertex that does not exist
+     */
+    public void createShapes(Vector3 sunVector, List<Shape> outShapes) {
+        Material[] table = new Material[materialKinds.length];
+        for (int i = 0; i < table.length; i++) {
+            int o = MATERIAL_STRIDE * i;
+            Color color = new Color(materials[o + 2], materials[o + 3], materials[o + 4]);
+            table[i] = materialKinds[i] == SIMPLE
+                    ? new SimpleMaterial(color)
+                    : new ComplexMaterial(materialKinds[i] == TRANSPARENT, materials[o], materials[o + 1], color,
+                            sunVector);
+        }
+
+        createPrimitiveSets(table, outShapes);
+        for (int i = 0; i < planeMaterials.length; i++) {
+            int o = PLANE_STRIDE * i;
+            Vector3 normal = new Vector3(planes[o + 3], planes[o + 4], planes[o + 5]);
+            Vector3.normalize(normal, normal);
+            outShapes.add(new Plane(new Vector3(planes[o], planes[o + 1], planes[o + 2]), normal,
+                    table[planeMaterials[i]]));
+        }
+        boolean[] instanced = new boolean[meshMaterials.length];
+        for (int mesh : instanceMeshes) {
+            instanced[mesh] = true;
+        }
+        TriangleMesh[] meshes = new TriangleMesh[meshMaterials.length];
+        for (int i = 0; i < meshMaterials.length; i++) {
+            int vertexStart = i == 0 ? 0 : meshVertexEnds[i - 1];
+            int indexStart = i == 0 ? 0 : meshIndexEnds[i - 1];
+            // the mesh keeps its vertices as they are, so the only mesh can share them with this description
+            float[] vertices = meshMaterials.length == 1
+                    ? meshVertices : Arrays.copyOfRange(meshVertices, vertexStart, meshVertexEnds[i]);
+            meshes[i] = new TriangleMesh(vertices, Arrays.copyOfRange(meshIndices, indexStart, meshIndexEnds[i]),
+                    table[meshMaterials[i]]);
+            if (!instanced[i]) {
+                outShapes.add(meshes[i]);
+            }
+        }
+        for (int i = 0; i < instanceMeshes.length; i++) {
+            outShapes.add(new Instance(meshes[instanceMeshes[i]], getTransform(i),
+                    instanceMaterials[i] == MESH_MATERIAL ? null : table[instanceMaterials[i]]));
+        }
+    }
+
+    /**
+     * Puts the spheres and boxes into a {@link SphereSet} and a {@link BoxSet} per group of neighbouring primitives.
+     * One set of every sphere and one of every box would both span the whole scene, so that every ray would have to
+     * search both; groups that are close together in space can be skipped by the hierarchy of the scene.
+     */
+    private void createPrimitiveSets(Material[] table, List<Shape> outShapes) {
+        int sphereCount = sphereMaterials.length;
+        int count = sphereCount + boxMaterials.length;
+        if (count == 0) {
+            return;
+        }
+
+        float[] centers = new float[3 * count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                int box = BOX_STRIDE * (i - sphereCount);
+                centers[3 * i + axis] = i < sphereCount ? spheres[SPHERE_STRIDE * i + axis]
+                        : 0.5f * (boxes[box + axis] + boxes[box + 3 + axis]);
+            }
+            order[i] = i;
+        }
+        createPrimitiveSets(centers, order, 0, count, table, outShapes);
+    }
+
+    /**
+     * Splits a range of primitives in half at the median of the longest axis of their centers, until the halves are
+     * small enough for a set.
+     *
+     * @param order the primitives, spheres first and boxes after them; the range is reordered
+     */
+    private void createPrimitiveSets(float[] centers, int[] order, int start, int end, Material[] table,
+                                     List<Shape> outShapes) {
+        if (end - start <= PRIMITIVES_PER_SET) {
+            createPrimitiveSet(order, start, end, table, outShapes);
+            return;
+        }
+
+        float[] min = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+        float[] max = { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        for (int k = start; k < end; k++) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], centers[3 * order[k] + axis]);
+                max[axis] = Math.max(max[axis], centers[3 * order[k] + axis]);
+            }
+        }
+        int axis = 0;
+        for (int i = 1; i < 3; i++) {
+            if (max[i] - min[i] > max[axis] - min[axis]) {
+                axis = i;
+            }
+        }
+
+        // sort on the center with the index in the low bits; flipping the bits of negative floats orders them as ints
+        long[] keys = new long[end - start];
+        for (int k = start; k < end; k++) {
+            int bits = Float.floatToIntBits(centers[3 * order[k] + axis]);
+            keys[k - start] = (long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32 | order[k];
+        }
+        Arrays.sort(keys);
+        for (int k = start; k < end; k++) {
+            order[k] = (int) keys[k - start];
+        }
+
+        int middle = (start + end) >>> 1;
+        createPrimitiveSets(centers, order, start, middle, table, outShapes);
+        createPrimitiveSets(centers, order, middle, end, table, outShapes);
+    }
+
+    /** Adds a set of the spheres and a set of the boxes in a range of primitives */
+    private void createPrimitiveSet(int[] order, int start, int end, Material[] table, List<Shape> outShapes) {
+        int sphereCount = sphereMaterials.length;
+        int groupSpheres = 0;
+        for (int k = start; k < end; k++) {
+            groupSpheres += order[k] < sphereCount ? 1 : 0;
+        }
+        int groupBoxes = end - start - groupSpheres;
+        float[] groupSphereValues = new float[SPHERE_STRIDE * groupSpheres];
+        int[] groupSphereMaterials = new int[groupSpheres];
+        float[] groupBoxValues = new float[BOX_STRIDE * groupBoxes];
+        int[] groupBoxMaterials = new int[groupBoxes];
+        int sphere = 0;
+        int box = 0;
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            if (i < sphereCount) {
+                System.arraycopy(spheres, SPHERE_STRIDE * i, groupSphereValues, SPHERE_STRIDE * sphere, SPHERE_STRIDE);
+                groupSphereMaterials[sphere++] = sphereMaterials[i];
+            } else {
+                System.arraycopy(boxes, BOX_STRIDE * (i - sphereCount), groupBoxValues, BOX_STRIDE * box, BOX_STRIDE);
+                groupBoxMaterials[box++] = boxMaterials[i - sphereCount];
+            }
+        }
+        if (groupSpheres > 0) {
+            outShapes.add(new SphereSet(groupSphereValues, groupSphereMaterials, table));
+        }
+        if (groupBoxes > 0) {
+            outShapes.add(new BoxSet(groupBoxValues, groupBoxMaterials, table));
+        }
+    }
+
+    /**
+     * Collects the contents of a scene one primitive at a time, for generating scenes and for the text format.
+     */
+    public static final class Builder {
+        private final float[] sun = { -0.2f, 1, 0.4f };
+        private int[] materialKinds = new int[16];
+        private float[] materials = new float[16 * MATERIAL_STRIDE];
+        private int materialCount;
+        private float[] spheres = new float[16 * SPHERE_STRIDE];
+        private int[] sphereMaterials = new int[16];
+        private int sphereCount;
+        private float[] boxes = new float[16 * BOX_STRIDE];
+        private int[] boxMaterials = new int[16];
+        private int boxCount;
+        private float[] planes = new float[16 * PLANE_STRIDE];
+        private int[] planeMaterials = new int[16];
+        private int planeCount;
+        private int[] meshVertexEnds = new int[16];
+        private int[] meshIndexEnds = new int[16];
+        private int[] meshMaterials = new int[16];
+        private int meshCount;
+        private float[] meshVertices = new float[16 * 3];
+        private int vertexLength;
+        private int[] meshIndices = new int[16 * 3];
+        private int indexLength;
+        private int[] instanceMeshes = new int[16];
+        private int[] instanceMaterials = new int[16];
+        private float[] instances = new float[16 * INSTANCE_STRIDE];
+        private int instanceCount;
+
+        /** Sets the direction towards the sun, which is (-0.2, 1, 0.4) like the built-in scenes by default */
+        public Builder setSun(float x, float y, float z) {
+            sun[0] = x;
+            sun[1] = y;
+            sun[2] = z;
+            return this;
+        }
+
+        /** @return the index of a new {@link SimpleMaterial} */
+        public int addSimpleMaterial(float r, float g, float b) {
+            return addMaterial(SIMPLE, 0f, 1f, r, g, b);
+        }
+
+        /** @return the index of a new {@link ComplexMaterial} */
+        public int addComplexMaterial(boolean transparent, float absorption, float refractiveIndex,
+                                      float r, float g, float b) {
+            return addMaterial(transparent ? TRANSPARENT : OPAQUE, absorption, refractiveIndex, r, g, b);
+        }
+
+        private int addMaterial(int kind, float absorption, float refractiveIndex, float r, float g, float b) {
+            if (materialCount == materialKinds.length) {
+                materialKinds = Arrays.copyOf(materialKinds, 2 * materialCount);
+                materials = Arrays.copyOf(materials, 2 * materials.length);
+            }
+            materialKinds[materialCount] = kind;
+            int o = MATERIAL_STRIDE * materialCount;
+            materials[o] = absorption;
+            materials[o + 1] = refractiveIndex;
+            materials[o + 2] = r;
+            materials[o + 3] = g;
+            materials[o + 4] = b;
+            return materialCount++;
+        }
+
+        public Builder addSphere(float x, float y, float z, float radius, int material) {
+            if (sphereCount == sphereMaterials.length) {
+                sphereMaterials = Arrays.copyOf(sphereMaterials, 2 * sphereCount);
+                spheres = Arrays.copyOf(spheres, 2 * spheres.length);
+            }
+            int o = SPHERE_STRIDE * sphereCount;
+            spheres[o] = x;
+            spheres[o + 1] = y;
+            spheres[o + 2] = z;
+            spheres[o + 3] = radius;
+            sphereMaterials[sphereCount++] = material;
+            return this;
+        }
+
+        public Builder addBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, int material) {
+            if (boxCount == boxMaterials.length) {
+                boxMaterials = Arrays.copyOf(boxMaterials, 2 * boxCount);
+                boxes = Arrays.copyOf(boxes, 2 * boxes.length);
+            }
+            int o = BOX_STRIDE * boxCount;
+            boxes[o] = minX;
+            boxes[o + 1] = minY;
+            boxes[o + 2] = minZ;
+            boxes[o + 3] = maxX;
+            boxes[o + 4] = maxY;
+            boxes[o + 5] = maxZ;
+            boxMaterials[boxCount++] = material;
+            return this;
+        }
+
+        public Builder addPlane(float x, float y, float z, float normalX, float normalY, float normalZ, int material) {
+            if (planeCount == planeMaterials.length) {
+                planeMaterials = Arrays.copyOf(planeMaterials, 2 * planeCount);
+                planes = Arrays.copyOf(planes, 2 * planes.length);
+            }
+            int o = PLANE_STRIDE * planeCount;
+            planes[o] = x;
+            planes[o + 1] = y;
+            planes[o + 2] = z;
+            planes[o + 3] = normalX;
+            planes[o + 4] = normalY;
+            planes[o + 5] = normalZ;
+            planeMaterials[planeCount++] = material;
+            return this;
+        }
+
+        /** Starts a new triangle mesh, the vertices and triangles that are added next belong to it */
+        public Builder beginMesh(int material) {
+            if (meshCount == meshMaterials.length) {
+                meshVertexEnds = Arrays.copyOf(meshVertexEnds, 2 * meshCount);
+                meshIndexEnds = Arrays.copyOf(meshIndexEnds, 2 * meshCount);
+                meshMaterials = Arrays.copyOf(meshMaterials, 2 * meshCount);
+            }
+            meshVertexEnds[meshCount] = vertexLength;
+            meshIndexEnds[meshCount] = indexLength;
+            meshMaterials[meshCount++] = material;
+            return this;
+        }
+
+        /** Adds a vertex to the current mesh */
+        public Builder addVertex(float x, float y, float z) {
+            if (meshCount == 0) {
+                throw new IllegalStateException("A vertex needs a mesh");
+            }
+            if (vertexLength + 3 > meshVertices.length) {
+                meshVertices = Arrays.copyOf(meshVertices, 2 * meshVertices.length);
+            }
+            meshVertices[vertexLength++] = x;
+            meshVertices[vertexLength++] = y;
+            meshVertices[vertexLength++] = z;
+            meshVertexEnds[meshCount - 1] = vertexLength;
+            return this;
+        }
+
+        /** Adds a triangle to the current mesh, of its vertices with these indices, counted from 0 */
+        public Builder addTriangle(int a, int b, int c) {
+            if (meshCount == 0) {
+                throw new IllegalStateException("A triangle needs a mesh");
+            }
+            if (indexLength + 3 > meshIndices.length) {
+                meshIndices = Arrays.copyOf(meshIndices, 2 * meshIndices.length);
+            }
+            meshIndices[indexLength++] = a;
+            meshIndices[indexLength++] = b;
+            meshIndices[indexLength++] = c;
+            meshIndexEnds[meshCount - 1] = indexLength;
+            return this;
+        }
+
+        /**
+         * Places a copy of a mesh.
+         *
+         * @param mesh the index of the mesh, in the order the meshes were begun
+         * @param transform the transform from the space of the mesh to world space
+         * @param material the index of the material of the copy, or {@link SceneDescription#MESH_MATERIAL}
+         */
+        public Builder addInstance(int mesh, AffineTransform transform, int material) {
+            if (instanceCount == instanceMeshes.length) {
+                instanceMeshes = Arrays.copyOf(instanceMeshes, 2 * instanceCount);
+                instanceMaterials = Arrays.copyOf(instanceMaterials, 2 * instanceCount);
+                instances = Arrays.copyOf(instances, 2 * INSTANCE_STRIDE * instanceCount);
+            }
+            System.arraycopy(transform.toArray(), 0, instances, INSTANCE_STRIDE * instanceCount, INSTANCE_STRIDE);
+            instanceMeshes[instanceCount] = mesh;
+            instanceMaterials[instanceCount++] = material;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a primitive refers to a material that does not exist, or an instance
+         * refers to a mesh that does not exist
+         */
+        public SceneDescription build() {
+            return new SceneDescription(sun.clone(),
+                    Arrays.copyOf(materialKinds, materialCount),
+                    Arrays.copyOf(materials, MATERIAL_STRIDE * materialCount),
+                    Arrays.copyOf(spheres, SPHERE_STRIDE * sphereCount),
+                    Arrays.copyOf(sphereMaterials, sphereCount),
+                    Arrays.copyOf(boxes, BOX_STRIDE * boxCount),
+                    Arrays.copyOf(boxMaterials, boxCount),
+                    Arrays.copyOf(planes, PLANE_STRIDE * planeCount),
+                    Arrays.copyOf(planeMaterials, planeCount),
+                    Arrays.copyOf(meshVertexEnds, meshCount),
+                    Arrays.copyOf(meshIndexEnds, meshCount),
+                    Arrays.copyOf(meshMaterials, meshCount),
+                    Arrays.copyOf(meshVertices, vertexLength),
+                    Arrays.copyOf(meshIndices, indexLength),
+                    Arrays.copyOf(instanceMeshes, instanceCount),
+                    Arrays.copyOf(instanceMaterials, instanceCount),
+                    Arrays.copyOf(instances, INSTANCE_STRIDE * instanceCount));
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package nl.jochemkuijpers.app.scenes;
+
+import nl.jochemkuijpers.math.AffineTransform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads and writes scene descriptions, in a text format that is easy to write by hand and in a binary format that
+ * loads quickly. Files ending in <code>.bscene</code> are binary, files ending in <code>.obj</code> are imported as a
+ * single gray mesh by {@link ObjFile}, all others are text.
+ *
+ * The text format has one statement per line, and ignores empty lines and everything after a <code>#</code>:
+ * <pre>
+ * sun X Y Z
+ * material NAME simple R G B
+ * material NAME opaque|transparent ABSORPTION REFRACTIVE_INDEX R G B
+ * sphere X Y Z RADIUS MATERIAL
+ * box MIN_X MIN_Y MIN_Z MAX_X MAX_Y MAX_Z MATERIAL
+ * plane X Y Z NORMAL_X NORMAL_Y NORMAL_Z MATERIAL
+ * mesh MATERIAL [FILE.obj]
+ * vertex X Y Z
+ * triangle A B C
+ * instance MESH MATERIAL|- X Y Z
+ * instance MESH MATERIAL|- M00 M01 M02 X M10 M11 M12 Y M20 M21 M22 Z
+ * </pre>
+ * A mesh either imports an OBJ file, relative to the scene file, or is made up of the vertex and triangle statements
+ * that follow it. A triangle refers to the vertices of its mesh by index, counting from 0. An instance places a copy
+ * of a mesh, by the index of the mesh counting from 0, moved or transformed by the three rows of a matrix; a material
+ * of <code>-</code> keeps the material of the mesh.
+ *
+ * The binary format is little endian. After a header of the magic number, the version, the sun, the number of
+ * materials, spheres, boxes, planes and meshes, the total length of the vertex and index arrays and the number of
+ * instances, it holds the arrays of {@link SceneDescription} one after the other. The file is memory-mapped and every
+ * array is decoded in bulk, without looking at the primitives one by one.
+ */
+public final class SceneFile {
+    /** "RTSC" */
+    private static final int MAGIC = 0x43535452;
+    private static final int VERSION = 3;
+    /** The magic number, the version, the sun and the eight counts */
+    private static final int HEADER_SIZE = 4 * (2 + 3 + 8);
+    /** The color of the mesh of an imported OBJ file */
+    private static final float OBJ_GRAY = 0.8f;
+
+    private SceneFile() { }
+
+    /**
+     * Reads a scene in the binary format if the file ends in <code>.bscene</code>, imports it as a mesh if it ends in
+     * <code>.obj</code>, and reads it in the text format otherwise
+     */
+    public static SceneDescription read(File file) throws IOException {
+        if (isBinary(file)) {
+            return readBinary(file);
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            if (isObj(file)) {
+                SceneDescription.Builder builder = new SceneDescription.Builder();
+                ObjFile.read(in, builder.addComplexMaterial(false, 1f, 1f, OBJ_GRAY, OBJ_GRAY, OBJ_GRAY), builder);
+                return builder.build();
+            }
+            return readText(in, file.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /** Writes a scene in the binary format if the file ends in <code>.bscene</code>, in the text format otherwise */
+    public static void write(SceneDescription scene, File file) throws IOException {
+        if (isBinary(file)) {
+            writeBinary(scene, file);
+            return;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writeText(scene, out);
+        }
+    }
+
+    private static boolean isBinary(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".bscene");
+    }
+
+    private static boolean isObj(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".obj");
+    }
+
+    /**
+     * Reads a scene in the text format, meshes import their OBJ files relative to the working directory.
+     *
+     * @throws IOException if the text is not a valid scene, the message has the line number
+     */
+    public static SceneDescription readText(Reader reader) throws IOException {
+        return readText(reader, null);
+    }
+
+    /**
+     * @param directory the directory that meshes import their OBJ files from, null for the working directory
+     * @throws IOException if the text is not a valid scene, or an OBJ file of a mesh is not valid
+     */
+    public static SceneDescription readText(Reader reader, File directory) throws IOException {
+        SceneDescription.Builder builder = new SceneDescription.Builder();
+        Map<String, Integer> materials = new HashMap<>();
+        BufferedReader in = new BufferedReader(reader);
+
+        // whether vertex and triangle statements add to the last mesh
+        boolean inMesh = false;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String[] words = line.split("\\s+");
+            try {
+                if (!words[0].equals("vertex") && !words[0].equals("triangle")) {
+                    inMesh = false;
+                }
+                switch (words[0]) {
+                    case "sun":
+                        expectWords(words, 4);
+                        builder.setSun(parse(words[1]), parse(words[2]), parse(words[3]));
+                        break;
+                    case "material":
+                        if (words.length < 3) {
+                            throw new IllegalArgumentException("expected a name and a kind of material");
+                        }
+                        if (materials.containsKey(words[1])) {
+                            throw new IllegalArgumentException("material " + words[1] + " already exists");
+                        }
+                        materials.put(words[1], parseMaterial(builder, words));
+                        break;
+                    case "sphere":
+                        expectWords(words, 6);
+                        builder.addSphere(parse(words[1]), parse(words[2]), parse(words[3]), parse(words[4]),
+                                material(materials, words[5]));
+                        break;
+                    case "box":
+                        expectWords(words, 8);
+                        builder.addBox(parse(words[1]), parse(words[2]), parse(words[3]),
+                                parse(words[4]), parse(words[5]), parse(words[6]), material(materials, words[7]));
+                        break;
+                    case "plane":
+                        expectWords(words, 8);
+                        builder.addPlane(parse(words[1]), parse(words[2]), parse(words[3]),
+                                parse(words[4]), parse(words[5]), parse(words[6]), material(materials, words[7]));
+                        break;
+                    case "mesh":
+                        if (words.length == 2) {
+                            builder.beginMesh(material(materials, words[1]));
+                            inMesh = true;
+                        } else {
+                            expectWords(words, 3);
+                            importObj(builder, material(materials, words[1]), new File(words[2]), directory);
+                        }
+                        break;
+                    case "vertex":
+                        expectWords(words, 4);
+                        if (!inMesh) {
+                            throw new IllegalArgumentException("vertex outside of a mesh");
+                        }
+                        builder.addVertex(parse(words[1]), parse(words[2]), parse(words[3]));
+                        break;
+                    case "triangle":
+                        expectWords(words, 4);
+                        if (!inMesh) {
+                            throw new IllegalArgumentException("triangle outside of a mesh");
+                        }
+                        builder.addTriangle(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+                                Integer.parseInt(words[3]));
+                        break;
+                    case "instance":
+                        if (words.length != 6 && words.length != 15) {
+                            throw new IllegalArgumentException("instance takes a mesh, a material and 3 or 12 values,"
+                                    + " got " + (words.length - 1) + " values");
+                        }
+                        int instanceMaterial = words[2].equals("-")
+                                ? SceneDescription.MESH_MATERIAL : material(materials, words[2]);
+                        builder.addInstance(Integer.parseInt(words[1]), parseTransform(words), instanceMaterial);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown statement " + words[0]);
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        try {
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static void importObj(SceneDescription.Builder builder, int material, File file, File directory)
+            throws IOException {
+        if (!file.isAbsolute() && directory != null) {
+            file = new File(directory, file.getPath());
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            ObjFile.read(in, material, builder);
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int parseMaterial(SceneDescription.Builder builder, String[] words) {
+        switch (words[2]) {
+            case "simple":
+                expectWords(words, 6);
+                return builder.addSimpleMaterial(parse(words[3]), parse(words[4]), parse(words[5]));
+            case "opaque":
+            case "transparent":
+                expectWords(words, 8);
+                return builder.addComplexMaterial(words[2].equals("transparent"), parse(words[3]), parse(words[4]),
+                        parse(words[5]), parse(words[6]), parse(words[7]));
+            default:
+                throw new IllegalArgumentException("unknown kind of material " + words[2]);
+        }
+    }
+
+    private static AffineTransform parseTransform(String[] words) {
+        if (words.length == 6) {
+            return AffineTransform.translation(parse(words[3]), parse(words[4]), parse(words[5]));
+        }
+        float[] matrix = new float[SceneDescription.INSTANCE_STRIDE];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = parse(words[3 + i]);
+        }
+        return new AffineTransform(matrix);
+    }
+
+    private static void expectWords(String[] words, int count) {
+        if (words.length != count) {
+            throw new IllegalArgumentException(words[0] + " takes " + (count - 1) + " values, got "
+                    + (words.length - 1));
+        }
+    }
+
+    private static float parse(String word) {
+        return Float.parseFloat(word);
+    }
+
+    private static int material(Map<String, Integer> materials, String name) {
+        Integer index = materials.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("unknown material " + name);
+        }
+        return index;
+    }
+
+    /** Writes a scene in the text format, the materials are named after their index */
+    public static void writeText(SceneDescription scene, Writer writer) throws IOException {
+        BufferedWriter out = new BufferedWriter(writer);
+        out.write("sun " + scene.sun[0] + " " + scene.sun[1] + " " + scene.sun[2] + "\n");
+        for (int i = 0; i < scene.materialKinds.length; i++) {
+            int o = SceneDescription.MATERIAL_STRIDE * i;
+            if (scene.materialKinds[i] == SceneDescription.SIMPLE) {
+                out.write("material m" + i + " simple");
+                writeFloats(out, scene.materials, o + 2, 3);
+            } else {
+                out.write("material m" + i
+                        + (scene.materialKinds[i] == SceneDescription.TRANSPARENT ? " transparent" : " opaque"));
+                writeFloats(out, scene.materials, o, 5);
+            }
+            out.write('\n');
+        }
+        writePrimitives(out, "sphere", scene.spheres, SceneDescription.SPHERE_STRIDE, scene.sphereMaterials);
+        writePrimitives(out, "box", scene.boxes, SceneDescription.BOX_STRIDE, scene.boxMaterials);
+        writePrimitives(out, "plane", scene.planes, SceneDescription.PLANE_STRIDE, scene.planeMaterials);
+        for (int i = 0; i < scene.meshMaterials.length; i++) {
+            out.write("mesh m" + scene.meshMaterials[i] + "\n");
+            for (int o = i == 0 ? 0 : scene.meshVertexEnds[i - 1]; o < scene.meshVertexEnds[i]; o += 3) {
+                out.write("vertex");
+                writeFloats(out, scene.meshVertices, o, 3);
+                out.write('\n');
+            }
+            for (int o = i == 0 ? 0 : scene.meshIndexEnds[i - 1]; o < scene.meshIndexEnds[i]; o += 3) {
+                out.write("triangle " + scene.meshIndices[o] + " " + scene.meshIndices[o + 1] + " "
+                        + scene.meshIndices[o + 2] + "\n");
+            }
+        }
+        for (int i = 0; i < scene.instanceMeshes.length; i++) {
+            int material = scene.instanceMaterials[i];
+            out.write("instance " + scene.instanceMeshes[i]
+                    + (material == SceneDescription.MESH_MATERIAL ? " -" : " m" + material));
+            writeFloats(out, scene.instances, SceneDescription.INSTANCE_STRIDE * i, SceneDescription.INSTANCE_STRIDE);
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private static void writePrimitives(Writer out, String statement, float[] values, int stride, int[] materials)
+            throws IOException {
+        for (int i = 0; i < materials.length; i++) {
+            out.write(statement);
+            writeFloats(out, values, stride * i, stride);
+            out.write(" m" + materials[i] + "\n");
+        }
+    }
+
+    private static void writeFloats(Writer out, float[] values, int offset, int count) throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            // the shortest decimal that reads back as exactly the same float
+            out.write(' ');
+            out.write(Float.toString(values[i]));
+        }
+    }
+
+    /**
+     * Reads a scene in the binary format, by memory-mapping the file and decoding every array in one go.
+     *
+     * @throws IOException if the file is not a scene of this version, or it is cut short
+     */
+    public static SceneDescription readBinary(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a binary scene");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a binary scene");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a binary scene of version " + version + ", expected " + VERSION);
+            }
+            float[] sun = getFloats(buffer, 3);
+            int materialCount = buffer.getInt();
+            int sphereCount = buffer.getInt();
+            int boxCount = buffer.getInt();
+            int planeCount = buffer.getInt();
+            int meshCount = buffer.getInt();
+            int vertexLength = buffer.getInt();
+            int indexLength = buffer.getInt();
+            int instanceCount = buffer.getInt();
+            if (materialCount < 0 || sphereCount < 0 || boxCount < 0 || planeCount < 0 || meshCount < 0
+                    || vertexLength < 0 || indexLength < 0 || instanceCount < 0 || size != binarySize(materialCount,
+                    sphereCount, boxCount, planeCount, meshCount, vertexLength, indexLength, instanceCount)) {
+                throw new IOException(file + " is not a complete binary scene");
+            }
+
+            try {
+                return new SceneDescription(sun,
+                        getInts(buffer, materialCount),
+                        getFloats(buffer, SceneDescription.MATERIAL_STRIDE * materialCount),
+                        getFloats(buffer, SceneDescription.SPHERE_STRIDE * sphereCount),
+                        getInts(buffer, sphereCount),
+                        getFloats(buffer, SceneDescription.BOX_STRIDE * boxCount),
+                        getInts(buffer, boxCount),
+                        getFloats(buffer, SceneDescription.PLANE_STRIDE * planeCount),
+                        getInts(buffer, planeCount),
+                        getInts(buffer, meshCount),
+                        getInts(buffer, meshCount),
+                        getInts(buffer, meshCount),
+                        getFloats(buffer, vertexLength),
+                        getInts(buffer, indexLength),
+                        getInts(buffer, instanceCount),
+                        getInts(buffer, instanceCount),
+                        getFloats(buffer, SceneDescription.INSTANCE_STRIDE * instanceCount));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Writes a scene in the binary format, into a memory-mapped file */
+    public static void writeBinary(SceneDescription scene, File file) throws IOException {
+        long size = binarySize(scene.materialKinds.length, scene.sphereMaterials.length, scene.boxMaterials.length,
+                scene.planeMaterials.length, scene.meshMaterials.length, scene.meshVertices.length,
+                scene.meshIndices.length, scene.instanceMeshes.length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("A binary scene cannot be larger than 2 GB");
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            putFloats(buffer, scene.sun);
+            buffer.putInt(scene.materialKinds.length);
+            buffer.putInt(scene.sphereMaterials.length);
+            buffer.putInt(scene.boxMaterials.length);
+            buffer.putInt(scene.planeMaterials.length);
+            buffer.putInt(scene.meshMaterials.length);
+            buffer.putInt(scene.meshVertices.length);
+            buffer.putInt(scene.meshIndices.length);
+            buffer.putInt(scene.instanceMeshes.length);
+            putInts(buffer, scene.materialKinds);
+            putFloats(buffer, scene.materials);
+            putFloats(buffer, scene.spheres);
+            putInts(buffer, scene.sphereMaterials);
+            putFloats(buffer, scene.boxes);
+            putInts(buffer, scene.boxMaterials);
+            putFloats(buffer, scene.planes);
+            putInts(buffer, scene.planeMaterials);
+            putInts(buffer, scene.meshVertexEnds);
+            putInts(buffer, scene.meshIndexEnds);
+            putInts(buffer, scene.meshMaterials);
+            putFloats(buffer, scene.meshVertices);
+            putInts(buffer, scene.meshIndices);
+            putInts(buffer, scene.instanceMeshes);
+            putInts(buffer, scene.instanceMaterials);
+            putFloats(buffer, scene.instances);
+            buffer.force();
+        }
+    }
+
+    private static long binarySize(long materials, long spheres, long boxes, long planes, long meshes,
+                                   long vertexLength, long indexLength, long instances) {
+        return HEADER_SIZE + 4 * (materials * (1 + SceneDescription.MATERIAL_STRIDE)
+                + spheres * (1 + SceneDescription.SPHERE_STRIDE)
+                + boxes * (1 + SceneDescription.BOX_STRIDE)
+                + planes * (1 + SceneDescription.PLANE_STRIDE)
+                + meshes * 3 + vertexLength + indexLength
+                + instances * (2 + SceneDescription.INSTANCE_STRIDE));
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    /** Reports how long a scene file takes to load, and converts it to the other format if an output is given */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SceneFile INPUT [OUTPUT]");
+            System.err.println("  .bscene is binary, .obj is imported as a mesh, anything else is text");
+            System.exit(2);
+            return;
+        }
+
+        FileScene scene = FileScene.load(new File(args[0]));
+        scene.printLoadTime(System.out, args[0]);
+
+        if (args.length == 2) {
+            long start = System.nanoTime();
+            write(scene.getDescription(), new File(args[1]));
+            System.out.printf("%s: written in %.1f ms%n", args[1], (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package nl.jochemkuijpers.app.scenes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The built-in scenes by name, for tools that select a scene from the command line. Scene files can be selected by
+ * their path instead, see {@link SceneFile}.
+ */
+public class Scenes {
+    private static final Map<String, Supplier<SimpleScene>> SCENES = new LinkedHashMap<>();
+    static {
+        SCENES.put("stacked", StackedShapeScene::new);
+        SCENES.put("maze", MazeScene::new);
+        SCENES.put("material", MaterialTestScene::new);
+    }
+
+    private Scenes() { }
+
+    /** @return the names of all built-in scenes */
+    public static Set<String> getNames() {
+        return Collections.unmodifiableSet(SCENES.keySet());
+    }
+
+    /** @return whether the name is the path of a scene file, rather than the name of a built-in scene */
+    public static boolean isSceneFile(String name) {
+        String lowerCase = name.toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".scene") || lowerCase.endsWith(".bscene") || lowerCase.endsWith(".obj");
+    }
+
+    /**
+     * @return a new instance of the named scene, or the scene loaded from the file if the name is a path ending in
+     * <code>.scene</code>, <code>.bscene</code> or <code>.obj</code>
+     * @throws IllegalArgumentException if there is no scene with this name
+     * @throws UncheckedIOException if the scene file could not be loaded
+     */
+    public static SimpleScene create(String name) {
+        if (isSceneFile(name)) {
+            try {
+                return FileScene.load(new File(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Supplier<SimpleScene> scene = SCENES.get(name);
+        if (scene == null) {
+            throw new IllegalArgumentException("Unknown scene: " + name);
+        }
+        return scene.get();
+    }
+}
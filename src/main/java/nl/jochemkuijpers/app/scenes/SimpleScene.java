@@ -2,8 +2,12 @@ package nl.jochemkuijpers.app.scenes;
 
 import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.acceleration.ShadowMap;
+import nl.jochemkuijpers.raytrace.acceleration.ShapeHierarchy;
 import nl.jochemkuijpers.raytrace.materials.ComplexMaterial;
 import nl.jochemkuijpers.raytrace.materials.Material;
 import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
@@ -18,12 +22,39 @@ public abstract class SimpleScene implements Scene {
     protected final List<Shape> sceneObjects;
     protected final Vector3 sunVector;
 
+    /** All bounded scene objects, in a spatial data structure */
+    private final ShapeHierarchy hierarchy;
+    /** Scene objects that could not be put in the hierarchy, these are tested separately */
+    private final Shape[] unboundedObjects;
+
+    // the shadow map of the sun and how it is built, guarded by this
+    /** The number of texels along each side of the shadow map of the sun, 0 to trace every shadow ray */
+    private int shadowMapResolution;
+    /** A copy of the sun vector, taken whenever the sun moves; maps are built for this copy */
+    private Vector3 sunSnapshot;
+    /** Whether a thread is building shadow maps, it keeps going until the map of the snapshot is published */
+    private boolean buildingShadowMap;
+    /** The shadow map of the hierarchy for the current sun; null while there is none, or while it is being built */
+    private volatile ShadowMap shadowMap;
+
     SimpleScene() {
+        this(null);
+    }
+
+    /**
+     * @param description the objects and the sun of the scene, or null to create the objects with
+     * {@link #createScene()}
+     */
+    SimpleScene(SceneDescription description) {
         sceneObjects = new ArrayList<>();
-        sunVector = new Vector3(-0.2f, 1, 0.4f);
+        sunVector = description != null ? description.getSun() : new Vector3(-0.2f, 1, 0.4f);
         Vector3.normalize(sunVector, sunVector);
 
-        createScene();
+        if (description != null) {
+            description.createShapes(sunVector, sceneObjects);
+        } else {
+            createScene();
+        }
 
         // a dark floor on y = 0
         Material floor = new ComplexMaterial(false, 1f, 1f, new Color(0.03f, 0.03f, 0.03f), sunVector);
@@ -31,37 +62,211 @@ public abstract class SimpleScene implements Scene {
 
         // a gray sphere around the entire scene
         sceneObjects.add(new Sphere(new Vector3(0, 0, 0), 1000000, new SimpleMaterial(new Color(0.7f, 0.7f, 0.7f))));
+
+        List<Shape> unbounded = new ArrayList<>();
+        hierarchy = new ShapeHierarchy(sceneObjects, unbounded);
+        unboundedObjects = unbounded.toArray(new Shape[0]);
     }
 
     protected abstract void createScene();
 
+    /**
+     * Rotates the sun around the vertical axis. This only changes the shading of the scene, not what the rays hit.
+     * Jobs that render the scene meanwhile may see a partly rotated sun, so advance the epoch of their frame before
+     * calling this; their results are then rejected. The shadow map of the old sun is dropped right away, and the map
+     * of the new sun is built in the background.
+     */
+    public synchronized void rotateSun(float radians) {
+        shadowMap = null;
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        sunVector.set(sunVector.x * cos - sunVector.z * sin, sunVector.y, sunVector.x * sin + sunVector.z * cos);
+        Vector3.normalize(sunVector, sunVector);
+        requestShadowMap();
+    }
+
+    /**
+     * Points the sun in a direction, with the same caveats as {@link #rotateSun(float)}. The direction is taken as it
+     * is, so a sun that is set to the direction of another scene's sun shades exactly the same. Setting the direction
+     * the sun already has keeps its shadow map.
+     *
+     * @param direction the (unit length) direction towards the sun
+     */
+    public synchronized void setSunVector(Vector3 direction) {
+        if (direction.x == sunVector.x && direction.y == sunVector.y && direction.z == sunVector.z) {
+            return;
+        }
+        shadowMap = null;
+        sunVector.set(direction);
+        requestShadowMap();
+    }
+
+    /** @return the direction towards the sun; it is changed in place when the sun moves */
+    public Vector3 getSunVector() {
+        return sunVector;
+    }
+
+    /**
+     * Makes diffuse shading look up the shadows of the sun in a shadow map of the scene, tracing shadow rays only where
+     * the map cannot tell. The map is built in the background, now and again whenever the sun has moved, which takes a
+     * ray per texel; until it is done, every shadow ray is traced. It pays off for scenes where the sun stays put.
+     *
+     * Setting the resolution that the map already has keeps the map.
+     *
+     * @param resolution the number of texels along each side of the map, or 0 to trace every shadow ray
+     */
+    public synchronized void setShadowMapResolution(int resolution) {
+        if (resolution < 0) {
+            throw new IllegalArgumentException("The resolution of a shadow map cannot be negative, got " + resolution);
+        }
+        if (resolution == shadowMapResolution) {
+            return;
+        }
+        shadowMapResolution = resolution;
+        shadowMap = null;
+        requestShadowMap();
+    }
+
+    /** @return the shadow map for the current sun, or null if the scene has none or it is still being built */
+    public ShadowMap getShadowMap() {
+        return shadowMap;
+    }
+
+    /**
+     * Waits until the shadow map for the current sun has been built.
+     *
+     * @return the shadow map, or null if the scene has none
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized ShadowMap awaitShadowMap() throws InterruptedException {
+        while (buildingShadowMap) {
+            wait();
+        }
+        return shadowMap;
+    }
+
+    /** Takes a snapshot of the sun and makes sure a thread builds its map. Must be called while holding the lock. */
+    private void requestShadowMap() {
+        if (shadowMapResolution == 0 || hierarchy.size() == 0) {
+            sunSnapshot = null;
+            return;
+        }
+        sunSnapshot = new Vector3(sunVector);
+        if (!buildingShadowMap) {
+            buildingShadowMap = true;
+            Thread builder = new Thread(this::buildShadowMaps, "shadow-map-builder");
+            builder.setDaemon(true);
+            builder.start();
+        }
+    }
+
+    /** Builds maps until one is built for the latest snapshot of the sun, and publishes that one */
+    private void buildShadowMaps() {
+        Vector3 sun;
+        int resolution;
+        synchronized (this) {
+            sun = sunSnapshot;
+            resolution = shadowMapResolution;
+        }
+        while (sun != null) {
+            ShadowMap map = new ShadowMap(hierarchy, sun, resolution);
+            synchronized (this) {
+                if (sunSnapshot == sun && shadowMapResolution == resolution) {
+                    shadowMap = map;
+                    buildingShadowMap = false;
+                    notifyAll();
+                    return;
+                }
+                // the sun moved while building, start over for where it is now
+                sun = sunSnapshot;
+                resolution = shadowMapResolution;
+            }
+        }
+        synchronized (this) {
+            buildingShadowMap = false;
+            notifyAll();
+        }
+    }
+
     @Override
-    public float query(Ray ray, Color out) {
+    public float query(TraceContext context, Ray ray, Color out) {
         if (ray.getDepth() > RECURSIVE_MAX_DEPTH) { return -1f; }
-        Vector3 closestIntersection = new Vector3(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-        Vector3 intersection = new Vector3();
-        Color color = new Color();
+        Hit hit = context.getHit(ray.getDepth());
+
+        // first find the closest hit, without shading anything
+        if (!intersect(context, ray, hit)) {
+            return -1f;
+        }
 
-        // naively iterate over all objects.
-        // there can be much improvement here with a proper spatial data structure as about 90% of rendering time is
-        // spent in this method.
-        for (Shape object : sceneObjects) {
+        // then shade only the closest hit
+        hit.shape.computeSurface(ray, hit);
+        hit.shape.shade(context, ray, this, hit, out);
 
-            if (!object.query(ray, this, intersection, color)) {
-                continue;
-            }
+        return hit.distance;
+    }
+
+    @Override
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        hit.reset();
+        // the distance of the hit is the upper end of the interval of the ray, which shrinks with every closer hit
+        hit.distance = ray.getMaxDistance();
+
+        hierarchy.intersect(context, ray, hit);
 
-            if (Vector3.distSqr(ray.getOrigin(), intersection) <
-                    Vector3.distSqr(ray.getOrigin(), closestIntersection)) {
-                closestIntersection.set(intersection);
-                out.set(color);
+        // unbounded objects (the floor, the sky) are few and are always tested
+        for (Shape object : unboundedObjects) {
+            object.intersect(context, ray, hit);
+        }
+        return hit.isHit();
+    }
+
+    @Override
+    public boolean occluded(TraceContext context, Vector3 origin, Vector3 heading, float maxDistance) {
+        context.getCounters().countShadowRay();
+        Ray ray = context.getShadowRay();
+        ray.getOrigin().set(origin);
+        ray.getHeading().set(heading);
+        ray.setInterval(0, maxDistance);
+
+        if (hierarchy.occludes(context, ray, maxDistance)) {
+            return true;
+        }
+
+        for (Shape object : unboundedObjects) {
+            if (object.occludes(context, ray, maxDistance)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        if (closestIntersection.x != Float.MAX_VALUE) {
-            return Vector3.distSqr(ray.getOrigin(), closestIntersection);
-        } else {
-            return -1f;
+    @Override
+    public boolean sunOccluded(TraceContext context, Vector3 position, Vector3 normal, Vector3 sunVector,
+                               float maxDistance) {
+        // the sun is compared by value: the wavefront passes a copy of the scene's sun, and materials with a sun of
+        // their own trace their shadow rays
+        ShadowMap map = shadowMap;
+        if (map == null || !map.isFor(sunVector)) {
+            return occluded(context, position, sunVector, maxDistance);
+        }
+
+        switch (map.lookup(position, normal, maxDistance)) {
+            case SHADOWED:
+                return true;
+            case LIT:
+                // the map only covers the hierarchy, the few unbounded objects are still tested
+                Ray ray = context.getShadowRay();
+                ray.getOrigin().set(position);
+                ray.getHeading().set(sunVector);
+                ray.setInterval(0, maxDistance);
+                for (Shape object : unboundedObjects) {
+                    if (object.occludes(context, ray, maxDistance)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return occluded(context, position, sunVector, maxDistance);
         }
     }
 }
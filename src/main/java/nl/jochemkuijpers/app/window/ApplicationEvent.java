@@ -2,7 +2,7 @@ package nl.jochemkuijpers.app.window;
 
 public class ApplicationEvent {
     public enum Type {
-        LEFT, RIGHT, UP, DOWN, EXIT, PREV_SCENE, NEXT_SCENE;
+        LEFT, RIGHT, UP, DOWN, EXIT, PREV_SCENE, NEXT_SCENE, NEXT_HEATMAP, EXPORT_TILE_COSTS, MOVE_SUN, WORKERS_LOST;
     }
 
     private final Type type;
@@ -36,10 +36,21 @@ public class InputCapturer implements KeyListener {
             case KeyEvent.VK_PAGE_UP:
                 event = new ApplicationEvent(ApplicationEvent.Type.NEXT_SCENE);
                 break;
+            case KeyEvent.VK_H:
+                event = new ApplicationEvent(ApplicationEvent.Type.NEXT_HEATMAP);
+                break;
+            case KeyEvent.VK_C:
+                event = new ApplicationEvent(ApplicationEvent.Type.EXPORT_TILE_COSTS);
+                break;
+            case KeyEvent.VK_L:
+                event = new ApplicationEvent(ApplicationEvent.Type.MOVE_SUN);
+                break;
         }
         if (event != null) {
             synchronized (applicationEvents) {
                 applicationEvents.offer(event);
+                // the application loop waits on the queue
+                applicationEvents.notifyAll();
             }
         }
     }
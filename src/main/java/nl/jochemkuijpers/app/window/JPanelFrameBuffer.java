@@ -1,16 +1,26 @@
 package nl.jochemkuijpers.app.window;
 
 import nl.jochemkuijpers.raytrace.renderer.FrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.Surface;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
+/**
+ * A frame buffer that shows an image in a panel. Tiles render straight into the pixel array of the image through
+ * its {@link Surface}, and {@link #repaintChanged()} repaints only the region that changed.
+ */
 public class JPanelFrameBuffer extends JPanel implements FrameBuffer {
     private int frameWidth;
     private int frameHeight;
-    private BufferedImage image;
+    /** The image and its surface are replaced together on resize, see {@link #getSurface()} */
+    private volatile BufferedImage image;
+    private volatile Surface surface;
+    /** Told when the frame buffer changes after the last {@link #repaintChanged()}, may be null */
+    private volatile Runnable changeListener;
     private JLabel label;
 
     public JPanelFrameBuffer(int width, int height) {
@@ -22,9 +32,11 @@ public class JPanelFrameBuffer extends JPanel implements FrameBuffer {
                 "<html>[ESC] to quit<br>" +
                 "[ARROW KEYS] to rotate the camera<br>" +
                 "[PAGE UP/DOWN] to change scene<br>" +
+                "[L] to move the sun<br>" +
+                "[H] to cycle the cost heatmaps, [C] to export the tile costs<br>" +
                 "The red boxes indicate currently rendering tiles<br><br>" +
-                "A scene is rendered in three passes:<br>" +
-                "low resolution, native resolution and 4×4 super-sampling<br><br>" +
+                "A scene is rendered in four passes: low resolution, native resolution<br>" +
+                "and adaptive 2×2 and 4×4 super-sampling<br><br>" +
                 "(C) Jochem Kuijpers, 2019</html>"
         );
         label.setForeground(Color.WHITE);
@@ -35,7 +47,8 @@ public class JPanelFrameBuffer extends JPanel implements FrameBuffer {
     }
 
     private void updateImage() {
-        BufferedImage newImage = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_ARGB);
+        // an opaque image of ints: drawing it needs no blending, and tiles can write into its pixel array as is
+        BufferedImage newImage = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_RGB);
 
         if (image != null) {
             // copy a scaled version of the old image to the new image as a first approximation
@@ -47,6 +60,8 @@ public class JPanelFrameBuffer extends JPanel implements FrameBuffer {
         }
 
         this.image = newImage;
+        this.surface = new Surface(frameWidth, frameHeight,
+                ((DataBufferInt) newImage.getRaster().getDataBuffer()).getData(), this::surfaceChanged);
     }
 
     @Override
@@ -68,21 +83,45 @@ public class JPanelFrameBuffer extends JPanel implements FrameBuffer {
 
     @Override
     public void write(int x, int y, int w, int h, int[] data) {
-        // there's a hard to avoid race-condition where it is possible that a pre-resize tile is trying to write to
-        // our post-resize image. Typically this is not a big problem, as resizing the window triggers re-rendering
-        // everything so it will be overwritten very soon anyway. However, we must be careful not to draw outside the
-        // image boundaries. In cases where invalid writes would take place, we can just simply skip them as they are
-        // always invalid writes.
-
-        if (x + w > image.getWidth() || y + h > image.getHeight()) {
+        // tiles write into the surface they were made for; this is for anyone else, who may not know the new size yet
+        Surface current = surface;
+        if (x + w > current.getWidth() || y + h > current.getHeight()) {
             return;
         }
+        current.write(x, y, w, h, data);
+    }
+
+    @Override
+    public Surface getSurface() {
+        return surface;
+    }
 
-        image.setRGB(x, y, w, h, data, 0, w);
+    /**
+     * Sets the listener that is told, on the rendering thread, when the frame buffer changes after it was last
+     * repainted. It is called once until the next {@link #repaintChanged()}.
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void surfaceChanged() {
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /** Repaints the region of the image that changed since the last call, if any. */
+    public void repaintChanged() {
+        Surface.Region region = surface.takeDirtyRegion();
+        if (region != null) {
+            repaint(region.getX(), region.getY(), region.getWidth(), region.getHeight());
+        }
     }
 
     @Override
     public void paint(Graphics g) {
+        // only the clip region is drawn, which is the changed region when called through repaintChanged
         g.drawImage(image, 0, 0, null);
         label.paint(g);
     }
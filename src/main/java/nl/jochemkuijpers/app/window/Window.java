@@ -3,6 +3,8 @@ package nl.jochemkuijpers.app.window;
 import nl.jochemkuijpers.raytrace.renderer.FrameBuffer;
 
 import javax.swing.*;
+import java.awt.DisplayMode;
+import java.awt.GraphicsConfiguration;
 
 public class Window extends JFrame {
     private final JPanelFrameBuffer frameBuffer;
@@ -26,4 +28,24 @@ public class Window extends JFrame {
     public void resizeFrameBuffer() {
         frameBuffer.resizeFrameBuffer(getWidth(), getHeight());
     }
+
+    /** See {@link JPanelFrameBuffer#setChangeListener(Runnable)} */
+    public void setChangeListener(Runnable changeListener) {
+        frameBuffer.setChangeListener(changeListener);
+    }
+
+    /** @return the refresh rate of the display the window is on in Hz, or 60 if it is not known */
+    public int getRefreshRate() {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        DisplayMode mode = configuration == null ? null : configuration.getDevice().getDisplayMode();
+        if (mode == null || mode.getRefreshRate() == DisplayMode.REFRESH_RATE_UNKNOWN) {
+            return 60;
+        }
+        return mode.getRefreshRate();
+    }
+
+    /** Repaints the part of the frame buffer that the render jobs changed. */
+    public void repaintChanged() {
+        frameBuffer.repaintChanged();
+    }
 }
@@ -0,0 +1,123 @@
+package nl.jochemkuijpers.math;
+
+/**
+ * An affine transform of 3D space: a linear map followed by a translation, as the top three rows of a 4x4 matrix.
+ * Transforms are immutable; combining them creates a new one.
+ */
+public final class AffineTransform {
+    public static final AffineTransform IDENTITY = new AffineTransform(new float[] {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0
+    });
+
+    /** The three rows of four values, the last column is the translation */
+    private final float[] m;
+
+    /**
+     * @param matrix the three rows of the matrix, four values each with the translation last; the array is copied
+     * @throws IllegalArgumentException if the matrix does not have 12 values
+     */
+    public AffineTransform(float[] matrix) {
+        if (matrix.length != 12) {
+            throw new IllegalArgumentException("An affine transform has 12 values, got " + matrix.length);
+        }
+        this.m = matrix.clone();
+    }
+
+    public static AffineTransform translation(float x, float y, float z) {
+        return new AffineTransform(new float[] {
+                1, 0, 0, x,
+                0, 1, 0, y,
+                0, 0, 1, z
+        });
+    }
+
+    public static AffineTransform scale(float x, float y, float z) {
+        return new AffineTransform(new float[] {
+                x, 0, 0, 0,
+                0, y, 0, 0,
+                0, 0, z, 0
+        });
+    }
+
+    /** @return a counter-clockwise rotation around the y axis, seen from above */
+    public static AffineTransform rotationY(float radians) {
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        return new AffineTransform(new float[] {
+                cos, 0, sin, 0,
+                0, 1, 0, 0,
+                -sin, 0, cos, 0
+        });
+    }
+
+    /** @return the value at the row (0 to 2) and column (0 to 3) of the matrix */
+    public float get(int row, int column) {
+        return m[4 * row + column];
+    }
+
+    /** @return a copy of the three rows of the matrix */
+    public float[] toArray() {
+        return m.clone();
+    }
+
+    /** @return the transform that applies this transform first and then the other one */
+    public AffineTransform then(AffineTransform other) {
+        float[] a = other.m;
+        float[] result = new float[12];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 4; column++) {
+                float value = a[4 * row] * m[column] + a[4 * row + 1] * m[4 + column] + a[4 * row + 2] * m[8 + column];
+                result[4 * row + column] = column == 3 ? value + a[4 * row + 3] : value;
+            }
+        }
+        return new AffineTransform(result);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the linear part cannot be inverted
+     */
+    public AffineTransform inverse() {
+        // the inverse of the linear part is its adjugate divided by the determinant
+        double c00 = (double) m[5] * m[10] - (double) m[6] * m[9];
+        double c01 = (double) m[2] * m[9] - (double) m[1] * m[10];
+        double c02 = (double) m[1] * m[6] - (double) m[2] * m[5];
+        double c10 = (double) m[6] * m[8] - (double) m[4] * m[10];
+        double c11 = (double) m[0] * m[10] - (double) m[2] * m[8];
+        double c12 = (double) m[2] * m[4] - (double) m[0] * m[6];
+        double c20 = (double) m[4] * m[9] - (double) m[5] * m[8];
+        double c21 = (double) m[1] * m[8] - (double) m[0] * m[9];
+        double c22 = (double) m[0] * m[5] - (double) m[1] * m[4];
+        double det = m[0] * c00 + m[1] * c10 + m[2] * c20;
+        if (det == 0 || Double.isNaN(det) || Double.isInfinite(det)) {
+            throw new IllegalArgumentException("The transform cannot be inverted");
+        }
+
+        double[] linear = { c00 / det, c01 / det, c02 / det, c10 / det, c11 / det, c12 / det, c20 / det, c21 / det,
+                c22 / det };
+        float[] result = new float[12];
+        for (int row = 0; row < 3; row++) {
+            double x = linear[3 * row], y = linear[3 * row + 1], z = linear[3 * row + 2];
+            result[4 * row] = (float) x;
+            result[4 * row + 1] = (float) y;
+            result[4 * row + 2] = (float) z;
+            result[4 * row + 3] = (float) -(x * m[3] + y * m[7] + z * m[11]);
+        }
+        return new AffineTransform(result);
+    }
+
+    /** Transforms a point, including the translation; the output may be the input */
+    public void transformPoint(Vector3 a, Vector3 out) {
+        out.set(m[0] * a.x + m[1] * a.y + m[2] * a.z + m[3],
+                m[4] * a.x + m[5] * a.y + m[6] * a.z + m[7],
+                m[8] * a.x + m[9] * a.y + m[10] * a.z + m[11]);
+    }
+
+    /** Transforms a direction, which ignores the translation; the output may be the input */
+    public void transformDirection(Vector3 a, Vector3 out) {
+        out.set(m[0] * a.x + m[1] * a.y + m[2] * a.z,
+                m[4] * a.x + m[5] * a.y + m[6] * a.z,
+                m[8] * a.x + m[9] * a.y + m[10] * a.z);
+    }
+}
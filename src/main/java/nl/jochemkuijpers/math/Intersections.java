@@ -4,25 +4,28 @@ import org.apache.commons.math3.util.FastMath;
 
 /**
  * All methods in this class compute the length along the heading vector, starting in the origin vector until the
- * intersection point. Negative values mean there is no intersection
+ * nearest intersection point within [minDistance, maxDistance]. Negative values mean there is no intersection in that
+ * interval. Shapes that lie entirely outside of it are rejected as early as possible.
+ *
+ * These are called for every shape a ray may hit, so they work on plain floats and never allocate.
  */
 @SuppressWarnings("Duplicates")
 public class Intersections {
 
-    public static float box(Vector3 origin, Vector3 heading, Vector3 min, Vector3 max) {
-        Vector3 headingFrac = new Vector3();
-        headingFrac.x = 1f / heading.x;
-        headingFrac.y = 1f / heading.y;
-        headingFrac.z = 1f / heading.z;
+    public static float box(Vector3 origin, Vector3 heading, Vector3 min, Vector3 max, float minDistance,
+                            float maxDistance) {
+        float fracX = 1f / heading.x;
+        float fracY = 1f / heading.y;
+        float fracZ = 1f / heading.z;
 
-        float tmin = (min.x - origin.x) * headingFrac.x;
-        float tmax = (max.x - origin.x) * headingFrac.x;
+        float tmin = (min.x - origin.x) * fracX;
+        float tmax = (max.x - origin.x) * fracX;
         float swap;
 
         if (tmin > tmax) { swap = tmin; tmin = tmax; tmax = swap; }
 
-        float tymin = (min.y - origin.y) * headingFrac.y;
-        float tymax = (max.y - origin.y) * headingFrac.y;
+        float tymin = (min.y - origin.y) * fracY;
+        float tymax = (max.y - origin.y) * fracY;
 
         if (tymin > tymax) { swap = tymin; tymin = tymax; tymax = swap; }
 
@@ -35,8 +38,11 @@ public class Intersections {
         if (tymax < tmax)
             tmax = tymax;
 
-        float tzmin = (min.z - origin.z) * headingFrac.z;
-        float tzmax = (max.z - origin.z) * headingFrac.z;
+        if ((tmin > maxDistance) || (tmax < minDistance))
+            return -1f;
+
+        float tzmin = (min.z - origin.z) * fracZ;
+        float tzmax = (max.z - origin.z) * fracZ;
 
         if (tzmin > tzmax) { swap = tzmin; tzmin = tzmax; tzmax = swap; }
 
@@ -49,15 +55,23 @@ public class Intersections {
         if (tzmax < tmax)
             tmax = tzmax;
 
-        return tmin < 0 ? tmax : tmin;
+        // inside the box at minDistance, the ray hits it on the way out
+        if (tmin < minDistance)
+            tmin = tmax;
+
+        return (tmin >= minDistance && tmin <= maxDistance) ? tmin : -1f;
     }
 
-    public static float sphere(Vector3 origin, Vector3 heading, Vector3 position, float radius) {
+    public static float sphere(Vector3 origin, Vector3 heading, Vector3 position, float radius, float minDistance,
+                               float maxDistance) {
         // intersection algorithm based on work available at scratchapixel.com
-        Vector3 L = new Vector3();
-        Vector3.sub(position, origin, L);
-        float tca = Vector3.dot(L, heading);
-        float d2 = L.magSqr() - tca * tca;
+        float lx = position.x - origin.x;
+        float ly = position.y - origin.y;
+        float lz = position.z - origin.z;
+        float tca = lx * heading.x + ly * heading.y + lz * heading.z;
+        if (tca - radius > maxDistance || tca + radius < minDistance) return -1f;
+
+        float d2 = lx * lx + ly * ly + lz * lz - tca * tca;
         float radius2 = radius * radius;
         if (d2 > radius2) return -1f;
 
@@ -65,23 +79,20 @@ public class Intersections {
         float t0 = tca - thc;
         float t1 = tca + thc;
 
-        if (t0 > t1) {
-            float ttmp = t1; t1 = t0; t0 = ttmp;
-        }
-
-        if (t0 < 0) {
-            if (t1 < 0) return -1f;
-            t0 = t1;
-        }
-        return t0;
+        // inside the sphere at minDistance, the ray hits it on the way out
+        if (t0 < minDistance) t0 = t1;
+        return (t0 >= minDistance && t0 <= maxDistance) ? t0 : -1f;
     }
 
-    public static float plane(Vector3 origin, Vector3 heading, Vector3 position, Vector3 normal) {
+    public static float plane(Vector3 origin, Vector3 heading, Vector3 position, Vector3 normal, float minDistance,
+                              float maxDistance) {
         float d = Vector3.dot(normal, heading);
         if (d == 0) return -1f;
 
-        Vector3 difference = new Vector3();
-        Vector3.sub(position, origin, difference);
-        return Vector3.dot(difference, normal) / d;
+        float dx = position.x - origin.x;
+        float dy = position.y - origin.y;
+        float dz = position.z - origin.z;
+        float t = (dx * normal.x + dy * normal.y + dz * normal.z) / d;
+        return (t >= minDistance && t <= maxDistance) ? t : -1f;
     }
 }
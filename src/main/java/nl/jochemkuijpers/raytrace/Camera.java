@@ -2,7 +2,9 @@ package nl.jochemkuijpers.raytrace;
 
 import nl.jochemkuijpers.math.Vector3;
 import nl.jochemkuijpers.raytrace.renderer.FrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.GBuffer;
 import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import nl.jochemkuijpers.raytrace.renderer.Surface;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -51,6 +53,21 @@ public class Camera {
         return viewGaze;
     }
 
+    /** @return the direction to the right of the view, see {@link #computeViewVectors()} */
+    public Vector3 getViewHorz() {
+        return viewHorz;
+    }
+
+    /** @return the direction to the bottom of the view, see {@link #computeViewVectors()} */
+    public Vector3 getViewVert() {
+        return viewVert;
+    }
+
+    /** @return the vertical field of view in radians */
+    public float getVerticalFOV() {
+        return verticalFOV;
+    }
+
     public void computeViewVectors() {
         Vector3.fastNormalize(viewUp, viewUp);
         Vector3.fastNormalize(viewGaze, viewGaze);
@@ -63,8 +80,22 @@ public class Camera {
     }
 
     public List<RenderTile> getRenderTiles(FrameBuffer frameBuffer) {
-        final int width = frameBuffer.getFrameWidth();
-        final int height = frameBuffer.getFrameHeight();
+        return getRenderTiles(frameBuffer, null);
+    }
+
+    /**
+     * Partitions the frame buffer into tiles that cache the hits of their camera rays in a G-buffer.
+     *
+     * @param gBuffer the G-buffer of the size of the frame buffer, or null to trace every camera ray
+     */
+    public List<RenderTile> getRenderTiles(FrameBuffer frameBuffer, GBuffer gBuffer) {
+        // the tiles are made for the size of the surface they write into, so they fit even if it is resized meanwhile
+        final Surface surface = frameBuffer.getSurface();
+        final int width = surface != null ? surface.getWidth() : frameBuffer.getFrameWidth();
+        final int height = surface != null ? surface.getHeight() : frameBuffer.getFrameHeight();
+        if (gBuffer != null && (gBuffer.getWidth() != width || gBuffer.getHeight() != height)) {
+            throw new IllegalArgumentException("The G-buffer does not have the size of the frame buffer.");
+        }
         final float halfWidth = width / 2f;
         final float halfHeight = height / 2f;
 
@@ -86,7 +117,7 @@ public class Camera {
                 tiles.add(new RenderTile(
                         position, viewGaze, viewHorz, viewVert,
                         xMin, xMax, yMin, yMax, verticalFOV,
-                        tileX, tileY, tileWidth, tileHeight, frameBuffer
+                        tileX, tileY, tileWidth, tileHeight, frameBuffer, surface, gBuffer
                 ));
             }
         }
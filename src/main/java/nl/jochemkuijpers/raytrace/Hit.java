@@ -0,0 +1,42 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+/**
+ * A hit record; the closest intersection of a ray found so far. Shapes only fill in the distance and themselves while
+ * the closest hit is searched for. The position and normal are computed afterwards, once, for the winning shape.
+ *
+ * Like Vector3, this class has public members to avoid OOP overhead in the hot path.
+ */
+public class Hit {
+    /** Distance along the ray heading, {@link Float#POSITIVE_INFINITY} if nothing has been hit (yet). */
+    public float distance = Float.POSITIVE_INFINITY;
+
+    /** The shape that was hit, or null if nothing has been hit (yet). */
+    public Shape shape = null;
+
+    /**
+     * Which part of the shape was hit, for shapes made of many primitives such as a triangle mesh. Only meaningful to
+     * the shape that was hit, which sets it along with itself.
+     */
+    public int primitive = 0;
+
+    /** The intersection point, only valid after {@link Shape#computeSurface(Ray, Hit)}. */
+    public final Vector3 position = new Vector3();
+
+    /** The surface normal at the intersection point, only valid after {@link Shape#computeSurface(Ray, Hit)}. */
+    public final Vector3 normal = new Vector3();
+
+    /** Clears the hit record so it can be reused for a new ray. */
+    public void reset() {
+        distance = Float.POSITIVE_INFINITY;
+        shape = null;
+        primitive = 0;
+    }
+
+    /** @return whether or not something has been hit */
+    public boolean isHit() {
+        return shape != null;
+    }
+}
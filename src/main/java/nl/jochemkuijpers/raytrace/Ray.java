@@ -2,10 +2,17 @@ package nl.jochemkuijpers.raytrace;
 
 import nl.jochemkuijpers.math.Vector3;
 
+/**
+ * A ray that looks for intersections within an interval of distances along its heading, [tMin, tMax]. While the
+ * closest hit is searched for, the distance of the hit record is the upper end of the interval, which shrinks with
+ * every closer hit that is found, so shapes beyond it can be skipped.
+ */
 public class Ray {
     private final int depth;
     private final Vector3 origin;
     private final Vector3 heading;
+    private float minDistance = 0;
+    private float maxDistance = Float.POSITIVE_INFINITY;
 
     public Ray(int depth, Vector3 origin, Vector3 heading) {
         this.depth = depth;
@@ -15,6 +22,8 @@ public class Ray {
 
     public Ray(Ray other) {
         this(other.depth + 1, other.origin, other.heading);
+        this.minDistance = other.minDistance;
+        this.maxDistance = other.maxDistance;
     }
 
     public Ray(int depth) {
@@ -34,4 +43,23 @@ public class Ray {
     public Vector3 getHeading() {
         return heading;
     }
+
+    /** @return the distance along the heading before which intersections are ignored, tMin */
+    public float getMinDistance() {
+        return minDistance;
+    }
+
+    /** @return the distance along the heading beyond which intersections are ignored, tMax */
+    public float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @param minDistance tMin, not negative
+     * @param maxDistance tMax, {@link Float#POSITIVE_INFINITY} for no limit
+     */
+    public void setInterval(float minDistance, float maxDistance) {
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+    }
 }
@@ -1,6 +1,7 @@
 package nl.jochemkuijpers.raytrace;
 
 import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
 
 /**
  * A scene turns a ray into a color.
@@ -9,11 +10,55 @@ public interface Scene {
     int RECURSIVE_MAX_DEPTH = 3;
 
     /**
-     * Query the world with a given ray.
+     * Query the world with a given ray. Afterwards, the hit record of the depth of the ray in the context
+     * ({@link TraceContext#getHit(int)}) holds the closest hit within the interval of the ray, if the depth was not
+     * beyond the maximum.
      *
+     * @param context the trace context of the current thread
      * @param ray the input ray
      * @param out the output color
-     * @return the distance to the intersection (negative for no intersection).
+     * @return the distance along the heading to the intersection (negative for no intersection).
      */
-    float query(Ray ray, Color out);
+    float query(TraceContext context, Ray ray, Color out);
+
+    /**
+     * Find the closest hit of a ray within its interval, like {@link #query(TraceContext, Ray, Color)} does, but
+     * without shading it, so that intersection and shading can be done in separate stages, see {@link Wavefront}.
+     *
+     * @param context the trace context of the current thread
+     * @param ray the input ray
+     * @param hit the hit record to fill in, it is reset first; only its distance and shape are set
+     * @return whether or not anything was hit
+     */
+    boolean intersect(TraceContext context, Ray ray, Hit hit);
+
+    /**
+     * Query whether anything blocks the line segment from origin along heading, up to a maximum distance. This
+     * returns as soon as any blocker is found and never runs materials, which makes it a lot cheaper than a full
+     * query for rays that only need a yes or no answer, such as shadow rays.
+     *
+     * @param context the trace context of the current thread
+     * @param origin the start of the segment
+     * @param heading the (unit length) direction of the segment
+     * @param maxDistance the length of the segment
+     * @return whether or not anything intersects the segment
+     */
+    boolean occluded(TraceContext context, Vector3 origin, Vector3 heading, float maxDistance);
+
+    /**
+     * Query whether anything blocks the light of the sun from a point on a surface that faces it. This is the same
+     * question as {@link #occluded(TraceContext, Vector3, Vector3, float)} towards the sun, but scenes may answer it
+     * from precomputed visibility for most points instead of tracing a ray.
+     *
+     * @param context the trace context of the current thread
+     * @param position the point, already moved off its surface
+     * @param normal the normal of the surface at the point
+     * @param sunVector the (unit length) direction towards the sun
+     * @param maxDistance how far towards the sun an occluder may be
+     * @return whether or not anything blocks the sun
+     */
+    default boolean sunOccluded(TraceContext context, Vector3 position, Vector3 normal, Vector3 sunVector,
+                                float maxDistance) {
+        return occluded(context, position, sunVector, maxDistance);
+    }
 }
@@ -0,0 +1,160 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+
+/**
+ * Preallocated scratch state for tracing rays, so that the trace path does not allocate any objects once it is warmed
+ * up. Every worker thread owns one context; a context must never be shared between threads.
+ *
+ * Most scratch objects are indexed by ray depth. A query at depth d only uses the objects of depth d, and the rays
+ * it spawns use those of depth d + 1, so recursive queries never overwrite state that is still in use further up
+ * the ray tree.
+ */
+public final class TraceContext {
+    private static final ThreadLocal<TraceContext> CONTEXTS = ThreadLocal.withInitial(() -> {
+        TraceContext context = new TraceContext();
+        TraceCounters.register(context.counters);
+        return context;
+    });
+
+    private final Ray[] rays;
+    private final Hit[] hits;
+    private final Color[] colors;
+    private final Vector3[] vectors;
+
+    private final Ray shadowRay;
+    private final Color sampleColor;
+    private final Color pixelColor;
+
+    private int[] nodeStack;
+    private float[] distanceStack;
+    private int stackSize;
+
+    private final TraceCounters counters;
+
+    /** The queues for tracing batches of rays breadth-first, created on first use */
+    private Wavefront wavefront;
+
+    public TraceContext() {
+        int levels = Scene.RECURSIVE_MAX_DEPTH + 1;
+        rays = new Ray[levels];
+        hits = new Hit[levels];
+        colors = new Color[levels];
+        vectors = new Vector3[levels];
+        for (int depth = 0; depth < levels; depth++) {
+            rays[depth] = new Ray(depth);
+            hits[depth] = new Hit();
+            colors[depth] = new Color();
+            vectors[depth] = new Vector3();
+        }
+
+        // We don't want recursive lookups for sun visibility checks, so the shadow ray gets maximal depth.
+        shadowRay = new Ray(Scene.RECURSIVE_MAX_DEPTH);
+        sampleColor = new Color();
+        pixelColor = new Color();
+
+        nodeStack = new int[64];
+        distanceStack = new float[64];
+        stackSize = 0;
+
+        counters = new TraceCounters();
+    }
+
+    /** @return the trace context owned by the current thread, its counters are included in the totals */
+    public static TraceContext forCurrentThread() {
+        return CONTEXTS.get();
+    }
+
+    /** @return the scratch ray of the given depth, its origin and heading should be overwritten before use */
+    public Ray getRay(int depth) {
+        return rays[depth];
+    }
+
+    /** @return the hit record used by the scene query of the given depth */
+    public Hit getHit(int depth) {
+        return hits[depth];
+    }
+
+    /** @return a scratch color for the material shading a ray of the given depth */
+    public Color getColor(int depth) {
+        return colors[depth];
+    }
+
+    /** @return a scratch vector for the material shading a ray of the given depth */
+    public Vector3 getVector(int depth) {
+        return vectors[depth];
+    }
+
+    /** @return the scratch ray used for occlusion queries, which never recurse */
+    public Ray getShadowRay() {
+        return shadowRay;
+    }
+
+    /** @return a scratch color for the renderer, which receives the color of a single camera ray */
+    public Color getSampleColor() {
+        return sampleColor;
+    }
+
+    /** @return a scratch color for the renderer, which accumulates the samples of a pixel */
+    public Color getPixelColor() {
+        return pixelColor;
+    }
+
+    /**
+     * @return the counters of this context, only those of the contexts returned by {@link #forCurrentThread()} are
+     * included in {@link TraceCounters#total()}
+     */
+    public TraceCounters getCounters() {
+        return counters;
+    }
+
+    /** @return the wavefront of this context, for tracing batches of camera rays breadth-first */
+    public Wavefront getWavefront() {
+        if (wavefront == null) {
+            wavefront = new Wavefront();
+        }
+        return wavefront;
+    }
+
+    /**
+     * Reserves room on the traversal stacks. Reservations nest, so an acceleration structure inside another one can
+     * reserve its own room without disturbing the outer traversal. Every reservation must be released with
+     * {@link #releaseStack(int)}.
+     *
+     * The stacks may be reallocated to make room, so retrieve them with {@link #getNodeStack()} and
+     * {@link #getDistanceStack()} after reserving.
+     *
+     * @param size the number of entries needed
+     * @return the offset of the first reserved entry
+     */
+    public int reserveStack(int size) {
+        int base = stackSize;
+        stackSize += size;
+        if (stackSize > nodeStack.length) {
+            int length = Math.max(stackSize, 2 * nodeStack.length);
+            int[] newNodeStack = new int[length];
+            float[] newDistanceStack = new float[length];
+            System.arraycopy(nodeStack, 0, newNodeStack, 0, base);
+            System.arraycopy(distanceStack, 0, newDistanceStack, 0, base);
+            nodeStack = newNodeStack;
+            distanceStack = newDistanceStack;
+        }
+        return base;
+    }
+
+    /** Releases a reservation made by {@link #reserveStack(int)}, and any reservation made after it. */
+    public void releaseStack(int base) {
+        stackSize = base;
+    }
+
+    /** @return the node traversal stack */
+    public int[] getNodeStack() {
+        return nodeStack;
+    }
+
+    /** @return the entry distances belonging to the nodes on the traversal stack */
+    public float[] getDistanceStack() {
+        return distanceStack;
+    }
+}
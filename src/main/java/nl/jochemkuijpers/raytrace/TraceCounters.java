@@ -0,0 +1,243 @@
+package nl.jochemkuijpers.raytrace;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what the trace path of a single thread does: rays by kind, intersection tests per shape type, rays cut off at
+ * {@link Scene#RECURSIVE_MAX_DEPTH}, and tiles rendered per pass along with their latency.
+ *
+ * Intersection tests are only counted when the system property <code>raytracer.countIntersections</code> is true. There
+ * are dozens of them per ray, and counting them all makes rendering up to about 5% slower.
+ *
+ * Every {@link TraceContext} owns one instance, and only its thread writes to it. As there is a single writer, an
+ * increment is a plain read followed by an ordered write (lazySet), which needs no atomic instruction or fence but
+ * still lets other threads read whole, published values. The counters of the contexts of all threads are summed on
+ * read by {@link #total()}. A reader may see values that are slightly behind, which is fine for monitoring.
+ */
+public final class TraceCounters {
+    /** Tile counts of passes beyond this are added to the last pass */
+    public static final int MAX_PASSES = 8;
+
+    /** Tile latencies are kept in buckets of powers of two microseconds, bucket b holds [2^(b-1), 2^b) µs */
+    public static final int LATENCY_BUCKETS = 32;
+
+    /** Whether shapes should count their intersection tests, this is constant so the checks compile away */
+    public static final boolean COUNT_INTERSECTIONS = Boolean.getBoolean("raytracer.countIntersections");
+
+    private static final int MAX_SHAPE_TYPES = 16;
+
+    /** The indices of the counters, the arrays of counters take a range of indices */
+    private static final int PRIMARY_RAYS = 0;
+    private static final int SHADOW_RAYS = 1;
+    private static final int REFLECTION_RAYS = 2;
+    private static final int REFRACTION_RAYS = 3;
+    private static final int DEPTH_TERMINATIONS = 4;
+    private static final int INTERSECTION_TESTS = 5;
+    private static final int INTERSECTION_HITS = INTERSECTION_TESTS + MAX_SHAPE_TYPES;
+    private static final int TILES_COMPLETED = INTERSECTION_HITS + MAX_SHAPE_TYPES;
+    private static final int TILES_CANCELLED = TILES_COMPLETED + MAX_PASSES;
+    private static final int TILE_LATENCIES = TILES_CANCELLED + MAX_PASSES;
+    private static final int COUNTERS = TILE_LATENCIES + MAX_PASSES * LATENCY_BUCKETS;
+
+    /** The names of the shape types, their index is the index of their counters */
+    private static final List<String> SHAPE_TYPES = new ArrayList<>();
+
+    /** The counters of all threads that use {@link TraceContext#forCurrentThread()} */
+    private static final List<Registration> REGISTERED = new ArrayList<>();
+
+    /** The counters of registered threads that have died */
+    private static final TraceCounters RETIRED = new TraceCounters();
+
+    private final AtomicLongArray counts = new AtomicLongArray(COUNTERS);
+
+    /**
+     * Looks up the counter index of a type of shape, registering it on first use. Shapes should do this once, when
+     * they are created.
+     *
+     * @param name the name of the type of shape
+     * @return the index to pass to {@link #countIntersection(int, boolean)}
+     * @throws IllegalStateException if there are too many types of shapes
+     */
+    public static int getShapeType(String name) {
+        synchronized (SHAPE_TYPES) {
+            int index = SHAPE_TYPES.indexOf(name);
+            if (index >= 0) {
+                return index;
+            }
+            if (SHAPE_TYPES.size() == MAX_SHAPE_TYPES) {
+                throw new IllegalStateException("Too many types of shapes to count, cannot add " + name);
+            }
+            SHAPE_TYPES.add(name);
+            return SHAPE_TYPES.size() - 1;
+        }
+    }
+
+    /** @return the names of all shape types, in the order of their index */
+    public static List<String> getShapeTypes() {
+        synchronized (SHAPE_TYPES) {
+            return new ArrayList<>(SHAPE_TYPES);
+        }
+    }
+
+    /** Includes the counters in {@link #total()}, they must only be written by the current thread from now on */
+    static void register(TraceCounters counters) {
+        synchronized (REGISTERED) {
+            REGISTERED.add(new Registration(Thread.currentThread(), counters));
+        }
+    }
+
+    /** @return a new instance holding the sum of the counters of all threads, including threads that have died */
+    public static TraceCounters total() {
+        TraceCounters total = new TraceCounters();
+        synchronized (REGISTERED) {
+            Iterator<Registration> iterator = REGISTERED.iterator();
+            while (iterator.hasNext()) {
+                Registration registration = iterator.next();
+                if (registration.thread.isAlive()) {
+                    total.add(registration.counters);
+                } else {
+                    // the thread no longer writes, so its final counts can be kept without it
+                    RETIRED.add(registration.counters);
+                    iterator.remove();
+                }
+            }
+            total.add(RETIRED);
+        }
+        return total;
+    }
+
+    public void countPrimaryRay() {
+        add(PRIMARY_RAYS, 1);
+    }
+
+    public void countShadowRay() {
+        add(SHADOW_RAYS, 1);
+    }
+
+    public void countReflectionRay() {
+        add(REFLECTION_RAYS, 1);
+    }
+
+    public void countRefractionRay() {
+        add(REFRACTION_RAYS, 1);
+    }
+
+    /** Counts a ray that would have spawned more rays, but was already at the maximum depth */
+    public void countDepthTermination() {
+        add(DEPTH_TERMINATIONS, 1);
+    }
+
+    /**
+     * @param shapeType the index of the shape type, see {@link #getShapeType(String)}
+     * @param hit whether the ray met the shape, even if it was not the closest hit
+     */
+    public void countIntersection(int shapeType, boolean hit) {
+        add(INTERSECTION_TESTS + shapeType, 1);
+        // without a branch, as hits and misses alternate too irregularly to predict
+        add(INTERSECTION_HITS + shapeType, hit ? 1 : 0);
+    }
+
+    /**
+     * Counts a number of intersection tests at once.
+     *
+     * @param shapeType the index of the shape type, see {@link #getShapeType(String)}
+     * @param tests the number of tests
+     * @param hits the number of tests in which the ray met the shape
+     */
+    public void countIntersections(int shapeType, int tests, int hits) {
+        add(INTERSECTION_TESTS + shapeType, tests);
+        add(INTERSECTION_HITS + shapeType, hits);
+    }
+
+    /**
+     * @param pass the index of the pass in the pipeline
+     * @param completed whether the tile was rendered in full, rather than cancelled halfway
+     * @param nanos the time it took to render or cancel the tile
+     */
+    public void countTile(int pass, boolean completed, long nanos) {
+        pass = Math.min(pass, MAX_PASSES - 1);
+        add((completed ? TILES_COMPLETED : TILES_CANCELLED) + pass, 1);
+        long micros = nanos / 1000;
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        add(TILE_LATENCIES + pass * LATENCY_BUCKETS + bucket, 1);
+    }
+
+    public long getPrimaryRays() {
+        return counts.get(PRIMARY_RAYS);
+    }
+
+    public long getShadowRays() {
+        return counts.get(SHADOW_RAYS);
+    }
+
+    public long getReflectionRays() {
+        return counts.get(REFLECTION_RAYS);
+    }
+
+    public long getRefractionRays() {
+        return counts.get(REFRACTION_RAYS);
+    }
+
+    public long getDepthTerminations() {
+        return counts.get(DEPTH_TERMINATIONS);
+    }
+
+    /** @return the number of rays of all kinds */
+    public long getRays() {
+        return getPrimaryRays() + getShadowRays() + getReflectionRays() + getRefractionRays();
+    }
+
+    /** @return the number of intersection tests with shapes of all types */
+    public long getIntersectionTests() {
+        long tests = 0;
+        for (int type = 0; type < MAX_SHAPE_TYPES; type++) {
+            tests += counts.get(INTERSECTION_TESTS + type);
+        }
+        return tests;
+    }
+
+    public long getIntersectionTests(int shapeType) {
+        return counts.get(INTERSECTION_TESTS + shapeType);
+    }
+
+    public long getIntersectionHits(int shapeType) {
+        return counts.get(INTERSECTION_HITS + shapeType);
+    }
+
+    public long getTilesCompleted(int pass) {
+        return counts.get(TILES_COMPLETED + pass);
+    }
+
+    public long getTilesCancelled(int pass) {
+        return counts.get(TILES_CANCELLED + pass);
+    }
+
+    /** @return the number of tiles of the pass that took [2^(bucket-1), 2^bucket) microseconds */
+    public long getTileLatencies(int pass, int bucket) {
+        return counts.get(TILE_LATENCIES + pass * LATENCY_BUCKETS + bucket);
+    }
+
+    /** Adds to a counter; only the owning thread writes, so the read and the write need not be one atomic step */
+    private void add(int counter, long delta) {
+        counts.lazySet(counter, counts.get(counter) + delta);
+    }
+
+    private void add(TraceCounters other) {
+        for (int i = 0; i < COUNTERS; i++) {
+            add(i, other.counts.get(i));
+        }
+    }
+
+    private static class Registration {
+        private final Thread thread;
+        private final TraceCounters counters;
+
+        Registration(Thread thread, TraceCounters counters) {
+            this.thread = thread;
+            this.counters = counters;
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+import java.util.Arrays;
+
+/**
+ * Traces a batch of camera rays breadth-first. Rather than following every ray down its ray tree before taking the
+ * next one, all rays of a depth are intersected in one stage and shaded in the next. Shading does not trace rays
+ * itself, but adds the rays it needs to a queue per type: reflection and refraction rays, which are traced at the next
+ * depth, and shadow rays, which are answered once the shading stage is done. Before a stage, its queue is sorted by the
+ * direction of the rays and then by the cell of their origin, so rays that run through the same part of the scene are
+ * traced one after the other and find its nodes and shapes still in the cache.
+ *
+ * Every ray carries the weight of its color in the color of its camera ray, which is called the sample. The colors of
+ * all rays of a sample add up to what {@link Scene#query(TraceContext, Ray, Color)} returns for its camera ray, up to
+ * rounding. Materials take part through {@link Material#shade}; hits on other materials are shaded depth-first. Camera
+ * rays whose hit is already known, for example from a G-buffer, skip the intersection stage and are only shaded.
+ *
+ * A wavefront is reused for every batch. Like the trace context that owns it, it must never be shared between threads.
+ */
+public final class Wavefront {
+    /** The maximum number of samples in a batch, enough for a render tile with a sample per pixel */
+    public static final int BATCH_SIZE = Camera.RENDER_TILE_SIZE * Camera.RENDER_TILE_SIZE;
+    /** The sort keys have 21 bits, which are sorted in two passes */
+    private static final int RADIX_BITS = 11;
+
+    /** The tag of every sample, chosen by the caller, and the color added up for it */
+    private final int[] tags = new int[BATCH_SIZE];
+    private final float[] colors = new float[3 * BATCH_SIZE];
+    /** What the camera ray of every sample hit: the distance, infinite for nothing, and whether it is view dependent */
+    private final float[] cameraDistances = new float[BATCH_SIZE];
+    private final boolean[] cameraViewDependent = new boolean[BATCH_SIZE];
+    private int size;
+
+    private final RayQueue cameraRays = new RayQueue();
+    /** The rays of the depth that is being traced, and the rays their shading spawns for the next depth */
+    private RayQueue reflections = new RayQueue();
+    private RayQueue refractions = new RayQueue();
+    private RayQueue nextReflections = new RayQueue();
+    private RayQueue nextRefractions = new RayQueue();
+    private ShadowQueue shadows = new ShadowQueue();
+    /** The queues that sorting gathers into, swapped with the queue that was sorted */
+    private RayQueue spareRays = new RayQueue();
+    private ShadowQueue spareShadows = new ShadowQueue();
+    /** The sort key and the index of every ray in a queue that is being sorted, and the same for a radix pass */
+    private int[] keys = new int[BATCH_SIZE];
+    private int[] order = new int[BATCH_SIZE];
+    private int[] passKeys = new int[BATCH_SIZE];
+    private int[] passOrder = new int[BATCH_SIZE];
+    private final int[] counts = new int[1 << RADIX_BITS];
+
+    private final Color weight = new Color();
+    private final Color color = new Color();
+    private final Vector3 origin = new Vector3();
+    private final Vector3 heading = new Vector3();
+    private final Vector3 normal = new Vector3();
+
+    /** Starts a new batch, without any samples */
+    public void clear() {
+        size = 0;
+        cameraRays.size = 0;
+    }
+
+    /** @return the number of samples in the batch */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == BATCH_SIZE;
+    }
+
+    /**
+     * Adds a sample to the batch, which is traced along a camera ray.
+     *
+     * @param tag a number by which the caller recognizes the sample, see {@link #getTag(int)}
+     * @param ray the camera ray, its origin and heading are copied
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addCameraRay(int tag, Ray ray) {
+        if (isFull()) {
+            throw new IllegalStateException("The batch is full");
+        }
+        int sample = size++;
+        tags[sample] = tag;
+        cameraRays.add(sample, ray, Color.WHITE, 1f, 0f, Color.WHITE);
+    }
+
+    /**
+     * Adds a sample like {@link #addCameraRay(int, Ray)}, whose camera ray is known to hit what the hit record holds,
+     * for example from a G-buffer. The ray is not intersected again, only shaded.
+     *
+     * @param hit the closest hit of the camera ray, its shape, distance and primitive are copied; a hit record without
+     * a shape means that the ray hits nothing
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addCameraHit(int tag, Ray ray, Hit hit) {
+        addCameraRay(tag, ray);
+        int i = cameraRays.size - 1;
+        cameraRays.known[i] = true;
+        cameraRays.shapes[i] = hit.shape;
+        cameraRays.distances[i] = hit.distance;
+        cameraRays.primitives[i] = hit.primitive;
+    }
+
+    /**
+     * Traces the camera rays of all samples of the batch, and everything their shading spawns.
+     *
+     * @param context the trace context of the current thread
+     * @param world the world to trace the rays in
+     */
+    public void trace(TraceContext context, Scene world) {
+        Arrays.fill(colors, 0, 3 * size, 0f);
+
+        // the camera rays come in the order of their pixels, which is as coherent as it gets
+        intersect(context, world, cameraRays, 0);
+        shade(context, world, cameraRays, 0);
+        traceShadows(context, world);
+
+        for (int depth = 1; nextReflections.size > 0 || nextRefractions.size > 0; depth++) {
+            RayQueue queue = reflections;
+            reflections = nextReflections;
+            nextReflections = queue;
+            queue = refractions;
+            refractions = nextRefractions;
+            nextRefractions = queue;
+
+            reflections = sorted(reflections);
+            intersect(context, world, reflections, depth);
+            shade(context, world, reflections, depth);
+            reflections.size = 0;
+
+            refractions = sorted(refractions);
+            intersect(context, world, refractions, depth);
+            shade(context, world, refractions, depth);
+            refractions.size = 0;
+
+            traceShadows(context, world);
+        }
+    }
+
+    /** @return the tag the sample was added with */
+    public int getTag(int sample) {
+        return tags[sample];
+    }
+
+    /** Retrieves the color of a sample, once the batch has been traced */
+    public void getColor(int sample, Color out) {
+        out.set(colors[3 * sample], colors[3 * sample + 1], colors[3 * sample + 2]);
+    }
+
+    /** @return the distance to what the camera ray of a sample hit, infinite if it hit nothing */
+    public float getDistance(int sample) {
+        return cameraDistances[sample];
+    }
+
+    /** @return whether the camera ray of a sample hit something whose color depends on the view */
+    public boolean isViewDependent(int sample) {
+        return cameraViewDependent[sample];
+    }
+
+    /**
+     * Adds color to a sample: the color of a hit, times the weight of the ray that hit, times a factor.
+     *
+     * @param sample the sample of the ray that is being shaded
+     * @param weight the weight of the ray that is being shaded
+     * @param color the color to add
+     * @param factor the amount of the color to add
+     */
+    public void addColor(int sample, Color weight, Color color, float factor) {
+        colors[3 * sample] += weight.x * color.x * factor;
+        colors[3 * sample + 1] += weight.y * color.y * factor;
+        colors[3 * sample + 2] += weight.z * color.z * factor;
+    }
+
+    /**
+     * Adds a reflection ray, which is traced at the next depth.
+     *
+     * @param sample the sample of the ray that is being shaded
+     * @param ray the ray to trace, its origin and heading are copied
+     * @param weight the weight of the ray that is being shaded
+     * @param factor the weight of the reflection relative to that
+     */
+    public void addReflectionRay(int sample, Ray ray, Color weight, float factor) {
+        nextReflections.add(sample, ray, weight, factor, 0f, Color.WHITE);
+    }
+
+    /**
+     * Adds a ray through a transparent surface, which is traced at the next depth. Inside a material, a fraction of
+     * the light is absorbed over every unit of distance the ray travels to its hit, and the absorbed part is tinted.
+     *
+     * @param sample the sample of the ray that is being shaded
+     * @param ray the ray to trace, its origin and heading are copied
+     * @param weight the weight of the ray that is being shaded, which is also that of the new ray
+     * @param absorption the fraction absorbed per unit of distance, 0 outside of a material
+     * @param tint the color of the material the ray travels through
+     */
+    public void addRefractionRay(int sample, Ray ray, Color weight, float absorption, Color tint) {
+        nextRefractions.add(sample, ray, weight, 1f, absorption, tint);
+    }
+
+    /**
+     * Adds a shadow ray towards the sun, which is answered by {@link Scene#sunOccluded} once the shading stage is done.
+     * It adds a color to the sample, in one amount if the sun is visible and in another if it is not.
+     *
+     * @param sample the sample of the ray that is being shaded
+     * @param ray the shadow ray, its origin, heading and the upper end of its interval are copied
+     * @param normal the normal of the surface the shadow ray starts from
+     * @param weight the weight of the ray that is being shaded
+     * @param color the color to add
+     * @param lit the amount of the color to add if nothing blocks the shadow ray
+     * @param shadowed the amount of the color to add if something does
+     */
+    public void addShadowRay(int sample, Ray ray, Vector3 normal, Color weight, Color color, float lit,
+                             float shadowed) {
+        shadows.add(sample, ray, normal, weight, color, lit, shadowed);
+    }
+
+    /** Finds the closest hit of every ray of a queue whose hit is not known yet, and keeps what the camera rays hit */
+    private void intersect(TraceContext context, Scene world, RayQueue queue, int depth) {
+        Ray ray = context.getRay(depth);
+        Hit hit = context.getHit(depth);
+        for (int i = 0; i < queue.size; i++) {
+            boolean found;
+            if (queue.known[i]) {
+                hit.shape = queue.shapes[i];
+                hit.distance = queue.distances[i];
+                hit.primitive = queue.primitives[i];
+                found = hit.isHit();
+            } else {
+                queue.load(i, ray);
+                found = world.intersect(context, ray, hit);
+                queue.shapes[i] = hit.shape;
+                queue.distances[i] = hit.distance;
+                queue.primitives[i] = hit.primitive;
+            }
+
+            if (depth == 0) {
+                int sample = queue.samples[i];
+                cameraDistances[sample] = hit.distance;
+                cameraViewDependent[sample] = found && hit.shape.isViewDependent(hit);
+            }
+        }
+    }
+
+    /** Shades the hit of every ray of a queue, which adds colors and rays to the wavefront */
+    private void shade(TraceContext context, Scene world, RayQueue queue, int depth) {
+        Ray ray = context.getRay(depth);
+        Hit hit = context.getHit(depth);
+        for (int i = 0; i < queue.size; i++) {
+            Shape shape = queue.shapes[i];
+            if (shape == null) {
+                continue;
+            }
+            queue.load(i, ray);
+            hit.shape = shape;
+            hit.distance = queue.distances[i];
+            hit.primitive = queue.primitives[i];
+            shape.computeSurface(ray, hit);
+
+            int sample = queue.samples[i];
+            queue.loadWeight(i, hit.distance, weight);
+            Material material = shape.getMaterial(hit);
+            if (material == null || !material.shade(context, ray, hit.position, hit.normal, weight, sample, this)) {
+                // from here on down, the ray tree of this hit is traced depth-first
+                color.set(0, 0, 0);
+                shape.shade(context, ray, world, hit, color);
+                addColor(sample, weight, color, 1f);
+            }
+        }
+    }
+
+    /** Answers all shadow rays, and adds the color that each one decides on to its sample */
+    private void traceShadows(TraceContext context, Scene world) {
+        shadows = sorted(shadows);
+        ShadowQueue queue = shadows;
+        for (int i = 0; i < queue.size; i++) {
+            queue.load(i, origin, heading, normal);
+            boolean occluded = world.sunOccluded(context, origin, normal, heading, queue.maxDistances[i]);
+            float factor = occluded ? queue.shadowed[i] : queue.lit[i];
+
+            int sample = queue.samples[i];
+            colors[3 * sample] += queue.colors[3 * i] * factor;
+            colors[3 * sample + 1] += queue.colors[3 * i + 1] * factor;
+            colors[3 * sample + 2] += queue.colors[3 * i + 2] * factor;
+        }
+        queue.size = 0;
+    }
+
+    /** @return the queue, sorted; the queue that was passed in becomes the spare */
+    private RayQueue sorted(RayQueue queue) {
+        if (queue.size < 2) {
+            return queue;
+        }
+        sort(queue);
+        RayQueue sorted = spareRays;
+        sorted.gather(queue, order);
+        spareRays = queue;
+        return sorted;
+    }
+
+    /** @return the queue, sorted; the queue that was passed in becomes the spare */
+    private ShadowQueue sorted(ShadowQueue queue) {
+        if (queue.size < 2) {
+            return queue;
+        }
+        sort(queue);
+        ShadowQueue sorted = spareShadows;
+        sorted.gather(queue, order);
+        spareShadows = queue;
+        return sorted;
+    }
+
+    /**
+     * Sorts the indices of the rays of a queue into the order, by the octant of their heading, then by their heading
+     * within it, in 8 steps along each axis, and then by the cell of their origin in an 8×8×8 grid over all origins,
+     * along a Z-order curve. The keys are short enough for a radix sort, which takes time linear in the number of rays.
+     */
+    private void sort(Queue queue) {
+        int count = queue.size;
+        if (keys.length < count) {
+            int length = Math.max(count, 2 * keys.length);
+            keys = new int[length];
+            order = new int[length];
+            passKeys = new int[length];
+            passOrder = new int[length];
+        }
+        float[] origins = queue.origins;
+        float[] headings = queue.headings;
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, origins[3 * i]);
+            minY = Math.min(minY, origins[3 * i + 1]);
+            minZ = Math.min(minZ, origins[3 * i + 2]);
+            maxX = Math.max(maxX, origins[3 * i]);
+            maxY = Math.max(maxY, origins[3 * i + 1]);
+            maxZ = Math.max(maxZ, origins[3 * i + 2]);
+        }
+        float scaleX = 8f / Math.max(maxX - minX, 1e-6f);
+        float scaleY = 8f / Math.max(maxY - minY, 1e-6f);
+        float scaleZ = 8f / Math.max(maxZ - minZ, 1e-6f);
+
+        for (int i = 0; i < count; i++) {
+            float dx = headings[3 * i], dy = headings[3 * i + 1], dz = headings[3 * i + 2];
+            int octant = (dx < 0 ? 4 : 0) | (dy < 0 ? 2 : 0) | (dz < 0 ? 1 : 0);
+            int direction = quantize(Math.abs(dx) * 8f) << 6
+                    | quantize(Math.abs(dy) * 8f) << 3
+                    | quantize(Math.abs(dz) * 8f);
+            int cell = spread(quantize((origins[3 * i] - minX) * scaleX)) << 2
+                    | spread(quantize((origins[3 * i + 1] - minY) * scaleY)) << 1
+                    | spread(quantize((origins[3 * i + 2] - minZ) * scaleZ));
+            keys[i] = octant << 18 | direction << 9 | cell;
+            order[i] = i;
+        }
+
+        // the low bits first, then the high bits, which keeps the order of the low bits within every bucket
+        radixPass(count, keys, order, passKeys, passOrder, 0);
+        radixPass(count, passKeys, passOrder, keys, order, RADIX_BITS);
+    }
+
+    /** Moves the keys and indices into the output arrays, sorted by the bits of the keys from the shift up */
+    private void radixPass(int count, int[] keys, int[] order, int[] outKeys, int[] outOrder, int shift) {
+        int mask = (1 << RADIX_BITS) - 1;
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < count; i++) {
+            counts[keys[i] >>> shift & mask]++;
+        }
+        int offset = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            int bucketCount = counts[bucket];
+            counts[bucket] = offset;
+            offset += bucketCount;
+        }
+        for (int i = 0; i < count; i++) {
+            int position = counts[keys[i] >>> shift & mask]++;
+            outKeys[position] = keys[i];
+            outOrder[position] = order[i];
+        }
+    }
+
+    /** @return the value rounded down to an integer of 3 bits, clamped to their range */
+    private static int quantize(float value) {
+        return Math.max(0, Math.min(7, (int) value));
+    }
+
+    /** @return the 3 bits of the value, moved apart to every third bit, to interleave them with those of two others */
+    private static int spread(int value) {
+        return (value & 1) | (value & 2) << 2 | (value & 4) << 4;
+    }
+
+    /** A queue of rays: the sample, origin and heading of every ray, grown as needed */
+    private abstract static class Queue {
+        int size;
+        int[] samples = new int[0];
+        float[] origins = new float[0];
+        float[] headings = new float[0];
+
+        /** Makes room for at least one more ray */
+        void ensureRoom() {
+            if (size == samples.length) {
+                grow(Math.max(BATCH_SIZE, 2 * size));
+            }
+        }
+
+        void grow(int capacity) {
+            samples = Arrays.copyOf(samples, capacity);
+            origins = Arrays.copyOf(origins, 3 * capacity);
+            headings = Arrays.copyOf(headings, 3 * capacity);
+        }
+
+        /** @return the index of a new ray with the origin and heading of the given ray */
+        int add(int sample, Ray ray) {
+            ensureRoom();
+            int i = size++;
+            Vector3 origin = ray.getOrigin();
+            Vector3 heading = ray.getHeading();
+            samples[i] = sample;
+            origins[3 * i] = origin.x;
+            origins[3 * i + 1] = origin.y;
+            origins[3 * i + 2] = origin.z;
+            headings[3 * i] = heading.x;
+            headings[3 * i + 1] = heading.y;
+            headings[3 * i + 2] = heading.z;
+            return i;
+        }
+
+        /** Replaces the rays of this queue by those of another one, in the given order of their indices */
+        void gather(Queue source, int[] order) {
+            if (samples.length < source.size) {
+                grow(source.samples.length);
+            }
+            for (int i = 0; i < source.size; i++) {
+                copy(source, order[i], i);
+            }
+            size = source.size;
+        }
+
+        /** Copies a ray of another queue of the same type to an index of this one */
+        void copy(Queue source, int from, int to) {
+            samples[to] = source.samples[from];
+            origins[3 * to] = source.origins[3 * from];
+            origins[3 * to + 1] = source.origins[3 * from + 1];
+            origins[3 * to + 2] = source.origins[3 * from + 2];
+            headings[3 * to] = source.headings[3 * from];
+            headings[3 * to + 1] = source.headings[3 * from + 1];
+            headings[3 * to + 2] = source.headings[3 * from + 2];
+        }
+    }
+
+    /** Rays that are intersected and shaded, with their weight and the hit that was found for them */
+    private static final class RayQueue extends Queue {
+        float[] weights = new float[0];
+        /** The absorption and tint of the material the ray travels through, applied to the weight at the hit */
+        float[] absorptions = new float[0];
+        float[] tints = new float[0];
+        /** Whether the hit of the ray was given, rather than found by intersecting the ray */
+        boolean[] known = new boolean[0];
+        Shape[] shapes = new Shape[0];
+        float[] distances = new float[0];
+        int[] primitives = new int[0];
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            weights = Arrays.copyOf(weights, 3 * capacity);
+            absorptions = Arrays.copyOf(absorptions, capacity);
+            tints = Arrays.copyOf(tints, 3 * capacity);
+            known = Arrays.copyOf(known, capacity);
+            shapes = Arrays.copyOf(shapes, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+        }
+
+        void add(int sample, Ray ray, Color weight, float factor, float absorption, Color tint) {
+            int i = add(sample, ray);
+            weights[3 * i] = weight.x * factor;
+            weights[3 * i + 1] = weight.y * factor;
+            weights[3 * i + 2] = weight.z * factor;
+            absorptions[i] = absorption;
+            tints[3 * i] = tint.x;
+            tints[3 * i + 1] = tint.y;
+            tints[3 * i + 2] = tint.z;
+            known[i] = false;
+        }
+
+        @Override
+        void copy(Queue source, int from, int to) {
+            super.copy(source, from, to);
+            RayQueue rays = (RayQueue) source;
+            weights[3 * to] = rays.weights[3 * from];
+            weights[3 * to + 1] = rays.weights[3 * from + 1];
+            weights[3 * to + 2] = rays.weights[3 * from + 2];
+            absorptions[to] = rays.absorptions[from];
+            tints[3 * to] = rays.tints[3 * from];
+            tints[3 * to + 1] = rays.tints[3 * from + 1];
+            tints[3 * to + 2] = rays.tints[3 * from + 2];
+            known[to] = rays.known[from];
+            shapes[to] = rays.shapes[from];
+            distances[to] = rays.distances[from];
+            primitives[to] = rays.primitives[from];
+        }
+
+        /** Sets the ray to a ray of this queue, with an interval that starts at its origin and never ends */
+        void load(int i, Ray ray) {
+            ray.getOrigin().set(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2]);
+            ray.getHeading().set(headings[3 * i], headings[3 * i + 1], headings[3 * i + 2]);
+            ray.setInterval(0, Float.POSITIVE_INFINITY);
+        }
+
+        /** Retrieves the weight of a ray that reached its hit, after absorption over the distance to it */
+        void loadWeight(int i, float distance, Color out) {
+            out.set(weights[3 * i], weights[3 * i + 1], weights[3 * i + 2]);
+            float absorption = absorptions[i];
+            if (absorption > 0f) {
+                float absorbed = 1f - (float) Math.pow(1f - absorption, distance);
+                out.set(
+                        out.x * (1 - absorbed) * (1 + tints[3 * i] * absorbed),
+                        out.y * (1 - absorbed) * (1 + tints[3 * i + 1] * absorbed),
+                        out.z * (1 - absorbed) * (1 + tints[3 * i + 2] * absorbed)
+                );
+            }
+        }
+    }
+
+    /** Shadow rays, with the normal they start from and the color they add for either answer */
+    private static final class ShadowQueue extends Queue {
+        float[] normals = new float[0];
+        float[] maxDistances = new float[0];
+        /** The color to add times the weight of the ray that was shaded, and the amount of it for either answer */
+        float[] colors = new float[0];
+        float[] lit = new float[0];
+        float[] shadowed = new float[0];
+
+        @Override
+        void grow(int capacity) {
+            super.grow(capacity);
+            normals = Arrays.copyOf(normals, 3 * capacity);
+            maxDistances = Arrays.copyOf(maxDistances, capacity);
+            colors = Arrays.copyOf(colors, 3 * capacity);
+            lit = Arrays.copyOf(lit, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+        }
+
+        void add(int sample, Ray ray, Vector3 normal, Color weight, Color color, float lit, float shadowed) {
+            int i = add(sample, ray);
+            normals[3 * i] = normal.x;
+            normals[3 * i + 1] = normal.y;
+            normals[3 * i + 2] = normal.z;
+            maxDistances[i] = ray.getMaxDistance();
+            colors[3 * i] = weight.x * color.x;
+            colors[3 * i + 1] = weight.y * color.y;
+            colors[3 * i + 2] = weight.z * color.z;
+            this.lit[i] = lit;
+            this.shadowed[i] = shadowed;
+        }
+
+        @Override
+        void copy(Queue source, int from, int to) {
+            super.copy(source, from, to);
+            ShadowQueue rays = (ShadowQueue) source;
+            normals[3 * to] = rays.normals[3 * from];
+            normals[3 * to + 1] = rays.normals[3 * from + 1];
+            normals[3 * to + 2] = rays.normals[3 * from + 2];
+            maxDistances[to] = rays.maxDistances[from];
+            colors[3 * to] = rays.colors[3 * from];
+            colors[3 * to + 1] = rays.colors[3 * from + 1];
+            colors[3 * to + 2] = rays.colors[3 * from + 2];
+            lit[to] = rays.lit[from];
+            shadowed[to] = rays.shadowed[from];
+        }
+
+        void load(int i, Vector3 outOrigin, Vector3 outHeading, Vector3 outNormal) {
+            outOrigin.set(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2]);
+            outHeading.set(headings[3 * i], headings[3 * i + 1], headings[3 * i + 2]);
+            outNormal.set(normals[3 * i], normals[3 * i + 1], normals[3 * i + 2]);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package nl.jochemkuijpers.raytrace.acceleration;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+
+/**
+ * A bounding volume hierarchy over an arbitrary set of axis-aligned primitive bounds, built with the surface area
+ * heuristic (SAH).
+ *
+ * The tree is stored as flat arrays rather than as node objects, so traversal is a tight loop over primitive arrays:
+ * <ul>
+ *     <li><code>nodeBounds[6 * n .. 6 * n + 5]</code> holds min x, y, z and max x, y, z of node n.</li>
+ *     <li><code>nodes[2 * n]</code> holds the index of the left child for inner nodes (the right child is always
+ *     stored directly after the left child), or the offset of the first primitive in <code>primitives</code> for
+ *     leaf nodes.</li>
+ *     <li><code>nodes[2 * n + 1]</code> holds the number of primitives in a leaf node, or -1 for inner nodes.</li>
+ * </ul>
+ * The root is node 0. The hierarchy only knows about primitive indices; it is up to the user to intersect the actual
+ * primitives. {@link #intersect(TraceContext, Ray, Hit, Leaves)} and
+ * {@link #occludes(TraceContext, Ray, float, Leaves)} traverse the tree and hand every leaf the ray reaches to the
+ * user, who tests its primitives.
+ */
+public final class BoundingVolumeHierarchy {
+    /** Tests the primitives of the leaves that a traversal reaches */
+    public interface Leaves {
+        /**
+         * Intersects the primitives of a leaf, and narrows the hit record to the closest intersection.
+         *
+         * @param first the offset of the first primitive of the leaf, in the leaf order of
+         * {@link BoundingVolumeHierarchy#getPrimitive(int)}
+         * @param last the offset after the last primitive of the leaf
+         * @return whether the hit record was narrowed
+         */
+        boolean intersectLeaf(TraceContext context, Ray ray, Hit hit, int first, int last);
+
+        /**
+         * @param first the offset of the first primitive of the leaf, in the leaf order of
+         * {@link BoundingVolumeHierarchy#getPrimitive(int)}
+         * @param last the offset after the last primitive of the leaf
+         * @return whether any primitive of the leaf blocks the ray before the maximum distance
+         */
+        boolean occludesLeaf(TraceContext context, Ray ray, float maxDistance, int first, int last);
+    }
+
+    /** Tests against the bounding boxes of the nodes are counted as intersection tests of this type */
+    private static final int NODE_TYPE = TraceCounters.getShapeType("BoundingVolume");
+
+    /** Number of bins used to evaluate candidate splits per axis. */
+    private static final int SAH_BINS = 16;
+
+    /** Cost of traversing a node, relative to the cost of intersecting a single primitive. */
+    private static final float TRAVERSAL_COST = 1f;
+
+    /** Nodes with more primitives than this are always split, regardless of cost. */
+    private static final int MAX_LEAF_SIZE = 8;
+
+    private final float[] nodeBounds;
+    private final int[] nodes;
+    private final int[] primitives;
+    private final int nodeCount;
+    private final int depth;
+
+    /**
+     * Builds a hierarchy over the given primitive bounds.
+     *
+     * @param primitiveBounds 6 floats per primitive: min x, y, z and max x, y, z
+     * @param count the number of primitives
+     */
+    public BoundingVolumeHierarchy(float[] primitiveBounds, int count) {
+        if (primitiveBounds.length < 6 * count) {
+            throw new IllegalArgumentException("primitiveBounds must hold 6 floats per primitive");
+        }
+
+        float[] centroids = new float[3 * count];
+        for (int i = 0; i < count; i++) {
+            centroids[3 * i]     = 0.5f * (primitiveBounds[6 * i]     + primitiveBounds[6 * i + 3]);
+            centroids[3 * i + 1] = 0.5f * (primitiveBounds[6 * i + 1] + primitiveBounds[6 * i + 4]);
+            centroids[3 * i + 2] = 0.5f * (primitiveBounds[6 * i + 2] + primitiveBounds[6 * i + 5]);
+        }
+
+        primitives = new int[count];
+        for (int i = 0; i < count; i++) {
+            primitives[i] = i;
+        }
+
+        // a binary tree with at most one primitive per leaf never has more than 2n - 1 nodes
+        int maxNodes = Math.max(1, 2 * count - 1);
+        float[] buildBounds = new float[6 * maxNodes];
+        int[] buildNodes = new int[2 * maxNodes];
+
+        int[] nodeDepth = new int[maxNodes];
+        int usedNodes = 1;
+        int maxDepth = 1;
+
+        // explicit work stack of (node, start, end) to avoid deep recursion on badly distributed input
+        int[] work = new int[3 * maxNodes];
+        int workSize = 0;
+        work[workSize++] = 0;
+        work[workSize++] = 0;
+        work[workSize++] = count;
+
+        float[] binBounds = new float[6 * SAH_BINS];
+        int[] binCounts = new int[SAH_BINS];
+        float[] rightAreas = new float[SAH_BINS];
+        int[] rightCounts = new int[SAH_BINS];
+        float[] centroidBounds = new float[6];
+        float[] sweep = new float[6];
+
+        while (workSize > 0) {
+            int end = work[--workSize];
+            int start = work[--workSize];
+            int node = work[--workSize];
+            int n = end - start;
+
+            // compute the node bounds and the bounds of the primitive centroids
+            resetBounds(buildBounds, 6 * node);
+            resetBounds(centroidBounds, 0);
+            for (int i = start; i < end; i++) {
+                int p = primitives[i];
+                growBounds(buildBounds, 6 * node, primitiveBounds, 6 * p, 6 * p + 3);
+                growBounds(centroidBounds, 0, centroids, 3 * p, 3 * p);
+            }
+
+            float nodeArea = surfaceArea(buildBounds, 6 * node);
+            float leafCost = n;
+
+            int bestAxis = -1;
+            int bestBin = -1;
+            float bestCost = Float.POSITIVE_INFINITY;
+
+            for (int axis = 0; axis < 3 && n > 1; axis++) {
+                float cmin = centroidBounds[axis];
+                float cmax = centroidBounds[axis + 3];
+                if (!(cmax > cmin)) { continue; }
+                float binScale = SAH_BINS / (cmax - cmin);
+
+                for (int b = 0; b < SAH_BINS; b++) {
+                    binCounts[b] = 0;
+                    resetBounds(binBounds, 6 * b);
+                }
+                for (int i = start; i < end; i++) {
+                    int p = primitives[i];
+                    int b = binIndex(centroids[3 * p + axis], cmin, binScale);
+                    binCounts[b]++;
+                    growBounds(binBounds, 6 * b, primitiveBounds, 6 * p, 6 * p + 3);
+                }
+
+                // sweep from the right to find the area and count right of every split plane
+                resetBounds(sweep, 0);
+                int countRight = 0;
+                for (int b = SAH_BINS - 1; b > 0; b--) {
+                    countRight += binCounts[b];
+                    growBounds(sweep, 0, binBounds, 6 * b, 6 * b + 3);
+                    rightCounts[b] = countRight;
+                    rightAreas[b] = countRight > 0 ? surfaceArea(sweep, 0) : 0f;
+                }
+
+                // sweep from the left and evaluate the split between bin b - 1 and bin b
+                resetBounds(sweep, 0);
+                int countLeft = 0;
+                for (int b = 1; b < SAH_BINS; b++) {
+                    countLeft += binCounts[b - 1];
+                    growBounds(sweep, 0, binBounds, 6 * (b - 1), 6 * (b - 1) + 3);
+                    if (countLeft == 0 || rightCounts[b] == 0) { continue; }
+
+                    float cost = surfaceArea(sweep, 0) * countLeft + rightAreas[b] * rightCounts[b];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            float splitCost = bestAxis < 0 ? Float.POSITIVE_INFINITY :
+                    TRAVERSAL_COST + bestCost / Math.max(nodeArea, Float.MIN_NORMAL);
+
+            int mid;
+            if (n <= 1 || (n <= MAX_LEAF_SIZE && leafCost <= splitCost)) {
+                buildNodes[2 * node] = start;
+                buildNodes[2 * node + 1] = n;
+                continue;
+            } else if (bestAxis < 0) {
+                // all centroids coincide, no plane can separate them; just split the range in half
+                mid = start + n / 2;
+            } else {
+                float cmin = centroidBounds[bestAxis];
+                float binScale = SAH_BINS / (centroidBounds[bestAxis + 3] - cmin);
+                mid = start;
+                for (int i = start; i < end; i++) {
+                    int p = primitives[i];
+                    if (binIndex(centroids[3 * p + bestAxis], cmin, binScale) < bestBin) {
+                        primitives[i] = primitives[mid];
+                        primitives[mid] = p;
+                        mid++;
+                    }
+                }
+            }
+
+            int left = usedNodes;
+            usedNodes += 2;
+            buildNodes[2 * node] = left;
+            buildNodes[2 * node + 1] = -1;
+
+            nodeDepth[left] = nodeDepth[node] + 1;
+            nodeDepth[left + 1] = nodeDepth[node] + 1;
+            maxDepth = Math.max(maxDepth, nodeDepth[left] + 1);
+
+            work[workSize++] = left + 1;
+            work[workSize++] = mid;
+            work[workSize++] = end;
+            work[workSize++] = left;
+            work[workSize++] = start;
+            work[workSize++] = mid;
+        }
+
+        this.nodeCount = usedNodes;
+        this.depth = maxDepth;
+        this.nodeBounds = new float[6 * usedNodes];
+        this.nodes = new int[2 * usedNodes];
+        System.arraycopy(buildBounds, 0, nodeBounds, 0, nodeBounds.length);
+        System.arraycopy(buildNodes, 0, nodes, 0, nodes.length);
+    }
+
+    private static int binIndex(float centroid, float cmin, float binScale) {
+        int b = (int) ((centroid - cmin) * binScale);
+        return b < 0 ? 0 : (b >= SAH_BINS ? SAH_BINS - 1 : b);
+    }
+
+    private static void resetBounds(float[] bounds, int offset) {
+        bounds[offset]     = Float.POSITIVE_INFINITY;
+        bounds[offset + 1] = Float.POSITIVE_INFINITY;
+        bounds[offset + 2] = Float.POSITIVE_INFINITY;
+        bounds[offset + 3] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 4] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    /** Grows the bounds at offset to include the point min at minOffset and the point max at maxOffset. */
+    private static void growBounds(float[] bounds, int offset, float[] source, int minOffset, int maxOffset) {
+        bounds[offset]     = Math.min(bounds[offset],     source[minOffset]);
+        bounds[offset + 1] = Math.min(bounds[offset + 1], source[minOffset + 1]);
+        bounds[offset + 2] = Math.min(bounds[offset + 2], source[minOffset + 2]);
+        bounds[offset + 3] = Math.max(bounds[offset + 3], source[maxOffset]);
+        bounds[offset + 4] = Math.max(bounds[offset + 4], source[maxOffset + 1]);
+        bounds[offset + 5] = Math.max(bounds[offset + 5], source[maxOffset + 2]);
+    }
+
+    private static float surfaceArea(float[] bounds, int offset) {
+        float dx = bounds[offset + 3] - bounds[offset];
+        float dy = bounds[offset + 4] - bounds[offset + 1];
+        float dz = bounds[offset + 5] - bounds[offset + 2];
+        return 2f * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Slab test of a ray against the bounds of a node.
+     *
+     * @param node the node index
+     * @param ox ray origin
+     * @param invX 1 / heading, precomputed once per ray
+     * @param tMin the node is rejected when the ray leaves it before this distance
+     * @param tMax the node is rejected when its entry distance is beyond this distance
+     * @return the entry distance along the ray (tMin if the ray is inside at tMin), or {@link Float#POSITIVE_INFINITY}
+     * if the ray misses the node within [tMin, tMax].
+     */
+    public float intersectNode(int node, float ox, float oy, float oz,
+                               float invX, float invY, float invZ, float tMin, float tMax) {
+        int o = 6 * node;
+        float tmin = tMin;
+        float tmax = Float.POSITIVE_INFINITY;
+
+        // a ray parallel to a slab that lies exactly in one of its planes gives 0 * infinity, and Math.min and
+        // Math.max pass that NaN on. The comparisons below are false for NaN, so such a slab does not narrow the
+        // interval: the ray grazes the node, which counts as a hit, like it does for the primitives themselves.
+        float t0 = (nodeBounds[o]     - ox) * invX;
+        float t1 = (nodeBounds[o + 3] - ox) * invX;
+        float near = Math.min(t0, t1), far = Math.max(t0, t1);
+        tmin = near > tmin ? near : tmin;
+        tmax = far < tmax ? far : tmax;
+
+        t0 = (nodeBounds[o + 1] - oy) * invY;
+        t1 = (nodeBounds[o + 4] - oy) * invY;
+        near = Math.min(t0, t1);
+        far = Math.max(t0, t1);
+        tmin = near > tmin ? near : tmin;
+        tmax = far < tmax ? far : tmax;
+
+        t0 = (nodeBounds[o + 2] - oz) * invZ;
+        t1 = (nodeBounds[o + 5] - oz) * invZ;
+        near = Math.min(t0, t1);
+        far = Math.max(t0, t1);
+        tmin = near > tmin ? near : tmin;
+        tmax = far < tmax ? far : tmax;
+
+        return (tmin <= tmax && tmin <= tMax) ? tmin : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds the closest intersection of the ray with the primitives. The nearest child of every node is visited
+     * first, and nodes that start beyond the closest hit found so far are skipped.
+     *
+     * @param hit the hit record, only intersections closer than its distance are looked for
+     * @return whether any leaf narrowed the hit record
+     */
+    public boolean intersect(TraceContext context, Ray ray, Hit hit, Leaves leaves) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float invX = 1f / heading.x, invY = 1f / heading.y, invZ = 1f / heading.z;
+        float minDistance = ray.getMinDistance();
+
+        int node = 0;
+        if (intersectNode(node, ox, oy, oz, invX, invY, invZ, minDistance, hit.distance) == Float.POSITIVE_INFINITY) {
+            if (TraceCounters.COUNT_INTERSECTIONS) {
+                context.getCounters().countIntersection(NODE_TYPE, false);
+            }
+            return false;
+        }
+
+        // node tests are counted locally and added to the counters once, if at all
+        int nodeTests = 1;
+        int nodeHits = 1;
+
+        // nodes that still need to be visited, along with their entry distance
+        int base = context.reserveStack(depth);
+        int[] stack = context.getNodeStack();
+        float[] stackDistance = context.getDistanceStack();
+        int stackSize = base;
+
+        boolean found = false;
+        while (true) {
+            if (nodes[2 * node + 1] >= 0) {
+                int first = nodes[2 * node];
+                found |= leaves.intersectLeaf(context, ray, hit, first, first + nodes[2 * node + 1]);
+            } else {
+                // visit the nearest child first, so that hits found there can cull the farther child
+                int left = nodes[2 * node];
+                float leftDistance = intersectNode(left, ox, oy, oz, invX, invY, invZ, minDistance, hit.distance);
+                float rightDistance = intersectNode(left + 1, ox, oy, oz, invX, invY, invZ, minDistance, hit.distance);
+                nodeTests += 2;
+                nodeHits += (leftDistance != Float.POSITIVE_INFINITY ? 1 : 0)
+                        + (rightDistance != Float.POSITIVE_INFINITY ? 1 : 0);
+
+                if (leftDistance <= rightDistance && leftDistance != Float.POSITIVE_INFINITY) {
+                    node = left;
+                    if (rightDistance != Float.POSITIVE_INFINITY) {
+                        stack[stackSize] = left + 1;
+                        stackDistance[stackSize++] = rightDistance;
+                    }
+                    continue;
+                } else if (rightDistance != Float.POSITIVE_INFINITY) {
+                    node = left + 1;
+                    if (leftDistance != Float.POSITIVE_INFINITY) {
+                        stack[stackSize] = left;
+                        stackDistance[stackSize++] = leftDistance;
+                    }
+                    continue;
+                }
+            }
+
+            // pop the next node, skipping the ones that start beyond the closest hit found so far
+            node = -1;
+            while (stackSize > base) {
+                stackSize--;
+                if (stackDistance[stackSize] <= hit.distance) {
+                    node = stack[stackSize];
+                    break;
+                }
+            }
+            if (node < 0) { break; }
+        }
+
+        context.releaseStack(base);
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersections(NODE_TYPE, nodeTests, nodeHits);
+        }
+        return found;
+    }
+
+    /**
+     * Finds out whether any primitive blocks the ray before the maximum distance. Any blocker will do, so the nodes are
+     * visited in tree order and the traversal stops at the first leaf that blocks the ray.
+     */
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance, Leaves leaves) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float invX = 1f / heading.x, invY = 1f / heading.y, invZ = 1f / heading.z;
+        float minDistance = ray.getMinDistance();
+        int nodeTests = 0;
+        int nodeHits = 0;
+
+        int base = context.reserveStack(depth);
+        int[] stack = context.getNodeStack();
+        int stackSize = base;
+        stack[stackSize++] = 0;
+
+        boolean occluded = false;
+        while (stackSize > base && !occluded) {
+            int node = stack[--stackSize];
+            float distance = intersectNode(node, ox, oy, oz, invX, invY, invZ, minDistance, maxDistance);
+            nodeTests++;
+            if (distance == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            nodeHits++;
+
+            if (nodes[2 * node + 1] >= 0) {
+                int first = nodes[2 * node];
+                occluded = leaves.occludesLeaf(context, ray, maxDistance, first, first + nodes[2 * node + 1]);
+            } else {
+                int left = nodes[2 * node];
+                stack[stackSize++] = left + 1;
+                stack[stackSize++] = left;
+            }
+        }
+
+        context.releaseStack(base);
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersections(NODE_TYPE, nodeTests, nodeHits);
+        }
+        return occluded;
+    }
+
+    /** Copies the bounding box of a node to outMin and outMax */
+    public void getNodeBounds(int node, Vector3 outMin, Vector3 outMax) {
+        int o = 6 * node;
+        outMin.set(nodeBounds[o], nodeBounds[o + 1], nodeBounds[o + 2]);
+        outMax.set(nodeBounds[o + 3], nodeBounds[o + 4], nodeBounds[o + 5]);
+    }
+
+    /** @return true if the node is a leaf */
+    public boolean isLeaf(int node) {
+        return nodes[2 * node + 1] >= 0;
+    }
+
+    /** @return the index of the left child of an inner node, the right child is at this index + 1 */
+    public int getLeftChild(int node) {
+        return nodes[2 * node];
+    }
+
+    /** @return the offset in {@link #getPrimitive(int)} of the first primitive of a leaf node */
+    public int getFirstPrimitive(int node) {
+        return nodes[2 * node];
+    }
+
+    /** @return the number of primitives of a leaf node */
+    public int getPrimitiveCount(int node) {
+        return nodes[2 * node + 1];
+    }
+
+    /** @return the primitive index stored at the given offset in the leaf order */
+    public int getPrimitive(int offset) {
+        return primitives[offset];
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** @return the number of levels in the tree, the traversal stack never needs to be deeper than this */
+    public int getDepth() {
+        return depth;
+    }
+}
@@ -0,0 +1,168 @@
+package nl.jochemkuijpers.raytrace.acceleration;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+/**
+ * An orthographic depth map of a group of shapes as seen from a directional light such as the sun. Every texel holds
+ * how far towards the sun the first surface the light falls on lies, measured along the light direction. Whether a
+ * point is in the shadow of the shapes then is a matter of comparing its own depth to the texels around it, instead
+ * of tracing a shadow ray.
+ *
+ * The map only answers when that is safe: all four texels around the point must agree, and the occluder must be
+ * within reach of the shadow ray. Near the edges of shadows, on surfaces that the light grazes and below occluders
+ * that are out of reach, the answer is {@link Visibility#UNKNOWN} and the caller should trace a ray. Shapes narrower
+ * than a texel can fall between the texels, so their shadows may be missed.
+ *
+ * A map is built once for a light direction and is immutable afterwards, so it can be shared between threads.
+ */
+public final class ShadowMap {
+    /** The answer of a lookup */
+    public enum Visibility { LIT, SHADOWED, UNKNOWN }
+
+    /** Surfaces that the light hits at a smaller cosine than this are always traced */
+    private static final float MIN_COSINE = 0.2f;
+    /** The depth difference that is always accepted as the same surface */
+    private static final float DEPTH_BIAS = 1e-3f;
+
+    private final int resolution;
+    /** The direction towards the light, and two directions perpendicular to it that span the map */
+    private final float sx, sy, sz;
+    private final float ux, uy, uz;
+    private final float vx, vy, vz;
+    /** The position of the corner of the map along u and v, and the size of a texel */
+    private final float minU, minV;
+    private final float texelSize;
+    /** The depth of the first surface in every texel, {@link Float#NEGATIVE_INFINITY} for none, rows along v */
+    private final float[] depths;
+
+    /**
+     * Renders the depth map by tracing a ray from the light through the center of every texel.
+     *
+     * @param shapes the shapes that cast shadows, they must be bounded
+     * @param lightVector the direction towards the light, of unit length; it is copied
+     * @param resolution the number of texels along each side of the map
+     * @throws IllegalArgumentException if the shapes are not bounded or the resolution is not positive
+     */
+    public ShadowMap(Shape shapes, Vector3 lightVector, int resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("A shadow map needs a positive resolution, got " + resolution);
+        }
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+        if (!shapes.getBounds(min, max)) {
+            throw new IllegalArgumentException("A shadow map needs bounded shapes");
+        }
+
+        this.resolution = resolution;
+        sx = lightVector.x; sy = lightVector.y; sz = lightVector.z;
+
+        // u is perpendicular to the light and to whichever axis is least aligned with it, v completes the basis
+        Vector3 s = new Vector3(sx, sy, sz);
+        Vector3 axis = Math.abs(sx) < Math.abs(sy) && Math.abs(sx) < Math.abs(sz) ? Vector3.XIDENT
+                : Math.abs(sy) < Math.abs(sz) ? Vector3.YIDENT : Vector3.ZIDENT;
+        Vector3 u = new Vector3();
+        Vector3 v = new Vector3();
+        Vector3.cross(s, axis, u);
+        Vector3.normalize(u, u);
+        Vector3.cross(s, u, v);
+        ux = u.x; uy = u.y; uz = u.z;
+        vx = v.x; vy = v.y; vz = v.z;
+
+        // the extent of the bounding box of the shapes in light space
+        float lowU = Float.POSITIVE_INFINITY, highU = Float.NEGATIVE_INFINITY;
+        float lowV = Float.POSITIVE_INFINITY, highV = Float.NEGATIVE_INFINITY;
+        float highS = Float.NEGATIVE_INFINITY;
+        Vector3 corner = new Vector3();
+        for (int i = 0; i < 8; i++) {
+            corner.set((i & 1) == 0 ? min.x : max.x, (i & 2) == 0 ? min.y : max.y, (i & 4) == 0 ? min.z : max.z);
+            lowU = Math.min(lowU, Vector3.dot(corner, u));
+            highU = Math.max(highU, Vector3.dot(corner, u));
+            lowV = Math.min(lowV, Vector3.dot(corner, v));
+            highV = Math.max(highV, Vector3.dot(corner, v));
+            highS = Math.max(highS, Vector3.dot(corner, s));
+        }
+        texelSize = Math.max(Math.max(highU - lowU, highV - lowV) / resolution, 1e-6f);
+        minU = lowU;
+        minV = lowV;
+
+        // the rays start on a plane just beyond the shapes, as seen from the light
+        float start = highS + 1;
+        depths = new float[resolution * resolution];
+        TraceContext context = new TraceContext();
+        Ray ray = new Ray(0);
+        Hit hit = new Hit();
+        ray.getHeading().set(-sx, -sy, -sz);
+        for (int j = 0; j < resolution; j++) {
+            float pv = minV + (j + 0.5f) * texelSize;
+            for (int i = 0; i < resolution; i++) {
+                float pu = minU + (i + 0.5f) * texelSize;
+                ray.getOrigin().set(
+                        ux * pu + vx * pv + sx * start,
+                        uy * pu + vy * pv + sy * start,
+                        uz * pu + vz * pv + sz * start);
+                hit.reset();
+                depths[j * resolution + i] = shapes.intersect(context, ray, hit)
+                        ? start - hit.distance : Float.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+    /** @return whether this map was built for exactly this light direction */
+    public boolean isFor(Vector3 lightVector) {
+        return lightVector.x == sx && lightVector.y == sy && lightVector.z == sz;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Looks up whether the shapes block the light from a point on a surface that faces the light.
+     *
+     * @param position the point, already moved off its surface
+     * @param normal the normal of the surface at the point
+     * @param maxDistance how far towards the light an occluder may be; farther ones do not cast a shadow
+     * @return whether the point is lit or in shadow, or unknown if a ray has to be traced to tell
+     */
+    public Visibility lookup(Vector3 position, Vector3 normal, float maxDistance) {
+        float cosine = normal.x * sx + normal.y * sy + normal.z * sz;
+        if (cosine < MIN_COSINE) {
+            return Visibility.UNKNOWN;
+        }
+
+        // the texels around the point see its own surface up to this much closer to the light, due to its slope
+        float tolerance = DEPTH_BIAS + 1.5f * texelSize * (float) Math.sqrt(1 - cosine * cosine) / cosine;
+        float depth = position.x * sx + position.y * sy + position.z * sz;
+        float fu = (position.x * ux + position.y * uy + position.z * uz - minU) / texelSize - 0.5f;
+        float fv = (position.x * vx + position.y * vy + position.z * vz - minV) / texelSize - 0.5f;
+        int i0 = (int) Math.floor(fu);
+        int j0 = (int) Math.floor(fv);
+
+        Visibility result = null;
+        for (int j = j0; j <= j0 + 1; j++) {
+            for (int i = i0; i <= i0 + 1; i++) {
+                boolean inside = i >= 0 && j >= 0 && i < resolution && j < resolution;
+                float texel = inside ? depths[j * resolution + i] : Float.NEGATIVE_INFINITY;
+
+                Visibility visibility;
+                if (texel <= depth + tolerance) {
+                    visibility = Visibility.LIT;
+                } else if (texel <= depth + maxDistance) {
+                    visibility = Visibility.SHADOWED;
+                } else {
+                    // the first surface is out of reach, but there may be another one below it
+                    return Visibility.UNKNOWN;
+                }
+                if (result != null && result != visibility) {
+                    return Visibility.UNKNOWN;
+                }
+                result = visibility;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package nl.jochemkuijpers.raytrace.acceleration;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of shapes organised in a bounding volume hierarchy. The group itself behaves like a single shape that
+ * finds the closest intersection of its members; the member that was hit is recorded in the hit record.
+ *
+ * Shapes that are unbounded (such as planes) or so large that they would inflate every node they end up in (such as
+ * a sky sphere) are not accepted in the hierarchy; these are handed back to the caller, who should test them
+ * separately.
+ */
+public class ShapeHierarchy implements Shape, BoundingVolumeHierarchy.Leaves {
+    /** Shapes whose bounding box is larger than this in any dimension are kept out of the hierarchy. */
+    public static final float MAX_BOUNDED_EXTENT = 1e4f;
+
+    private final Shape[] shapes;
+    private final BoundingVolumeHierarchy bvh;
+
+    /**
+     * Builds a hierarchy over all shapes that can be bounded.
+     *
+     * @param shapes the shapes to put in the hierarchy
+     * @param outUnbounded receives the shapes that were not put in the hierarchy
+     */
+    public ShapeHierarchy(List<Shape> shapes, List<Shape> outUnbounded) {
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+
+        List<Shape> bounded = new ArrayList<>(shapes.size());
+        float[] bounds = new float[6 * shapes.size()];
+
+        for (Shape shape : shapes) {
+            if (!shape.getBounds(min, max) ||
+                    max.x - min.x > MAX_BOUNDED_EXTENT ||
+                    max.y - min.y > MAX_BOUNDED_EXTENT ||
+                    max.z - min.z > MAX_BOUNDED_EXTENT) {
+                outUnbounded.add(shape);
+                continue;
+            }
+
+            int o = 6 * bounded.size();
+            bounds[o]     = min.x;
+            bounds[o + 1] = min.y;
+            bounds[o + 2] = min.z;
+            bounds[o + 3] = max.x;
+            bounds[o + 4] = max.y;
+            bounds[o + 5] = max.z;
+            bounded.add(shape);
+        }
+
+        this.shapes = bounded.toArray(new Shape[0]);
+        this.bvh = new BoundingVolumeHierarchy(bounds, this.shapes.length);
+    }
+
+    /** @return the number of shapes in the hierarchy */
+    public int size() {
+        return shapes.length;
+    }
+
+    @Override
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        if (shapes.length == 0) { return false; }
+        bvh.getNodeBounds(0, outMin, outMax);
+        return true;
+    }
+
+    @Override
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        return shapes.length > 0 && bvh.intersect(context, ray, hit, this);
+    }
+
+    @Override
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance) {
+        return shapes.length > 0 && bvh.occludes(context, ray, maxDistance, this);
+    }
+
+    @Override
+    public boolean intersectLeaf(TraceContext context, Ray ray, Hit hit, int first, int last) {
+        boolean found = false;
+        for (int i = first; i < last; i++) {
+            found |= shapes[bvh.getPrimitive(i)].intersect(context, ray, hit);
+        }
+        return found;
+    }
+
+    @Override
+    public boolean occludesLeaf(TraceContext context, Ray ray, float maxDistance, int first, int last) {
+        for (int i = first; i < last; i++) {
+            if (shapes[bvh.getPrimitive(i)].occludes(context, ray, maxDistance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The hierarchy never records itself in a hit record, the member shape that was hit does. These two methods are
+    // only here for completeness and defer to that member.
+
+    @Override
+    public void computeSurface(Ray ray, Hit hit) {
+        hit.shape.computeSurface(ray, hit);
+    }
+
+    @Override
+    public void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor) {
+        hit.shape.shade(context, ray, world, hit, outColor);
+    }
+}
@@ -4,6 +4,8 @@ import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.math.Vector3;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.Wavefront;
 import org.apache.commons.math3.util.FastMath;
 
 /**
@@ -13,96 +15,214 @@ import org.apache.commons.math3.util.FastMath;
  * internal reflections.
  */
 public class ComplexMaterial implements Material {
+    /**
+     * The scene is blocked in, but any ray that travels further than this towards the sun is considered in the open
+     * sky. It is the square root of the 500 that shadow rays were once cut off at, when they were compared against
+     * squared distances.
+     */
+    private static final float SUN_OCCLUSION_DISTANCE = (float) Math.sqrt(500);
+    /** The light that opaque surfaces get where the sun does not reach them */
+    private static final float MIN_LIGHT = 0.01f;
+
     private final boolean transparent;
     private final float absorption;
     private final float refractiveIndex;
     private final Color color;
     private final Vector3 sunVector;
 
+    /**
+     * @param sunVector the direction towards the sun, of unit length. It is not copied, so the material follows when
+     * the sun moves.
+     */
     public ComplexMaterial(boolean transparent, float absorption, float refractiveIndex, Color color, Vector3 sunVector) {
         this.transparent = transparent;
         this.absorption = absorption;
         this.refractiveIndex = refractiveIndex;
         this.color = color;
-        this.sunVector = new Vector3(sunVector);
-        Vector3.normalize(this.sunVector, this.sunVector);
+        this.sunVector = sunVector;
     }
 
     @Override
-    public void queryColor(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+    public void queryColor(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
         if (ray.getDepth() > Scene.RECURSIVE_MAX_DEPTH) { return; }
 
         // since recursive computation isn't going to work anyway, we might as well just default to diffuse only.
         if (ray.getDepth() == Scene.RECURSIVE_MAX_DEPTH) {
-            computeDiffuse(ray, world, position, normal, out);
+            if (transparent || absorption < 1f) {
+                context.getCounters().countDepthTermination();
+            }
+            computeDiffuse(context, ray, world, position, normal, out);
             return;
         }
 
         float reflection;
 
         if (transparent) {
-            reflection = computeRefraction(ray, world, position, normal, out);
+            reflection = computeRefraction(context, ray, world, position, normal, out);
         } else {
             if (absorption > 0f) {
-                computeDiffuse(ray, world, position, normal, out);
+                computeDiffuse(context, ray, world, position, normal, out);
                 Vector3.mul(out, absorption, out);
             }
             reflection = 1 - absorption;
         }
 
         if (reflection > 0) {
-            Color reflectColor = new Color();
-            computeReflection(ray, world, position, normal, reflectColor);
+            Color reflectColor = context.getColor(ray.getDepth());
+            reflectColor.set(0, 0, 0);
+            computeReflection(context, ray, world, position, normal, reflectColor);
             Vector3.addMul(out, reflectColor, reflection, out);
         }
     }
 
+    @Override
+    public boolean shade(TraceContext context, Ray ray, Vector3 position, Vector3 normal, Color weight, int sample,
+                         Wavefront out) {
+        if (ray.getDepth() > Scene.RECURSIVE_MAX_DEPTH) { return true; }
+
+        // the same steps as queryColor, but the rays are left to the wavefront
+        if (ray.getDepth() == Scene.RECURSIVE_MAX_DEPTH) {
+            if (transparent || absorption < 1f) {
+                context.getCounters().countDepthTermination();
+            }
+            shadeDiffuse(context, ray, position, normal, weight, 1f, sample, out);
+            return true;
+        }
+
+        float reflection;
+        Ray outRay = context.getRay(ray.getDepth() + 1);
+
+        if (transparent) {
+            reflection = aimRefraction(context, ray, position, normal, outRay);
+            context.getCounters().countRefractionRay();
+            if (Vector3.dot(outRay.getHeading(), normal) < 0f) {
+                out.addRefractionRay(sample, outRay, weight, absorption, color);
+                // internal reflection is already done
+                reflection = 0f;
+            } else {
+                out.addRefractionRay(sample, outRay, weight, 0f, color);
+            }
+        } else {
+            if (absorption > 0f) {
+                shadeDiffuse(context, ray, position, normal, weight, absorption, sample, out);
+            }
+            reflection = 1 - absorption;
+        }
+
+        if (reflection > 0) {
+            aimReflection(ray, position, normal, outRay);
+            context.getCounters().countReflectionRay();
+            out.addReflectionRay(sample, outRay, weight, reflection);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isViewDependent() {
+        return transparent || absorption < 1f;
+    }
+
     /** Computes the sun-lit diffuse color */
-    private void computeDiffuse(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+    private void computeDiffuse(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
         float light = Vector3.dot(normal, sunVector);
 
         if (ray.getDepth() < Scene.RECURSIVE_MAX_DEPTH && !transparent) {
             Vector3.addMul(position, normal, 1e-3f, position);
 
-            // We don't want recursive lookups for these sun visibility checks, so we'll give the sun-ray maximal depth.
-            Ray sunRay = new Ray(Scene.RECURSIVE_MAX_DEPTH, position, sunVector);
-            if (light > 0 && world.query(sunRay, new Color()) < 500) {
-                // the scene is blocked in, but any ray that travels more than 500 units towards the sun
-                // is considered in the open sky.
+            // the sun is only visible when nothing blocks the way, and we don't care what that would be.
+            if (light > 0 && world.sunOccluded(context, position, normal, sunVector, SUN_OCCLUSION_DISTANCE)) {
                 light = 0;
             }
         }
         if (transparent) {
             light = Math.abs(light);
         } else {
-            final float minLight = 0.01f;
-            if (light < minLight) { light = minLight; }
+            if (light < MIN_LIGHT) { light = MIN_LIGHT; }
         }
 
         Vector3.addMul(Vector3.ZERO, color, light, out);
     }
 
+    /** Adds the sun-lit diffuse color times a factor to the sample, leaving the shadow ray to the wavefront */
+    private void shadeDiffuse(TraceContext context, Ray ray, Vector3 position, Vector3 normal, Color weight,
+                              float factor, int sample, Wavefront out) {
+        float light = Vector3.dot(normal, sunVector);
+
+        if (ray.getDepth() < Scene.RECURSIVE_MAX_DEPTH && !transparent) {
+            Vector3.addMul(position, normal, 1e-3f, position);
+
+            if (light > 0) {
+                Ray shadowRay = context.getShadowRay();
+                shadowRay.getOrigin().set(position);
+                shadowRay.getHeading().set(sunVector);
+                shadowRay.setInterval(0, SUN_OCCLUSION_DISTANCE);
+                out.addShadowRay(sample, shadowRay, normal, weight, color,
+                        Math.max(light, MIN_LIGHT) * factor, MIN_LIGHT * factor);
+                return;
+            }
+        }
+        if (transparent) {
+            light = Math.abs(light);
+        } else {
+            if (light < MIN_LIGHT) { light = MIN_LIGHT; }
+        }
+
+        out.addColor(sample, weight, color, light * factor);
+    }
+
     /** Computes external reflection color */
-    private void computeReflection(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
-        Ray outRay = new Ray(ray.getDepth() + 1);
-        Vector3 heading = outRay.getHeading();
+    private void computeReflection(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+        Ray outRay = context.getRay(ray.getDepth() + 1);
+        aimReflection(ray, position, normal, outRay);
 
+        context.getCounters().countReflectionRay();
+        world.query(context, outRay, out);
+    }
+
+    /** Aims a ray along the external reflection */
+    private static void aimReflection(Ray ray, Vector3 position, Vector3 normal, Ray outRay) {
         float cosi = Vector3.dot(ray.getHeading(), normal);
-        Vector3.addMul(ray.getHeading(), normal, -2f * cosi, heading);
+        Vector3.addMul(ray.getHeading(), normal, -2f * cosi, outRay.getHeading());
         Vector3.addMul(position, normal, 1e-3f, outRay.getOrigin());
-
-        world.query(outRay, out);
     }
 
     /**
      * Computes reflection color and computes reflection amount
      * @return amount of reflection to add
      */
-    private float computeRefraction(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+    private float computeRefraction(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+        Ray outRay = context.getRay(ray.getDepth() + 1);
+        float reflection = aimRefraction(context, ray, position, normal, outRay);
+
+        context.getCounters().countRefractionRay();
+        float distance = world.query(context, outRay, out);
+
+        // the fraction absorption is absorbed over every unit of distance travelled inside the material
+        if (Vector3.dot(outRay.getHeading(), normal) < 0f) {
+            float absorbed = 1f - (float) Math.pow(1f - this.absorption, distance);
+            Vector3.addMul(Vector3.ZERO, out, 1 - absorbed, out);
+            out.set(
+                    out.x + out.x * color.x * absorbed,
+                    out.y + out.y * color.y * absorbed,
+                    out.z + out.z * color.z * absorbed
+            );
+
+            // internal reflection is already done
+            return 0f;
+        }
+        return reflection;
+    }
+
+    /**
+     * Aims a ray through the surface, or along the internal reflection if it cannot get through
+     * @return amount of fresnel reflection, for a ray that ends up outside of the material
+     */
+    private float aimRefraction(TraceContext context, Ray ray, Vector3 position, Vector3 normal, Ray outRay) {
         float cosi = Vector3.dot(ray.getHeading(), normal);
         float etai = 1f;
         float etat = refractiveIndex;
-        Vector3 N = new Vector3(normal);
+        Vector3 N = context.getVector(ray.getDepth());
+        N.set(normal);
 
         if (cosi < 0f) {
             cosi = -cosi;
@@ -115,12 +235,13 @@ public class ComplexMaterial implements Material {
         float eta = etai / etat;
         float k = 1 - eta * eta * (1 - cosi * cosi);
 
-        Ray outRay = new Ray(ray.getDepth() + 1);
         Vector3 heading = outRay.getHeading();
 
         if (k < 0) {
             Vector3.addMul(ray.getHeading(), N, -2*cosi, heading);
             Vector3.addMul(position, N, -1e-3f, outRay.getOrigin());
+            // intersection routines (and the bounding volumes around them) assume unit length headings
+            Vector3.normalize(heading, heading);
         } else {
             Vector3.addMul(Vector3.ZERO, ray.getHeading(), eta, heading);
             Vector3.addMul(heading, N, eta * cosi - (float) FastMath.sqrt(k), heading);
@@ -128,21 +249,6 @@ public class ComplexMaterial implements Material {
             Vector3.normalize(heading, heading);
         }
 
-        float distance = world.query(outRay, out);
-
-        if (Vector3.dot(heading, normal) < 0f) {
-            float absorbed = 1f - (float) Math.pow(1f - this.absorption, distance);
-            Vector3.addMul(Vector3.ZERO, out, 1 - absorbed, out);
-            out.set(
-                    out.x + out.x * color.x * absorbed,
-                    out.y + out.y * color.y * absorbed,
-                    out.z + out.z * color.z * absorbed
-            );
-
-            // internal reflection is already done
-            return 0f;
-        }
-
         // compute fresnel value
         float sint = (float) (etai / etat * FastMath.sqrt(Math.max(0f, 1f - cosi * cosi)));
         float cost = (float) FastMath.sqrt(Math.max(0.f, 1f - sint * sint));
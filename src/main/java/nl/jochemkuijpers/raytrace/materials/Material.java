@@ -4,16 +4,46 @@ import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.math.Vector3;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.Wavefront;
 
 public interface Material {
     /**
      * Query the color of a material, possibly through recursive ray casts
      *
+     * @param context the trace context of the current thread
      * @param ray ray casted
      * @param world the world in which the ray was cast
      * @param position the position of the intersection
      * @param normal the normal of the intersection
      * @param out the output color
      */
-    void queryColor(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out);
+    void queryColor(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out);
+
+    /**
+     * Shade a hit as part of a wavefront, without tracing any rays: add the color that needs no rays to the sample,
+     * and add the rays that are needed to the wavefront, weighted by how much they add to the color of this ray.
+     *
+     * @param context the trace context of the current thread
+     * @param ray ray casted
+     * @param position the position of the intersection
+     * @param normal the normal of the intersection
+     * @param weight the weight of the color of the ray in the color of its sample
+     * @param sample the sample the ray belongs to
+     * @param out the wavefront to add colors and rays to
+     * @return whether the hit was shaded, false if the material can only be shaded through
+     * {@link #queryColor(TraceContext, Ray, Scene, Vector3, Vector3, Color)}
+     */
+    default boolean shade(TraceContext context, Ray ray, Vector3 position, Vector3 normal, Color weight, int sample,
+                          Wavefront out) {
+        return false;
+    }
+
+    /**
+     * @return whether the color depends on the direction the surface is seen from, through reflections or
+     * refraction, so it cannot be reused from another point of view
+     */
+    default boolean isViewDependent() {
+        return false;
+    }
 }
@@ -4,6 +4,8 @@ import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.math.Vector3;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.Wavefront;
 
 /** A very simple material; simply copies its color to the output. */
 public class SimpleMaterial implements Material {
@@ -14,7 +16,14 @@ public class SimpleMaterial implements Material {
     }
 
     @Override
-    public void queryColor(Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
+    public void queryColor(TraceContext context, Ray ray, Scene world, Vector3 position, Vector3 normal, Color out) {
         out.set(color);
     }
+
+    @Override
+    public boolean shade(TraceContext context, Ray ray, Vector3 position, Vector3 normal, Color weight, int sample,
+                         Wavefront out) {
+        out.addColor(sample, weight, color, 1f);
+        return true;
+    }
 }
@@ -0,0 +1,57 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+/**
+ * Decides which pixels of a super-sampling pass get extra samples. After the native pass, every pixel has one sample
+ * through its center. A pixel is refined only when its native sample contrasts with that of a neighbouring pixel, as
+ * happens at edges and in reflections and refractions. A refined pixel first gets a minimum number of samples, and
+ * then more samples, up to the budget of the pass, for as long as the standard error of its mean is too large.
+ *
+ * Contrast and error are measured on the square root of the linear color, which is close to what ends up on the
+ * screen, so a difference of 1/255 is about one step of an 8-bit color channel.
+ */
+public final class AdaptiveSampling {
+    /** Every pixel gets the full budget of the pass */
+    public static final AdaptiveSampling UNIFORM = new AdaptiveSampling(0f, 0f, Integer.MAX_VALUE);
+
+    /**
+     * Refines pixels that differ more than a few steps from their neighbours, until the error is below one step. Fewer
+     * than 8 samples regularly miss an edge that only clips a corner of the pixel, such as the horizon.
+     */
+    public static final AdaptiveSampling DEFAULT = new AdaptiveSampling(4f / 255f, 1f / 255f, 8);
+
+    private final float contrastThreshold;
+    private final float errorThreshold;
+    private final int minSamples;
+
+    /**
+     * @param contrastThreshold a pixel is refined when the contrast with a neighbour reaches this, 0 to refine all
+     * @param errorThreshold a refined pixel gets samples until the standard error of its mean is below this, 0 to
+     *                       always use the full budget
+     * @param minSamples the number of samples every refined pixel gets before its error is considered
+     */
+    public AdaptiveSampling(float contrastThreshold, float errorThreshold, int minSamples) {
+        if (contrastThreshold < 0 || errorThreshold < 0 || minSamples < 2) {
+            throw new IllegalArgumentException("thresholds must not be negative, and refined pixels need 2 samples");
+        }
+        this.contrastThreshold = contrastThreshold;
+        this.errorThreshold = errorThreshold;
+        this.minSamples = minSamples;
+    }
+
+    /** @return whether some pixels may get fewer samples than the budget */
+    public boolean isAdaptive() {
+        return contrastThreshold > 0 || errorThreshold > 0;
+    }
+
+    public float getContrastThreshold() {
+        return contrastThreshold;
+    }
+
+    public float getErrorThreshold() {
+        return errorThreshold;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+}
@@ -0,0 +1,63 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.raytrace.TraceCounters;
+
+/**
+ * A measure of what a pixel costs to render, shown as a false color heatmap by
+ * {@link RenderTile#renderHeatmap(nl.jochemkuijpers.raytrace.TraceContext, nl.jochemkuijpers.raytrace.Scene,
+ * CostMetric, FrameEpoch.Token)}.
+ *
+ * Costs are shown on a logarithmic scale between a fixed low and high cost, from dark blue through cyan, yellow and
+ * red to white, so that heatmaps of different tiles and frames can be compared.
+ */
+public enum CostMetric {
+    /** The wall time of the pixel in nanoseconds, from 250 ns to 250 µs */
+    TIME(250, 250_000),
+
+    /**
+     * The number of intersection tests with shapes and bounding volumes, from 4 to 4096. These are only counted when
+     * {@link TraceCounters#COUNT_INTERSECTIONS} is set.
+     */
+    INTERSECTIONS(4, 4096),
+
+    /** The size of the ray tree of the pixel: the camera ray and all reflection, refraction and shadow rays, 1 to 64 */
+    RAYS(1, 64);
+
+    /** The colors at the low end, at every fifth of the scale and at the high end, as 0xRRGGBB */
+    private static final int[] PALETTE = { 0x000080, 0x0000FF, 0x00FFFF, 0xFFFF00, 0xFF0000, 0xFFFFFF };
+
+    private final double low;
+    private final double high;
+
+    CostMetric(double low, double high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /** @return the cost of a pixel according to this metric */
+    public long select(long nanos, long intersectionTests, long rays) {
+        switch (this) {
+            case TIME:
+                return nanos;
+            case INTERSECTIONS:
+                return intersectionTests;
+            default:
+                return rays;
+        }
+    }
+
+    /** @return the heatmap color of the cost, as an opaque ARGB value */
+    public int toColor(long cost) {
+        double t = Math.log(Math.max(cost, low) / low) / Math.log(high / low);
+        t = Math.min(t, 1.0) * (PALETTE.length - 1);
+
+        int index = Math.min((int) t, PALETTE.length - 2);
+        double f = t - index;
+        int from = PALETTE[index];
+        int to = PALETTE[index + 1];
+        int r = (int) Math.round((from >> 16 & 0xFF) * (1 - f) + (to >> 16 & 0xFF) * f);
+        int g = (int) Math.round((from >> 8 & 0xFF) * (1 - f) + (to >> 8 & 0xFF) * f);
+        int b = (int) Math.round((from & 0xFF) * (1 - f) + (to & 0xFF) * f);
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+}
@@ -20,4 +20,14 @@ public interface FrameBuffer {
      * @param data the pixel data
      */
     void write(int x, int y, int w, int h, int[] data);
+
+    /**
+     * Returns the pixels of the frame buffer at its current size, for tiles to render straight into. Resizing
+     * replaces the surface, so the size of the surface is the size the tiles must be made for.
+     *
+     * @return the current surface, or null if the frame buffer only takes copies through {@link #write}
+     */
+    default Surface getSurface() {
+        return null;
+    }
 }
@@ -0,0 +1,89 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Frame generation counter used to cancel render jobs. Every job carries a {@link Token} of the epoch it was
+ * submitted in. Advancing the epoch (for example when the camera moves) makes all earlier tokens stale: jobs notice
+ * this with a cheap volatile read and stop, and their writes to the frame buffer are rejected.
+ *
+ * Unlike interrupting the worker threads, a stale token cannot accidentally hit a job of the new frame, and it is not
+ * consumed by the first check.
+ */
+public final class FrameEpoch {
+    private volatile int current = 0;
+
+    /** Frame buffer writes hold the read lock, advancing holds the write lock. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Starts a new epoch. Once this returns, no write with a token of an earlier epoch will reach a frame buffer.
+     *
+     * @return a token of the new epoch
+     */
+    public Token advance() {
+        lock.writeLock().lock();
+        try {
+            current++;
+            return new Token(current);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return a token of the current epoch */
+    public Token current() {
+        return new Token(current);
+    }
+
+    public final class Token {
+        private final int epoch;
+
+        private Token(int epoch) {
+            this.epoch = epoch;
+        }
+
+        /** @return whether the epoch of this token is still the current one, i.e. the job is not cancelled */
+        public boolean isCurrent() {
+            return current == epoch;
+        }
+
+        /**
+         * Writes the data to the frame buffer, but only if this token is still current.
+         * See {@link FrameBuffer#write(int, int, int, int, int[])}.
+         *
+         * @return whether the data was written
+         */
+        public boolean write(FrameBuffer target, int x, int y, int w, int h, int[] data) {
+            if (!beginWrite()) {
+                return false;
+            }
+            try {
+                target.write(x, y, w, h, data);
+                return true;
+            } finally {
+                endWrite();
+            }
+        }
+
+        /**
+         * Starts writing straight into a {@link Surface}, but only if this token is still current. While writing, the
+         * epoch cannot advance, so every successful call must be followed by {@link #endWrite()}.
+         *
+         * @return whether writing may start
+         */
+        public boolean beginWrite() {
+            lock.readLock().lock();
+            if (isCurrent()) {
+                return true;
+            }
+            lock.readLock().unlock();
+            return false;
+        }
+
+        /** Ends a write started by {@link #beginWrite()}. */
+        public void endWrite() {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+
+import java.util.Arrays;
+
+/**
+ * The pixels of the last frame, with the distance to what the camera ray of every pixel hit and whether its color
+ * depends on the point of view. When the camera moves, the frame is reprojected into the new view: every pixel moves
+ * to where its hit point ends up, the nearest hit winning. The result is the first image of the new frame, in which
+ * only the pixels that nothing landed on and the reflective and refractive pixels need to be traced, see
+ * {@link RenderTile#renderRepair(nl.jochemkuijpers.raytrace.TraceContext, nl.jochemkuijpers.raytrace.Scene,
+ * FrameHistory, FrameEpoch.Token)}.
+ *
+ * Tiles store their pixels while writing them to the frame buffer, under the frame epoch. Once the epoch has advanced,
+ * the history of the old frame is no longer written to and can be reprojected.
+ */
+public final class FrameHistory {
+    /**
+     * A pixel whose hit lies this much further away than both its neighbours on opposite sides shows through a crack
+     * in a nearer surface, which opened up because the surface now covers more pixels than before.
+     */
+    private static final float CRACK_RATIO = 1.1f;
+
+    private final int width;
+    private final int height;
+    private final boolean reprojected;
+
+    private final int[] colors;
+    /** The distance to the hit of every pixel, infinite if nothing was hit, NaN if not known */
+    private final float[] distances;
+    private final boolean[] viewDependent;
+
+    /** The view the pixels were rendered from */
+    private final Vector3 position;
+    private final Vector3 gaze;
+    private final Vector3 horz;
+    private final Vector3 vert;
+    private final float tanHalfFOV;
+
+    /** Creates an empty history for a frame of the current view of the camera */
+    public FrameHistory(Camera camera, int width, int height) {
+        this(camera, width, height, false);
+    }
+
+    private FrameHistory(Camera camera, int width, int height, boolean reprojected) {
+        this.width = width;
+        this.height = height;
+        this.reprojected = reprojected;
+        colors = new int[width * height];
+        distances = new float[width * height];
+        viewDependent = new boolean[width * height];
+        Arrays.fill(distances, Float.NaN);
+
+        // the camera is changed in place when it moves, so its view is copied
+        position = new Vector3(camera.getPosition());
+        gaze = new Vector3(camera.getGaze());
+        horz = new Vector3(camera.getViewHorz());
+        vert = new Vector3(camera.getViewVert());
+        tanHalfFOV = (float) Math.tan(camera.getVerticalFOV() / 2);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return whether this history holds a reprojection of an earlier frame, instead of starting out empty */
+    public boolean isReprojected() {
+        return reprojected;
+    }
+
+    /**
+     * Reprojects the known pixels into the current view of the camera. The frame that was stored must be done
+     * writing, which it is once its epoch has advanced.
+     *
+     * @return the history of a frame of the new view, holding the pixels that could be reprojected
+     */
+    public FrameHistory reproject(Camera camera) {
+        FrameHistory next = new FrameHistory(camera, width, height, true);
+
+        // the rows of the inverse of the new view basis, these split a direction into its basis components
+        Vector3 gazeRow = new Vector3();
+        Vector3 horzRow = new Vector3();
+        Vector3 vertRow = new Vector3();
+        Vector3.cross(next.horz, next.vert, gazeRow);
+        Vector3.cross(next.vert, next.gaze, horzRow);
+        Vector3.cross(next.gaze, next.horz, vertRow);
+        float invDeterminant = 1f / Vector3.dot(next.gaze, gazeRow);
+        Vector3.mul(gazeRow, invDeterminant, gazeRow);
+        Vector3.mul(horzRow, invDeterminant, horzRow);
+        Vector3.mul(vertRow, invDeterminant, vertRow);
+
+        Vector3 heading = new Vector3();
+        Vector3 offset = new Vector3();
+        float halfWidth = width / 2f;
+        float halfHeight = height / 2f;
+
+        for (int y = 0; y < height; y++) {
+            float v = (y + 0.5f - halfHeight) / height * tanHalfFOV;
+            for (int x = 0; x < width; x++) {
+                int pixel = y * width + x;
+                float distance = distances[pixel];
+                if (Float.isNaN(distance)) { continue; }
+
+                // the camera ray of the pixel, as traced by RenderTile
+                float u = (x + 0.5f - halfWidth) / height * tanHalfFOV;
+                Vector3.addMul(gaze, horz, u, heading);
+                Vector3.addMul(heading, vert, v, heading);
+                Vector3.normalize(heading, heading);
+
+                // a miss is infinitely far away, only its direction matters
+                if (distance == Float.POSITIVE_INFINITY) {
+                    offset.set(heading);
+                } else {
+                    Vector3.addMul(position, heading, distance, offset);
+                    Vector3.sub(offset, next.position, offset);
+                }
+
+                float depth = Vector3.dot(offset, gazeRow);
+                if (depth <= 0) { continue; }
+                float nextU = Vector3.dot(offset, horzRow) / (depth * next.tanHalfFOV);
+                float nextV = Vector3.dot(offset, vertRow) / (depth * next.tanHalfFOV);
+                int nextX = (int) Math.floor(nextU * height + halfWidth);
+                int nextY = (int) Math.floor(nextV * height + halfHeight);
+                if (nextX < 0 || nextX >= width || nextY < 0 || nextY >= height) { continue; }
+
+                float nextDistance = distance == Float.POSITIVE_INFINITY ? distance : offset.mag();
+                int nextPixel = nextY * width + nextX;
+                if (Float.isNaN(next.distances[nextPixel]) || nextDistance < next.distances[nextPixel]) {
+                    next.distances[nextPixel] = nextDistance;
+                    next.colors[nextPixel] = colors[pixel];
+                    next.viewDependent[nextPixel] = viewDependent[pixel];
+                }
+            }
+        }
+
+        next.removeCracks();
+        return next;
+    }
+
+    /** Forgets the pixels that show through cracks in a nearer surface, so they are traced again */
+    private void removeCracks() {
+        float[] splatted = distances.clone();
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int pixel = y * width + x;
+                float limit = splatted[pixel] / CRACK_RATIO;
+                if ((splatted[pixel - 1] < limit && splatted[pixel + 1] < limit)
+                        || (splatted[pixel - width] < limit && splatted[pixel + width] < limit)) {
+                    distances[pixel] = Float.NaN;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the known pixels to a surface of the same size, as the first image of the frame. The other pixels keep
+     * what the surface showed before, until they are traced.
+     */
+    public void writeTo(Surface surface) {
+        int[] image = surface.getPixels().clone();
+        for (int pixel = 0; pixel < colors.length; pixel++) {
+            if (!Float.isNaN(distances[pixel])) {
+                image[pixel] = colors[pixel];
+            }
+        }
+        surface.write(0, 0, width, height, image);
+    }
+
+    /** @return the fraction of the pixels that do not need to be traced again */
+    public float getCoverage() {
+        int covered = 0;
+        for (int pixel = 0; pixel < distances.length; pixel++) {
+            if (!Float.isNaN(distances[pixel]) && !viewDependent[pixel]) {
+                covered++;
+            }
+        }
+        return (float) covered / distances.length;
+    }
+
+    /** @return whether the pixel must be traced: nothing was reprojected onto it, or it depends on the view */
+    boolean needsTrace(int x, int y) {
+        int pixel = y * width + x;
+        return Float.isNaN(distances[pixel]) || viewDependent[pixel];
+    }
+
+    /** @return the color of the pixel, as an ARGB value */
+    int getColor(int x, int y) {
+        return colors[y * width + x];
+    }
+
+    /**
+     * Stores the pixels of a tile. The hits are only stored for the pixels whose native sample was traced, the others
+     * keep what was reprojected onto them.
+     */
+    void store(int x, int y, int w, int h, int[] tileColors, SampleStore samples) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(tileColors, row * w, colors, (y + row) * width + x, w);
+            for (int column = 0; column < w; column++) {
+                float distance = samples.getPrimaryDistance(column, row);
+                if (!Float.isNaN(distance)) {
+                    int pixel = (y + row) * width + x + column;
+                    distances[pixel] = distance;
+                    viewDependent[pixel] = samples.isViewDependent(column, row);
+                }
+            }
+        }
+    }
+}
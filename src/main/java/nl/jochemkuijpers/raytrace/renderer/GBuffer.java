@@ -0,0 +1,100 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+import java.util.Arrays;
+
+/**
+ * A per pixel cache of what the camera ray of the native sample of every pixel hit: the distance, position and normal
+ * of the hit, and the shape and the primitive of the shape that were hit, which also determine the material.
+ *
+ * What the camera rays hit only depends on the camera, the frame size and the geometry of the scene. As long as those
+ * stay the same, a change to the materials or to the sun only needs the cached hits to be shaded again. That skips
+ * the intersection work of the native samples and of the coarse first pass, whose patches then take the native sample
+ * of their middle pixel. The other samples of the super-sampling passes are not cached and are still traced.
+ *
+ * Tiles fill in their own pixels during the coarse and the native pass. Entries are only written while the epoch of the
+ * frame is current, like frame buffer writes, so the jobs of a cancelled frame cannot change an entry while the next
+ * frame reads it. A change to the camera or the geometry needs a new G-buffer.
+ */
+public final class GBuffer {
+    private final int width;
+    private final int height;
+
+    /** The distance to the hit of every pixel, infinite if nothing was hit, NaN if not stored */
+    private final float[] distances;
+    private final float[] positions;
+    private final float[] normals;
+    private final Shape[] shapes;
+    private final int[] primitives;
+
+    public GBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        distances = new float[width * height];
+        positions = new float[3 * width * height];
+        normals = new float[3 * width * height];
+        shapes = new Shape[width * height];
+        primitives = new int[width * height];
+        Arrays.fill(distances, Float.NaN);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Loads the cached hit of a pixel into a hit record, as it would be after computing its surface.
+     *
+     * @return whether the hit of the pixel was cached
+     */
+    boolean load(int x, int y, Hit outHit) {
+        int pixel = y * width + x;
+        float distance = distances[pixel];
+        if (Float.isNaN(distance)) {
+            return false;
+        }
+
+        outHit.distance = distance;
+        outHit.shape = shapes[pixel];
+        outHit.primitive = primitives[pixel];
+        outHit.position.set(positions[3 * pixel], positions[3 * pixel + 1], positions[3 * pixel + 2]);
+        outHit.normal.set(normals[3 * pixel], normals[3 * pixel + 1], normals[3 * pixel + 2]);
+        return true;
+    }
+
+    /**
+     * Stores the hit of the camera ray of a pixel. Shading may have moved the position of the hit record, so the
+     * position is computed from the ray, like {@link Shape#computeSurface(Ray, Hit)} does. Nothing is stored if the
+     * epoch has passed.
+     */
+    void store(int x, int y, Ray ray, Hit hit, FrameEpoch.Token epoch) {
+        if (!epoch.beginWrite()) {
+            return;
+        }
+        try {
+            int pixel = y * width + x;
+            Vector3 origin = ray.getOrigin();
+            Vector3 heading = ray.getHeading();
+
+            shapes[pixel] = hit.shape;
+            primitives[pixel] = hit.primitive;
+            positions[3 * pixel] = origin.x + heading.x * hit.distance;
+            positions[3 * pixel + 1] = origin.y + heading.y * hit.distance;
+            positions[3 * pixel + 2] = origin.z + heading.z * hit.distance;
+            normals[3 * pixel] = hit.normal.x;
+            normals[3 * pixel + 1] = hit.normal.y;
+            normals[3 * pixel + 2] = hit.normal.z;
+            distances[pixel] = hit.distance;
+        } finally {
+            epoch.endWrite();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+/**
+ * A frame buffer that is just an array of ARGB pixels in memory, for rendering without a display.
+ */
+public class MemoryFrameBuffer implements FrameBuffer {
+    private volatile Surface surface;
+
+    public MemoryFrameBuffer(int width, int height) {
+        resizeFrameBuffer(width, height);
+    }
+
+    @Override
+    public int getFrameWidth() {
+        return surface.getWidth();
+    }
+
+    @Override
+    public int getFrameHeight() {
+        return surface.getHeight();
+    }
+
+    /** Resizes the frame buffer, the new frame buffer is black. */
+    @Override
+    public void resizeFrameBuffer(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("A frame buffer needs at least one pixel.");
+        }
+        surface = new Surface(width, height, new int[width * height]);
+    }
+
+    @Override
+    public void write(int x, int y, int w, int h, int[] data) {
+        Surface current = surface;
+        if (x + w > current.getWidth() || y + h > current.getHeight()) {
+            return;
+        }
+        current.write(x, y, w, h, data);
+    }
+
+    @Override
+    public Surface getSurface() {
+        return surface;
+    }
+
+    /** @return a copy of the pixels, row by row, as ARGB values */
+    public int[] getPixels() {
+        return surface.getPixels().clone();
+    }
+}
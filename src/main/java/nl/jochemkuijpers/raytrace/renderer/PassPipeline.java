@@ -0,0 +1,117 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.workerpool.JobScheduler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Renders a frame progressively in a number of passes of increasing quality, without a barrier between the passes.
+ *
+ * Every tile runs its own chain of passes: as soon as a pass of a tile is done, the tile is ready for its next pass.
+ * Since the passes of one tile run one after the other, a tile is never overwritten by a lower quality result. The pass
+ * is the scheduling level of a job, so all cheap early passes still come before the expensive later ones, but no worker
+ * sits idle while the last tiles of a pass are being finished.
+ *
+ * Within a pass, tiles run in the order of {@link RenderTile#getPriority()}. The tiles that are ready for a pass wait
+ * in a priority queue of that pass, and a job of the pass does not render a fixed tile, but takes the most urgent tile
+ * from that queue when it starts. So the order does not depend on the order in which the scheduler starts the jobs of
+ * a level, or in which the tiles finished the pass before.
+ */
+public class PassPipeline {
+    private static final Comparator<RenderTile> BY_PRIORITY = Comparator.comparingDouble(RenderTile::getPriority);
+
+    private final JobScheduler scheduler;
+    private final int[] qualities;
+    private final AdaptiveSampling sampling;
+
+    /**
+     * @param scheduler the scheduler to run the render jobs on
+     * @param qualities the resolution factor of every pass, see {@link RenderTile#render}
+     * @param sampling decides which pixels get the samples of the super-sampling passes
+     */
+    public PassPipeline(JobScheduler scheduler, int[] qualities, AdaptiveSampling sampling) {
+        this.scheduler = scheduler;
+        this.qualities = qualities.clone();
+        this.sampling = sampling;
+    }
+
+    /**
+     * Submits the first pass of all tiles, the later passes follow by themselves. Passes that have not started when the
+     * epoch advances are no longer submitted.
+     */
+    public void start(List<RenderTile> tiles, Scene world, FrameEpoch.Token epoch) {
+        start(tiles, world, null, epoch);
+    }
+
+    /**
+     * Submits the first pass of all tiles like {@link #start(List, Scene, FrameEpoch.Token)}, and stores the passes in
+     * the history of the frame. If the history was reprojected from the previous frame, the first pass repairs that
+     * reprojection instead, see {@link RenderTile#renderRepair(TraceContext, Scene, FrameHistory, FrameEpoch.Token)}.
+     *
+     * @param history the history of the frame, or null to keep none
+     */
+    public void start(List<RenderTile> tiles, Scene world, FrameHistory history, FrameEpoch.Token epoch) {
+        Frame frame = new Frame(world, history, epoch);
+        for (RenderTile tile : tiles) {
+            frame.ready(tile, 0);
+        }
+    }
+
+    /**
+     * Submits a heatmap render of all tiles instead of the passes, see
+     * {@link RenderTile#renderHeatmap(TraceContext, Scene, CostMetric, FrameEpoch.Token)}.
+     */
+    public void startHeatmap(List<RenderTile> tiles, Scene world, CostMetric metric, FrameEpoch.Token epoch) {
+        for (RenderTile tile : tiles) {
+            scheduler.submit(() -> tile.renderHeatmap(TraceContext.forCurrentThread(), world, metric, epoch), 0);
+        }
+    }
+
+    /** The passes of the tiles of a single frame */
+    private final class Frame {
+        private final Scene world;
+        private final FrameHistory history;
+        private final FrameEpoch.Token epoch;
+        /** Per pass, the tiles that are ready for it, most urgent first */
+        private final List<PriorityBlockingQueue<RenderTile>> ready;
+
+        private Frame(Scene world, FrameHistory history, FrameEpoch.Token epoch) {
+            this.world = world;
+            this.history = history;
+            this.epoch = epoch;
+            this.ready = new ArrayList<>(qualities.length);
+            for (int pass = 0; pass < qualities.length; pass++) {
+                ready.add(new PriorityBlockingQueue<>(11, BY_PRIORITY));
+            }
+        }
+
+        /** Queues a tile for a pass, and submits a job that renders the most urgent tile of that pass */
+        private void ready(RenderTile tile, int pass) {
+            ready.get(pass).add(tile);
+            scheduler.submit(() -> renderNext(pass), pass);
+        }
+
+        private void renderNext(int pass) {
+            // every job of a pass has a tile of its own in the queue, but not necessarily the one it queued
+            RenderTile tile = ready.get(pass).poll();
+            if (tile == null) {
+                return;
+            }
+
+            TraceContext context = TraceContext.forCurrentThread();
+            long start = System.nanoTime();
+            boolean completed = pass == 0 && history != null && history.isReprojected()
+                    ? tile.renderRepair(context, world, history, epoch)
+                    : tile.render(context, world, qualities[pass], sampling, history, epoch);
+            context.getCounters().countTile(pass, completed, System.nanoTime() - start);
+            if (pass + 1 < qualities.length && epoch.isCurrent()) {
+                ready(tile, pass + 1);
+            }
+        }
+    }
+}
@@ -2,9 +2,16 @@ package nl.jochemkuijpers.raytrace.renderer;
 
 import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+import nl.jochemkuijpers.raytrace.Wavefront;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -25,6 +32,9 @@ public class RenderTile {
     private final float yMin;
     private final float yMax;
     private final float vertFOV;
+    /** Size of and distance to the near plane, derived from the vertical field of view */
+    private final float npSize;
+    private final float npDistance;
 
     private final int targetX;
     private final int targetY;
@@ -32,12 +42,29 @@ public class RenderTile {
     private final int targetHeight;
 
     private final FrameBuffer target;
+    /** The surface of the target this tile was made for, written into directly; null to write through the target */
+    private final Surface surface;
+    /** The G-buffer of the frame, or null to trace every camera ray */
+    private final GBuffer gBuffer;
     private final int[] buffer;
 
+    /** The samples of all passes with a resolution factor of 1 or more */
+    private final SampleStore samples;
+
+    /** Whether the samples of a pass are traced in batches, breadth-first, see {@link Wavefront} */
+    private boolean wavefront;
+    /** The pixels a round of batched sampling takes samples for, and the number of samples it brings them up to */
+    private int[] roundPixels;
+    private int[] roundTargets;
+
+    /** The cost of the last heatmap render that was published, null if there was none */
+    private volatile TileCost cost;
+
     public RenderTile(
             Vector3 position, Vector3 gaze, Vector3 horz, Vector3 vert,
             float xMin, float xMax, float yMin, float yMax, float vertFOV,
-            int targetX, int targetY, int targetWidth, int targetHeight, FrameBuffer target
+            int targetX, int targetY, int targetWidth, int targetHeight, FrameBuffer target, Surface surface,
+            GBuffer gBuffer
     ) {
         this.position = position;
         this.gaze = gaze;
@@ -48,13 +75,18 @@ public class RenderTile {
         this.yMin = yMin;
         this.yMax = yMax;
         this.vertFOV = vertFOV;
+        this.npSize = (float) Math.sin(vertFOV / 2);
+        this.npDistance = (float) Math.cos(vertFOV / 2);
         this.targetX = targetX;
         this.targetY = targetY;
         this.targetWidth = targetWidth;
         this.targetHeight = targetHeight;
         this.target = target;
+        this.surface = surface;
+        this.gBuffer = gBuffer;
         this.buffer = new int[targetWidth * targetHeight];
         Arrays.fill(buffer, 0, buffer.length - 1, 0xFF000000);
+        this.samples = new SampleStore(targetWidth, targetHeight);
     }
 
     /**
@@ -65,35 +97,256 @@ public class RenderTile {
      * - A factor of > 1 means that every frame buffer pixel gets exactly factor * factor rays; super-sampling
      * - A factor of < 0 is invalid.
      *
+     * The rays of a factor of 1 or more are kept, so a later call with a higher factor only traces the additional
+     * rays. Calls for the same tile must not overlap.
+     *
+     * Rendering stops as soon as the epoch of the token is no longer current, and nothing is written to the frame
+     * buffer after that.
+     *
+     * @param context the trace context of the current thread
      * @param world the world to render
      * @param resFactor resolution factor
+     * @param epoch the frame epoch this render job belongs to
+     * @return whether the pass was completed and written, false if it was cancelled
+     */
+    public boolean render(TraceContext context, Scene world, int resFactor, FrameEpoch.Token epoch) {
+        return render(context, world, resFactor, AdaptiveSampling.UNIFORM, epoch);
+    }
+
+    /**
+     * Render the current tile like {@link #render(TraceContext, Scene, int, FrameEpoch.Token)}, but with a factor
+     * of more than 1, the number of rays per pixel is a budget that the sampling policy may spend on only some pixels.
+     */
+    public boolean render(TraceContext context, Scene world, int resFactor, AdaptiveSampling sampling,
+                          FrameEpoch.Token epoch) {
+        return render(context, world, resFactor, sampling, null, epoch);
+    }
+
+    /**
+     * Render the current tile like {@link #render(TraceContext, Scene, int, AdaptiveSampling, FrameEpoch.Token)}, and
+     * store the result of a pass with a factor of 1 or more in the history of the frame, if there is one.
      */
-    public void render(Scene world, int resFactor) {
+    public boolean render(TraceContext context, Scene world, int resFactor, AdaptiveSampling sampling,
+                          FrameHistory history, FrameEpoch.Token epoch) {
+        if (resFactor < 0) {
+            throw new IllegalArgumentException("negative resFactor not allowed!");
+        }
+        if (!epoch.isCurrent()) { return false; }
+
         if (resFactor > 0) {
             // visually show this tile is being rendered by drawing outlines
-            drawOutlines();
-            if (!Thread.interrupted()) {
-                target.write(targetX, targetY, targetWidth, targetHeight, buffer);
+            drawOutlines(epoch);
+        }
+
+        if (resFactor == 0) {
+            return renderPatched(context, world, 8, epoch);
+        } else {
+            return renderProgressive(context, world, resFactor * resFactor, sampling, history, epoch);
+        }
+    }
+
+    /**
+     * Renders a false color heatmap of the cost of the native sample of every pixel instead of its color, and keeps
+     * the total cost of the tile, see {@link #getCost()}. The samples of the normal passes are not affected.
+     *
+     * @param context the trace context of the current thread
+     * @param world the world to render
+     * @param metric the cost to show
+     * @param epoch the frame epoch this render job belongs to
+     * @return whether the heatmap was completed and written, false if it was cancelled
+     */
+    public boolean renderHeatmap(TraceContext context, Scene world, CostMetric metric, FrameEpoch.Token epoch) {
+        TraceCounters counters = context.getCounters();
+        Color sample = context.getSampleColor();
+        long nanos = 0;
+        long intersectionTests = 0;
+        long rays = 0;
+
+        for (int y = 0; y < targetHeight; y++) {
+            if (!epoch.isCurrent()) { return false; }
+            for (int x = 0; x < targetWidth; x++) {
+                long startIntersectionTests = counters.getIntersectionTests();
+                long startRays = counters.getRays();
+                long start = System.nanoTime();
+
+                trace(context, world, x + 0.5f, y + 0.5f, sample);
+
+                long pixelNanos = System.nanoTime() - start;
+                long pixelIntersectionTests = counters.getIntersectionTests() - startIntersectionTests;
+                long pixelRays = counters.getRays() - startRays;
+                nanos += pixelNanos;
+                intersectionTests += pixelIntersectionTests;
+                rays += pixelRays;
+
+                long pixelCost = metric.select(pixelNanos, pixelIntersectionTests, pixelRays);
+                buffer[y * targetWidth + x] = metric.toColor(pixelCost);
             }
         }
 
-        switch (resFactor) {
-            case 0:
-                renderPatched(world, 8);
-                break;
-            case 1:
-                renderOneToOne(world);
-                break;
-            default:
-                if (resFactor < 0) {
-                    throw new IllegalArgumentException("negative resFactor not allowed!");
+        // a render that was not published must not leave a cost for pixels that never reached the frame buffer
+        if (!publish(null, epoch)) {
+            return false;
+        }
+        cost = new TileCost(targetX, targetY, targetWidth, targetHeight, nanos, intersectionTests, rays);
+        return true;
+    }
+
+    /**
+     * Renders the first image of a frame from a history that was reprojected from the previous frame. Only the pixels
+     * that nothing was reprojected onto and the pixels that depend on the view are traced, the others are taken from
+     * the history as they are. The traced samples are kept as the native samples of the later passes.
+     *
+     * @param context the trace context of the current thread
+     * @param world the world to render
+     * @param history the history of the frame, of the size of the frame buffer
+     * @param epoch the frame epoch this render job belongs to
+     * @return whether the image was completed and written, false if it was cancelled
+     */
+    public boolean renderRepair(TraceContext context, Scene world, FrameHistory history, FrameEpoch.Token epoch) {
+        Color color = context.getPixelColor();
+        Color sample = context.getSampleColor();
+
+        for (int y = 0; y < targetHeight; y++) {
+            if (!epoch.isCurrent()) { return false; }
+            for (int x = 0; x < targetWidth; x++) {
+                if (history.needsTrace(targetX + x, targetY + y)) {
+                    takeSamples(context, world, x, y, 1, sample, epoch);
+                    samples.getColor(x, y, color);
+                    buffer[y * targetWidth + x] = Color.gammaEncode(color, x, y);
+                } else {
+                    buffer[y * targetWidth + x] = history.getColor(targetX + x, targetY + y);
                 }
-                renderSupersampled(world, resFactor);
-                break;
+            }
+        }
+        return publish(history, epoch);
+    }
+
+    /** @return the cost measured by the last completed heatmap render, or null if there was none */
+    public TileCost getCost() {
+        return cost;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Writes the view of this tile: the camera, the bounds of the tile and the field of view, so that the same tile can
+     * be rendered elsewhere, see {@link #readView(DataInput, FrameBuffer)}.
+     */
+    public void writeView(DataOutput out) throws IOException {
+        writeVector(out, position);
+        writeVector(out, gaze);
+        writeVector(out, horz);
+        writeVector(out, vert);
+        out.writeFloat(xMin);
+        out.writeFloat(xMax);
+        out.writeFloat(yMin);
+        out.writeFloat(yMax);
+        out.writeFloat(vertFOV);
+    }
+
+    /**
+     * Reads the view of a tile that was written by {@link #writeView(DataOutput)}, as a tile that covers the whole
+     * target. With a target of the size of the original tile, it renders exactly the same pixels.
+     */
+    public static RenderTile readView(DataInput in, FrameBuffer target) throws IOException {
+        Vector3 position = readVector(in);
+        Vector3 gaze = readVector(in);
+        Vector3 horz = readVector(in);
+        Vector3 vert = readVector(in);
+        float xMin = in.readFloat();
+        float xMax = in.readFloat();
+        float yMin = in.readFloat();
+        float yMax = in.readFloat();
+        float vertFOV = in.readFloat();
+        return new RenderTile(position, gaze, horz, vert, xMin, xMax, yMin, yMax, vertFOV,
+                0, 0, target.getFrameWidth(), target.getFrameHeight(), target, target.getSurface(), null);
+    }
+
+    private static void writeVector(DataOutput out, Vector3 vector) throws IOException {
+        out.writeFloat(vector.x);
+        out.writeFloat(vector.y);
+        out.writeFloat(vector.z);
+    }
+
+    private static Vector3 readVector(DataInput in) throws IOException {
+        return new Vector3(in.readFloat(), in.readFloat(), in.readFloat());
+    }
+
+    /**
+     * Writes the pixels of a pass of this tile that was rendered elsewhere to the tile's place in the frame, unless the
+     * epoch has passed.
+     *
+     * @param pixels the ARGB pixels of the tile, row by row
+     * @return whether the pixels were written
+     */
+    public boolean publishRemote(int[] pixels, FrameEpoch.Token epoch) {
+        if (!epoch.beginWrite()) { return false; }
+        try {
+            if (surface != null) {
+                surface.write(targetX, targetY, targetWidth, targetHeight, pixels);
+            } else {
+                target.write(targetX, targetY, targetWidth, targetHeight, pixels);
+            }
+            return true;
+        } finally {
+            epoch.endWrite();
+        }
+    }
+
+    /**
+     * Makes the passes trace the samples of the tile in batches, breadth-first, instead of one camera ray at a time.
+     * Adaptive sampling is batched in rounds, see {@link #takePassInBatches}. Camera rays whose hit is in the G-buffer
+     * are only shaded. Only the pixels around the tile, and the native samples that are not in the G-buffer yet, are
+     * still traced one at a time. It must not be changed while the tile is being rendered.
+     */
+    public void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    /** Forgets the samples of earlier passes, so that the next pass starts from scratch. */
+    public void clearSamples() {
+        samples.clear();
+    }
+
+    /**
+     * Copies the buffer to the tile's place in the frame, and to the history if there is one, unless the epoch has
+     * passed
+     */
+    private boolean publish(FrameHistory history, FrameEpoch.Token epoch) {
+        if (!epoch.beginWrite()) { return false; }
+        try {
+            if (surface != null) {
+                surface.write(targetX, targetY, targetWidth, targetHeight, buffer);
+            } else {
+                target.write(targetX, targetY, targetWidth, targetHeight, buffer);
+            }
+            if (history != null) {
+                history.store(targetX, targetY, targetWidth, targetHeight, buffer, samples);
+            }
+            return true;
+        } finally {
+            epoch.endWrite();
         }
     }
 
-    private void drawOutlines() {
+    private void drawOutlines(FrameEpoch.Token epoch) {
+        if (surface != null) {
+            // only the edges change, so only those are drawn
+            if (!epoch.beginWrite()) { return; }
+            try {
+                surface.drawOutline(targetX, targetY, targetWidth, targetHeight, 0xFFFF0000);
+            } finally {
+                epoch.endWrite();
+            }
+            return;
+        }
+
         for (int y = 0; y < targetHeight; y++) {
             buffer[y * targetWidth] = 0xFFFF0000;
             buffer[(y+1) * targetWidth - 1] = 0xFFFF0000;
@@ -103,33 +356,52 @@ public class RenderTile {
             buffer[x] = 0xFFFF0000;
             buffer[targetWidth * targetHeight - x - 1] = 0xFFFF0000;
         }
+        epoch.write(target, targetX, targetY, targetWidth, targetHeight, buffer);
     }
 
-    /** Renders the tile in patchSize × patchSize patches, one ray through the middle of each patch. */
-    private void renderPatched(Scene world, int patchSize) {
-        Ray ray = new Ray(0, position, Vector3.ZERO);
+    /**
+     * Renders the tile in patchSize × patchSize patches, one ray through the middle of each patch. With a surface,
+     * every patch is filled in straight away, without going through the buffer. With a G-buffer, the ray of a patch
+     * is the native sample of its middle pixel instead, so a cached hit is only shaded.
+     */
+    private boolean renderPatched(TraceContext context, Scene world, int patchSize, FrameEpoch.Token epoch) {
+        Ray ray = context.getRay(0);
+        ray.getOrigin().set(position);
         Vector3 heading = ray.getHeading();
-        Color color = new Color();
-
-        float npSize = (float) Math.sin(vertFOV / 2);
-        float npDistance = (float) Math.cos(vertFOV / 2);
+        Color color = context.getSampleColor();
 
         float ty, tx;
         for (int y = 0; y < targetHeight; y += patchSize) {
+            if (!epoch.isCurrent()) { return false; }
             ty = (y + 0.5f * patchSize) / (targetHeight + 1);
             for (int x = 0; x < targetWidth; x += patchSize) {
                 tx = (x + 0.5f * patchSize) / (targetWidth + 1);
 
-                Vector3.addMul(Vector3.ZERO, gaze, npDistance, heading);
-                Vector3.addMul(heading, horz, (xMin * (1 - tx) + xMax * tx) * npSize, heading);
-                Vector3.addMul(heading, vert, (yMin * (1 - ty) + yMax * ty) * npSize, heading);
-                Vector3.normalize(heading, heading);
+                if (gBuffer != null) {
+                    // aims a ray of its own, through the middle pixel of the patch
+                    traceNative(context, world, Math.min(x + patchSize / 2, targetWidth - 1),
+                            Math.min(y + patchSize / 2, targetHeight - 1), color, epoch);
+                } else {
+                    Vector3.addMul(Vector3.ZERO, gaze, npDistance, heading);
+                    Vector3.addMul(heading, horz, (xMin * (1 - tx) + xMax * tx) * npSize, heading);
+                    Vector3.addMul(heading, vert, (yMin * (1 - ty) + yMax * ty) * npSize, heading);
+                    Vector3.normalize(heading, heading);
 
-                color.set(0, 0, 0);
-                world.query(ray, color);
+                    color.set(0, 0, 0);
+                    context.getCounters().countPrimaryRay();
+                    world.query(context, ray, color);
+                }
 
                 int bufferColor = Color.gammaEncode(color, x, y);
-                if (patchSize == 1) {
+                if (surface != null) {
+                    if (!epoch.beginWrite()) { return false; }
+                    try {
+                        surface.fill(targetX + x, targetY + y, Math.min(patchSize, targetWidth - x),
+                                Math.min(patchSize, targetHeight - y), bufferColor);
+                    } finally {
+                        epoch.endWrite();
+                    }
+                } else if (patchSize == 1) {
                     buffer[y * targetWidth + x] = bufferColor;
                 } else {
                     for (int j = 0; j < patchSize; j++) {
@@ -142,79 +414,245 @@ public class RenderTile {
                 }
             }
         }
-        if (!Thread.interrupted()) {
-            target.write(targetX, targetY, targetWidth, targetHeight, buffer);
-        }
+        return surface != null || publish(null, epoch);
     }
 
-    private void renderOneToOne(Scene world) {
-        Ray ray = new Ray(0, position, Vector3.ZERO);
-        Vector3 heading = ray.getHeading();
-        Color color = new Color();
+    /**
+     * Takes samples until every pixel has the number of samples that the sampling policy asks for, and writes the mean
+     * of all samples so far. The samples of earlier passes are kept, so the samples of this pass come on top of them.
+     */
+    private boolean renderProgressive(TraceContext context, Scene world, int samplesPerPixel,
+                                      AdaptiveSampling sampling, FrameHistory history, FrameEpoch.Token epoch) {
+        Color color = context.getPixelColor();
+        Color sample = context.getSampleColor();
 
-        float npSize = (float) Math.sin(vertFOV / 2);
-        float npDistance = (float) Math.cos(vertFOV / 2);
+        // refining needs the native samples of all pixels, and of the pixels around the tile to find its edges
+        boolean adaptive = sampling.isAdaptive() && samplesPerPixel > 1;
+        if (wavefront && !takePassInBatches(context, world, samplesPerPixel, sampling, adaptive, sample, epoch)) {
+            return false;
+        }
+        if (adaptive) {
+            for (int y = 0; y < targetHeight; y++) {
+                if (!epoch.isCurrent()) { return false; }
+                for (int x = 0; x < targetWidth; x++) {
+                    takeSamples(context, world, x, y, 1, sample, epoch);
+                }
+            }
+            if (!samples.hasBorder()) {
+                traceBorder(context, world, sample);
+            }
+        }
 
-        float ty, tx;
         for (int y = 0; y < targetHeight; y++) {
-            ty = (y + 0.5f) / (targetHeight + 1);
             for (int x = 0; x < targetWidth; x++) {
-                tx = (x + 0.5f) / (targetWidth + 1);
+                if (!epoch.isCurrent()) { return false; }
 
-                Vector3.addMul(Vector3.ZERO, gaze, npDistance, heading);
-                Vector3.addMul(heading, horz, (xMin * (1 - tx) + xMax * tx) * npSize, heading);
-                Vector3.addMul(heading, vert, (yMin * (1 - ty) + yMax * ty) * npSize, heading);
-                Vector3.normalize(heading, heading);
+                if (!adaptive) {
+                    takeSamples(context, world, x, y, samplesPerPixel, sample, epoch);
+                } else if (samples.getContrast(x, y) >= sampling.getContrastThreshold()) {
+                    int minSamples = Math.min(sampling.getMinSamples(), samplesPerPixel);
+                    takeSamples(context, world, x, y, minSamples, sample, epoch);
+                    int count = samples.getSampleCount(x, y);
+                    while (count < samplesPerPixel && samples.getStandardError(x, y) >= sampling.getErrorThreshold()) {
+                        count++;
+                        takeSamples(context, world, x, y, count, sample, epoch);
+                    }
+                }
 
-                color.set(0, 0, 0);
-                world.query(ray, color);
+                samples.getColor(x, y, color);
                 buffer[y * targetWidth + x] = Color.gammaEncode(color, x, y);
             }
         }
-        if (!Thread.interrupted()) {
-            target.write(targetX, targetY, targetWidth, targetHeight, buffer);
+        return publish(history, epoch);
+    }
+
+    /** Adds samples to the pixel until it has the given number of samples, and keeps what the native sample hit */
+    private void takeSamples(TraceContext context, Scene world, int x, int y, int count, Color sample,
+                             FrameEpoch.Token epoch) {
+        for (int k = samples.getSampleCount(x, y); k < count; k++) {
+            if (k == 0 && gBuffer != null) {
+                traceNative(context, world, x, y, sample, epoch);
+            } else {
+                trace(context, world, x + SampleStore.sampleX(k), y + SampleStore.sampleY(k), sample);
+            }
+            if (k == 0) {
+                Hit hit = context.getHit(0);
+                samples.setPrimaryHit(x, y, hit.distance, hit.isHit() && hit.shape.isViewDependent(hit));
+            }
+            samples.addSample(x, y, sample);
         }
     }
 
-    private void renderSupersampled(Scene world, int msaa) {
-        Ray ray = new Ray(0, position, Vector3.ZERO);
-        Vector3 heading = ray.getHeading();
-        Color color = new Color();
-        Color sample = new Color();
-        float sampleWeight = 1f / (msaa * msaa);
+    /**
+     * Takes the samples of a pass in batches, so that the loop of
+     * {@link #renderProgressive(TraceContext, Scene, int, AdaptiveSampling, FrameHistory, FrameEpoch.Token)} finds
+     * them all taken already. Adaptive sampling goes in rounds: the native samples and the pixels around the tile, then
+     * the minimum samples of the pixels with contrast, and then one sample at a time for those of them whose error is
+     * still too large. What a pixel gets only depends on its own samples, so it gets the same samples as when it is
+     * refined one sample at a time.
+     *
+     * @return whether all samples were taken, false if the epoch passed meanwhile
+     */
+    private boolean takePassInBatches(TraceContext context, Scene world, int samplesPerPixel,
+                                      AdaptiveSampling sampling, boolean adaptive, Color sample,
+                                      FrameEpoch.Token epoch) {
+        int pixelCount = targetWidth * targetHeight;
+        if (roundPixels == null) {
+            roundPixels = new int[pixelCount];
+            roundTargets = new int[pixelCount];
+        }
+        for (int pixel = 0; pixel < pixelCount; pixel++) {
+            roundPixels[pixel] = pixel;
+            roundTargets[pixel] = adaptive ? 1 : samplesPerPixel;
+        }
+        if (!takeRound(context, world, pixelCount, sample, epoch)) {
+            return false;
+        }
+        if (!adaptive) {
+            return true;
+        }
+        if (!samples.hasBorder()) {
+            traceBorder(context, world, sample);
+        }
 
-        float npSize = (float) Math.sin(vertFOV / 2);
-        float npDistance = (float) Math.cos(vertFOV / 2);
+        int minSamples = Math.min(sampling.getMinSamples(), samplesPerPixel);
+        int count = 0;
+        for (int pixel = 0; pixel < pixelCount; pixel++) {
+            if (samples.getContrast(pixel % targetWidth, pixel / targetWidth) >= sampling.getContrastThreshold()) {
+                roundPixels[count] = pixel;
+                roundTargets[count++] = minSamples;
+            }
+        }
+        while (count > 0) {
+            if (!takeRound(context, world, count, sample, epoch)) {
+                return false;
+            }
+            int refined = 0;
+            for (int i = 0; i < count; i++) {
+                int pixel = roundPixels[i];
+                int x = pixel % targetWidth;
+                int y = pixel / targetWidth;
+                int taken = samples.getSampleCount(x, y);
+                if (taken < samplesPerPixel && samples.getStandardError(x, y) >= sampling.getErrorThreshold()) {
+                    roundPixels[refined] = pixel;
+                    roundTargets[refined++] = taken + 1;
+                }
+            }
+            count = refined;
+        }
+        return true;
+    }
 
-        float ty, tx;
-        for (int y = 0; y < targetHeight; y++) {
-            for (int x = 0; x < targetWidth; x++) {
-                if (Thread.interrupted()) { return; }
-                color.set(0, 0, 0);
+    /**
+     * Brings the first pixels of the round up to their number of samples, in batches. The native samples of pixels
+     * with a G-buffer hit are only shaded, those without one are traced depth-first to store their hit.
+     *
+     * @return whether all samples were taken, false if the epoch passed meanwhile
+     */
+    private boolean takeRound(TraceContext context, Scene world, int count, Color sample, FrameEpoch.Token epoch) {
+        Wavefront batch = context.getWavefront();
+        batch.clear();
+        for (int i = 0; i < count; i++) {
+            int pixel = roundPixels[i];
+            int x = pixel % targetWidth;
+            int y = pixel / targetWidth;
+            for (int k = samples.getSampleCount(x, y); k < roundTargets[i]; k++) {
+                if (batch.isFull() && !traceBatch(context, world, batch, sample, epoch)) {
+                    return false;
+                }
+                Ray ray = aim(context, x + SampleStore.sampleX(k), y + SampleStore.sampleY(k));
+                if (k == 0 && gBuffer != null) {
+                    Hit hit = context.getHit(0);
+                    if (!gBuffer.load(targetX + x, targetY + y, hit)) {
+                        takeSamples(context, world, x, y, 1, sample, epoch);
+                        continue;
+                    }
+                    batch.addCameraHit(pixel, ray, hit);
+                } else {
+                    context.getCounters().countPrimaryRay();
+                    batch.addCameraRay(pixel, ray);
+                }
+            }
+        }
+        return traceBatch(context, world, batch, sample, epoch);
+    }
 
-                for (int mj = 0; mj < msaa; mj++) {
-                    ty = (y + (0.5f + mj) / msaa) / (targetHeight + 1);
-                    for (int mi = 0; mi < msaa; mi++) {
-                        tx = (x + (0.5f + mi) / msaa) / (targetWidth + 1);
+    /** Traces a batch of samples and adds them to their pixels, which leaves the batch empty */
+    private boolean traceBatch(TraceContext context, Scene world, Wavefront batch, Color sample,
+                               FrameEpoch.Token epoch) {
+        if (!epoch.isCurrent()) { return false; }
+        batch.trace(context, world);
+        for (int i = 0; i < batch.size(); i++) {
+            int x = batch.getTag(i) % targetWidth;
+            int y = batch.getTag(i) / targetWidth;
+            if (samples.getSampleCount(x, y) == 0) {
+                samples.setPrimaryHit(x, y, batch.getDistance(i), batch.isViewDependent(i));
+            }
+            batch.getColor(i, sample);
+            samples.addSample(x, y, sample);
+        }
+        batch.clear();
+        return true;
+    }
 
-                        Vector3.addMul(Vector3.ZERO, gaze, npDistance, heading);
-                        Vector3.addMul(heading, horz, (xMin * (1 - tx) + xMax * tx) * npSize, heading);
-                        Vector3.addMul(heading, vert, (yMin * (1 - ty) + yMax * ty) * npSize, heading);
-                        Vector3.normalize(heading, heading);
+    /** Traces the native samples of the pixels directly around the tile */
+    private void traceBorder(TraceContext context, Scene world, Color sample) {
+        for (int x = -1; x <= targetWidth; x++) {
+            trace(context, world, x + 0.5f, -0.5f, sample);
+            samples.setBorderSample(x, -1, sample);
+            trace(context, world, x + 0.5f, targetHeight + 0.5f, sample);
+            samples.setBorderSample(x, targetHeight, sample);
+        }
+        for (int y = 0; y < targetHeight; y++) {
+            trace(context, world, -0.5f, y + 0.5f, sample);
+            samples.setBorderSample(-1, y, sample);
+            trace(context, world, targetWidth + 0.5f, y + 0.5f, sample);
+            samples.setBorderSample(targetWidth, y, sample);
+        }
+        samples.completeBorder();
+    }
 
-                        sample.set(0, 0, 0);
-                        world.query(ray, sample);
+    /** Traces a single camera ray through a point on the tile, in pixels from its top left corner */
+    private void trace(TraceContext context, Scene world, float px, float py, Color out) {
+        Ray ray = aim(context, px, py);
+        out.set(0, 0, 0);
+        context.getCounters().countPrimaryRay();
+        world.query(context, ray, out);
+    }
 
-                        Vector3.addMul(color, sample, sampleWeight, color);
-                    }
-                }
+    /**
+     * Traces the camera ray through the center of a pixel like {@link #trace}, but if the G-buffer has its hit, only
+     * shades that hit. Otherwise, the hit is stored in the G-buffer, unless the epoch has passed.
+     */
+    private void traceNative(TraceContext context, Scene world, int x, int y, Color out, FrameEpoch.Token epoch) {
+        Ray ray = aim(context, x + 0.5f, y + 0.5f);
+        Hit hit = context.getHit(0);
+        out.set(0, 0, 0);
 
-                buffer[y * targetWidth + x] = Color.gammaEncode(color, x, y);
+        if (gBuffer.load(targetX + x, targetY + y, hit)) {
+            if (hit.isHit()) {
+                hit.shape.shade(context, ray, world, hit, out);
             }
+        } else {
+            context.getCounters().countPrimaryRay();
+            world.query(context, ray, out);
+            gBuffer.store(targetX + x, targetY + y, ray, hit, epoch);
         }
-        if (!Thread.interrupted()) {
-            target.write(targetX, targetY, targetWidth, targetHeight, buffer);
-        }
+    }
+
+    /** @return the camera ray through a point on the tile, in pixels from its top left corner */
+    private Ray aim(TraceContext context, float px, float py) {
+        Ray ray = context.getRay(0);
+        ray.getOrigin().set(position);
+        Vector3 heading = ray.getHeading();
+
+        float tx = px / (targetWidth + 1);
+        float ty = py / (targetHeight + 1);
+        Vector3.addMul(Vector3.ZERO, gaze, npDistance, heading);
+        Vector3.addMul(heading, horz, (xMin * (1 - tx) + xMax * tx) * npSize, heading);
+        Vector3.addMul(heading, vert, (yMin * (1 - ty) + yMax * ty) * npSize, heading);
+        Vector3.normalize(heading, heading);
+        return ray;
     }
 
     /**
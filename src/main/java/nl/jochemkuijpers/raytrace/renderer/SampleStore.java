@@ -0,0 +1,188 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.math.Color;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the linear radiance of the samples of every pixel of a tile across render passes, so a later pass only
+ * adds new samples instead of starting over.
+ *
+ * Sample positions within a pixel follow the R2 low discrepancy sequence, offset so that sample 0 lies in the pixel
+ * center. Any number of samples is well distributed, and no position is ever taken twice.
+ *
+ * For {@link AdaptiveSampling}, the store also keeps the native sample of every pixel, including a border of pixels
+ * just outside the tile, and the spread of the samples of every pixel. Both are kept as the square root of the linear
+ * color, which is close to the encoded color on the screen.
+ *
+ * For {@link FrameHistory}, it keeps what the camera ray of the native sample of every pixel hit.
+ */
+final class SampleStore {
+    /** 1/g and 1/g² where g is the plastic number, the generators of the R2 sequence */
+    private static final double R2_X = 0.7548776662466927;
+    private static final double R2_Y = 0.5698402909980532;
+
+    private final int width;
+    private final int height;
+
+    private final float[] radiance;
+    private final int[] counts;
+
+    /** Per pixel, the sum and the sum of squares of the encoded luminance of the samples */
+    private final float[] encodedSums;
+    private final float[] encodedSquares;
+
+    /** The encoded native samples, (width + 2) × (height + 2) pixels with the tile in the middle, three floats each */
+    private final float[] natives;
+    private boolean hasBorder = false;
+
+    /** Per pixel, the distance to the hit of the native sample, infinite if nothing was hit, NaN if not yet traced */
+    private final float[] primaryDistances;
+    private final boolean[] viewDependent;
+
+    SampleStore(int width, int height) {
+        this.width = width;
+        this.height = height;
+        radiance = new float[3 * width * height];
+        counts = new int[width * height];
+        encodedSums = new float[width * height];
+        encodedSquares = new float[width * height];
+        natives = new float[3 * (width + 2) * (height + 2)];
+        primaryDistances = new float[width * height];
+        viewDependent = new boolean[width * height];
+        Arrays.fill(primaryDistances, Float.NaN);
+    }
+
+    /** Forgets all samples */
+    void clear() {
+        Arrays.fill(radiance, 0f);
+        Arrays.fill(counts, 0);
+        Arrays.fill(encodedSums, 0f);
+        Arrays.fill(encodedSquares, 0f);
+        Arrays.fill(natives, 0f);
+        Arrays.fill(primaryDistances, Float.NaN);
+        Arrays.fill(viewDependent, false);
+        hasBorder = false;
+    }
+
+    /** @return the horizontal position of sample k within a pixel, between 0 and 1 */
+    static float sampleX(int k) {
+        return (float) ((0.5 + k * R2_X) % 1.0);
+    }
+
+    /** @return the vertical position of sample k within a pixel, between 0 and 1 */
+    static float sampleY(int k) {
+        return (float) ((0.5 + k * R2_Y) % 1.0);
+    }
+
+    /** @return the number of samples taken for the pixel so far, which is also the index of its next sample */
+    int getSampleCount(int x, int y) {
+        return counts[y * width + x];
+    }
+
+    void addSample(int x, int y, Color sample) {
+        int pixel = y * width + x;
+        if (counts[pixel] == 0) {
+            setNative(x, y, sample);
+        }
+
+        radiance[3 * pixel] += sample.x;
+        radiance[3 * pixel + 1] += sample.y;
+        radiance[3 * pixel + 2] += sample.z;
+        counts[pixel]++;
+
+        float encoded = encode(0.2126f * sample.x + 0.7152f * sample.y + 0.0722f * sample.z);
+        encodedSums[pixel] += encoded;
+        encodedSquares[pixel] += encoded * encoded;
+    }
+
+    /** Stores what the camera ray of the native sample of the pixel hit */
+    void setPrimaryHit(int x, int y, float distance, boolean isViewDependent) {
+        primaryDistances[y * width + x] = distance;
+        viewDependent[y * width + x] = isViewDependent;
+    }
+
+    /** @return the distance to the hit of the native sample, infinite if there was none, NaN if not yet traced */
+    float getPrimaryDistance(int x, int y) {
+        return primaryDistances[y * width + x];
+    }
+
+    /** @return whether the color of the native sample depends on the direction it was seen from */
+    boolean isViewDependent(int x, int y) {
+        return viewDependent[y * width + x];
+    }
+
+    /** Computes the mean radiance of the samples of the pixel, black if there are none. */
+    void getColor(int x, int y, Color out) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        if (count == 0) {
+            out.set(0, 0, 0);
+            return;
+        }
+        float weight = 1f / count;
+        out.set(radiance[3 * pixel] * weight, radiance[3 * pixel + 1] * weight, radiance[3 * pixel + 2] * weight);
+    }
+
+    /** @return whether the native samples around the tile have been stored */
+    boolean hasBorder() {
+        return hasBorder;
+    }
+
+    /**
+     * Stores the native sample of a pixel just outside the tile, x or y being -1, or the width or height.
+     * Once all have been stored, call {@link #completeBorder()}.
+     */
+    void setBorderSample(int x, int y, Color sample) {
+        setNative(x, y, sample);
+    }
+
+    void completeBorder() {
+        hasBorder = true;
+    }
+
+    /**
+     * Requires the native samples of the pixel and its neighbours.
+     *
+     * @return the largest difference in any color channel between the native sample of the pixel and that of one of
+     * its eight neighbours
+     */
+    float getContrast(int x, int y) {
+        int stride = width + 2;
+        int center = 3 * ((y + 1) * stride + x + 1);
+        float contrast = 0;
+        for (int j = -1; j <= 1; j++) {
+            for (int i = -1; i <= 1; i++) {
+                int neighbour = center + 3 * (j * stride + i);
+                for (int c = 0; c < 3; c++) {
+                    contrast = Math.max(contrast, Math.abs(natives[center + c] - natives[neighbour + c]));
+                }
+            }
+        }
+        return contrast;
+    }
+
+    /** @return the standard error of the mean encoded luminance of the pixel, infinite with fewer than 2 samples */
+    float getStandardError(int x, int y) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        if (count < 2) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float mean = encodedSums[pixel] / count;
+        float variance = Math.max(0f, (encodedSquares[pixel] / count - mean * mean) * count / (count - 1));
+        return (float) FastMath.sqrt(variance / count);
+    }
+
+    private void setNative(int x, int y, Color sample) {
+        int index = 3 * ((y + 1) * (width + 2) + x + 1);
+        natives[index] = encode(sample.x);
+        natives[index + 1] = encode(sample.y);
+        natives[index + 2] = encode(sample.z);
+    }
+
+    private static float encode(float linear) {
+        return (float) FastMath.sqrt(Math.max(0f, linear));
+    }
+}
@@ -0,0 +1,156 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+/**
+ * The pixels of a frame buffer at one size, as an array of ARGB values row by row, which tiles write straight into.
+ *
+ * The size of a surface never changes: resizing a frame buffer replaces its surface. A tile holds on to the surface it
+ * was created for, so its writes always fit, and writes meant for an old size end up in the old surface instead of
+ * the one that is displayed. Nothing needs to be bounds checked.
+ *
+ * The surface keeps the bounding box of the pixels that changed, so only that region needs to be repainted. A
+ * listener hears about the first change after the region was taken, so a display can sleep until there is something
+ * to show.
+ */
+public final class Surface {
+    /** A rectangle of pixels */
+    public static final class Region {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        Region(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    /** Called when a clean surface changes, may be null */
+    private final Runnable changeListener;
+
+    /** The bounds of the changed pixels, the maxima are exclusive; empty when min ≥ max */
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+
+    /**
+     * Creates a surface on an existing pixel array, for instance the data buffer of an image. A new surface is
+     * entirely dirty.
+     *
+     * @param pixels at least width × height ARGB values, row by row
+     */
+    public Surface(int width, int height, int[] pixels) {
+        this(width, height, pixels, null);
+    }
+
+    /**
+     * Creates a surface like {@link #Surface(int, int, int[])}, with a listener that is called on the writing thread
+     * whenever a pixel changes while there was no dirty region.
+     */
+    public Surface(int width, int height, int[] pixels, Runnable changeListener) {
+        if (width < 1 || height < 1 || pixels.length < width * height) {
+            throw new IllegalArgumentException("A surface needs at least one pixel, and room for all its pixels.");
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.changeListener = changeListener;
+        this.dirtyMaxX = width;
+        this.dirtyMaxY = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return the backing array, without copying */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /** Copies a w × h block of pixels to the surface, the block must lie within the surface */
+    public void write(int x, int y, int w, int h, int[] data) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(data, row * w, pixels, (y + row) * width + x, w);
+        }
+        markDirty(x, y, w, h);
+    }
+
+    /** Fills a rectangle with a single color, the rectangle must lie within the surface */
+    public void fill(int x, int y, int w, int h, int argb) {
+        for (int row = y; row < y + h; row++) {
+            int offset = row * width + x;
+            for (int i = offset; i < offset + w; i++) {
+                pixels[i] = argb;
+            }
+        }
+        markDirty(x, y, w, h);
+    }
+
+    /** Draws the one pixel wide edges of a rectangle, the rectangle must lie within the surface */
+    public void drawOutline(int x, int y, int w, int h, int argb) {
+        for (int i = 0; i < w; i++) {
+            pixels[y * width + x + i] = argb;
+            pixels[(y + h - 1) * width + x + i] = argb;
+        }
+        for (int row = y; row < y + h; row++) {
+            pixels[row * width + x] = argb;
+            pixels[row * width + x + w - 1] = argb;
+        }
+        markDirty(x, y, w, h);
+    }
+
+    /**
+     * @return the bounding box of the pixels that changed since the last call, or null if nothing changed. Writes
+     * that happen during the call may be included in this region or the next.
+     */
+    public synchronized Region takeDirtyRegion() {
+        if (dirtyMinX >= dirtyMaxX || dirtyMinY >= dirtyMaxY) {
+            return null;
+        }
+        Region region = new Region(dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY);
+        dirtyMinX = dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxY = 0;
+        return region;
+    }
+
+    private void markDirty(int x, int y, int w, int h) {
+        boolean wasClean;
+        synchronized (this) {
+            wasClean = dirtyMinX >= dirtyMaxX || dirtyMinY >= dirtyMaxY;
+            dirtyMinX = Math.min(dirtyMinX, x);
+            dirtyMinY = Math.min(dirtyMinY, y);
+            dirtyMaxX = Math.max(dirtyMaxX, x + w);
+            dirtyMaxY = Math.max(dirtyMaxY, y + h);
+        }
+        if (wasClean && changeListener != null) {
+            changeListener.run();
+        }
+    }
+}
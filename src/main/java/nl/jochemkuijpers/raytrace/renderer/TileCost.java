@@ -0,0 +1,82 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The total cost of the native samples of all pixels of a tile, as measured by its last heatmap render.
+ */
+public final class TileCost {
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final long nanos;
+    private final long intersectionTests;
+    private final long rays;
+
+    TileCost(int x, int y, int width, int height, long nanos, long intersectionTests, long rays) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.nanos = nanos;
+        this.intersectionTests = intersectionTests;
+        this.rays = rays;
+    }
+
+    /** @return the left edge of the tile in the frame, in pixels */
+    public int getX() {
+        return x;
+    }
+
+    /** @return the top edge of the tile in the frame, in pixels */
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return the wall time spent tracing the pixels of the tile */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** @return the number of intersection tests, 0 unless {@code TraceCounters.COUNT_INTERSECTIONS} is set */
+    public long getIntersectionTests() {
+        return intersectionTests;
+    }
+
+    /** @return the number of rays of all kinds */
+    public long getRays() {
+        return rays;
+    }
+
+    /**
+     * Writes the costs as CSV with a header line, most expensive tile first. Per pixel averages are included, since
+     * tiles at the edges of the frame may be smaller.
+     */
+    public static void writeCsv(Collection<TileCost> costs, Writer out) throws IOException {
+        List<TileCost> sorted = new ArrayList<>(costs);
+        sorted.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        out.write("x,y,width,height,nanos,intersection_tests,rays,nanos_per_pixel,"
+                + "intersection_tests_per_pixel,rays_per_pixel\n");
+        for (TileCost cost : sorted) {
+            double pixels = cost.width * cost.height;
+            out.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%.1f,%.2f,%.3f\n",
+                    cost.x, cost.y, cost.width, cost.height, cost.nanos, cost.intersectionTests, cost.rays,
+                    cost.nanos / pixels, cost.intersectionTests / pixels, cost.rays / pixels));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package nl.jochemkuijpers.raytrace.shapes;
+
+import nl.jochemkuijpers.math.AffineTransform;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.Material;
+
+/**
+ * A copy of a shape placed elsewhere by an affine transform, optionally with another material. Any number of
+ * instances can share one shape, such as a large triangle mesh, so its geometry and acceleration structure are only
+ * stored once. An instance itself holds little more than its inverse transform.
+ *
+ * Rays are moved into the space of the shape during traversal, rather than the shape into world space. The ray of the
+ * caller is transformed in place, along with its interval of distances, and restored afterwards, so instancing needs
+ * no scratch objects.
+ *
+ * The shape must mark a hit with itself, like all shapes do except the ones that hold other shapes, such as
+ * {@link nl.jochemkuijpers.raytrace.acceleration.ShapeHierarchy}.
+ */
+public final class Instance implements Shape {
+    private final Shape shape;
+    /** The material that replaces the material of the shape, or null */
+    private final Material material;
+
+    // the inverse transform, from world space to the space of the shape
+    private final float m00, m01, m02, m03;
+    private final float m10, m11, m12, m13;
+    private final float m20, m21, m22, m23;
+
+    /**
+     * @param shape the shape to place, in its own space
+     * @param transform the transform from the space of the shape to world space
+     * @param material the material that replaces the material of the shape, or null to keep it
+     * @throws IllegalArgumentException if the transform cannot be inverted
+     */
+    public Instance(Shape shape, AffineTransform transform, Material material) {
+        this.shape = shape;
+        this.material = material;
+
+        AffineTransform inverse = transform.inverse();
+        m00 = inverse.get(0, 0); m01 = inverse.get(0, 1); m02 = inverse.get(0, 2); m03 = inverse.get(0, 3);
+        m10 = inverse.get(1, 0); m11 = inverse.get(1, 1); m12 = inverse.get(1, 2); m13 = inverse.get(1, 3);
+        m20 = inverse.get(2, 0); m21 = inverse.get(2, 1); m22 = inverse.get(2, 2); m23 = inverse.get(2, 3);
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    /** @return the transform from the space of the shape to world space */
+    public AffineTransform getTransform() {
+        return new AffineTransform(new float[] {
+                m00, m01, m02, m03,
+                m10, m11, m12, m13,
+                m20, m21, m22, m23
+        }).inverse();
+    }
+
+    /**
+     * Moves the ray into the space of the shape, with a heading of unit length and its interval in distances of that
+     * space.
+     *
+     * @return the length of the transformed heading before normalizing, which converts world distances to distances
+     * in the space of the shape
+     */
+    private float toShapeSpace(Ray ray) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        origin.set(m00 * ox + m01 * oy + m02 * oz + m03,
+                m10 * ox + m11 * oy + m12 * oz + m13,
+                m20 * ox + m21 * oy + m22 * oz + m23);
+        heading.set(m00 * dx + m01 * dy + m02 * dz,
+                m10 * dx + m11 * dy + m12 * dz,
+                m20 * dx + m21 * dy + m22 * dz);
+        float scale = heading.mag();
+        Vector3.mul(heading, 1f / scale, heading);
+        ray.setInterval(ray.getMinDistance() * scale, ray.getMaxDistance() * scale);
+        return scale;
+    }
+
+    @Override
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        float tMin = ray.getMinDistance(), tMax = ray.getMaxDistance();
+        float distance = hit.distance;
+
+        float scale = toShapeSpace(ray);
+        hit.distance = distance * scale;
+        boolean found = shape.intersect(context, ray, hit);
+        origin.set(ox, oy, oz);
+        heading.set(dx, dy, dz);
+        ray.setInterval(tMin, tMax);
+
+        if (!found) {
+            hit.distance = distance;
+            return false;
+        }
+        hit.distance /= scale;
+        hit.shape = this;
+        return true;
+    }
+
+    @Override
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        float tMin = ray.getMinDistance(), tMax = ray.getMaxDistance();
+
+        float scale = toShapeSpace(ray);
+        boolean occluded = shape.occludes(context, ray, maxDistance * scale);
+        origin.set(ox, oy, oz);
+        heading.set(dx, dy, dz);
+        ray.setInterval(tMin, tMax);
+        return occluded;
+    }
+
+    @Override
+    public void computeSurface(Ray ray, Hit hit) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        float tMin = ray.getMinDistance(), tMax = ray.getMaxDistance();
+        float distance = hit.distance;
+
+        float scale = toShapeSpace(ray);
+        hit.distance = distance * scale;
+        hit.shape = shape;
+        shape.computeSurface(ray, hit);
+        origin.set(ox, oy, oz);
+        heading.set(dx, dy, dz);
+        ray.setInterval(tMin, tMax);
+        hit.distance = distance;
+        hit.shape = this;
+
+        // normals transform with the transpose of the inverse transform
+        Vector3 normal = hit.normal;
+        normal.set(m00 * normal.x + m10 * normal.y + m20 * normal.z,
+                m01 * normal.x + m11 * normal.y + m21 * normal.z,
+                m02 * normal.x + m12 * normal.y + m22 * normal.z);
+        Vector3.normalize(normal, normal);
+        Vector3.addMul(origin, heading, distance, hit.position);
+    }
+
+    @Override
+    public void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor) {
+        if (material != null) {
+            material.queryColor(context, ray, world, hit.position, hit.normal, outColor);
+            return;
+        }
+        hit.shape = shape;
+        shape.shade(context, ray, world, hit, outColor);
+        hit.shape = this;
+    }
+
+    @Override
+    public Material getMaterial(Hit hit) {
+        return material != null ? material : shape.getMaterial(hit);
+    }
+
+    @Override
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+        if (!shape.getBounds(min, max)) {
+            return false;
+        }
+
+        AffineTransform transform = getTransform();
+        Vector3 corner = new Vector3();
+        outMin.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        outMax.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < 8; i++) {
+            corner.set((i & 1) == 0 ? min.x : max.x, (i & 2) == 0 ? min.y : max.y, (i & 4) == 0 ? min.z : max.z);
+            transform.transformPoint(corner, corner);
+            outMin.set(Math.min(outMin.x, corner.x), Math.min(outMin.y, corner.y), Math.min(outMin.z, corner.z));
+            outMax.set(Math.max(outMax.x, corner.x), Math.max(outMax.y, corner.y), Math.max(outMax.z, corner.z));
+        }
+
+        // rays are transformed by the inverse, which may differ from the transform by a rounding error
+        float pad = 1e-5f * Math.max(Math.max(outMax.x - outMin.x, outMax.y - outMin.y), outMax.z - outMin.z);
+        Vector3.addMul(outMin, Vector3.ONE, -pad, outMin);
+        Vector3.addMul(outMax, Vector3.ONE, pad, outMax);
+        return true;
+    }
+
+    @Override
+    public boolean isViewDependent() {
+        return material != null ? material.isViewDependent() : shape.isViewDependent();
+    }
+
+    @Override
+    public boolean isViewDependent(Hit hit) {
+        return material != null ? material.isViewDependent() : shape.isViewDependent(hit);
+    }
+}
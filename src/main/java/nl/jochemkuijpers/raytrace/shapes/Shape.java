@@ -2,19 +2,83 @@ package nl.jochemkuijpers.raytrace.shapes;
 
 import nl.jochemkuijpers.math.Color;
 import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
 import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.Material;
 
 public interface Shape {
     /**
-     * Query the object whether it intersects or not.
-     * If an intersection is found, the out variables must be set correctly.
+     * Query the object whether it intersects the ray closer than the hit found so far.
+     * If so, the distance and shape of the hit record must be updated. This must not do any shading.
      *
+     * @param context the trace context of the current thread
+     * @param ray the input ray
+     * @param hit the closest hit found so far
+     * @return whether or not a closer intersection was found
+     */
+    boolean intersect(TraceContext context, Ray ray, Hit hit);
+
+    /**
+     * Query the object whether it intersects the ray before the given distance. This must not do any shading.
+     *
+     * @param context the trace context of the current thread
+     * @param ray the input ray
+     * @param maxDistance intersections at or beyond this distance are ignored
+     * @return whether or not the object blocks the ray before maxDistance
+     */
+    boolean occludes(TraceContext context, Ray ray, float maxDistance);
+
+    /**
+     * Compute the position and normal of a hit on this shape, as found by {@link #intersect(TraceContext, Ray, Hit)}.
+     *
+     * @param ray the input ray
+     * @param hit the hit record to complete
+     */
+    void computeSurface(Ray ray, Hit hit);
+
+    /**
+     * Compute the color of a hit on this shape, possibly through recursive ray casts.
+     * The surface of the hit must have been computed by {@link #computeSurface(Ray, Hit)}.
+     *
+     * @param context the trace context of the current thread
      * @param ray the input ray
      * @param world the world in which the query takes place (for recursive computations)
-     * @param outPosition the intersected point (if return value true, otherwise undefined)
-     * @param outColor the output color (if return value true, otherwise undefined)
-     * @return whether or not an intersection took place
+     * @param hit the hit to shade
+     * @param outColor the output color
+     */
+    void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor);
+
+    /**
+     * @param hit a hit on this shape
+     * @return the material that {@link #shade(TraceContext, Ray, Scene, Hit, Color)} shades this hit with, or null if
+     * the shape does not shade through a single material
+     */
+    default Material getMaterial(Hit hit) {
+        return null;
+    }
+
+    /**
+     * Compute the axis-aligned bounding box of the shape, used to place the shape in an acceleration structure.
+     *
+     * @param outMin the minimum corner of the bounding box (if return value true, otherwise undefined)
+     * @param outMax the maximum corner of the bounding box (if return value true, otherwise undefined)
+     * @return whether or not the shape is bounded
+     */
+    boolean getBounds(Vector3 outMin, Vector3 outMax);
+
+    /** @return whether the color of a hit on this shape depends on the direction it is seen from */
+    default boolean isViewDependent() {
+        return false;
+    }
+
+    /**
+     * @param hit a hit on this shape, for shapes whose parts differ in this, such as a set of primitives with a
+     * material each
+     * @return whether the color of this hit depends on the direction it is seen from
      */
-    boolean query(Ray ray, Scene world, Vector3 outPosition, Color outColor);
+    default boolean isViewDependent(Hit hit) {
+        return isViewDependent();
+    }
 }
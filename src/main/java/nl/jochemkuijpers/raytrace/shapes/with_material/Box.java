@@ -24,30 +24,34 @@ public class Box extends ShapeWithMaterial {
     }
 
     @Override
-    protected boolean computeIntersection(Ray ray, Vector3 outPosition, Vector3 outNormal) {
-        float t = Intersections.box(ray.getOrigin(), ray.getHeading(), min, max);
-
-        if (t < 0) { return false; }
-
-        Vector3.addMul(ray.getOrigin(), ray.getHeading(), t, outPosition);
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        outMin.set(min);
+        outMax.set(max);
+        return true;
+    }
 
-        Vector3 p = new Vector3();
-        Vector3.add(min, max, p);
-        Vector3.mul(p, 0.5f, p);
-        Vector3.sub(outPosition, p, p);
+    @Override
+    protected float computeDistance(Ray ray, float maxDistance) {
+        return Intersections.box(ray.getOrigin(), ray.getHeading(), min, max, ray.getMinDistance(),
+                maxDistance);
+    }
 
-        Vector3 d = new Vector3();
-        Vector3.sub(min, max, d);
-        Vector3.mul(d, 0.5f, d);
+    @Override
+    protected void computeNormal(Ray ray, Vector3 position, Vector3 outNormal) {
+        // position relative to the box center, and the half extents of the box
+        float px = position.x - 0.5f * (min.x + max.x);
+        float py = position.y - 0.5f * (min.y + max.y);
+        float pz = position.z - 0.5f * (min.z + max.z);
+        float dx = 0.5f * (max.x - min.x);
+        float dy = 0.5f * (max.y - min.y);
+        float dz = 0.5f * (max.z - min.z);
 
         float bias = 1.001f;
         outNormal.set(
-                (int) (p.x / Math.abs(d.x) * bias),
-                (int) (p.y / Math.abs(d.y) * bias),
-                (int) (p.z / Math.abs(d.z) * bias)
+                (int) (px / dx * bias),
+                (int) (py / dy * bias),
+                (int) (pz / dz * bias)
         );
         Vector3.fastNormalize(outNormal, outNormal);
-
-        return true;
     }
 }
@@ -0,0 +1,147 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.Material;
+
+/**
+ * Many axis-aligned boxes as a single shape, with a float array for each coordinate of the minimum and maximum
+ * corners. A ray sees the same boxes as it would see of a {@link Box} for each of them.
+ */
+public class BoxSet extends PrimitiveSet {
+    private final float[] minX;
+    private final float[] minY;
+    private final float[] minZ;
+    private final float[] maxX;
+    private final float[] maxY;
+    private final float[] maxZ;
+
+    /**
+     * @param boxes 6 floats per box: the minimum x, y, z and the maximum x, y, z
+     * @param materials the index of the material of every box
+     * @param table the materials the boxes refer to
+     * @throws IllegalArgumentException if there are no boxes, or a box refers to a material that does not exist
+     */
+    public BoxSet(float[] boxes, int[] materials, Material[] table) {
+        this(materials, table, bounds(boxes, materials.length));
+    }
+
+    private BoxSet(int[] materials, Material[] table, float[] bounds) {
+        super("Box", bounds, materials, table);
+        minX = toLeafOrder(bounds, 0, 6);
+        minY = toLeafOrder(bounds, 1, 6);
+        minZ = toLeafOrder(bounds, 2, 6);
+        maxX = toLeafOrder(bounds, 3, 6);
+        maxY = toLeafOrder(bounds, 4, 6);
+        maxZ = toLeafOrder(bounds, 5, 6);
+    }
+
+    /** @return the boxes with their minimum and maximum corners sorted out, like a {@link Box} does */
+    private static float[] bounds(float[] boxes, int count) {
+        if (boxes.length != 6 * count) {
+            throw new IllegalArgumentException("A box set needs 6 values and a material per box");
+        }
+        float[] bounds = new float[6 * count];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[6 * i + axis] = Math.min(boxes[6 * i + axis], boxes[6 * i + 3 + axis]);
+                bounds[6 * i + 3 + axis] = Math.max(boxes[6 * i + axis], boxes[6 * i + 3 + axis]);
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    public boolean intersectLeaf(TraceContext context, Ray ray, Hit hit, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float invX = 1f / heading.x, invY = 1f / heading.y, invZ = 1f / heading.z;
+        float minDistance = ray.getMinDistance();
+        float closest = hit.distance;
+        int primitive = -1;
+        int hits = 0;
+
+        for (int i = first; i < last; i++) {
+            float t = distance(i, ox, oy, oz, invX, invY, invZ, minDistance);
+            hits += t >= minDistance & t <= closest ? 1 : 0;
+            boolean closer = t >= minDistance & t < closest;
+            primitive = closer ? i : primitive;
+            closest = closer ? t : closest;
+        }
+
+        countTests(context, last - first, hits);
+        if (primitive < 0) {
+            return false;
+        }
+        hit.distance = closest;
+        hit.primitive = primitive;
+        return true;
+    }
+
+    @Override
+    public boolean occludesLeaf(TraceContext context, Ray ray, float maxDistance, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float invX = 1f / heading.x, invY = 1f / heading.y, invZ = 1f / heading.z;
+        float minDistance = ray.getMinDistance();
+
+        boolean occluded = false;
+        int i = first;
+        while (i < last && !occluded) {
+            float t = distance(i++, ox, oy, oz, invX, invY, invZ, minDistance);
+            occluded |= t >= minDistance & t < maxDistance;
+        }
+        countTests(context, i - first, occluded ? 1 : 0);
+        return occluded;
+    }
+
+    /**
+     * The slabs of Intersections.box, so the boxes of a set are hit exactly like single boxes, but without a branch:
+     * the ray misses the box when it leaves a slab before it enters another, and then NaN is returned.
+     *
+     * A ray in the plane of a face gives NaN for that slab. The comparisons are false for NaN, so that slab is skipped
+     * and the ray grazes the box, like it does a single box.
+     *
+     * @return the distance along the heading to the nearest intersection beyond the minimum distance, or NaN
+     */
+    private float distance(int i, float ox, float oy, float oz, float invX, float invY, float invZ,
+                           float minDistance) {
+        float x0 = (minX[i] - ox) * invX, x1 = (maxX[i] - ox) * invX;
+        float y0 = (minY[i] - oy) * invY, y1 = (maxY[i] - oy) * invY;
+        float z0 = (minZ[i] - oz) * invZ, z1 = (maxZ[i] - oz) * invZ;
+        float near = Math.min(x0, x1), far = Math.max(x0, x1);
+        near = near == near ? near : Float.NEGATIVE_INFINITY;
+        far = far == far ? far : Float.POSITIVE_INFINITY;
+        float yNear = Math.min(y0, y1), yFar = Math.max(y0, y1);
+        near = yNear > near ? yNear : near;
+        far = yFar < far ? yFar : far;
+        float zNear = Math.min(z0, z1), zFar = Math.max(z0, z1);
+        near = zNear > near ? zNear : near;
+        far = zFar < far ? zFar : far;
+        float t = near >= minDistance ? near : far;
+        return near <= far ? t : Float.NaN;
+    }
+
+    @Override
+    protected void computeNormal(int primitive, Vector3 position, Vector3 outNormal) {
+        // the same steps as Box.computeNormal
+        float px = position.x - 0.5f * (minX[primitive] + maxX[primitive]);
+        float py = position.y - 0.5f * (minY[primitive] + maxY[primitive]);
+        float pz = position.z - 0.5f * (minZ[primitive] + maxZ[primitive]);
+        float dx = 0.5f * (maxX[primitive] - minX[primitive]);
+        float dy = 0.5f * (maxY[primitive] - minY[primitive]);
+        float dz = 0.5f * (maxZ[primitive] - minZ[primitive]);
+
+        float bias = 1.001f;
+        outNormal.set(
+                (int) (px / dx * bias),
+                (int) (py / dy * bias),
+                (int) (pz / dz * bias)
+        );
+        Vector3.fastNormalize(outNormal, outNormal);
+    }
+}
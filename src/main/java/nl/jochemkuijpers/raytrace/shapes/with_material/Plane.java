@@ -16,16 +16,22 @@ public class Plane extends ShapeWithMaterial {
     }
 
     @Override
-    protected boolean computeIntersection(Ray ray, Vector3 outPosition, Vector3 outNormal) {
-        float t = Intersections.plane(ray.getOrigin(), ray.getHeading(), position, normal);
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        // an infinite plane cannot be bounded
+        return false;
+    }
 
-        if (t < 0) return false;
+    @Override
+    protected float computeDistance(Ray ray, float maxDistance) {
+        return Intersections.plane(ray.getOrigin(), ray.getHeading(), position, normal, ray.getMinDistance(),
+                maxDistance);
+    }
 
-        Vector3.addMul(ray.getOrigin(), ray.getHeading(), t, outPosition);
+    @Override
+    protected void computeNormal(Ray ray, Vector3 position, Vector3 outNormal) {
         outNormal.set(normal);
         if (Vector3.dot(ray.getHeading(), outNormal) > 0) {
             Vector3.mul(outNormal, -1, outNormal);
         }
-        return true;
     }
 }
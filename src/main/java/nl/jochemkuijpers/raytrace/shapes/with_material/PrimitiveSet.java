@@ -0,0 +1,143 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+import nl.jochemkuijpers.raytrace.acceleration.BoundingVolumeHierarchy;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+/**
+ * Many primitives of one kind as a single shape, stored as a structure of arrays rather than as an object per
+ * primitive. Subclasses keep a float array per coordinate, and the primitives are kept in a bounding volume hierarchy
+ * of the set. Every leaf of the hierarchy holds a run of neighbouring array entries, so testing a leaf is a loop over
+ * contiguous memory. Subclasses test the primitives of a leaf through {@link BoundingVolumeHierarchy.Leaves}, in a loop
+ * without branches: every primitive of the leaf is tested, and the closest one is selected rather than branched to.
+ *
+ * Every primitive refers to its material by an index into a table of materials, and a hit records which primitive was
+ * hit in {@link Hit#primitive}, counted in the order of the leaves.
+ */
+public abstract class PrimitiveSet implements Shape, BoundingVolumeHierarchy.Leaves {
+    /** The index of the intersection counters of the primitives */
+    private final int primitiveType;
+    private final Material[] table;
+    /** The material of every primitive, in the order of the leaves */
+    private final int[] materials;
+    private final BoundingVolumeHierarchy bvh;
+
+    /**
+     * @param primitiveType the name the intersection tests of the primitives are counted under
+     * @param bounds 6 floats per primitive: min x, y, z and max x, y, z
+     * @param materials the index of the material of every primitive
+     * @param table the materials the primitives refer to
+     * @throws IllegalArgumentException if there are no primitives, or a primitive refers to a material that does not
+     * exist
+     */
+    PrimitiveSet(String primitiveType, float[] bounds, int[] materials, Material[] table) {
+        int count = materials.length;
+        if (count == 0) {
+            throw new IllegalArgumentException("A set needs at least one primitive");
+        }
+        this.primitiveType = TraceCounters.getShapeType(primitiveType);
+        this.table = table.clone();
+        this.bvh = new BoundingVolumeHierarchy(bounds, count);
+
+        this.materials = new int[count];
+        for (int i = 0; i < count; i++) {
+            int material = materials[bvh.getPrimitive(i)];
+            if (material < 0 || material >= table.length) {
+                throw new IllegalArgumentException("Primitive " + bvh.getPrimitive(i) + " refers to material "
+                        + material + ", but there are " + table.length + " materials");
+            }
+            this.materials[i] = material;
+        }
+    }
+
+    /** @return the index a primitive had when the set was created, for the primitive at this index in leaf order */
+    final int getOriginalIndex(int primitive) {
+        return bvh.getPrimitive(primitive);
+    }
+
+    /** Reorders an array of values of every primitive, from the order the set was created in to leaf order */
+    final float[] toLeafOrder(float[] values, int offset, int stride) {
+        float[] ordered = new float[materials.length];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = values[stride * getOriginalIndex(i) + offset];
+        }
+        return ordered;
+    }
+
+    public int getCount() {
+        return materials.length;
+    }
+
+    /**
+     * Computes the normal of a primitive at an intersection point.
+     *
+     * @param outNormal the output normal
+     */
+    protected abstract void computeNormal(int primitive, Vector3 position, Vector3 outNormal);
+
+    @Override
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        bvh.getNodeBounds(0, outMin, outMax);
+        return true;
+    }
+
+    @Override
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        if (!bvh.intersect(context, ray, hit, this)) {
+            return false;
+        }
+        hit.shape = this;
+        return true;
+    }
+
+    @Override
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance) {
+        return bvh.occludes(context, ray, maxDistance, this);
+    }
+
+    /** Adds the tests of the primitives of a leaf to the counters, if intersection tests are counted at all */
+    final void countTests(TraceContext context, int tests, int hits) {
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersections(primitiveType, tests, hits);
+        }
+    }
+
+    @Override
+    public void computeSurface(Ray ray, Hit hit) {
+        Vector3.addMul(ray.getOrigin(), ray.getHeading(), hit.distance, hit.position);
+        computeNormal(hit.primitive, hit.position, hit.normal);
+    }
+
+    @Override
+    public void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor) {
+        table[materials[hit.primitive]].queryColor(context, ray, world, hit.position, hit.normal, outColor);
+    }
+
+    @Override
+    public Material getMaterial(Hit hit) {
+        return table[materials[hit.primitive]];
+    }
+
+    /** @return whether any of the materials of the set is view dependent */
+    @Override
+    public boolean isViewDependent() {
+        for (Material material : table) {
+            if (material.isViewDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isViewDependent(Hit hit) {
+        return table[materials[hit.primitive]].isViewDependent();
+    }
+}
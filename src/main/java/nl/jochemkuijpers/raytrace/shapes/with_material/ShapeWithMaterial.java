@@ -1,9 +1,12 @@
 package nl.jochemkuijpers.raytrace.shapes.with_material;
 
 import nl.jochemkuijpers.math.Color;
-import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
 import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
 import nl.jochemkuijpers.raytrace.materials.Material;
 import nl.jochemkuijpers.raytrace.shapes.Shape;
 
@@ -14,28 +17,74 @@ import nl.jochemkuijpers.raytrace.shapes.Shape;
 public abstract class ShapeWithMaterial implements Shape {
     protected final Material material;
 
+    /** The index of the intersection counters of the concrete shape class */
+    private final int shapeType;
+
     public ShapeWithMaterial(Material material) {
         this.material = material;
+        this.shapeType = TraceCounters.getShapeType(getClass().getSimpleName());
     }
 
     /**
-     * Computes the first intersection point of the ray and the object
+     * Computes the distance to the first intersection point of the ray and the object within the interval of the ray
+     * @param ray the input ray
+     * @param maxDistance the upper end of the interval, which may be closer than the one of the ray
+     * @return the distance along the ray heading (negative for no intersection)
+     */
+    protected abstract float computeDistance(Ray ray, float maxDistance);
+
+    /**
+     * Computes the normal at an intersection point of the ray and the object
      * @param ray the input ray
-     * @param outPosition the output position
+     * @param position the intersection point
      * @param outNormal the output normal
-     * @return whether or not intersection took place
      */
-    protected abstract boolean computeIntersection(Ray ray, Vector3 outPosition, Vector3 outNormal);
+    protected abstract void computeNormal(Ray ray, Vector3 position, Vector3 outNormal);
 
     @Override
-    public boolean query(Ray ray, Scene world, Vector3 outPosition, Color outColor) {
-        Vector3 intersecNormal = new Vector3();
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        float t = computeDistance(ray, hit.distance);
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersection(shapeType, t >= 0);
+        }
 
-        if (!computeIntersection(ray, outPosition, intersecNormal)) {
+        if (t < 0 || t >= hit.distance) {
             return false;
         }
 
-        material.queryColor(ray, world, outPosition, intersecNormal, outColor);
+        hit.distance = t;
+        hit.shape = this;
         return true;
     }
+
+    @Override
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance) {
+        float t = computeDistance(ray, maxDistance);
+        boolean occludes = t >= 0 && t < maxDistance;
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersection(shapeType, occludes);
+        }
+        return occludes;
+    }
+
+    @Override
+    public void computeSurface(Ray ray, Hit hit) {
+        Vector3.addMul(ray.getOrigin(), ray.getHeading(), hit.distance, hit.position);
+        computeNormal(ray, hit.position, hit.normal);
+    }
+
+    @Override
+    public void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor) {
+        material.queryColor(context, ray, world, hit.position, hit.normal, outColor);
+    }
+
+    @Override
+    public Material getMaterial(Hit hit) {
+        return material;
+    }
+
+    @Override
+    public boolean isViewDependent() {
+        return material.isViewDependent();
+    }
 }
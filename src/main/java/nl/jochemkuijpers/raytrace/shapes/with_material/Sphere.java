@@ -16,15 +16,21 @@ public class Sphere extends ShapeWithMaterial {
     }
 
     @Override
-    protected boolean computeIntersection(Ray ray, Vector3 outPosition, Vector3 outNormal) {
-        float t = Intersections.sphere(ray.getOrigin(), ray.getHeading(), position, radius);
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        Vector3.addMul(position, Vector3.ONE, -radius, outMin);
+        Vector3.addMul(position, Vector3.ONE,  radius, outMax);
+        return true;
+    }
 
-        if (t < 0) { return false; }
+    @Override
+    protected float computeDistance(Ray ray, float maxDistance) {
+        return Intersections.sphere(ray.getOrigin(), ray.getHeading(), position, radius, ray.getMinDistance(),
+                maxDistance);
+    }
 
-        Vector3.addMul(ray.getOrigin(), ray.getHeading(), t, outPosition);
-        Vector3.sub(outPosition, position, outNormal);
+    @Override
+    protected void computeNormal(Ray ray, Vector3 position, Vector3 outNormal) {
+        Vector3.sub(position, this.position, outNormal);
         Vector3.fastNormalize(outNormal, outNormal);
-
-        return true;
     }
 }
@@ -0,0 +1,117 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.Material;
+
+/**
+ * Many spheres as a single shape, with a float array for each coordinate of the centers and one for the radii. A ray
+ * sees the same spheres as it would see of a {@link Sphere} for each of them.
+ */
+public class SphereSet extends PrimitiveSet {
+    private final float[] centerX;
+    private final float[] centerY;
+    private final float[] centerZ;
+    private final float[] radius;
+
+    /**
+     * @param spheres 4 floats per sphere: the center x, y, z and the radius
+     * @param materials the index of the material of every sphere
+     * @param table the materials the spheres refer to
+     * @throws IllegalArgumentException if there are no spheres, or a sphere refers to a material that does not exist
+     */
+    public SphereSet(float[] spheres, int[] materials, Material[] table) {
+        super("Sphere", bounds(spheres, materials.length), materials, table);
+        centerX = toLeafOrder(spheres, 0, 4);
+        centerY = toLeafOrder(spheres, 1, 4);
+        centerZ = toLeafOrder(spheres, 2, 4);
+        radius = toLeafOrder(spheres, 3, 4);
+    }
+
+    private static float[] bounds(float[] spheres, int count) {
+        if (spheres.length != 4 * count) {
+            throw new IllegalArgumentException("A sphere set needs 4 values and a material per sphere");
+        }
+        float[] bounds = new float[6 * count];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[6 * i + axis] = spheres[4 * i + axis] - spheres[4 * i + 3];
+                bounds[6 * i + 3 + axis] = spheres[4 * i + axis] + spheres[4 * i + 3];
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    public boolean intersectLeaf(TraceContext context, Ray ray, Hit hit, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        float minDistance = ray.getMinDistance();
+        float closest = hit.distance;
+        int primitive = -1;
+        int hits = 0;
+
+        for (int i = first; i < last; i++) {
+            float t = distance(i, ox, oy, oz, dx, dy, dz, minDistance);
+            hits += t >= minDistance & t <= closest ? 1 : 0;
+            boolean closer = t >= minDistance & t < closest;
+            primitive = closer ? i : primitive;
+            closest = closer ? t : closest;
+        }
+
+        countTests(context, last - first, hits);
+        if (primitive < 0) {
+            return false;
+        }
+        hit.distance = closest;
+        hit.primitive = primitive;
+        return true;
+    }
+
+    @Override
+    public boolean occludesLeaf(TraceContext context, Ray ray, float maxDistance, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float ox = origin.x, oy = origin.y, oz = origin.z;
+        float dx = heading.x, dy = heading.y, dz = heading.z;
+        float minDistance = ray.getMinDistance();
+
+        boolean occluded = false;
+        int i = first;
+        while (i < last && !occluded) {
+            float t = distance(i++, ox, oy, oz, dx, dy, dz, minDistance);
+            occluded |= t >= minDistance & t < maxDistance;
+        }
+        countTests(context, i - first, occluded ? 1 : 0);
+        return occluded;
+    }
+
+    /**
+     * The same steps as Intersections.sphere, so the spheres of a set are hit exactly like single spheres, but without
+     * a branch: when the ray misses the sphere, the square root is taken of a negative number, and the NaN it gives
+     * fails every comparison the caller makes.
+     *
+     * @return the distance along the heading to the nearest intersection beyond the minimum distance, or NaN
+     */
+    private float distance(int i, float ox, float oy, float oz, float dx, float dy, float dz, float minDistance) {
+        float lx = centerX[i] - ox;
+        float ly = centerY[i] - oy;
+        float lz = centerZ[i] - oz;
+        float tca = lx * dx + ly * dy + lz * dz;
+        float d2 = lx * lx + ly * ly + lz * lz - tca * tca;
+        float thc = (float) Math.sqrt(radius[i] * radius[i] - d2);
+        float t0 = tca - thc;
+        return t0 >= minDistance ? t0 : tca + thc;
+    }
+
+    @Override
+    protected void computeNormal(int primitive, Vector3 position, Vector3 outNormal) {
+        outNormal.set(position.x - centerX[primitive], position.y - centerY[primitive],
+                position.z - centerZ[primitive]);
+        Vector3.fastNormalize(outNormal, outNormal);
+    }
+}
@@ -0,0 +1,221 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.TraceCounters;
+import nl.jochemkuijpers.raytrace.acceleration.BoundingVolumeHierarchy;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+
+/**
+ * A mesh of triangles of a single material. The vertices are stored once, as a flat array of coordinates, and every
+ * triangle refers to its three vertices by index. The triangles are kept in a bounding volume hierarchy of their own,
+ * so the mesh is a single shape to the scene, however many triangles it has.
+ *
+ * The normal of a triangle follows its winding: seen from the front, the vertices go counter-clockwise, like the faces
+ * of an OBJ file. As with the other shapes, the normals of a closed mesh must point outwards for transparent materials
+ * to refract correctly.
+ *
+ * Unlike the other shapes with a material, a hit on a mesh also records which triangle was hit, so this does not
+ * extend {@link ShapeWithMaterial}.
+ */
+public class TriangleMesh implements Shape, BoundingVolumeHierarchy.Leaves {
+    private static final int TRIANGLE_TYPE = TraceCounters.getShapeType("Triangle");
+
+    private final Material material;
+    /** x, y and z of every vertex */
+    private final float[] vertices;
+    /** The indices of the three vertices of every triangle, in the order of the leaves of the hierarchy */
+    private final int[] indices;
+    private final BoundingVolumeHierarchy bvh;
+
+    /**
+     * @param vertices x, y and z of every vertex, this array is kept as it is
+     * @param indices the indices of the three vertices of every triangle
+     * @throws IllegalArgumentException if there are no triangles, or a triangle refers to a vertex that does not exist
+     */
+    public TriangleMesh(float[] vertices, int[] indices, Material material) {
+        if (vertices.length % 3 != 0 || indices.length % 3 != 0) {
+            throw new IllegalArgumentException("A mesh needs 3 coordinates per vertex and 3 indices per triangle");
+        }
+        int vertexCount = vertices.length / 3;
+        int count = indices.length / 3;
+        if (count == 0) {
+            throw new IllegalArgumentException("A mesh needs at least one triangle");
+        }
+
+        float[] bounds = new float[6 * count];
+        for (int i = 0; i < count; i++) {
+            int o = 6 * i;
+            bounds[o] = bounds[o + 1] = bounds[o + 2] = Float.POSITIVE_INFINITY;
+            bounds[o + 3] = bounds[o + 4] = bounds[o + 5] = Float.NEGATIVE_INFINITY;
+            for (int corner = 0; corner < 3; corner++) {
+                int index = indices[3 * i + corner];
+                if (index < 0 || index >= vertexCount) {
+                    throw new IllegalArgumentException("Triangle " + i + " refers to vertex " + index
+                            + ", but there are " + vertexCount + " vertices");
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    float coordinate = vertices[3 * index + axis];
+                    bounds[o + axis] = Math.min(bounds[o + axis], coordinate);
+                    bounds[o + 3 + axis] = Math.max(bounds[o + 3 + axis], coordinate);
+                }
+            }
+        }
+        bvh = new BoundingVolumeHierarchy(bounds, count);
+
+        // the triangles of a leaf are stored next to each other, so the leaf order is also the triangle order
+        this.indices = new int[indices.length];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(indices, 3 * bvh.getPrimitive(i), this.indices, 3 * i, 3);
+        }
+        this.vertices = vertices;
+        this.material = material;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    @Override
+    public boolean getBounds(Vector3 outMin, Vector3 outMax) {
+        bvh.getNodeBounds(0, outMin, outMax);
+        return true;
+    }
+
+    @Override
+    public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+        if (!bvh.intersect(context, ray, hit, this)) {
+            return false;
+        }
+        hit.shape = this;
+        return true;
+    }
+
+    @Override
+    public boolean occludes(TraceContext context, Ray ray, float maxDistance) {
+        return bvh.occludes(context, ray, maxDistance, this);
+    }
+
+    @Override
+    public boolean intersectLeaf(TraceContext context, Ray ray, Hit hit, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float minDistance = ray.getMinDistance();
+        int closest = -1;
+        int hits = 0;
+
+        for (int triangle = first; triangle < last; triangle++) {
+            float t = intersectTriangle(triangle, origin.x, origin.y, origin.z, heading.x, heading.y, heading.z);
+            if (t >= minDistance) {
+                hits++;
+                if (t < hit.distance) {
+                    hit.distance = t;
+                    closest = triangle;
+                }
+            }
+        }
+
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersections(TRIANGLE_TYPE, last - first, hits);
+        }
+        if (closest < 0) {
+            return false;
+        }
+        hit.primitive = closest;
+        return true;
+    }
+
+    @Override
+    public boolean occludesLeaf(TraceContext context, Ray ray, float maxDistance, int first, int last) {
+        Vector3 origin = ray.getOrigin();
+        Vector3 heading = ray.getHeading();
+        float minDistance = ray.getMinDistance();
+        int tests = 0;
+
+        boolean occluded = false;
+        for (int triangle = first; triangle < last && !occluded; triangle++) {
+            float t = intersectTriangle(triangle, origin.x, origin.y, origin.z, heading.x, heading.y, heading.z);
+            tests++;
+            occluded = t >= minDistance && t < maxDistance;
+        }
+
+        if (TraceCounters.COUNT_INTERSECTIONS) {
+            context.getCounters().countIntersections(TRIANGLE_TYPE, tests, occluded ? 1 : 0);
+        }
+        return occluded;
+    }
+
+    /**
+     * Intersects a triangle with the Möller-Trumbore algorithm, which needs no precomputed plane per triangle.
+     *
+     * @return the distance along the heading to the triangle, negative if the ray misses it
+     */
+    private float intersectTriangle(int triangle, float ox, float oy, float oz, float dx, float dy, float dz) {
+        int a = 3 * indices[3 * triangle];
+        int b = 3 * indices[3 * triangle + 1];
+        int c = 3 * indices[3 * triangle + 2];
+        float ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+        float e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+        float e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+        // p = heading × e2, its dot product with e1 is the determinant
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) { return -1f; }
+        float invDet = 1f / det;
+
+        float sx = ox - ax, sy = oy - ay, sz = oz - az;
+        float u = (sx * px + sy * py + sz * pz) * invDet;
+        if (u < 0 || u > 1) { return -1f; }
+
+        // q = s × e1
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0 || u + v > 1) { return -1f; }
+
+        return (e2x * qx + e2y * qy + e2z * qz) * invDet;
+    }
+
+    @Override
+    public void computeSurface(Ray ray, Hit hit) {
+        Vector3.addMul(ray.getOrigin(), ray.getHeading(), hit.distance, hit.position);
+
+        int a = 3 * indices[3 * hit.primitive];
+        int b = 3 * indices[3 * hit.primitive + 1];
+        int c = 3 * indices[3 * hit.primitive + 2];
+        float e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1];
+        float e1z = vertices[b + 2] - vertices[a + 2];
+        float e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1];
+        float e2z = vertices[c + 2] - vertices[a + 2];
+        hit.normal.set(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x);
+        Vector3.normalize(hit.normal, hit.normal);
+    }
+
+    @Override
+    public void shade(TraceContext context, Ray ray, Scene world, Hit hit, Color outColor) {
+        material.queryColor(context, ray, world, hit.position, hit.normal, outColor);
+    }
+
+    @Override
+    public Material getMaterial(Hit hit) {
+        return material;
+    }
+
+    @Override
+    public boolean isViewDependent() {
+        return material.isViewDependent();
+    }
+}
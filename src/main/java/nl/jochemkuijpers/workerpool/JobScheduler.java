@@ -0,0 +1,57 @@
+package nl.jochemkuijpers.workerpool;
+
+import java.util.Collection;
+
+/**
+ * Executes jobs on a fixed set of worker threads. Running jobs are not interrupted to cancel them; jobs that should
+ * stop early check a token of their own, like the {@link nl.jochemkuijpers.raytrace.renderer.FrameEpoch} of the
+ * render jobs.
+ */
+public interface JobScheduler {
+    /**
+     * Submits a new job. A worker will pick it up when it has no earlier jobs to work on.
+     *
+     * @param job the queued job
+     * @throws IllegalStateException if the scheduler does not accept new jobs.
+     */
+    void submit(Runnable job);
+
+    /**
+     * Submits a new job at a level. Jobs at a lower level are started before jobs at a higher one, jobs submitted
+     * without a level are at level 0. Among jobs of the same level, earlier jobs roughly start first.
+     *
+     * @param job the queued job
+     * @param level the level, lower is more urgent
+     * @throws IllegalStateException if the scheduler does not accept new jobs.
+     */
+    void submit(Runnable job, int level);
+
+    /**
+     * Submits a batch of jobs at once. This is cheaper than submitting the jobs one by one, and the jobs are started
+     * roughly in the order of the collection.
+     *
+     * @param jobs the queued jobs
+     * @throws IllegalStateException if the scheduler does not accept new jobs.
+     */
+    void submitAll(Collection<? extends Runnable> jobs);
+
+    /**
+     * This method may return false before the last jobs are completely executed.
+     * @return whether there is still work left in the queue
+     */
+    boolean hasWork();
+
+    /**
+     * Clears all jobs currently in the queue
+     */
+    void clearPendingJobs();
+
+    /** @return the counters of the jobs executed by the workers */
+    WorkerStatistics getStatistics();
+
+    /**
+     * Stops the scheduler entirely. The worker threads are interrupted, so that jobs blocked on a wait can stop.
+     * This method is blocking until all worker threads have been joined.
+     */
+    void shutdownNow();
+}
@@ -0,0 +1,223 @@
+package nl.jochemkuijpers.workerpool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A worker pool where every worker has its own job deques, one per level. Submitted jobs are dealt out over the
+ * workers, workers take jobs from their own deque first and steal from the deques of other workers when theirs runs
+ * dry. All lower levels are emptied before a worker looks at a higher one. The deques are lock-free, so there is no
+ * lock that the workers contend on.
+ *
+ * Idle workers park themselves. A submit only wakes as many parked workers as there are new jobs, instead of waking
+ * every waiting thread.
+ */
+public class WorkStealingPool implements JobScheduler {
+    /** The number of levels; jobs at higher levels share the last level */
+    public static final int LEVELS = 8;
+
+    private static final int RUNNING = 0;
+    private static final int PARKED = 1;
+
+    private final Worker[] workers;
+    private final WorkerStatistics statistics;
+
+    /** Per worker, whether it is (about to be) parked and waiting for a wake-up */
+    private final AtomicIntegerArray states;
+
+    /** The worker that receives the next submitted job */
+    private final AtomicInteger nextWorker;
+
+    private volatile boolean stop = false;
+
+    public WorkStealingPool(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("A worker pool needs at least one thread.");
+        }
+
+        states = new AtomicIntegerArray(numThreads);
+        nextWorker = new AtomicInteger();
+        statistics = new WorkerStatistics(numThreads);
+
+        workers = new Worker[numThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public boolean hasWork() {
+        for (Worker worker : workers) {
+            for (ConcurrentLinkedDeque<Runnable> deque : worker.deques) {
+                if (!deque.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clearPendingJobs() {
+        for (Worker worker : workers) {
+            for (ConcurrentLinkedDeque<Runnable> deque : worker.deques) {
+                deque.clear();
+            }
+        }
+    }
+
+    @Override
+    public void submit(Runnable job) {
+        submit(job, 0);
+    }
+
+    @Override
+    public void submit(Runnable job, int level) {
+        ensureRunning();
+        int clamped = Math.min(Math.max(level, 0), LEVELS - 1);
+        workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].deques.get(clamped).addLast(job);
+        wakeWorkers(1);
+    }
+
+    @Override
+    public void submitAll(Collection<? extends Runnable> jobs) {
+        ensureRunning();
+
+        // deal the jobs out like cards, so every deque holds a similar share in the original order
+        int first = nextWorker.getAndAdd(jobs.size());
+        int i = 0;
+        for (Runnable job : jobs) {
+            workers[Math.floorMod(first + i, workers.length)].deques.get(0).addLast(job);
+            i++;
+        }
+        wakeWorkers(jobs.size());
+    }
+
+    private void ensureRunning() {
+        if (stop) {
+            throw new IllegalStateException("The worker pool has already been stopped. No more work is accepted.");
+        }
+    }
+
+    /** Unparks at most count parked workers. A worker that turns out not to park passes its wake-up on. */
+    private void wakeWorkers(int count) {
+        for (int i = 0; i < workers.length && count > 0; i++) {
+            if (states.compareAndSet(i, PARKED, RUNNING)) {
+                LockSupport.unpark(workers[i]);
+                count--;
+            }
+        }
+    }
+
+    @Override
+    public WorkerStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Initiates graceful shutdown. New jobs are no longer accepted. Existing jobs will be finished but the
+     * remaining jobs in the queue are discarded.
+     */
+    public void shutdown() {
+        stop = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Await termination of all workers. Calling this on its own will not stop the worker pool. Call this after
+     * initiating a shutdown.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting on other threads.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Worker worker : workers) {
+            worker.join();
+        }
+    }
+
+    @Override
+    public void shutdownNow() {
+        shutdown();
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+        try {
+            awaitTermination();
+        } catch (InterruptedException ignored) {}
+    }
+
+    private class Worker extends Thread {
+        private final int index;
+
+        /** The own jobs of this worker, per level */
+        private final List<ConcurrentLinkedDeque<Runnable>> deques;
+
+        Worker(int index) {
+            super("workstealingpool-" + index);
+            this.index = index;
+            this.deques = new ArrayList<>(LEVELS);
+            for (int level = 0; level < LEVELS; level++) {
+                deques.add(new ConcurrentLinkedDeque<>());
+            }
+        }
+
+        /** @return a job of the lowest level that has one, from the own deque or stolen, or null if there is none */
+        private Runnable findJob() {
+            for (int level = 0; level < LEVELS; level++) {
+                Runnable job = deques.get(level).pollFirst();
+                if (job != null) {
+                    return job;
+                }
+                for (int i = 1; i < workers.length; i++) {
+                    job = workers[(index + i) % workers.length].deques.get(level).pollFirst();
+                    if (job != null) {
+                        statistics.countSteal(index);
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                Runnable job = findJob();
+
+                if (job == null) {
+                    // announce that we are about to park, then look once more. A job submitted after this point
+                    // will see the announcement and unpark us; LockSupport remembers an unpark that comes early.
+                    states.set(index, PARKED);
+                    job = findJob();
+                    if (job == null && !stop) {
+                        statistics.countPark(index);
+                        LockSupport.park(this);
+                    }
+                    if (!states.compareAndSet(index, PARKED, RUNNING) && job != null) {
+                        // a submit counted us as woken, but we found a job without parking. Pass the wake-up on,
+                        // or a worker that does sleep could miss the work of that submit.
+                        wakeWorkers(1);
+                    }
+
+                    if (job == null) {
+                        continue;
+                    }
+                }
+
+                long start = System.nanoTime();
+                job.run();
+                statistics.countJob(index, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package nl.jochemkuijpers.workerpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the jobs executed by the workers of a pool, and the time spent on them. Every worker writes only its own
+ * counters, with ordered writes (lazySet) that need no atomic instruction; they are summed on read. A reader may see
+ * values that are slightly behind.
+ */
+public final class WorkerStatistics {
+    private static final int JOBS = 0;
+    private static final int BUSY_NANOS = 1;
+    private static final int STEALS = 2;
+    private static final int PARKS = 3;
+
+    /** Every worker gets a cache line of its own, so that workers do not slow each other down */
+    private static final int STRIDE = 8;
+
+    private final int workerCount;
+    private final AtomicLongArray counts;
+
+    WorkerStatistics(int workerCount) {
+        this.workerCount = workerCount;
+        this.counts = new AtomicLongArray(workerCount * STRIDE);
+    }
+
+    void countJob(int worker, long nanos) {
+        add(worker, JOBS, 1);
+        add(worker, BUSY_NANOS, nanos);
+    }
+
+    /** Counts a job that a worker took from the queue of another worker */
+    void countSteal(int worker) {
+        add(worker, STEALS, 1);
+    }
+
+    /** Counts a worker going idle for lack of jobs */
+    void countPark(int worker) {
+        add(worker, PARKS, 1);
+    }
+
+    private void add(int worker, int counter, long delta) {
+        int index = worker * STRIDE + counter;
+        counts.lazySet(index, counts.get(index) + delta);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /** @return the number of jobs executed by all workers */
+    public long getJobCount() {
+        return sum(JOBS);
+    }
+
+    /** @return the time all workers together spent executing jobs, in nanoseconds */
+    public long getBusyNanos() {
+        return sum(BUSY_NANOS);
+    }
+
+    /** @return the number of jobs taken from the queue of another worker, 0 for pools with a single queue */
+    public long getStealCount() {
+        return sum(STEALS);
+    }
+
+    /** @return the number of times a worker went idle for lack of jobs */
+    public long getParkCount() {
+        return sum(PARKS);
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int worker = 0; worker < workerCount; worker++) {
+            sum += counts.get(worker * STRIDE + counter);
+        }
+        return sum;
+    }
+}
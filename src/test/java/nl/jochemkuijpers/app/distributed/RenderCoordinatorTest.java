@@ -0,0 +1,256 @@
+package nl.jochemkuijpers.app.distributed;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.scenes.Scenes;
+import nl.jochemkuijpers.app.scenes.SimpleScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders on worker processes on localhost, and compares the result with rendering the same tiles locally.
+ */
+public class RenderCoordinatorTest {
+    private static final int[] QUALITIES = { 0, 1, 2 };
+    /** The sun of the stacked scene, as it is when the scene is created */
+    private static final Vector3 SUN = Scenes.create("stacked").getSunVector();
+
+    private final List<Process> workers = new ArrayList<>();
+    private final List<ServerSocket> fakeWorkers = new ArrayList<>();
+
+    @After
+    public void stopWorkers() throws IOException {
+        for (Process worker : workers) {
+            worker.destroyForcibly();
+        }
+        for (ServerSocket fake : fakeWorkers) {
+            fake.close();
+        }
+    }
+
+    @Test
+    public void rendersTheSamePixelsAsTheLocalPipeline() throws Exception {
+        Camera camera = camera(0);
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(160, 96);
+        FrameEpoch frameEpoch = new FrameEpoch();
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(startWorkers(2), QUALITIES,
+                AdaptiveSampling.DEFAULT)) {
+            Assert.assertEquals(2, coordinator.getWorkerCount());
+
+            // a frame of another view, which the next frame cancels
+            coordinator.start(camera(3).getRenderTiles(frameBuffer), "stacked", SUN, frameEpoch.advance());
+            coordinator.start(camera.getRenderTiles(frameBuffer), "stacked", SUN, frameEpoch.advance());
+            Assert.assertTrue(coordinator.awaitFrame(60_000));
+        }
+
+        Assert.assertArrayEquals(renderLocally(camera, 160, 96), frameBuffer.getPixels());
+    }
+
+    @Test
+    public void movesTheSunOfTheWorkersWithTheLocalSun() throws Exception {
+        Camera camera = camera(0);
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(160, 96);
+        FrameEpoch frameEpoch = new FrameEpoch();
+        SimpleScene scene = Scenes.create("stacked");
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(startWorkers(2), QUALITIES,
+                AdaptiveSampling.DEFAULT)) {
+            // a frame with the sun where it starts, then one after the sun moved, like pressing L does
+            coordinator.start(camera.getRenderTiles(frameBuffer), "stacked", scene.getSunVector(),
+                    frameEpoch.advance());
+            Assert.assertTrue(coordinator.awaitFrame(60_000));
+            int[] before = frameBuffer.getPixels().clone();
+
+            FrameEpoch.Token epoch = frameEpoch.advance();
+            scene.rotateSun(0.5f);
+            coordinator.start(camera.getRenderTiles(frameBuffer), "stacked", scene.getSunVector(), epoch);
+            Assert.assertTrue(coordinator.awaitFrame(60_000));
+            Assert.assertFalse(Arrays.equals(before, frameBuffer.getPixels()));
+        }
+
+        Assert.assertArrayEquals(renderLocally(camera, 160, 96, scene), frameBuffer.getPixels());
+    }
+
+    @Test
+    public void reassignsTheTilesOfALostWorker() throws Exception {
+        Camera camera = camera(1);
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(320, 192);
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(startWorkers(3), QUALITIES,
+                AdaptiveSampling.DEFAULT)) {
+            coordinator.start(camera.getRenderTiles(frameBuffer), "stacked", SUN, new FrameEpoch().current());
+            workers.get(1).destroyForcibly().waitFor();
+            Assert.assertTrue(coordinator.awaitFrame(60_000));
+            Assert.assertEquals(2, coordinator.getWorkerCount());
+        }
+
+        Assert.assertArrayEquals(renderLocally(camera, 320, 192), frameBuffer.getPixels());
+    }
+
+    @Test
+    public void reportsWhenTheLastWorkerIsLost() throws Exception {
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(160, 96);
+        CountDownLatch lost = new CountDownLatch(1);
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(startWorkers(1), QUALITIES,
+                AdaptiveSampling.DEFAULT)) {
+            coordinator.setLostListener(lost::countDown);
+            coordinator.start(camera(0).getRenderTiles(frameBuffer), "stacked", SUN, new FrameEpoch().current());
+            workers.get(0).destroyForcibly().waitFor();
+            Assert.assertTrue(lost.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, coordinator.getWorkerCount());
+        }
+    }
+
+    @Test
+    public void dropsAWorkerThatSendsAResultBeforeAnyFrame() throws Exception {
+        CountDownLatch lost = new CountDownLatch(1);
+        CountDownLatch listening = new CountDownLatch(1);
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(
+                Collections.singletonList(startFakeWorker(listening, result(0, 0, 0, 0))), QUALITIES,
+                AdaptiveSampling.DEFAULT)) {
+            coordinator.setLostListener(lost::countDown);
+            listening.countDown();
+            Assert.assertTrue(lost.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, coordinator.getWorkerCount());
+        }
+    }
+
+    @Test
+    public void reassignsTheTilesOfAWorkerThatBreaksTheProtocol() throws Exception {
+        Camera camera = camera(2);
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(160, 96);
+        List<InetSocketAddress> addresses = new ArrayList<>(startWorkers(1));
+        addresses.add(startFakeWorker(null, result(1, 100000, 0, 0)));
+        addresses.add(startFakeWorker(null, result(1, 0, 0, -1)));
+        addresses.add(startFakeWorker(null, result(1, 0, QUALITIES.length, 0)));
+
+        try (RenderCoordinator coordinator = new RenderCoordinator(addresses, QUALITIES, AdaptiveSampling.DEFAULT)) {
+            coordinator.start(camera.getRenderTiles(frameBuffer), "stacked", SUN, new FrameEpoch().current());
+            Assert.assertTrue(coordinator.awaitFrame(60_000));
+            Assert.assertEquals(1, coordinator.getWorkerCount());
+        }
+
+        Assert.assertArrayEquals(renderLocally(camera, 160, 96), frameBuffer.getPixels());
+    }
+
+    /** @return the header of a result message, claiming that this many bytes of pixels follow */
+    private static byte[] result(int frame, int tileId, int pass, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream message = new DataOutputStream(bytes);
+        message.writeByte(Protocol.RESULT);
+        message.writeInt(frame);
+        message.writeInt(tileId);
+        message.writeInt(pass);
+        message.writeInt(length);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Starts a worker in this process that greets the coordinator and then sends a message, once the first frame
+     * arrives or once the latch opens. It stays connected until the coordinator hangs up.
+     *
+     * @param go the latch to wait for, or null to wait for the first frame
+     */
+    private InetSocketAddress startFakeWorker(CountDownLatch go, byte[] message) throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        fakeWorkers.add(server);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream in = socket.getInputStream();
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(Protocol.MAGIC);
+                out.writeInt(1);
+                if (go != null) {
+                    go.await();
+                } else if (in.read() != Protocol.FRAME) {
+                    return;
+                }
+                out.write(message);
+                out.flush();
+                while (in.read() >= 0) {
+                    // ignores the tiles it gets
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // the coordinator hung up
+            }
+        }, "fake-render-worker");
+        thread.setDaemon(true);
+        thread.start();
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    private static Camera camera(int moves) {
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        CameraController controller = new CameraController(camera, 25, new Vector3(0, -2, 0));
+        controller.setInitialCamera();
+        controller.move(moves, 0);
+        return camera;
+    }
+
+    private static int[] renderLocally(Camera camera, int width, int height) {
+        return renderLocally(camera, width, height, Scenes.create("stacked"));
+    }
+
+    private static int[] renderLocally(Camera camera, int width, int height, Scene scene) {
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(width, height);
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : camera.getRenderTiles(frameBuffer)) {
+            for (int quality : QUALITIES) {
+                Assert.assertTrue(tile.render(new TraceContext(), scene, quality, AdaptiveSampling.DEFAULT, epoch));
+            }
+        }
+        return frameBuffer.getPixels();
+    }
+
+    /** Starts worker processes on free ports, and waits until they listen */
+    private List<InetSocketAddress> startWorkers(int count) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        Pattern listening = Pattern.compile("listening on port (\\d+)");
+        for (int i = 0; i < count; i++) {
+            Process worker = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    RenderWorker.class.getName(), "--port", "0", "--threads", "1")
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            workers.add(worker);
+
+            BufferedReader out = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+            String line = out.readLine();
+            Matcher port = listening.matcher(line == null ? "" : line);
+            Assert.assertTrue("worker did not start: " + line, port.find());
+            addresses.add(new InetSocketAddress("localhost", Integer.parseInt(port.group(1))));
+        }
+        return addresses;
+    }
+}
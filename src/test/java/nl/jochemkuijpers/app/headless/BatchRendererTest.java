@@ -0,0 +1,78 @@
+package nl.jochemkuijpers.app.headless;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.scenes.MaterialTestScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class BatchRendererTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 54;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MemoryFrameBuffer render(int[] qualities, RenderReport[] outReport) throws InterruptedException {
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        new CameraController(camera, 25, new Vector3(0, -2, 0)).setInitialCamera();
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(WIDTH, HEIGHT);
+
+        WorkStealingPool scheduler = new WorkStealingPool(2);
+        try {
+            outReport[0] = new BatchRenderer(new MaterialTestScene(), camera, frameBuffer, qualities,
+                    AdaptiveSampling.DEFAULT, scheduler).render();
+        } finally {
+            scheduler.shutdownNow();
+        }
+        return frameBuffer;
+    }
+
+    @Test(timeout = 20000)
+    public void reportsEveryPass() throws InterruptedException {
+        RenderReport[] report = new RenderReport[1];
+        render(new int[] { 0, 1, 2 }, report);
+
+        Assert.assertEquals(3, report[0].getPasses().size());
+        Assert.assertEquals(1, report[0].getPasses().get(1).getQuality());
+        // every pixel gets at least one camera ray in the native pass
+        Assert.assertTrue(report[0].getPasses().get(1).getRays() >= WIDTH * HEIGHT);
+        Assert.assertEquals(report[0].getRays(), report[0].getPasses().get(0).getRays()
+                + report[0].getPasses().get(1).getRays() + report[0].getPasses().get(2).getRays());
+    }
+
+    @Test(timeout = 20000)
+    public void writesPngAndPpm() throws Exception {
+        MemoryFrameBuffer frameBuffer = render(new int[] { 1 }, new RenderReport[1]);
+        int[] pixels = frameBuffer.getPixels();
+
+        File png = folder.newFile("frame.png");
+        ImageOutput.write(frameBuffer, png);
+        BufferedImage image = ImageIO.read(png);
+        Assert.assertEquals(WIDTH, image.getWidth());
+        Assert.assertEquals(HEIGHT, image.getHeight());
+        int center = (HEIGHT / 2) * WIDTH + WIDTH / 2;
+        Assert.assertEquals(pixels[center] & 0xFFFFFF, image.getRGB(WIDTH / 2, HEIGHT / 2) & 0xFFFFFF);
+
+        File ppm = folder.newFile("frame.ppm");
+        ImageOutput.write(frameBuffer, ppm);
+        byte[] data = Files.readAllBytes(ppm.toPath());
+        byte[] header = ("P6\n" + WIDTH + " " + HEIGHT + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(header.length + 3 * WIDTH * HEIGHT, data.length);
+        int last = pixels[pixels.length - 1];
+        Assert.assertEquals((byte) (last >> 16), data[data.length - 3]);
+        Assert.assertEquals((byte) last, data[data.length - 1]);
+    }
+}
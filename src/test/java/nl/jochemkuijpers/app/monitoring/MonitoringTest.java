@@ -0,0 +1,43 @@
+package nl.jochemkuijpers.app.monitoring;
+
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MonitoringTest {
+
+    @Test(timeout = 10000)
+    public void allAttributesCanBeRead() throws Exception {
+        WorkStealingPool pool = new WorkStealingPool(1);
+        Monitoring monitoring = Monitoring.start(pool);
+        Assert.assertNotNull(monitoring);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            pool.submit(done::countDown);
+            Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (String type : new String[] { "Renderer", "WorkerPool" }) {
+                ObjectName name = new ObjectName(Monitoring.DOMAIN + ":type=" + type);
+                for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes()) {
+                    server.getAttribute(name, attribute.getName());
+                }
+            }
+
+            ObjectName poolName = new ObjectName(Monitoring.DOMAIN + ":type=WorkerPool");
+            Assert.assertEquals(1, server.getAttribute(poolName, "WorkerCount"));
+        } finally {
+            monitoring.stop();
+            pool.shutdownNow();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(new ObjectName(Monitoring.DOMAIN + ":type=Renderer")));
+    }
+}
@@ -0,0 +1,215 @@
+package nl.jochemkuijpers.app.scenes;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.math.AffineTransform;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SceneFileTest {
+    /** A cube from -1 to 1, with quads, texture coordinates and normals, and a face with relative indices */
+    private static final String CUBE_OBJ = "# cube\n"
+            + "v -1 -1 -1\nv 1 -1 -1\nv 1 1 -1\nv -1 1 -1\n"
+            + "v -1 -1 1\nv 1 -1 1\nv 1 1 1\nv -1 1 1\n"
+            + "vt 0 0\nvn 0 0 1\ng cube\n"
+            + "f 1 4 3 2\n"
+            + "f 5/1/1 6/1/1 7/1/1 8/1/1\n"
+            + "f 1//1 2//1 6//1 5//1\n"
+            + "f 4 8 7 3\n"
+            + "f 1 5 8 4\n"
+            + "f -7 -6 -2 -3\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void textAndBinaryHoldTheSameScene() throws IOException {
+        SceneDescription scene = materialTestScene();
+
+        StringWriter text = new StringWriter();
+        SceneFile.writeText(scene, text);
+        assertSameScene(scene, SceneFile.readText(new StringReader(text.toString())));
+
+        File binary = folder.newFile("material.bscene");
+        SceneFile.write(scene, binary);
+        assertSameScene(scene, SceneFile.read(binary));
+    }
+
+    @Test
+    public void textAndBinaryHoldTheSameMeshes() throws IOException {
+        SceneDescription scene = meshScene();
+
+        StringWriter text = new StringWriter();
+        SceneFile.writeText(scene, text);
+        assertSameScene(scene, SceneFile.readText(new StringReader(text.toString())));
+
+        File binary = folder.newFile("mesh.bscene");
+        SceneFile.write(scene, binary);
+        assertSameScene(scene, SceneFile.read(binary));
+        FileScene loaded = FileScene.load(binary);
+        FileScene built = new FileScene(scene);
+        Assert.assertArrayEquals(render(loaded), render(built));
+        // only a scene that was read from its file knows how long reading took
+        Assert.assertTrue(loaded.getDecodeNanos() >= 0);
+        Assert.assertEquals(-1, built.getDecodeNanos());
+    }
+
+    @Test
+    public void rendersLikeTheSceneItDescribes() throws IOException {
+        File file = folder.newFile("material.bscene");
+        SceneFile.write(materialTestScene(), file);
+        Assert.assertArrayEquals(render(new MaterialTestScene()), render(Scenes.create(file.getPath())));
+    }
+
+    @Test
+    public void importsTheFacesOfAnObjFile() throws IOException {
+        SceneDescription.Builder builder = new SceneDescription.Builder();
+        ObjFile.read(new StringReader(CUBE_OBJ), builder.addSimpleMaterial(1, 1, 1), builder);
+        SceneDescription scene = builder.build();
+        Assert.assertEquals(12, scene.getPrimitiveCount());
+
+        List<Shape> shapes = new ArrayList<>();
+        scene.createShapes(scene.getSun(), shapes);
+        Shape cube = shapes.get(0);
+        Box box = new Box(new Vector3(-1, -1, -1), new Vector3(1, 1, 1), new SimpleMaterial(Color.WHITE));
+
+        Random random = new Random(3);
+        TraceContext context = new TraceContext();
+        for (int i = 0; i < 1000; i++) {
+            Vector3 origin = new Vector3(8 * random.nextFloat() - 4, 8 * random.nextFloat() - 4, 8);
+            Vector3 target = new Vector3(3 * random.nextFloat() - 1.5f, 3 * random.nextFloat() - 1.5f,
+                    3 * random.nextFloat() - 1.5f);
+            Vector3 heading = new Vector3();
+            Vector3.sub(target, origin, heading);
+            Vector3.normalize(heading, heading);
+            Ray ray = new Ray(0, origin, heading);
+
+            Hit expected = new Hit();
+            Hit actual = new Hit();
+            Assert.assertEquals(box.intersect(context, ray, expected), cube.intersect(context, ray, actual));
+            if (expected.isHit()) {
+                Assert.assertEquals(expected.distance, actual.distance, 1e-4f);
+                box.computeSurface(ray, expected);
+                cube.computeSurface(ray, actual);
+                // the box normalizes its normal approximately
+                Assert.assertEquals(expected.normal.x, actual.normal.x, 1e-2f);
+                Assert.assertEquals(expected.normal.y, actual.normal.y, 1e-2f);
+                Assert.assertEquals(expected.normal.z, actual.normal.z, 1e-2f);
+            }
+        }
+    }
+
+    @Test
+    public void readsInstancesByTranslation() throws IOException {
+        String text = "material blue simple 0 0 1\n"
+                + "mesh blue\n"
+                + "vertex 0 0 0\nvertex 1 0 0\nvertex 0 0 1\n"
+                + "triangle 0 2 1\n"
+                + "instance 0 - 5 0 0\n"
+                + "instance 0 blue 1 0 0 0 0 1 0 2 0 0 1 0\n";
+        SceneDescription scene = SceneFile.readText(new StringReader(text));
+        Assert.assertEquals(2, scene.getInstanceCount());
+        Assert.assertArrayEquals(AffineTransform.translation(5, 0, 0).toArray(), scene.getTransform(0).toArray(), 0f);
+        Assert.assertArrayEquals(new int[] { SceneDescription.MESH_MATERIAL, 0 }, scene.instanceMaterials);
+
+        List<Shape> shapes = new ArrayList<>();
+        scene.createShapes(scene.getSun(), shapes);
+        Assert.assertEquals(2, shapes.size());
+    }
+
+    @Test
+    public void reportsTheLineOfAnError() {
+        String text = "material red simple 1 0 0\n"
+                + "# a comment\n"
+                + "sphere 0 1 0 1 red\n"
+                + "sphere 0 1 0 1 blue\n";
+        try {
+            SceneFile.readText(new StringReader(text));
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("Line 4: unknown material blue", e.getMessage());
+        }
+    }
+
+    /** The objects of {@link MaterialTestScene} */
+    private static SceneDescription materialTestScene() {
+        SceneDescription.Builder builder = new SceneDescription.Builder();
+        for (int i = 0; i < 10; i++) {
+            int material = builder.addComplexMaterial(false, i / 9f, 1f, 1f, 1f, 1f);
+            builder.addSphere((float) Math.cos(i / 9f * Math.PI) * 12f, 2f, (float) Math.sin(i / 9f * Math.PI) * 12f,
+                    1.5f, material);
+        }
+        int boxMaterial = builder.addComplexMaterial(false, 0.98f, 1.53f, 1f, 1f, 1f);
+        return builder.addBox(-4, 0, -4, 4, 8, 4, boxMaterial).build();
+    }
+
+    /** A box with a tetrahedron on top, and copies of the tetrahedron around it */
+    private static SceneDescription meshScene() {
+        SceneDescription.Builder builder = new SceneDescription.Builder();
+        int boxMaterial = builder.addComplexMaterial(false, 0.98f, 1.53f, 1f, 1f, 1f);
+        builder.addBox(-4, 0, -4, 4, 8, 4, boxMaterial);
+        builder.beginMesh(builder.addSimpleMaterial(0.2f, 0.4f, 0.8f))
+                .addVertex(-2, 0, -2).addVertex(2, 0, -2).addVertex(0, 0, 2).addVertex(0, 3, 0)
+                .addTriangle(0, 1, 2).addTriangle(0, 3, 1).addTriangle(1, 3, 2).addTriangle(2, 3, 0);
+        builder.addInstance(0, AffineTransform.translation(0, 8, 0), SceneDescription.MESH_MATERIAL);
+        for (int i = 0; i < 8; i++) {
+            float x = (float) Math.cos(i / 4.0 * Math.PI) * 12;
+            float z = (float) Math.sin(i / 4.0 * Math.PI) * 12;
+            builder.addInstance(0, AffineTransform.rotationY(i).then(AffineTransform.translation(x, 0, z)), boxMaterial);
+        }
+        return builder.build();
+    }
+
+    private static void assertSameScene(SceneDescription expected, SceneDescription actual) {
+        Assert.assertArrayEquals(expected.sun, actual.sun, 0f);
+        Assert.assertArrayEquals(expected.materialKinds, actual.materialKinds);
+        Assert.assertArrayEquals(expected.materials, actual.materials, 0f);
+        Assert.assertArrayEquals(expected.spheres, actual.spheres, 0f);
+        Assert.assertArrayEquals(expected.sphereMaterials, actual.sphereMaterials);
+        Assert.assertArrayEquals(expected.boxes, actual.boxes, 0f);
+        Assert.assertArrayEquals(expected.boxMaterials, actual.boxMaterials);
+        Assert.assertArrayEquals(expected.planes, actual.planes, 0f);
+        Assert.assertArrayEquals(expected.planeMaterials, actual.planeMaterials);
+        Assert.assertArrayEquals(expected.meshVertexEnds, actual.meshVertexEnds);
+        Assert.assertArrayEquals(expected.meshIndexEnds, actual.meshIndexEnds);
+        Assert.assertArrayEquals(expected.meshMaterials, actual.meshMaterials);
+        Assert.assertArrayEquals(expected.meshVertices, actual.meshVertices, 0f);
+        Assert.assertArrayEquals(expected.meshIndices, actual.meshIndices);
+        Assert.assertArrayEquals(expected.instanceMeshes, actual.instanceMeshes);
+        Assert.assertArrayEquals(expected.instanceMaterials, actual.instanceMaterials);
+        Assert.assertArrayEquals(expected.instances, actual.instances, 0f);
+    }
+
+    private static int[] render(Scene scene) {
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        new CameraController(camera, 25, new Vector3(0, -2, 0)).setInitialCamera();
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(96, 64);
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : camera.getRenderTiles(frameBuffer)) {
+            Assert.assertTrue(tile.render(new TraceContext(), scene, 1, epoch));
+        }
+        return frameBuffer.getPixels();
+    }
+}
@@ -0,0 +1,41 @@
+package nl.jochemkuijpers.app.scenes;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.ComplexMaterial;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimpleSceneTest {
+
+    /** A black glass slab from y = 2 up to 2 + thickness, that absorbs half of the light over every unit */
+    private static SimpleScene slab(final float thickness) {
+        return new SimpleScene() {
+            @Override
+            protected void createScene() {
+                ComplexMaterial glass = new ComplexMaterial(true, 0.5f, 1f, new Color(0, 0, 0), sunVector);
+                sceneObjects.add(new Box(new Vector3(-2, 2, -2), new Vector3(2, 2 + thickness, 2), glass));
+            }
+        };
+    }
+
+    @Test
+    public void refractionAbsorbsOverTheTrueDistance() {
+        TraceContext context = new TraceContext();
+        for (float thickness : new float[] { 0.5f, 1f, 2f }) {
+            // straight up through the slab into the gray sky; a refractive index of 1 neither bends nor reflects
+            Ray ray = new Ray(0, new Vector3(0.3f, 0.5f, 0.2f), new Vector3(0, 1, 0));
+            Color color = new Color();
+            Assert.assertEquals(1.5f, slab(thickness).query(context, ray, color), 1e-4f);
+
+            // the inner ray starts 1e-3 past the bottom face
+            float expected = 0.7f * (float) Math.pow(0.5, thickness - 1e-3);
+            Assert.assertEquals(expected, color.x, 1e-4f);
+            Assert.assertEquals(expected, color.y, 1e-4f);
+            Assert.assertEquals(expected, color.z, 1e-4f);
+        }
+    }
+}
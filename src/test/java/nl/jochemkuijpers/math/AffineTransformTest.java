@@ -0,0 +1,42 @@
+package nl.jochemkuijpers.math;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AffineTransformTest {
+
+    @Test
+    public void transformsInOrder() {
+        AffineTransform transform = AffineTransform.scale(2, 2, 2)
+                .then(AffineTransform.rotationY((float) (Math.PI / 2)))
+                .then(AffineTransform.translation(1, 2, 3));
+
+        Vector3 point = new Vector3(1, 1, 0);
+        transform.transformPoint(point, point);
+        // scaled to (2, 2, 0), rotated to (0, 2, -2), moved to (1, 4, 1)
+        Assert.assertEquals(1, point.x, 1e-6f);
+        Assert.assertEquals(4, point.y, 1e-6f);
+        Assert.assertEquals(1, point.z, 1e-6f);
+    }
+
+    @Test
+    public void inverseUndoesTheTransform() {
+        AffineTransform transform = new AffineTransform(new float[] {
+                1, 2, 0, 4,
+                0, 1, 3, -2,
+                0.5f, 0, 1, 7
+        });
+        Vector3 point = new Vector3(0.3f, -1.7f, 5);
+        Vector3 result = new Vector3();
+        transform.transformPoint(point, result);
+        transform.inverse().transformPoint(result, result);
+        Assert.assertEquals(point.x, result.x, 1e-5f);
+        Assert.assertEquals(point.y, result.y, 1e-5f);
+        Assert.assertEquals(point.z, result.z, 1e-5f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void flatTransformsCannotBeInverted() {
+        AffineTransform.scale(1, 0, 1).inverse();
+    }
+}
@@ -0,0 +1,139 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.app.scenes.MaterialTestScene;
+import nl.jochemkuijpers.app.scenes.MazeScene;
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.renderer.FrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Verifies that the trace path does not allocate once it is warmed up.
+ */
+public class TraceAllocationTest {
+    private static final int RAYS = 20000;
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** @return the bytes allocated by the measurement itself, to subtract from a measurement */
+    private long measurementOverhead() {
+        long before = allocatedBytes();
+        long after = allocatedBytes();
+        return after - before;
+    }
+
+    private static void traceRays(TraceContext context, Scene scene, float[] headings) {
+        Ray ray = context.getRay(0);
+        Color color = context.getSampleColor();
+        for (int i = 0; i < headings.length; i += 3) {
+            ray.getOrigin().set(-7, 4, -15);
+            ray.getHeading().set(headings[i], headings[i + 1], headings[i + 2]);
+            color.set(0, 0, 0);
+            scene.query(context, ray, color);
+        }
+    }
+
+    @Test
+    public void queryDoesNotAllocate() {
+        Random random = new Random(1);
+        float[] headings = new float[3 * RAYS];
+        Vector3 heading = new Vector3();
+        for (int i = 0; i < RAYS; i++) {
+            // roughly towards the scene center, so most rays hit something and spawn secondary rays
+            heading.set(7 + random.nextFloat() * 10 - 5, -6 + random.nextFloat() * 8 - 4, 15);
+            Vector3.normalize(heading, heading);
+            headings[3 * i] = heading.x;
+            headings[3 * i + 1] = heading.y;
+            headings[3 * i + 2] = heading.z;
+        }
+
+        Scene[] scenes = { new StackedShapeScene(), new MazeScene(), new MaterialTestScene() };
+        TraceContext context = new TraceContext();
+
+        for (int i = 0; i < 5; i++) {
+            for (Scene scene : scenes) {
+                traceRays(context, scene, headings);
+            }
+        }
+
+        for (Scene scene : scenes) {
+            long overhead = measurementOverhead();
+            long before = allocatedBytes();
+            traceRays(context, scene, headings);
+            long allocated = allocatedBytes() - before - overhead;
+
+            Assert.assertEquals("bytes allocated for " + RAYS + " rays in " + scene.getClass().getSimpleName(),
+                    0, allocated);
+        }
+    }
+
+    private static void renderPasses(List<RenderTile> tiles, TraceContext context, Scene scene,
+                                     FrameEpoch.Token epoch) {
+        // an indexed loop, since an iterator would be the only allocation here
+        for (int resFactor = 0; resFactor <= 2; resFactor++) {
+            for (int i = 0; i < tiles.size(); i++) {
+                tiles.get(i).render(context, scene, resFactor, epoch);
+            }
+        }
+    }
+
+    @Test
+    public void renderTileDoesNotAllocate() {
+        FrameBuffer frameBuffer = new FrameBuffer() {
+            @Override
+            public int getFrameWidth() { return 128; }
+
+            @Override
+            public int getFrameHeight() { return 128; }
+
+            @Override
+            public void resizeFrameBuffer(int width, int height) { }
+
+            @Override
+            public void write(int x, int y, int w, int h, int[] data) { }
+        };
+
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        Scene scene = new StackedShapeScene();
+        TraceContext context = new TraceContext();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+
+        // warm up long enough for the JIT to settle, a deoptimization while measuring re-materializes objects that
+        // escape analysis had removed, and other tests may have trained the render path on other frame buffers
+        for (int i = 0; i < 15; i++) {
+            renderPasses(camera.getRenderTiles(frameBuffer), context, scene, epoch);
+        }
+
+        // tiles keep their samples between passes, so the measured passes need fresh tiles
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        long overhead = measurementOverhead();
+        long before = allocatedBytes();
+        renderPasses(tiles, context, scene, epoch);
+        long allocated = allocatedBytes() - before - overhead;
+
+        Assert.assertEquals("bytes allocated rendering " + tiles.size() + " tiles", 0, allocated);
+    }
+}
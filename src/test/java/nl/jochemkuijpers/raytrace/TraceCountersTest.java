@@ -0,0 +1,66 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceCountersTest {
+
+    @Test
+    public void tilesAreCountedPerPassAndLatency() {
+        TraceCounters counters = new TraceContext().getCounters();
+        counters.countTile(1, true, 5000);
+        counters.countTile(1, true, 7999);
+        counters.countTile(100, false, 0);
+
+        Assert.assertEquals(2, counters.getTilesCompleted(1));
+        Assert.assertEquals(0, counters.getTilesCancelled(1));
+        // 5 and 7 microseconds are both in [4, 8)
+        Assert.assertEquals(2, counters.getTileLatencies(1, 3));
+        // passes beyond the last are added to the last
+        Assert.assertEquals(1, counters.getTilesCancelled(TraceCounters.MAX_PASSES - 1));
+        Assert.assertEquals(1, counters.getTileLatencies(TraceCounters.MAX_PASSES - 1, 0));
+    }
+
+    @Test
+    public void totalIncludesThreadsThatHaveDied() throws InterruptedException {
+        int type = TraceCounters.getShapeType("TraceCountersTest");
+        long before = TraceCounters.total().getIntersectionTests(type);
+
+        Thread thread = new Thread(() -> {
+            TraceCounters counters = TraceContext.forCurrentThread().getCounters();
+            for (int i = 0; i < 10; i++) {
+                counters.countIntersection(type, i % 2 == 0);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        // once to retire the counters of the dead thread, once more to see they are kept
+        Assert.assertEquals(before + 10, TraceCounters.total().getIntersectionTests(type));
+        Assert.assertEquals(before + 10, TraceCounters.total().getIntersectionTests(type));
+    }
+
+    @Test
+    public void renderingCountsRaysAndIntersections() {
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        RenderTile tile = camera.getRenderTiles(new MemoryFrameBuffer(64, 64)).get(0);
+        TraceContext context = new TraceContext();
+        TraceCounters counters = context.getCounters();
+
+        Assert.assertTrue(tile.render(context, new StackedShapeScene(), 1, new FrameEpoch().current()));
+
+        // one camera ray per pixel of the tile
+        Assert.assertEquals(64 * 64, counters.getPrimaryRays());
+        Assert.assertTrue(counters.getShadowRays() > 0);
+        for (String name : new String[] { "Sphere", "Plane", "BoundingVolume" }) {
+            int type = TraceCounters.getShapeType(name);
+            Assert.assertTrue(name, counters.getIntersectionTests(type) > 0);
+            Assert.assertTrue(name, counters.getIntersectionHits(type) <= counters.getIntersectionTests(type));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package nl.jochemkuijpers.raytrace;
+
+import nl.jochemkuijpers.app.scenes.MaterialTestScene;
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.renderer.AdaptiveSampling;
+import nl.jochemkuijpers.raytrace.renderer.FrameEpoch;
+import nl.jochemkuijpers.raytrace.renderer.GBuffer;
+import nl.jochemkuijpers.raytrace.renderer.MemoryFrameBuffer;
+import nl.jochemkuijpers.raytrace.renderer.RenderTile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class WavefrontTest {
+
+    @Test
+    public void samplesMatchDepthFirstQueries() {
+        Random random = new Random(3);
+        TraceContext context = new TraceContext();
+        Wavefront wavefront = context.getWavefront();
+        Ray ray = new Ray(0);
+        Color expected = new Color();
+        Color actual = new Color();
+
+        for (Scene scene : new Scene[] { new StackedShapeScene(), new MaterialTestScene() }) {
+            float[] headings = new float[3 * Wavefront.BATCH_SIZE];
+            wavefront.clear();
+            while (!wavefront.isFull()) {
+                // roughly towards the scene center, so most rays hit something and spawn secondary rays
+                ray.getOrigin().set(-7, 4, -15);
+                ray.getHeading().set(7 + random.nextFloat() * 10 - 5, -6 + random.nextFloat() * 8 - 4, 15);
+                Vector3.normalize(ray.getHeading(), ray.getHeading());
+                int sample = wavefront.size();
+                headings[3 * sample] = ray.getHeading().x;
+                headings[3 * sample + 1] = ray.getHeading().y;
+                headings[3 * sample + 2] = ray.getHeading().z;
+                wavefront.addCameraRay(sample, ray);
+            }
+            wavefront.trace(context, scene);
+
+            for (int sample = 0; sample < wavefront.size(); sample++) {
+                Assert.assertEquals(sample, wavefront.getTag(sample));
+                ray.getOrigin().set(-7, 4, -15);
+                ray.getHeading().set(headings[3 * sample], headings[3 * sample + 1], headings[3 * sample + 2]);
+                expected.set(0, 0, 0);
+                scene.query(context, ray, expected);
+                Hit hit = context.getHit(0);
+
+                wavefront.getColor(sample, actual);
+                Assert.assertEquals(expected.x, actual.x, 1e-5f);
+                Assert.assertEquals(expected.y, actual.y, 1e-5f);
+                Assert.assertEquals(expected.z, actual.z, 1e-5f);
+                Assert.assertEquals(hit.distance, wavefront.getDistance(sample), 0f);
+                Assert.assertEquals(hit.isHit() && hit.shape.isViewDependent(hit), wavefront.isViewDependent(sample));
+            }
+        }
+    }
+
+    @Test
+    public void renderTileMatchesDepthFirstTracing() {
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        Scene scene = new StackedShapeScene();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        int[][] pixels = new int[3][];
+
+        for (int mode = 0; mode < 3; mode++) {
+            MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(96, 80);
+            // the last mode shades the hits the first pass cached in a G-buffer
+            GBuffer gBuffer = mode == 2 ? new GBuffer(96, 80) : null;
+            for (RenderTile tile : camera.getRenderTiles(frameBuffer, gBuffer)) {
+                tile.setWavefront(mode != 0);
+                // the second pass has more samples than fit in a batch, and the third one has adaptive samples
+                Assert.assertTrue(tile.render(new TraceContext(), scene, 1, AdaptiveSampling.UNIFORM, epoch));
+                Assert.assertTrue(tile.render(new TraceContext(), scene, 2, AdaptiveSampling.UNIFORM, epoch));
+                Assert.assertTrue(tile.render(new TraceContext(), scene, 3, AdaptiveSampling.DEFAULT, epoch));
+            }
+            pixels[mode] = frameBuffer.getPixels().clone();
+        }
+
+        for (int mode = 1; mode < 3; mode++) {
+            for (int i = 0; i < pixels[0].length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int expected = pixels[0][i] >> shift & 0xFF;
+                    int actual = pixels[mode][i] >> shift & 0xFF;
+                    Assert.assertTrue("mode " + mode + " pixel " + i, Math.abs(expected - actual) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void sunShadowsAreLookedUpInTheShadowMap() throws InterruptedException {
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        StackedShapeScene scene = new StackedShapeScene();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        long[] shadowRays = new long[2];
+
+        for (int mapped = 0; mapped < 2; mapped++) {
+            if (mapped == 1) {
+                scene.setShadowMapResolution(512);
+                Assert.assertNotNull(scene.awaitShadowMap());
+            }
+            TraceContext context = new TraceContext();
+            for (RenderTile tile : camera.getRenderTiles(new MemoryFrameBuffer(96, 80))) {
+                tile.setWavefront(true);
+                Assert.assertTrue(tile.render(context, scene, 1, AdaptiveSampling.UNIFORM, epoch));
+            }
+            shadowRays[mapped] = context.getCounters().getShadowRays();
+        }
+
+        // the map answers most of the shadow rays towards the sun, only the few points it is unsure about are traced
+        Assert.assertTrue(shadowRays[0] > 1000);
+        Assert.assertTrue(shadowRays[1] < shadowRays[0] / 2);
+    }
+}
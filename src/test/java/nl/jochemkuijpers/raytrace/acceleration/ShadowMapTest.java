@@ -0,0 +1,125 @@
+package nl.jochemkuijpers.raytrace.acceleration;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Sphere;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShadowMapTest {
+
+    private static ShapeHierarchy hierarchy(Shape... shapes) {
+        return new ShapeHierarchy(Arrays.asList(shapes), new ArrayList<>());
+    }
+
+    /** @return a point just off a surface, as diffuse shading asks about */
+    private static Vector3 offSurface(Vector3 position, Vector3 normal) {
+        Vector3 point = new Vector3();
+        Vector3.addMul(position, normal, 1e-3f, point);
+        return point;
+    }
+
+    @Test
+    public void slantedSunCastsTheShadowAlongIt() {
+        ShapeHierarchy hierarchy = hierarchy(new Box(new Vector3(0, 5, 0), 1, new SimpleMaterial(Color.WHITE)));
+        Vector3 sun = new Vector3(1, 1, 0);
+        Vector3.normalize(sun, sun);
+        ShadowMap map = new ShadowMap(hierarchy, sun, 128);
+        Assert.assertTrue(map.isFor(sun));
+
+        // the shadow of the center of the box falls on the ground at x = -5, none of it falls at x = 5
+        Vector3 shadowed = offSurface(new Vector3(-5, 0, 0.25f), Vector3.YIDENT);
+        Vector3 lit = offSurface(new Vector3(5, 0, 0.25f), Vector3.YIDENT);
+        Assert.assertEquals(ShadowMap.Visibility.SHADOWED, map.lookup(shadowed, Vector3.YIDENT, 22));
+        Assert.assertEquals(ShadowMap.Visibility.LIT, map.lookup(lit, Vector3.YIDENT, 22));
+
+        // the same answers as the shadow rays
+        TraceContext context = new TraceContext();
+        Assert.assertTrue(hierarchy.occludes(context, new Ray(0, shadowed, sun), 22));
+        Assert.assertFalse(hierarchy.occludes(context, new Ray(0, lit, sun), 22));
+    }
+
+    @Test
+    public void surfacesDoNotShadowThemselves() {
+        ShapeHierarchy hierarchy = hierarchy(
+                new Box(new Vector3(0, 5, 0), 1, new SimpleMaterial(Color.WHITE)),
+                new Sphere(new Vector3(10, 0, 0), 2, new SimpleMaterial(Color.WHITE)));
+        ShadowMap map = new ShadowMap(hierarchy, Vector3.YIDENT, 256);
+
+        Assert.assertEquals(ShadowMap.Visibility.LIT,
+                map.lookup(offSurface(new Vector3(0, 6, 0.25f), Vector3.YIDENT), Vector3.YIDENT, 22));
+
+        // the curved top of the sphere, down to where the sun is too low for the map to answer
+        int lit = 0;
+        for (int i = 0; i < 100; i++) {
+            double polar = Math.acos(0.2) * i / 100;
+            double azimuth = 2.4 * i;
+            Vector3 normal = new Vector3((float) (Math.sin(polar) * Math.cos(azimuth)), (float) Math.cos(polar),
+                    (float) (Math.sin(polar) * Math.sin(azimuth)));
+            Vector3 position = new Vector3();
+            Vector3.addMul(new Vector3(10, 0, 0), normal, 2, position);
+            ShadowMap.Visibility visibility = map.lookup(offSurface(position, normal), normal, 22);
+            Assert.assertNotEquals(ShadowMap.Visibility.SHADOWED, visibility);
+            lit += visibility == ShadowMap.Visibility.LIT ? 1 : 0;
+        }
+        Assert.assertTrue(lit > 90);
+    }
+
+    @Test
+    public void grazingSurfacesAndShadowEdgesAreTraced() {
+        ShapeHierarchy hierarchy = hierarchy(new Box(new Vector3(0, 5, 0), 1, new SimpleMaterial(Color.WHITE)));
+        ShadowMap map = new ShadowMap(hierarchy, Vector3.YIDENT, 64);
+
+        // right below the edge of the box, the texels on either side disagree
+        Assert.assertEquals(ShadowMap.Visibility.UNKNOWN, map.lookup(new Vector3(1, 0, 0.25f), Vector3.YIDENT, 22));
+        Assert.assertEquals(ShadowMap.Visibility.SHADOWED,
+                map.lookup(new Vector3(0.5f, 0, 0.25f), Vector3.YIDENT, 22));
+
+        // a surface that the sun hits at a low angle
+        Vector3 grazing = new Vector3(1, 0.1f, 0);
+        Vector3.normalize(grazing, grazing);
+        Assert.assertEquals(ShadowMap.Visibility.UNKNOWN, map.lookup(new Vector3(5, 0, 0), grazing, 22));
+    }
+
+    @Test
+    public void pointsBeyondTheShapesAreLit() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Box(new Vector3(0, 5, 0), 1, new SimpleMaterial(Color.WHITE)));
+        ShapeHierarchy hierarchy = new ShapeHierarchy(shapes, new ArrayList<>());
+        ShadowMap map = new ShadowMap(hierarchy, Vector3.YIDENT, 64);
+
+        Assert.assertEquals(ShadowMap.Visibility.SHADOWED, map.lookup(new Vector3(0, 0, 0), Vector3.YIDENT, 22));
+        Assert.assertEquals(ShadowMap.Visibility.LIT, map.lookup(new Vector3(10, 0, 0), Vector3.YIDENT, 22));
+        Assert.assertEquals(ShadowMap.Visibility.LIT, map.lookup(new Vector3(0, 10, 0), Vector3.YIDENT, 22));
+        // the box is out of reach of the shadow ray, but something else could be below it
+        Assert.assertEquals(ShadowMap.Visibility.UNKNOWN, map.lookup(new Vector3(0, 0, 0), Vector3.YIDENT, 2));
+    }
+
+    @Test(timeout = 20000)
+    public void scenesBuildTheMapOfANewSunInTheBackground() throws InterruptedException {
+        StackedShapeScene scene = new StackedShapeScene();
+        Assert.assertNull(scene.awaitShadowMap());
+
+        scene.setShadowMapResolution(64);
+        ShadowMap first = scene.awaitShadowMap();
+        Assert.assertNotNull(first);
+        Assert.assertSame(first, scene.getShadowMap());
+
+        // the map of the old sun is gone right away, the one of the new sun follows
+        scene.rotateSun(0.5f);
+        Assert.assertNotSame(first, scene.getShadowMap());
+        ShadowMap second = scene.awaitShadowMap();
+        Assert.assertNotNull(second);
+        Assert.assertNotSame(first, second);
+    }
+}
@@ -0,0 +1,145 @@
+package nl.jochemkuijpers.raytrace.acceleration;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Plane;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Sphere;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ShapeHierarchyTest {
+
+    private static Vector3 randomVector(Random random, float scale) {
+        return new Vector3(
+                (random.nextFloat() * 2 - 1) * scale,
+                (random.nextFloat() * 2 - 1) * scale,
+                (random.nextFloat() * 2 - 1) * scale
+        );
+    }
+
+    private static List<Shape> randomShapes(Random random, int count) {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            SimpleMaterial material = new SimpleMaterial(Color.WHITE);
+            if (i % 2 == 0) {
+                shapes.add(new Sphere(randomVector(random, 20), 0.2f + random.nextFloat(), material));
+            } else {
+                shapes.add(new Box(randomVector(random, 20), 0.2f + random.nextFloat(), material));
+            }
+        }
+        return shapes;
+    }
+
+    @Test
+    public void unboundedShapesAreKeptOut() {
+        List<Shape> shapes = randomShapes(new Random(1), 10);
+        Shape plane = new Plane(new Vector3(), Vector3.YIDENT, new SimpleMaterial(Color.WHITE));
+        Shape sky = new Sphere(new Vector3(), 1000000, new SimpleMaterial(Color.WHITE));
+        shapes.add(plane);
+        shapes.add(sky);
+
+        List<Shape> unbounded = new ArrayList<>();
+        ShapeHierarchy hierarchy = new ShapeHierarchy(shapes, unbounded);
+
+        Assert.assertEquals(10, hierarchy.size());
+        Assert.assertEquals(2, unbounded.size());
+        Assert.assertTrue(unbounded.contains(plane));
+        Assert.assertTrue(unbounded.contains(sky));
+    }
+
+    @Test
+    public void closestHitMatchesLinearScan() {
+        Random random = new Random(42);
+        List<Shape> shapes = randomShapes(random, 500);
+        ShapeHierarchy hierarchy = new ShapeHierarchy(shapes, new ArrayList<>());
+        TraceContext context = new TraceContext();
+
+        for (int i = 0; i < 10000; i++) {
+            Vector3 heading = randomVector(random, 1);
+            Vector3.normalize(heading, heading);
+            Ray ray = new Ray(0, randomVector(random, 30), heading);
+
+            Hit expected = new Hit();
+            for (Shape shape : shapes) {
+                shape.intersect(context, ray, expected);
+            }
+
+            Hit actual = new Hit();
+            boolean hit = hierarchy.intersect(context, ray, actual);
+            Assert.assertEquals(expected.isHit(), hit);
+            Assert.assertSame(expected.shape, actual.shape);
+            Assert.assertEquals(expected.distance, actual.distance, 0f);
+        }
+    }
+
+    @Test
+    public void closestHitStaysWithinTheIntervalOfTheRay() {
+        Random random = new Random(3);
+        List<Shape> shapes = randomShapes(random, 500);
+        ShapeHierarchy hierarchy = new ShapeHierarchy(shapes, new ArrayList<>());
+        TraceContext context = new TraceContext();
+
+        int hits = 0;
+        for (int i = 0; i < 10000; i++) {
+            Vector3 heading = randomVector(random, 1);
+            Vector3.normalize(heading, heading);
+            Ray ray = new Ray(0, randomVector(random, 30), heading);
+            float minDistance = random.nextFloat() * 20;
+            float maxDistance = minDistance + random.nextFloat() * 20;
+            ray.setInterval(minDistance, maxDistance);
+
+            // the same segment, as a ray that starts at the beginning of the interval
+            Vector3 start = new Vector3();
+            Vector3.addMul(ray.getOrigin(), heading, minDistance, start);
+            Ray segment = new Ray(0, start, heading);
+            Hit expected = new Hit();
+            expected.distance = maxDistance - minDistance;
+            for (Shape shape : shapes) {
+                shape.intersect(context, segment, expected);
+            }
+
+            Hit actual = new Hit();
+            actual.distance = maxDistance;
+            boolean hit = hierarchy.intersect(context, ray, actual);
+            Assert.assertEquals(expected.isHit(), hit);
+            if (hit) {
+                hits++;
+                Assert.assertSame(expected.shape, actual.shape);
+                Assert.assertEquals(minDistance + expected.distance, actual.distance, 1e-3f);
+            }
+        }
+        Assert.assertTrue(hits > 300);
+    }
+
+    @Test
+    public void occlusionMatchesLinearScan() {
+        Random random = new Random(7);
+        List<Shape> shapes = randomShapes(random, 500);
+        ShapeHierarchy hierarchy = new ShapeHierarchy(shapes, new ArrayList<>());
+        TraceContext context = new TraceContext();
+
+        for (int i = 0; i < 10000; i++) {
+            Vector3 heading = randomVector(random, 1);
+            Vector3.normalize(heading, heading);
+            Ray ray = new Ray(0, randomVector(random, 30), heading);
+            float maxDistance = random.nextFloat() * 20;
+
+            boolean expected = false;
+            for (Shape shape : shapes) {
+                expected |= shape.occludes(context, ray, maxDistance);
+            }
+
+            Assert.assertEquals(expected, hierarchy.occludes(context, ray, maxDistance));
+        }
+    }
+}
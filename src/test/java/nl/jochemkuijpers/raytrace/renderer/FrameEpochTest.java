@@ -0,0 +1,70 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class FrameEpochTest {
+
+    private static class CountingFrameBuffer implements FrameBuffer {
+        int writes = 0;
+
+        @Override
+        public int getFrameWidth() { return 64; }
+
+        @Override
+        public int getFrameHeight() { return 64; }
+
+        @Override
+        public void resizeFrameBuffer(int width, int height) { }
+
+        @Override
+        public void write(int x, int y, int w, int h, int[] data) {
+            writes++;
+        }
+    }
+
+    @Test
+    public void advanceMakesEarlierTokensStale() {
+        FrameEpoch frameEpoch = new FrameEpoch();
+        FrameEpoch.Token first = frameEpoch.current();
+        Assert.assertTrue(first.isCurrent());
+
+        FrameEpoch.Token second = frameEpoch.advance();
+        Assert.assertFalse(first.isCurrent());
+        Assert.assertTrue(second.isCurrent());
+        Assert.assertTrue(frameEpoch.current().isCurrent());
+    }
+
+    @Test
+    public void staleWritesAreRejected() {
+        FrameEpoch frameEpoch = new FrameEpoch();
+        CountingFrameBuffer frameBuffer = new CountingFrameBuffer();
+        FrameEpoch.Token token = frameEpoch.current();
+
+        Assert.assertTrue(token.write(frameBuffer, 0, 0, 1, 1, new int[1]));
+        frameEpoch.advance();
+        Assert.assertFalse(token.write(frameBuffer, 0, 0, 1, 1, new int[1]));
+        Assert.assertEquals(1, frameBuffer.writes);
+    }
+
+    @Test
+    public void staleTilesDoNotRender() {
+        FrameEpoch frameEpoch = new FrameEpoch();
+        CountingFrameBuffer frameBuffer = new CountingFrameBuffer();
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+
+        FrameEpoch.Token token = frameEpoch.current();
+        frameEpoch.advance();
+        for (RenderTile tile : tiles) {
+            tile.render(new TraceContext(), new StackedShapeScene(), 4, token);
+        }
+        Assert.assertEquals(0, frameBuffer.writes);
+    }
+}
@@ -0,0 +1,65 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameHistoryTest {
+
+    @Test
+    public void reprojectionIsCloseToARenderOfTheNewView() {
+        Scene scene = new StackedShapeScene();
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        CameraController controller = new CameraController(camera, 25, new Vector3(0, -2, 0));
+        controller.setInitialCamera();
+
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(160, 90);
+        FrameHistory history = new FrameHistory(camera, 160, 90);
+        render(camera, frameBuffer, scene, history, 1);
+
+        controller.move(1, 0);
+        FrameHistory reprojected = history.reproject(camera);
+        Assert.assertTrue(reprojected.isReprojected());
+        Assert.assertTrue(reprojected.getCoverage() > 0.5f);
+
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : camera.getRenderTiles(frameBuffer)) {
+            Assert.assertTrue(tile.renderRepair(new TraceContext(), scene, reprojected, epoch));
+        }
+        int[] repaired = frameBuffer.getPixels();
+
+        render(camera, frameBuffer, scene, null, 1);
+        int[] expected = frameBuffer.getPixels();
+
+        int different = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (maxChannelDifference(repaired[i], expected[i]) > 24) {
+                different++;
+            }
+        }
+        // only the odd pixel whose hit moved to the next pixel over, along the edges of shapes
+        Assert.assertTrue(different + " pixels differ", different < expected.length / 20);
+    }
+
+    private static void render(Camera camera, MemoryFrameBuffer frameBuffer, Scene scene, FrameHistory history,
+                               int resFactor) {
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : camera.getRenderTiles(frameBuffer)) {
+            Assert.assertTrue(tile.render(new TraceContext(), scene, resFactor, AdaptiveSampling.UNIFORM, history,
+                    epoch));
+        }
+    }
+
+    private static int maxChannelDifference(int a, int b) {
+        int difference = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            difference = Math.max(difference, Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)));
+        }
+        return difference;
+    }
+}
@@ -0,0 +1,103 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.CameraController;
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class GBufferTest {
+
+    @Test
+    public void shadingCachedHitsMatchesTracing() {
+        StackedShapeScene scene = new StackedShapeScene();
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        new CameraController(camera, 25, new Vector3(0, -2, 0)).setInitialCamera();
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(96, 64);
+        GBuffer gBuffer = new GBuffer(96, 64);
+
+        TraceContext filling = new TraceContext();
+        int[] filled = render(camera, scene, frameBuffer, gBuffer, filling);
+        TraceContext tracing = new TraceContext();
+        int[] traced = render(camera, scene, frameBuffer, null, tracing);
+        Assert.assertArrayEquals(traced, filled);
+
+        // only the shading changes, the cached hits still apply
+        scene.rotateSun((float) Math.toRadians(40));
+        TraceContext shading = new TraceContext();
+        int[] shaded = render(camera, scene, frameBuffer, gBuffer, shading);
+        int[] expected = render(camera, scene, frameBuffer, null, new TraceContext());
+        Assert.assertArrayEquals(expected, shaded);
+        Assert.assertFalse(Arrays.equals(traced, shaded));
+
+        Assert.assertEquals(filling.getCounters().getIntersectionTests(),
+                tracing.getCounters().getIntersectionTests());
+        Assert.assertTrue(shading.getCounters().getIntersectionTests()
+                < tracing.getCounters().getIntersectionTests());
+        // shading a cached hit does not trace a camera ray
+        Assert.assertEquals(tracing.getCounters().getPrimaryRays(), filling.getCounters().getPrimaryRays());
+        Assert.assertEquals(0, shading.getCounters().getPrimaryRays());
+    }
+
+    @Test
+    public void coarsePassShadesCachedHits() {
+        StackedShapeScene scene = new StackedShapeScene();
+        Camera camera = new Camera(new Vector3(), new Vector3(), Vector3.YIDENT, 90);
+        new CameraController(camera, 25, new Vector3(0, -2, 0)).setInitialCamera();
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(96, 64);
+        GBuffer gBuffer = new GBuffer(96, 64);
+        render(camera, scene, frameBuffer, gBuffer, new TraceContext(), 1);
+
+        scene.rotateSun((float) Math.toRadians(40));
+        TraceContext shading = new TraceContext();
+        int[] shaded = render(camera, scene, frameBuffer, gBuffer, shading, 0);
+        // an empty G-buffer has the patches trace the same rays
+        TraceContext tracing = new TraceContext();
+        int[] expected = render(camera, scene, frameBuffer, new GBuffer(96, 64), tracing, 0);
+        Assert.assertArrayEquals(expected, shaded);
+        Assert.assertTrue(shading.getCounters().getIntersectionTests()
+                < tracing.getCounters().getIntersectionTests());
+    }
+
+    @Test
+    public void staleEpochsDoNotStoreHits() {
+        FrameEpoch frameEpoch = new FrameEpoch();
+        FrameEpoch.Token stale = frameEpoch.current();
+        frameEpoch.advance();
+
+        Ray ray = new Ray(0);
+        ray.getHeading().set(0, 0, 1);
+        Hit hit = new Hit();
+        hit.distance = 2;
+        GBuffer gBuffer = new GBuffer(4, 4);
+        gBuffer.store(1, 1, ray, hit, stale);
+        Assert.assertFalse(gBuffer.load(1, 1, new Hit()));
+
+        gBuffer.store(1, 1, ray, hit, frameEpoch.current());
+        Hit loaded = new Hit();
+        Assert.assertTrue(gBuffer.load(1, 1, loaded));
+        Assert.assertEquals(2, loaded.distance, 0f);
+        Assert.assertEquals(2, loaded.position.z, 0f);
+    }
+
+    private static int[] render(Camera camera, Scene scene, MemoryFrameBuffer frameBuffer, GBuffer gBuffer,
+                                TraceContext context) {
+        return render(camera, scene, frameBuffer, gBuffer, context, 1);
+    }
+
+    private static int[] render(Camera camera, Scene scene, MemoryFrameBuffer frameBuffer, GBuffer gBuffer,
+                                TraceContext context, int resFactor) {
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : camera.getRenderTiles(frameBuffer, gBuffer)) {
+            Assert.assertTrue(tile.render(context, scene, resFactor, epoch));
+        }
+        return frameBuffer.getPixels();
+    }
+}
@@ -0,0 +1,89 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HeatmapTest {
+
+    @Test
+    public void colorsRunFromDarkBlueToWhite() {
+        Assert.assertEquals(0xFF000080, CostMetric.RAYS.toColor(0));
+        Assert.assertEquals(0xFF000080, CostMetric.RAYS.toColor(1));
+        Assert.assertEquals(0xFFFFFFFF, CostMetric.RAYS.toColor(64));
+        Assert.assertEquals(0xFFFFFFFF, CostMetric.RAYS.toColor(1000));
+        // the scale is logarithmic, 8 rays are halfway, between cyan and yellow
+        Assert.assertEquals(0xFF80FF80, CostMetric.RAYS.toColor(8));
+    }
+
+    @Test
+    public void heatmapMeasuresEveryTile() throws IOException {
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(128, 64);
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        StackedShapeScene scene = new StackedShapeScene();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+
+        List<TileCost> costs = new ArrayList<>();
+        for (RenderTile tile : tiles) {
+            Assert.assertNull(tile.getCost());
+            Assert.assertTrue(tile.renderHeatmap(new TraceContext(), scene, CostMetric.RAYS, epoch));
+            costs.add(tile.getCost());
+        }
+
+        for (TileCost cost : costs) {
+            // at least the camera ray of every pixel
+            Assert.assertTrue(cost.getRays() >= cost.getWidth() * cost.getHeight());
+            Assert.assertTrue(cost.getNanos() > 0);
+            Assert.assertTrue(cost.getIntersectionTests() > 0);
+        }
+
+        StringWriter csv = new StringWriter();
+        TileCost.writeCsv(costs, csv);
+        String[] lines = csv.toString().split("\n");
+        Assert.assertEquals(tiles.size() + 1, lines.length);
+        Assert.assertTrue(lines[0].startsWith("x,y,width,height,nanos,"));
+    }
+
+    @Test
+    public void cancelledHeatmapsLeaveNoCost() {
+        // a single row of pixels, so the epoch only passes once the last row is being traced
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(16, 1);
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        RenderTile tile = camera.getRenderTiles(frameBuffer).get(0);
+        FrameEpoch frameEpoch = new FrameEpoch();
+        StackedShapeScene stacked = new StackedShapeScene();
+        Scene scene = new Scene() {
+            @Override
+            public float query(TraceContext context, Ray ray, Color out) {
+                frameEpoch.advance();
+                return stacked.query(context, ray, out);
+            }
+
+            @Override
+            public boolean intersect(TraceContext context, Ray ray, Hit hit) {
+                return stacked.intersect(context, ray, hit);
+            }
+
+            @Override
+            public boolean occluded(TraceContext context, Vector3 origin, Vector3 heading, float maxDistance) {
+                return stacked.occluded(context, origin, heading, maxDistance);
+            }
+        };
+
+        Assert.assertFalse(tile.renderHeatmap(new TraceContext(), scene, CostMetric.RAYS, frameEpoch.current()));
+        Assert.assertNull(tile.getCost());
+    }
+}
@@ -0,0 +1,149 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.Scene;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.workerpool.JobScheduler;
+import nl.jochemkuijpers.workerpool.WorkStealingPool;
+import nl.jochemkuijpers.workerpool.WorkerStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PassPipelineTest {
+
+    @Test(timeout = 20000)
+    public void everyTileRunsEveryPass() throws InterruptedException {
+        // one write for the first pass, and an outline plus the result for every later pass, of 6 tiles
+        CountDownLatch expected = new CountDownLatch(5 * 6);
+        AtomicInteger writes = new AtomicInteger();
+        FrameBuffer frameBuffer = new FrameBuffer() {
+            @Override
+            public int getFrameWidth() { return 160; }
+
+            @Override
+            public int getFrameHeight() { return 90; }
+
+            @Override
+            public void resizeFrameBuffer(int width, int height) { }
+
+            @Override
+            public void write(int x, int y, int w, int h, int[] data) {
+                writes.incrementAndGet();
+                expected.countDown();
+            }
+        };
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        Assert.assertEquals(6, tiles.size());
+
+        WorkStealingPool pool = new WorkStealingPool(2);
+        try {
+            new PassPipeline(pool, new int[] { 0, 1, 2 }, AdaptiveSampling.DEFAULT)
+                    .start(tiles, new StackedShapeScene(), new FrameEpoch().current());
+            expected.await();
+        } finally {
+            // running jobs finish, queued ones stay queued
+            pool.shutdown();
+            pool.awaitTermination();
+        }
+        // a pass that ran twice wrote more, and a pass that was submitted after the last one is still queued
+        Assert.assertEquals(5 * 6, writes.get());
+        Assert.assertFalse(pool.hasWork());
+    }
+
+    @Test(timeout = 20000)
+    public void everyPassRendersItsTilesInPriorityOrder() {
+        Map<String, RenderTile> tilesByPosition = new HashMap<>();
+        List<RenderTile> rendered = new ArrayList<>();
+        RenderTile[] current = new RenderTile[1];
+        FrameBuffer frameBuffer = new FrameBuffer() {
+            @Override
+            public int getFrameWidth() { return 160; }
+
+            @Override
+            public int getFrameHeight() { return 90; }
+
+            @Override
+            public void resizeFrameBuffer(int width, int height) { }
+
+            @Override
+            public void write(int x, int y, int w, int h, int[] data) {
+                if (current[0] != null) {
+                    tilesByPosition.put(x + "," + y, current[0]);
+                } else {
+                    RenderTile tile = tilesByPosition.get(x + "," + y);
+                    if (rendered.isEmpty() || rendered.get(rendered.size() - 1) != tile) {
+                        rendered.add(tile);
+                    }
+                }
+            }
+        };
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        Scene scene = new StackedShapeScene();
+
+        // find out where every tile writes
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : tiles) {
+            current[0] = tile;
+            tile.render(new TraceContext(), scene, 0, epoch);
+        }
+        current[0] = null;
+
+        // a scheduler that starts the jobs of a level in the reverse order of their submission
+        List<List<Runnable>> levels = new ArrayList<>();
+        JobScheduler reversing = new JobScheduler() {
+            @Override
+            public void submit(Runnable job) { submit(job, 0); }
+
+            @Override
+            public void submit(Runnable job, int level) {
+                while (levels.size() <= level) {
+                    levels.add(new ArrayList<>());
+                }
+                levels.get(level).add(job);
+            }
+
+            @Override
+            public void submitAll(Collection<? extends Runnable> jobs) { jobs.forEach(this::submit); }
+
+            @Override
+            public boolean hasWork() { return levels.stream().anyMatch(level -> !level.isEmpty()); }
+
+            @Override
+            public void clearPendingJobs() { levels.clear(); }
+
+            @Override
+            public WorkerStatistics getStatistics() { return null; }
+
+            @Override
+            public void shutdownNow() { }
+        };
+        new PassPipeline(reversing, new int[] { 0, 1, 2 }, AdaptiveSampling.DEFAULT).start(tiles, scene, epoch);
+        for (int level = 0; level < levels.size(); level++) {
+            List<Runnable> jobs = levels.get(level);
+            while (!jobs.isEmpty()) {
+                jobs.remove(jobs.size() - 1).run();
+            }
+        }
+
+        // every pass writes its tiles in priority order; ties may go either way
+        Assert.assertEquals(3 * tiles.size(), rendered.size());
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 1; i < tiles.size(); i++) {
+                Assert.assertTrue(rendered.get(pass * tiles.size() + i - 1).getPriority()
+                        <= rendered.get(pass * tiles.size() + i).getPriority());
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.math.Color;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SampleStoreTest {
+
+    @Test
+    public void firstSampleIsPixelCenter() {
+        Assert.assertEquals(0.5f, SampleStore.sampleX(0), 0f);
+        Assert.assertEquals(0.5f, SampleStore.sampleY(0), 0f);
+    }
+
+    @Test
+    public void samplesStayInPixelAndDoNotRepeat() {
+        int n = 64;
+        for (int i = 0; i < n; i++) {
+            float x = SampleStore.sampleX(i);
+            float y = SampleStore.sampleY(i);
+            Assert.assertTrue(x >= 0 && x < 1);
+            Assert.assertTrue(y >= 0 && y < 1);
+            for (int j = 0; j < i; j++) {
+                Assert.assertFalse(x == SampleStore.sampleX(j) && y == SampleStore.sampleY(j));
+            }
+        }
+    }
+
+    @Test
+    public void colorIsMeanOfSamples() {
+        SampleStore store = new SampleStore(2, 1);
+        Color color = new Color();
+
+        store.getColor(1, 0, color);
+        Assert.assertEquals(0f, color.x, 0f);
+
+        store.addSample(1, 0, new Color(1, 0, 0.5f));
+        store.addSample(1, 0, new Color(0, 1, 0.5f));
+        Assert.assertEquals(0, store.getSampleCount(0, 0));
+        Assert.assertEquals(2, store.getSampleCount(1, 0));
+
+        store.getColor(1, 0, color);
+        Assert.assertEquals(0.5f, color.x, 1e-6f);
+        Assert.assertEquals(0.5f, color.y, 1e-6f);
+        Assert.assertEquals(0.5f, color.z, 1e-6f);
+    }
+
+    @Test
+    public void contrastIncludesBorder() {
+        SampleStore store = new SampleStore(2, 2);
+        Color gray = new Color(0.25f, 0.25f, 0.25f);
+        for (int y = -1; y <= 2; y++) {
+            for (int x = -1; x <= 2; x++) {
+                if (x >= 0 && x < 2 && y >= 0 && y < 2) {
+                    store.addSample(x, y, gray);
+                } else {
+                    store.setBorderSample(x, y, gray);
+                }
+            }
+        }
+        store.completeBorder();
+        Assert.assertTrue(store.hasBorder());
+        Assert.assertEquals(0f, store.getContrast(0, 0), 0f);
+
+        // contrast is measured on the square root of the linear color
+        store.setBorderSample(2, 2, new Color(0.25f, 1f, 0.25f));
+        Assert.assertEquals(0f, store.getContrast(0, 0), 0f);
+        Assert.assertEquals(0.5f, store.getContrast(1, 1), 1e-6f);
+    }
+
+    @Test
+    public void standardErrorShrinksWithAgreeingSamples() {
+        SampleStore store = new SampleStore(1, 1);
+        store.addSample(0, 0, new Color(1, 1, 1));
+        Assert.assertEquals(Float.POSITIVE_INFINITY, store.getStandardError(0, 0), 0f);
+
+        store.addSample(0, 0, new Color(0, 0, 0));
+        float spread = store.getStandardError(0, 0);
+        Assert.assertEquals(0.5f, spread, 1e-6f);
+
+        store.addSample(0, 0, new Color(0.25f, 0.25f, 0.25f));
+        store.addSample(0, 0, new Color(0.25f, 0.25f, 0.25f));
+        Assert.assertTrue(store.getStandardError(0, 0) < spread);
+    }
+}
@@ -0,0 +1,91 @@
+package nl.jochemkuijpers.raytrace.renderer;
+
+import nl.jochemkuijpers.app.scenes.StackedShapeScene;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Camera;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SurfaceTest {
+
+    @Test
+    public void dirtyRegionCoversAllChanges() {
+        Surface surface = new Surface(32, 16, new int[32 * 16]);
+        Surface.Region region = surface.takeDirtyRegion();
+        Assert.assertEquals(32, region.getWidth());
+        Assert.assertEquals(16, region.getHeight());
+        Assert.assertNull(surface.takeDirtyRegion());
+
+        surface.fill(2, 3, 4, 2, 0xFF123456);
+        surface.drawOutline(20, 8, 5, 5, 0xFFFF0000);
+        region = surface.takeDirtyRegion();
+        Assert.assertEquals(2, region.getX());
+        Assert.assertEquals(3, region.getY());
+        Assert.assertEquals(23, region.getWidth());
+        Assert.assertEquals(10, region.getHeight());
+
+        Assert.assertEquals(0xFF123456, surface.getPixels()[4 * 32 + 5]);
+        Assert.assertEquals(0xFFFF0000, surface.getPixels()[12 * 32 + 22]);
+        // the inside of an outline is left alone
+        Assert.assertEquals(0, surface.getPixels()[10 * 32 + 22]);
+    }
+
+    @Test
+    public void farApartTilesAreRepaintedAsTheirBoundingBox() {
+        AtomicInteger changes = new AtomicInteger();
+        Surface surface = new Surface(256, 128, new int[256 * 128], changes::incrementAndGet);
+        int[] tile = new int[16 * 16];
+        Arrays.fill(tile, 0xFF00FF00);
+
+        // a new surface is dirty as a whole, so writes do not call the listener until it has been taken
+        surface.write(0, 0, 16, 16, tile);
+        Assert.assertEquals(0, changes.get());
+        Assert.assertEquals(256, surface.takeDirtyRegion().getWidth());
+
+        surface.write(16, 96, 16, 16, tile);
+        surface.write(224, 8, 16, 16, tile);
+        Assert.assertEquals(1, changes.get());
+
+        // a single region from the top left of one tile to the bottom right of the other
+        Surface.Region region = surface.takeDirtyRegion();
+        Assert.assertEquals(16, region.getX());
+        Assert.assertEquals(8, region.getY());
+        Assert.assertEquals(224, region.getWidth());
+        Assert.assertEquals(104, region.getHeight());
+        Assert.assertNull(surface.takeDirtyRegion());
+
+        surface.write(224, 8, 16, 16, tile);
+        Assert.assertEquals(2, changes.get());
+        region = surface.takeDirtyRegion();
+        Assert.assertEquals(224, region.getX());
+        Assert.assertEquals(16, region.getWidth());
+    }
+
+    @Test
+    public void tilesKeepWritingToTheSurfaceTheyWereMadeFor() {
+        MemoryFrameBuffer frameBuffer = new MemoryFrameBuffer(96, 64);
+        Camera camera = new Camera(new Vector3(-7, 4, -15), new Vector3(7, -6, 15), Vector3.YIDENT, 90);
+        List<RenderTile> tiles = camera.getRenderTiles(frameBuffer);
+        Surface old = frameBuffer.getSurface();
+        frameBuffer.resizeFrameBuffer(40, 30);
+
+        StackedShapeScene scene = new StackedShapeScene();
+        FrameEpoch.Token epoch = new FrameEpoch().current();
+        for (RenderTile tile : tiles) {
+            Assert.assertTrue(tile.render(new TraceContext(), scene, 0, epoch));
+            Assert.assertTrue(tile.render(new TraceContext(), scene, 1, epoch));
+        }
+
+        for (int pixel : old.getPixels()) {
+            Assert.assertNotEquals(0, pixel);
+        }
+        for (int pixel : frameBuffer.getPixels()) {
+            Assert.assertEquals(0, pixel);
+        }
+    }
+}
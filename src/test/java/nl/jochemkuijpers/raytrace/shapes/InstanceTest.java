@@ -0,0 +1,147 @@
+package nl.jochemkuijpers.raytrace.shapes;
+
+import nl.jochemkuijpers.math.AffineTransform;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Sphere;
+import nl.jochemkuijpers.raytrace.shapes.with_material.TriangleMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class InstanceTest {
+
+    private static Vector3 randomVector(Random random, float scale) {
+        return new Vector3(
+                (random.nextFloat() * 2 - 1) * scale,
+                (random.nextFloat() * 2 - 1) * scale,
+                (random.nextFloat() * 2 - 1) * scale
+        );
+    }
+
+    /**
+     * Casts random rays at both shapes, which must look the same from the outside.
+     *
+     * @param compareNormals whether to compare the normals too
+     */
+    private static void assertSameShape(Shape expected, Shape actual, boolean compareNormals) {
+        Random random = new Random(11);
+        TraceContext context = new TraceContext();
+        int hits = 0;
+        for (int i = 0; i < 10000; i++) {
+            Vector3 heading = randomVector(random, 1);
+            Vector3.normalize(heading, heading);
+            Vector3 origin = new Vector3();
+            Vector3.addMul(new Vector3(3, 1, -2), heading, -20, origin);
+            Vector3.add(origin, randomVector(random, 3), origin);
+            Ray ray = new Ray(0, origin, heading);
+
+            Hit expectedHit = new Hit();
+            Hit actualHit = new Hit();
+            boolean hit = expected.intersect(context, ray, expectedHit);
+            Assert.assertEquals(hit, actual.intersect(context, ray, actualHit));
+            Assert.assertEquals(origin.x, ray.getOrigin().x, 0f);
+            Assert.assertEquals(heading.z, ray.getHeading().z, 0f);
+
+            float maxDistance = random.nextFloat() * 30;
+            Assert.assertEquals(expected.occludes(context, ray, maxDistance),
+                    actual.occludes(context, ray, maxDistance));
+            if (!hit) {
+                continue;
+            }
+
+            hits++;
+            Assert.assertSame(actual, actualHit.shape);
+            expected.computeSurface(ray, expectedHit);
+            actual.computeSurface(ray, actualHit);
+            if (Math.abs(Vector3.dot(expectedHit.normal, heading)) < 0.1f) {
+                // the distance to a grazing hit is too sensitive to rounding errors to compare
+                continue;
+            }
+            Assert.assertEquals(expectedHit.distance, actualHit.distance, 1e-3f);
+            Assert.assertEquals(expectedHit.position.x, actualHit.position.x, 1e-3f);
+            Assert.assertEquals(expectedHit.position.y, actualHit.position.y, 1e-3f);
+            Assert.assertEquals(expectedHit.position.z, actualHit.position.z, 1e-3f);
+            if (compareNormals) {
+                // the sphere normalizes its normal approximately
+                Assert.assertEquals(expectedHit.normal.x, actualHit.normal.x, 1e-2f);
+                Assert.assertEquals(expectedHit.normal.y, actualHit.normal.y, 1e-2f);
+                Assert.assertEquals(expectedHit.normal.z, actualHit.normal.z, 1e-2f);
+            }
+        }
+        Assert.assertTrue(hits > 1000);
+    }
+
+    @Test
+    public void sphereMovedRotatedAndScaled() {
+        SimpleMaterial material = new SimpleMaterial(Color.WHITE);
+        Shape sphere = new Sphere(new Vector3(3, 1, -2), 2, material);
+        Shape instance = new Instance(new Sphere(new Vector3(), 1, material),
+                AffineTransform.scale(2, 2, 2).then(AffineTransform.rotationY(0.7f))
+                        .then(AffineTransform.translation(3, 1, -2)), null);
+        assertSameShape(sphere, instance, true);
+    }
+
+    @Test
+    public void boxStretched() {
+        SimpleMaterial material = new SimpleMaterial(Color.WHITE);
+        Shape box = new Box(new Vector3(2, -1, -3), new Vector3(4, 3, -1.5f), material);
+        Shape instance = new Instance(new Box(new Vector3(-1, -1, -1), new Vector3(1, 1, 1), material),
+                AffineTransform.scale(1, 2, 0.75f).then(AffineTransform.translation(3, 1, -2.25f)), null);
+        // near its edges, the box rounds its normal to a diagonal that does not stretch along with it
+        assertSameShape(box, instance, false);
+
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+        Assert.assertTrue(instance.getBounds(min, max));
+        Assert.assertEquals(2, min.x, 1e-3f);
+        Assert.assertEquals(3, max.y, 1e-3f);
+        Assert.assertEquals(-1.5f, max.z, 1e-3f);
+    }
+
+    @Test
+    public void boxMirroredAndStretched() {
+        SimpleMaterial material = new SimpleMaterial(Color.WHITE);
+        Shape box = new Box(new Vector3(1, 0, -2.5f), new Vector3(5, 2, -1.5f), material);
+        Shape instance = new Instance(new Box(new Vector3(-1, -1, -1), new Vector3(1, 1, 1), material),
+                AffineTransform.scale(-2, 1, -0.5f).then(AffineTransform.translation(3, 1, -2)), null);
+        assertSameShape(box, instance, false);
+
+        // the bounds come out in the right order, even though the corners of the shape swap places
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+        Assert.assertTrue(instance.getBounds(min, max));
+        Assert.assertEquals(1, min.x, 1e-3f);
+        Assert.assertEquals(5, max.x, 1e-3f);
+        Assert.assertEquals(-2.5f, min.z, 1e-3f);
+        Assert.assertEquals(-1.5f, max.z, 1e-3f);
+    }
+
+    @Test
+    public void mirroredMeshKeepsItsNormalsOnTheSameSide() {
+        // a triangle at z = 5 that faces away from the origin, and its mirror image at z = -5
+        TriangleMesh mesh = new TriangleMesh(new float[] { -1, -1, 5, 4, -1, 5, -1, 4, 5 }, new int[] { 0, 1, 2 },
+                new SimpleMaterial(Color.WHITE));
+        Shape instance = new Instance(mesh, AffineTransform.scale(1, 1, -1), null);
+        TraceContext context = new TraceContext();
+
+        Ray ray = new Ray(0, new Vector3(), new Vector3(0, 0, -1));
+        Hit hit = new Hit();
+        Assert.assertTrue(instance.intersect(context, ray, hit));
+        Assert.assertEquals(5, hit.distance, 0f);
+        instance.computeSurface(ray, hit);
+        // the winding is mirrored along with the triangle, the normal must still face away from the origin
+        Assert.assertEquals(-1, hit.normal.z, 1e-6f);
+        Assert.assertEquals(-5, hit.position.z, 1e-6f);
+
+        Assert.assertFalse(instance.intersect(context, new Ray(0, new Vector3(), Vector3.ZIDENT), new Hit()));
+        Assert.assertTrue(instance.occludes(context, ray, 6));
+        Assert.assertFalse(instance.occludes(context, ray, 4));
+    }
+}
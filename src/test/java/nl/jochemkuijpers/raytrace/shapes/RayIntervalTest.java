@@ -0,0 +1,143 @@
+package nl.jochemkuijpers.raytrace.shapes;
+
+import nl.jochemkuijpers.math.AffineTransform;
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.acceleration.ShapeHierarchy;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Box;
+import nl.jochemkuijpers.raytrace.shapes.with_material.BoxSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Plane;
+import nl.jochemkuijpers.raytrace.shapes.with_material.Sphere;
+import nl.jochemkuijpers.raytrace.shapes.with_material.SphereSet;
+import nl.jochemkuijpers.raytrace.shapes.with_material.TriangleMesh;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Shapes must only see what lies in the distance interval of a ray: a hit exactly at tMin counts, and so does an
+ * occluder exactly at tMin, but a hit exactly at the distance of the closest hit so far, or an occluder exactly at the
+ * maximum occlusion distance, does not.
+ */
+public class RayIntervalTest {
+    private static final Material[] TABLE = { new SimpleMaterial(Color.WHITE) };
+
+    /** Shapes whose first surface lies at exactly z = 5, and the closed ones end at exactly z = 7 */
+    private static Shape[] closedShapes() {
+        return new Shape[] {
+                new Sphere(new Vector3(0, 0, 6), 1, TABLE[0]),
+                new Box(new Vector3(-1, -1, 5), new Vector3(1, 1, 7), TABLE[0]),
+                new SphereSet(new float[] { 0, 0, 6, 1 }, new int[1], TABLE),
+                new BoxSet(new float[] { -1, -1, 5, 1, 1, 7 }, new int[1], TABLE),
+                new ShapeHierarchy(Collections.singletonList(new Sphere(new Vector3(0, 0, 6), 1, TABLE[0])),
+                        new ArrayList<>()),
+                // scaled by a power of two, so the distances convert without rounding
+                new Instance(new Sphere(new Vector3(0, 0, 3), 0.5f, TABLE[0]), AffineTransform.scale(2, 2, 2), null)
+        };
+    }
+
+    private static Shape[] openShapes() {
+        return new Shape[] {
+                new Plane(new Vector3(0, 0, 5), new Vector3(0, 0, -1), TABLE[0]),
+                new TriangleMesh(new float[] { -1, -1, 5, 4, -1, 5, -1, 4, 5 }, new int[] { 0, 1, 2 }, TABLE[0])
+        };
+    }
+
+    private static Shape[] allShapes() {
+        Shape[] closed = closedShapes();
+        Shape[] open = openShapes();
+        Shape[] all = new Shape[closed.length + open.length];
+        System.arraycopy(closed, 0, all, 0, closed.length);
+        System.arraycopy(open, 0, all, closed.length, open.length);
+        return all;
+    }
+
+    private static Ray rayAlongZ(float minDistance) {
+        Ray ray = new Ray(0, new Vector3(), Vector3.ZIDENT);
+        ray.setInterval(minDistance, Float.POSITIVE_INFINITY);
+        return ray;
+    }
+
+    @Test
+    public void hitsExactlyAtTheMinimumDistanceCount() {
+        TraceContext context = new TraceContext();
+        for (Shape shape : allShapes()) {
+            Ray ray = rayAlongZ(5);
+            Hit hit = new Hit();
+            Assert.assertTrue(shape.intersect(context, ray, hit));
+            Assert.assertEquals(5, hit.distance, 0f);
+            Assert.assertTrue(shape.occludes(context, ray, 6));
+            Assert.assertEquals(5, ray.getMinDistance(), 0f);
+        }
+    }
+
+    @Test
+    public void hitsExactlyAtTheMaximumDistanceDoNot() {
+        TraceContext context = new TraceContext();
+        for (Shape shape : allShapes()) {
+            Ray ray = rayAlongZ(0);
+            Hit hit = new Hit();
+            hit.distance = 5;
+            Assert.assertFalse(shape.intersect(context, ray, hit));
+            Assert.assertEquals(5, hit.distance, 0f);
+            Assert.assertFalse(shape.occludes(context, ray, 5));
+
+            hit.distance = Math.nextUp(5f);
+            Assert.assertTrue(shape.intersect(context, ray, hit));
+            Assert.assertEquals(5, hit.distance, 0f);
+            Assert.assertTrue(shape.occludes(context, ray, Math.nextUp(5f)));
+        }
+    }
+
+    @Test
+    public void intervalsThatStartPastTheSurfaceSeeTheFarSide() {
+        TraceContext context = new TraceContext();
+        for (Shape shape : closedShapes()) {
+            Ray ray = rayAlongZ(Math.nextUp(5f));
+            Hit hit = new Hit();
+            Assert.assertTrue(shape.intersect(context, ray, hit));
+            Assert.assertEquals(7, hit.distance, 0f);
+            Assert.assertFalse(shape.occludes(context, ray, 7));
+
+            ray.setInterval(Math.nextUp(7f), Float.POSITIVE_INFINITY);
+            Assert.assertFalse(shape.intersect(context, ray, new Hit()));
+        }
+        for (Shape shape : openShapes()) {
+            Ray ray = rayAlongZ(Math.nextUp(5f));
+            Assert.assertFalse(shape.intersect(context, ray, new Hit()));
+            Assert.assertFalse(shape.occludes(context, ray, 10));
+        }
+    }
+
+    @Test
+    public void stretchedInstancesConvertTheirInterval() {
+        // a unit sphere stretched, turned and moved to z = 10. The ray passes through its center, so it leaves the
+        // sphere as far beyond the center as it enters before it.
+        Shape instance = new Instance(new Sphere(new Vector3(), 1, TABLE[0]),
+                AffineTransform.scale(2, 1, 3).then(AffineTransform.rotationY(0.7f))
+                        .then(AffineTransform.translation(0, 0, 10)), null);
+        TraceContext context = new TraceContext();
+
+        Ray ray = rayAlongZ(0);
+        Hit hit = new Hit();
+        Assert.assertTrue(instance.intersect(context, ray, hit));
+        float front = hit.distance;
+        Assert.assertTrue(front > 7 && front < 9);
+
+        ray.setInterval(front + 1, Float.POSITIVE_INFINITY);
+        hit = new Hit();
+        Assert.assertTrue(instance.intersect(context, ray, hit));
+        Assert.assertEquals(20 - front, hit.distance, 1e-4f);
+        Assert.assertEquals(front + 1, ray.getMinDistance(), 0f);
+
+        Assert.assertTrue(instance.occludes(context, ray, 20 - front + 1e-3f));
+        Assert.assertFalse(instance.occludes(context, ray, 20 - front - 1e-3f));
+    }
+}
@@ -0,0 +1,107 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.Material;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import nl.jochemkuijpers.raytrace.shapes.Shape;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrimitiveSetTest {
+    private static final Material[] TABLE = { new SimpleMaterial(Color.WHITE) };
+
+    private static Ray ray(float x, float y, float z, Vector3 heading) {
+        Vector3 normalized = new Vector3();
+        Vector3.normalize(heading, normalized);
+        return new Ray(0, new Vector3(x, y, z), normalized);
+    }
+
+    /** Rays that start inside, graze or touch the unit shapes around the origin */
+    private static Ray[] edgeCases() {
+        return new Ray[] {
+                // from the center, and from a point on the surface, on the way out
+                ray(0, 0, 0, Vector3.ZIDENT),
+                ray(0.5f, 0.25f, 0, new Vector3(1, 2, 3)),
+                ray(0, 0, 1, Vector3.ZIDENT),
+                // from the outside, straight on and through a corner of the box
+                ray(0, 0, -3, Vector3.ZIDENT),
+                ray(-3, -3, -3, new Vector3(1, 1, 1)),
+                // in the plane of a face of the box, which touches the sphere, and along an edge of the box
+                ray(0, 1, -3, Vector3.ZIDENT),
+                ray(1, 1, -3, Vector3.ZIDENT),
+                // just past the shapes
+                ray(0, 1.001f, -3, Vector3.ZIDENT)
+        };
+    }
+
+    /** Every ray must hit the set where it hits the single shape, with the same normal */
+    private static void assertSameHits(PrimitiveSet set, Shape shape) {
+        TraceContext context = new TraceContext();
+        for (Ray ray : edgeCases()) {
+            Hit expected = new Hit();
+            Hit actual = new Hit();
+            boolean hit = shape.intersect(context, ray, expected);
+            Assert.assertEquals(hit, set.intersect(context, ray, actual));
+            Assert.assertEquals(expected.distance, actual.distance, 0f);
+            if (hit) {
+                shape.computeSurface(ray, expected);
+                set.computeSurface(ray, actual);
+                Assert.assertEquals(expected.normal.x, actual.normal.x, 0f);
+                Assert.assertEquals(expected.normal.y, actual.normal.y, 0f);
+                Assert.assertEquals(expected.normal.z, actual.normal.z, 0f);
+            }
+            for (float maxDistance : new float[] { 0.5f, 1, 1.5f, 2.5f, 10 }) {
+                Assert.assertEquals(shape.occludes(context, ray, maxDistance),
+                        set.occludes(context, ray, maxDistance));
+            }
+        }
+    }
+
+    @Test
+    public void sphereSetMatchesASphere() {
+        SphereSet set = new SphereSet(new float[] { 0, 0, 0, 1 }, new int[1], TABLE);
+        assertSameHits(set, new Sphere(new Vector3(), 1, TABLE[0]));
+    }
+
+    @Test
+    public void boxSetMatchesABox() {
+        BoxSet set = new BoxSet(new float[] { -1, -1, -1, 1, 1, 1 }, new int[1], TABLE);
+        assertSameHits(set, new Box(new Vector3(-1, -1, -1), new Vector3(1, 1, 1), TABLE[0]));
+    }
+
+    @Test
+    public void raysFromInsideHitTheWayOut() {
+        // two nested spheres and two nested boxes, the rays start in the middle of them
+        SphereSet spheres = new SphereSet(new float[] { 0, 0, 5, 1, 0, 0, 5, 3 }, new int[2], TABLE);
+        BoxSet boxes = new BoxSet(new float[] { -1, -1, 4, 1, 1, 6, -3, -3, 2, 3, 3, 8 }, new int[2], TABLE);
+        TraceContext context = new TraceContext();
+
+        for (PrimitiveSet set : new PrimitiveSet[] { spheres, boxes }) {
+            Ray ray = ray(0, 0, 5, Vector3.ZIDENT);
+            Hit hit = new Hit();
+            Assert.assertTrue(set.intersect(context, ray, hit));
+            Assert.assertEquals(1, hit.distance, 1e-6f);
+            set.computeSurface(ray, hit);
+            // the sphere normalizes its normal approximately
+            Assert.assertEquals(1, hit.normal.z, 1e-2f);
+
+            // beyond the inner shape, the outer one is left
+            ray.setInterval(1.5f, Float.POSITIVE_INFINITY);
+            hit = new Hit();
+            Assert.assertTrue(set.intersect(context, ray, hit));
+            Assert.assertEquals(3, hit.distance, 1e-6f);
+
+            Assert.assertTrue(set.occludes(context, ray, 4));
+            Assert.assertFalse(set.occludes(context, ray, 2.5f));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaterialsOutsideTheTable() {
+        new SphereSet(new float[] { 0, 0, 0, 1 }, new int[] { 1 }, TABLE);
+    }
+}
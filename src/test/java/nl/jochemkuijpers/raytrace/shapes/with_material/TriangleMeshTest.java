@@ -0,0 +1,133 @@
+package nl.jochemkuijpers.raytrace.shapes.with_material;
+
+import nl.jochemkuijpers.math.Color;
+import nl.jochemkuijpers.math.Vector3;
+import nl.jochemkuijpers.raytrace.Hit;
+import nl.jochemkuijpers.raytrace.Ray;
+import nl.jochemkuijpers.raytrace.TraceContext;
+import nl.jochemkuijpers.raytrace.materials.SimpleMaterial;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TriangleMeshTest {
+    private static final SimpleMaterial MATERIAL = new SimpleMaterial(Color.WHITE);
+    private static final int GRID = 16;
+
+    /** A square of GRID by GRID units at z = 5, every unit cut into two triangles along its diagonal */
+    private static TriangleMesh grid() {
+        float[] vertices = new float[3 * (GRID + 1) * (GRID + 1)];
+        for (int y = 0; y <= GRID; y++) {
+            for (int x = 0; x <= GRID; x++) {
+                int vertex = y * (GRID + 1) + x;
+                vertices[3 * vertex] = x;
+                vertices[3 * vertex + 1] = y;
+                vertices[3 * vertex + 2] = 5;
+            }
+        }
+        int[] indices = new int[6 * GRID * GRID];
+        int i = 0;
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                int corner = y * (GRID + 1) + x;
+                int[] cell = { corner, corner + 1, corner + GRID + 2, corner, corner + GRID + 2, corner + GRID + 1 };
+                System.arraycopy(cell, 0, indices, i, 6);
+                i += 6;
+            }
+        }
+        return new TriangleMesh(vertices, indices, MATERIAL);
+    }
+
+    private static Ray rayAlongZ(float x, float y) {
+        return new Ray(0, new Vector3(x, y, 0), Vector3.ZIDENT);
+    }
+
+    @Test
+    public void raysThroughSharedEdgesAndVerticesHit() {
+        TriangleMesh mesh = grid();
+        Assert.assertEquals(2 * GRID * GRID, mesh.getTriangleCount());
+        TraceContext context = new TraceContext();
+
+        // every vertex, the middle of every edge and the middle of every diagonal, so no ray slips between triangles
+        for (int y = 0; y <= 2 * GRID; y++) {
+            for (int x = 0; x <= 2 * GRID; x++) {
+                Ray ray = rayAlongZ(0.5f * x, 0.5f * y);
+                Hit hit = new Hit();
+                Assert.assertTrue(mesh.intersect(context, ray, hit));
+                Assert.assertEquals(5, hit.distance, 0f);
+                mesh.computeSurface(ray, hit);
+                // the normal follows the winding, which faces away from these rays
+                Assert.assertEquals(1, hit.normal.z, 0f);
+
+                Assert.assertTrue(mesh.occludes(context, ray, 6));
+                Assert.assertFalse(mesh.occludes(context, ray, 5));
+            }
+        }
+    }
+
+    @Test
+    public void raysJustOutsideAnEdgeMiss() {
+        TriangleMesh mesh = new TriangleMesh(new float[] { 0, 0, 5, 4, 0, 5, 0, 4, 5 }, new int[] { 0, 1, 2 },
+                MATERIAL);
+        TraceContext context = new TraceContext();
+
+        Assert.assertTrue(mesh.intersect(context, rayAlongZ(2, 0), new Hit()));
+        Assert.assertFalse(mesh.intersect(context, rayAlongZ(2, -1e-4f), new Hit()));
+        Assert.assertTrue(mesh.intersect(context, rayAlongZ(2, 2), new Hit()));
+        Assert.assertFalse(mesh.intersect(context, rayAlongZ(2.0001f, 2), new Hit()));
+        Assert.assertTrue(mesh.intersect(context, rayAlongZ(0, 4), new Hit()));
+        Assert.assertFalse(mesh.occludes(context, rayAlongZ(-1e-4f, 4), 10));
+    }
+
+    @Test
+    public void raysInThePlaneOfATriangleMiss() {
+        TriangleMesh mesh = new TriangleMesh(new float[] { 0, 0, 5, 4, 0, 5, 0, 4, 5 }, new int[] { 0, 1, 2 },
+                MATERIAL);
+        TraceContext context = new TraceContext();
+
+        // along the plane, straight over the triangle and along one of its edges
+        Ray across = new Ray(0, new Vector3(-1, 1, 5), Vector3.XIDENT);
+        Ray alongEdge = new Ray(0, new Vector3(-1, 0, 5), Vector3.XIDENT);
+        for (Ray ray : new Ray[] { across, alongEdge }) {
+            Hit hit = new Hit();
+            Assert.assertFalse(mesh.intersect(context, ray, hit));
+            Assert.assertFalse(hit.isHit());
+            Assert.assertFalse(mesh.occludes(context, ray, 10));
+        }
+    }
+
+    @Test
+    public void degenerateTrianglesAreNeverHit() {
+        float[] vertices = {
+                // three points on a line, and a triangle that repeats a vertex, both at z = 3
+                0, 0, 3, 1, 1, 3, 2, 2, 3,
+                0, 2, 3, 2, 0, 3,
+                // a regular triangle behind them
+                -1, -1, 5, 4, -1, 5, -1, 4, 5
+        };
+        TriangleMesh mesh = new TriangleMesh(vertices, new int[] { 0, 1, 2, 3, 4, 4, 5, 6, 7 }, MATERIAL);
+        TraceContext context = new TraceContext();
+
+        for (Ray ray : new Ray[] { rayAlongZ(1, 1), rayAlongZ(2, 0), rayAlongZ(0.5f, 1.5f) }) {
+            Hit hit = new Hit();
+            Assert.assertTrue(mesh.intersect(context, ray, hit));
+            Assert.assertEquals(5, hit.distance, 0f);
+            mesh.computeSurface(ray, hit);
+            Assert.assertFalse(Float.isNaN(hit.normal.z));
+            Assert.assertFalse(mesh.occludes(context, ray, 4));
+        }
+
+        // a mesh of nothing but degenerate triangles still has bounds, but nothing to hit
+        TriangleMesh flat = new TriangleMesh(vertices, new int[] { 0, 1, 2, 3, 4, 4 }, MATERIAL);
+        Vector3 min = new Vector3();
+        Vector3 max = new Vector3();
+        Assert.assertTrue(flat.getBounds(min, max));
+        Assert.assertEquals(3, max.z, 0f);
+        Assert.assertFalse(flat.intersect(context, rayAlongZ(1, 1), new Hit()));
+        Assert.assertFalse(flat.occludes(context, rayAlongZ(2, 0), 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIndicesOutsideTheVertices() {
+        new TriangleMesh(new float[9], new int[] { 0, 1, 3 }, new SimpleMaterial(Color.WHITE));
+    }
+}
@@ -0,0 +1,186 @@
+package nl.jochemkuijpers.workerpool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class WorkStealingPoolTest {
+
+    @Test(timeout = 10000)
+    public void everyJobRunsExactlyOnce() throws InterruptedException {
+        WorkStealingPool pool = new WorkStealingPool(4);
+        int count = 10000;
+        AtomicIntegerArray runs = new AtomicIntegerArray(count);
+        CountDownLatch done = new CountDownLatch(count);
+
+        List<Runnable> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int job = i;
+            Runnable runnable = () -> {
+                runs.incrementAndGet(job);
+                done.countDown();
+            };
+
+            // mix single submits and batches
+            if (i % 3 == 0) {
+                pool.submit(runnable);
+            } else {
+                batch.add(runnable);
+                if (batch.size() == 64) {
+                    pool.submitAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+        pool.submitAll(batch);
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(1, runs.get(i));
+        }
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void idleWorkersWakeUpForNewWork() throws InterruptedException {
+        WorkStealingPool pool = new WorkStealingPool(2);
+        for (int round = 0; round < 100; round++) {
+            // give the workers time to park before every submit
+            Thread.sleep(1);
+            CountDownLatch done = new CountDownLatch(1);
+            pool.submit(done::countDown);
+            Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        }
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void aBatchWakesAWorkerForEveryJob() throws Exception {
+        int threads = 4;
+        WorkStealingPool pool = new WorkStealingPool(threads);
+        for (int round = 0; round < 200; round++) {
+            // every job waits for all the others, so it only finishes if every worker was woken for it
+            Thread.sleep(1);
+            CyclicBarrier together = new CyclicBarrier(threads);
+            CountDownLatch done = new CountDownLatch(threads);
+            List<Runnable> batch = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                batch.add(() -> {
+                    try {
+                        together.await(1, TimeUnit.SECONDS);
+                        done.countDown();
+                    } catch (Exception ignored) {}
+                });
+            }
+            pool.submitAll(batch);
+            Assert.assertTrue(done.await(2, TimeUnit.SECONDS));
+        }
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void clearedJobsDoNotRun() throws InterruptedException {
+        WorkStealingPool pool = new WorkStealingPool(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        pool.submit(() -> {
+            started.countDown();
+            try {
+                blocking.await();
+            } catch (InterruptedException ignored) {}
+        });
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        AtomicIntegerArray runs = new AtomicIntegerArray(1);
+        for (int i = 0; i < 10; i++) {
+            pool.submit(() -> runs.incrementAndGet(0));
+        }
+        Assert.assertTrue(pool.hasWork());
+        pool.clearPendingJobs();
+        Assert.assertFalse(pool.hasWork());
+
+        blocking.countDown();
+        CountDownLatch after = new CountDownLatch(1);
+        pool.submit(after::countDown);
+        Assert.assertTrue(after.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, runs.get(0));
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void lowerLevelsRunFirstAcrossWorkers() throws InterruptedException {
+        WorkStealingPool pool = new WorkStealingPool(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch releaseOne = new CountDownLatch(1);
+        CountDownLatch releaseOther = new CountDownLatch(1);
+        for (CountDownLatch release : new CountDownLatch[] { releaseOne, releaseOther }) {
+            pool.submit(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {}
+            });
+        }
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        // the jobs are dealt out over both workers, but a single worker must still run them level by level
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        int[] levels = { 3, 1, 2, 0, 3, 1, 0, 2, 1, 0, 3, 2 };
+        CountDownLatch done = new CountDownLatch(levels.length);
+        for (int level : levels) {
+            pool.submit(() -> {
+                order.add(level);
+                done.countDown();
+            }, level);
+        }
+        releaseOne.countDown();
+
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < levels.length; i++) {
+            Assert.assertEquals(i / 3, (int) order.get(i));
+        }
+        releaseOther.countDown();
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void laterLevelsKeepTheOrderTheyWereSubmittedIn() throws InterruptedException {
+        WorkStealingPool pool = new WorkStealingPool(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(8);
+
+        // hold the worker until every tile is queued, so no successor can overtake a tile that is still unsubmitted
+        CountDownLatch release = new CountDownLatch(1);
+        pool.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+        }, 0);
+
+        // like the passes of tiles: each job submits its successor at the next level when it is done
+        for (int i = 0; i < 4; i++) {
+            final int tile = i;
+            pool.submit(() -> {
+                order.add(tile);
+                done.countDown();
+                pool.submit(() -> {
+                    order.add(4 + tile);
+                    done.countDown();
+                }, 1);
+            }, 0);
+        }
+        release.countDown();
+
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), order);
+        pool.shutdownNow();
+    }
+}